@@ -1,18 +1,52 @@
+import struct
 import sys
 
+# binary histories of GenerateHistory, see ticketingsystem/HistoryFormat.java
+MAGIC = 0x5449434b48495354
+HEADER = struct.Struct('>qq')
+RECORD = struct.Struct('>qqqiiihhhhbbxx')
+OPERATIONS = ['refundTicket', 'buyTicket', 'inquiry']
+
+
+def binary_lines(f):
+	data = f.read()
+	_, dictionary = HEADER.unpack_from(data, 0)
+	names = []
+	count, = struct.unpack_from('>i', data, dictionary)
+	offset = dictionary + 4
+	for _ in range(count):
+		length, = struct.unpack_from('>h', data, offset)
+		names.append(data[offset + 2:offset + 2 + length].decode('utf-8'))
+		offset += 2 + length
+	for (pretime, posttime, tid, threadid, passenger, seat, route, coach, departure, arrival, operation,
+			res) in RECORD.iter_unpack(data[HEADER.size:dictionary]):
+		yield ' '.join(map(str, [pretime, posttime, threadid, OPERATIONS[operation], tid, names[passenger],
+			route, coach, departure, arrival, seat, 'true' if res else 'false'])) + '\n'
+
+
+def history_lines(filepath):
+	with open(filepath, 'rb') as f:
+		head = f.read(8)
+		f.seek(0)
+		if len(head) == 8 and struct.unpack('>q', head)[0] == MAGIC:
+			yield from binary_lines(f)
+		else:
+			for line in f:
+				yield line.decode('utf-8')
+
+
 filepath = sys.argv[1]
 outputpath = sys.argv[2]
 filter_route = sys.argv[3]
 fo = open(outputpath, 'w')
 
 last_inquiry = ''
-with open(filepath, 'r') as f:
-	for line in f.readlines():
-		history = line.split()
-		if history[6] == filter_route:
-			if history[3] == 'inquiry':
-				last_inquiry = line
-			else:
-				fo.write(line)
+for line in history_lines(filepath):
+	history = line.split()
+	if history[6] == filter_route:
+		if history[3] == 'inquiry':
+			last_inquiry = line
+		else:
+			fo.write(line)
 fo.write(last_inquiry)
 fo.close()
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Builds and runs the JMH benchmarks in jmh/ticketingsystem. JMH is not part
+# of the repository: put jmh-core, jmh-generator-annprocess, jopt-simple and
+# commons-math3 jars into jmh-lib first. Arguments go to JMH, e.g.
+#   ./jmh.sh TicketingDSBenchmark.mixed -t 64 -p config=50/20/100/30
+#   ./jmh.sh SeatAllocatorBenchmark -p prefill=90 -prof gc
+
+CP=$(ls jmh-lib/*.jar test-lib/*.jar | tr '\n' ':')
+rm -rf jmh-out && mkdir jmh-out
+javac -encoding UTF-8 -cp "$CP" -d jmh-out ticketingsystem/*.java jmh/ticketingsystem/*.java || exit 1
+java -cp "jmh-out:$CP" org.openjdk.jmh.Main "$@"
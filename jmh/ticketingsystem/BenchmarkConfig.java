@@ -0,0 +1,72 @@
+package ticketingsystem;
+
+import java.util.Random;
+
+/**
+ * Parsing of the config parameter of the JMH benchmarks and the requests they
+ * replay, generated up front so that no String or random number is produced
+ * inside a measured method.
+ */
+final class BenchmarkConfig {
+	static final int REQUESTS = 4096;
+
+	final int routenum;
+	final int coachnum;
+	final int seatnum;
+	final int stationnum;
+
+	// routenum/coachnum/seatnum/stationnum as in TrainConfig
+	BenchmarkConfig(String config) {
+		String[] fields = config.split("/");
+		if (fields.length != 4) {
+			throw new IllegalArgumentException("expected routenum/coachnum/seatnum/stationnum: " + config);
+		}
+		routenum = Integer.parseInt(fields[0]);
+		coachnum = Integer.parseInt(fields[1]);
+		seatnum = Integer.parseInt(fields[2]);
+		stationnum = Integer.parseInt(fields[3]);
+	}
+
+	static final class Requests {
+		final int[] routes = new int[REQUESTS];
+		final int[] departures = new int[REQUESTS];
+		final int[] arrivals = new int[REQUESTS];
+		final String[] passengers = new String[REQUESTS];
+		private int next;
+
+		Requests(BenchmarkConfig config, long seed) {
+			Random rand = new Random(seed);
+			for (int i = 0; i < REQUESTS; ++i) {
+				routes[i] = rand.nextInt(config.routenum) + 1;
+				departures[i] = rand.nextInt(config.stationnum - 1) + 1;
+				arrivals[i] = departures[i] + rand.nextInt(config.stationnum - departures[i]) + 1;
+				passengers[i] = "passenger" + i;
+			}
+		}
+
+		int next() {
+			return next++ & (REQUESTS - 1);
+		}
+	}
+
+	/**
+	 * Sells random tickets until prefill percent of all seat-stations of the
+	 * data structure are taken, or buys keep failing.
+	 */
+	void prefill(TicketingSystem ds, int prefill, long seed) {
+		final long target = (long) routenum * coachnum * seatnum * (stationnum - 1) * prefill / 100;
+		final Random rand = new Random(seed);
+		long sold = 0;
+		for (int failures = 0; sold < target && failures < 1000;) {
+			int route = rand.nextInt(routenum) + 1;
+			int departure = rand.nextInt(stationnum - 1) + 1;
+			int arrival = departure + rand.nextInt(Math.min(stationnum - departure, 4)) + 1;
+			if (ds.buyTicket("prefill", route, departure, arrival) != null) {
+				sold += arrival - departure;
+				failures = 0;
+			} else {
+				++failures;
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package ticketingsystem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * One route's engine without TicketingDS around it, so that a regression in
+ * allocCoachSeatWithRange or queryCoachSeatNum is not hidden behind ticket
+ * creation and the sold ticket registry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeatAllocatorBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Route {
+		// coachnum/seatnum/stationnum of the route
+		@Param({ "20/100/30", "8/100/10" })
+		public String config;
+
+		@Param({ "0", "50", "90" })
+		public int prefill;
+
+		@Param({ SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+				SeatAllocator.OFFHEAP })
+		public String allocator;
+
+		BenchmarkConfig parsed;
+		SeatAllocator engine;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			parsed = new BenchmarkConfig("1/" + config);
+			engine = SeatAllocator.create(allocator, parsed.coachnum, parsed.seatnum, parsed.stationnum);
+			final long target = (long) parsed.coachnum * parsed.seatnum * (parsed.stationnum - 1) * prefill / 100;
+			final Random rand = new Random(20221027L);
+			long sold = 0;
+			for (int failures = 0; sold < target && failures < 1000;) {
+				int departure = rand.nextInt(parsed.stationnum - 1) + 1;
+				int arrival = departure + rand.nextInt(Math.min(parsed.stationnum - departure, 4)) + 1;
+				if (engine.allocateCoachSeat(departure, arrival) >= 0) {
+					sold += arrival - departure;
+					failures = 0;
+				} else {
+					++failures;
+				}
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Ranges {
+		BenchmarkConfig.Requests requests;
+
+		@Setup(Level.Trial)
+		public void setUp(Route route, ThreadParams thread) {
+			requests = new BenchmarkConfig.Requests(route.parsed, 31L * thread.getThreadIndex() + 7);
+		}
+	}
+
+	// sells a seat and gives it back, the route stays at its prefill level
+	@Benchmark
+	public int allocateAndFree(Route route, Ranges ranges) {
+		BenchmarkConfig.Requests r = ranges.requests;
+		int i = r.next();
+		int seatIndex = route.engine.allocateCoachSeat(r.departures[i], r.arrivals[i]);
+		if (seatIndex >= 0) {
+			route.engine.freeCoachSeat(seatIndex, r.departures[i], r.arrivals[i]);
+		}
+		return seatIndex;
+	}
+
+	@Benchmark
+	public int queryCoachSeatNum(Route route, Ranges ranges) {
+		BenchmarkConfig.Requests r = ranges.requests;
+		int i = r.next();
+		return route.engine.queryCoachSeatNum(r.departures[i], r.arrivals[i]);
+	}
+}
@@ -0,0 +1,193 @@
+package ticketingsystem;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Hot paths of TicketingDS under JMH. Thread counts are swept from the
+ * command line, e.g. ./jmh.sh TicketingDSBenchmark -t 1 and -t 64.
+ * Requests and passenger names are generated in setup, so the measured
+ * methods only create the Ticket a buy returns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicketingDSBenchmark {
+	// buys and refunds of one iteration of a single-shot benchmark
+	static final int BATCH = 1 << 14;
+	static final int MAX_THREADS = 64;
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+		// routenum/coachnum/seatnum/stationnum
+		@Param({ "50/20/100/30", "5/8/100/10" })
+		public String config;
+
+		// percent of all seat-stations sold before measuring
+		@Param({ "0", "50", "90" })
+		public int prefill;
+
+		@Param({ SeatAllocator.CELL, SeatAllocator.BITMAP })
+		public String allocator;
+
+		BenchmarkConfig parsed;
+		TicketingDS ds;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			parsed = new BenchmarkConfig(config);
+			ds = new TicketingDS(parsed.routenum, parsed.coachnum, parsed.seatnum, parsed.stationnum,
+					MAX_THREADS, allocator);
+			parsed.prefill(ds, prefill, 20221027L);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Requests {
+		BenchmarkConfig.Requests requests;
+		// bought by this thread during the iteration, refunded after it
+		final ArrayList<Ticket> held = new ArrayList<>(BATCH);
+		Ticket[] toRefund;
+		int refunded;
+
+		@Setup(Level.Trial)
+		public void setUp(Shared system, ThreadParams thread) {
+			requests = new BenchmarkConfig.Requests(system.parsed, 31L * thread.getThreadIndex() + 7);
+		}
+
+		@TearDown(Level.Iteration)
+		public void refundHeld(Shared system) {
+			for (Ticket ticket : held) {
+				system.ds.refundTicket(ticket);
+			}
+			held.clear();
+		}
+
+		Ticket buy(TicketingDS ds, int i) {
+			Ticket ticket = ds.buyTicket(requests.passengers[i], requests.routes[i], requests.departures[i],
+					requests.arrivals[i]);
+			if (ticket != null) {
+				held.add(ticket);
+			}
+			return ticket;
+		}
+	}
+
+	// tickets for refundTicket to return, bought before each iteration
+	@State(Scope.Thread)
+	public static class Sold {
+		Ticket[] tickets = new Ticket[BATCH];
+		int count;
+		int next;
+
+		@Setup(Level.Iteration)
+		public void buy(Shared system, Requests requests) {
+			count = 0;
+			next = 0;
+			BenchmarkConfig.Requests r = requests.requests;
+			for (int attempts = 0; count < BATCH && attempts < 4 * BATCH; ++attempts) {
+				int i = r.next();
+				// one-station tickets so that a prefilled route still has seats
+				Ticket ticket = system.ds.buyTicket(r.passengers[i], r.routes[i], r.departures[i],
+						r.departures[i] + 1);
+				if (ticket != null) {
+					tickets[count++] = ticket;
+				}
+			}
+		}
+
+		@TearDown(Level.Iteration)
+		public void refundRest(Shared system) {
+			for (; next < count; ++next) {
+				system.ds.refundTicket(tickets[next]);
+			}
+		}
+	}
+
+	@Benchmark
+	public int inquiry(Shared system, Requests requests) {
+		BenchmarkConfig.Requests r = requests.requests;
+		int i = r.next();
+		return system.ds.inquiry(r.routes[i], r.departures[i], r.arrivals[i]);
+	}
+
+	// the availability matrix of a route through one inquiry per range, the baseline of inquiryAll
+	@Benchmark
+	public int[][] inquiryMatrix(Shared system, Requests requests) {
+		BenchmarkConfig.Requests r = requests.requests;
+		final int route = r.routes[r.next()];
+		final int stationnum = system.parsed.stationnum;
+		final int[][] counts = new int[stationnum + 1][stationnum + 1];
+		for (int departure = 1; departure < stationnum; ++departure) {
+			for (int arrival = departure + 1; arrival <= stationnum; ++arrival) {
+				counts[departure][arrival] = system.ds.inquiry(route, departure, arrival);
+			}
+		}
+		return counts;
+	}
+
+	@Benchmark
+	public int[][] inquiryAll(Shared system, Requests requests) {
+		BenchmarkConfig.Requests r = requests.requests;
+		return system.ds.inquiryAll(r.routes[r.next()]);
+	}
+
+	/**
+	 * Each call is one buy, refunded only after the iteration; single shot
+	 * with a fixed batch so that the route does not sell out while measured.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5, batchSize = BATCH)
+	@Measurement(iterations = 10, batchSize = BATCH)
+	public Ticket buyTicket(Shared system, Requests requests) {
+		return requests.buy(system.ds, requests.requests.next());
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 5, batchSize = BATCH)
+	@Measurement(iterations = 10, batchSize = BATCH)
+	public boolean refundTicket(Shared system, Sold sold) {
+		return sold.next < sold.count && system.ds.refundTicket(sold.tickets[sold.next++]);
+	}
+
+	/**
+	 * The 30% buy, 10% refund, 60% inquiry load of Test; a thread refunds
+	 * the last ticket it bought, the rest go back after the iteration.
+	 */
+	@Benchmark
+	public int mixed(Shared system, Requests requests) {
+		BenchmarkConfig.Requests r = requests.requests;
+		int i = r.next();
+		int op = i % 10;
+		if (op < 3) {
+			return requests.buy(system.ds, i) != null ? 1 : 0;
+		}
+		if (op < 4) {
+			ArrayList<Ticket> held = requests.held;
+			if (held.isEmpty()) {
+				return 0;
+			}
+			return system.ds.refundTicket(held.remove(held.size() - 1)) ? 1 : 0;
+		}
+		return system.ds.inquiry(r.routes[i], r.departures[i], r.arrivals[i]);
+	}
+}
@@ -0,0 +1,246 @@
+package ticketingsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Per-seat CAS engine: a seat is sold by setting the bits of its range in
+ * its occupancy words. A seat of one word is claimed with a single CAS, a
+ * longer one under its seat lock, so a claim never rolls back. A buy that
+ * finds no seat only fails if no refund ran while it scanned, otherwise it
+ * scans again, so buy and refund are linearizable on any route. A group
+ * locks its seats and claims all of them or none. Inquiry counts the seats
+ * one by one and only trusts a count during which no claim or refund ran,
+ * claims announce themselves around their CAS the way refunds do, and after
+ * a few tries it holds new ones off behind inquiryLock; the same holds for
+ * the matrix of all ranges.
+ */
+class BitmapSeatAllocator implements SeatAllocator {
+	// refunds started in the high half, refunds still clearing bits in the low half,
+	// claims are counted the same way
+	private static final long RELEASE_STARTED = 1L << 32;
+	private static final long RELEASE_RUNNING = 1L;
+	// optimistic counts an inquiry takes before it holds changes off
+	private static final int OPTIMISTIC_READS = 4;
+
+	private final int seatnum;
+	private final int seatCount;
+	private final SeatOccupancy gapLocks;
+	private final ContentionCounters contention;
+	private final AtomicLong releases = new AtomicLong();
+	private final AtomicLong claims = new AtomicLong();
+	// write-locked by an inquiry that kept seeing changes, new changes wait for it
+	private final StampedLock inquiryLock = new StampedLock();
+
+	BitmapSeatAllocator(int coachnum, int seatnum, int stationnum) {
+		this(coachnum, seatnum, stationnum, null);
+	}
+
+	BitmapSeatAllocator(int coachnum, int seatnum, int stationnum, ContentionCounters contention) {
+		this.seatnum = seatnum;
+		this.seatCount = coachnum * seatnum;
+		this.gapLocks = new SeatOccupancy(seatCount, stationnum, contention);
+		this.contention = contention;
+	}
+
+	// a refund in flight before the scan, or one started during it, may have freed a seat it passed
+	private boolean releasedDuring(long before) {
+		if ((before & (RELEASE_STARTED - 1)) == 0 && releases.get() == before) {
+			return false;
+		}
+		if (ContentionCounters.ENABLED && contention != null) {
+			contention.increment(ContentionCounters.BUY_RETRY);
+		}
+		return true;
+	}
+
+	// announce before looking at the lock, the inquiry locks before looking at
+	// the announcements, so one of us sees the other; before any seat lock is
+	// taken, the inquiry waits for the announced changes
+	private void beginChange(AtomicLong changes) {
+		for (;;) {
+			changes.getAndAdd(RELEASE_STARTED + RELEASE_RUNNING);
+			if (!inquiryLock.isWriteLocked()) {
+				return;
+			}
+			changes.getAndAdd(-RELEASE_RUNNING);
+			inquiryLock.unlockRead(inquiryLock.readLock());
+		}
+	}
+
+	private static void endChange(AtomicLong changes) {
+		changes.getAndAdd(-RELEASE_RUNNING);
+	}
+
+	// no claim or refund ran while the seats were counted
+	private boolean changedDuring(long released, long claimed) {
+		if ((released & (RELEASE_STARTED - 1)) == 0 && (claimed & (RELEASE_STARTED - 1)) == 0
+				&& releases.get() == released && claims.get() == claimed) {
+			return false;
+		}
+		if (ContentionCounters.ENABLED && contention != null) {
+			contention.increment(ContentionCounters.INQUIRY_RETRY);
+		}
+		return true;
+	}
+
+	// holds new changes off and waits out the running ones
+	private long lockChanges() {
+		long wt = inquiryLock.writeLock();
+		while (((releases.get() | claims.get()) & (RELEASE_STARTED - 1)) != 0) {
+			Thread.yield();
+		}
+		return wt;
+	}
+
+	private boolean tryClaim(int seatIndex, int departure, int arrival) {
+		if (!gapLocks.isFree(seatIndex, departure, arrival)) {
+			return false;
+		}
+		beginChange(claims);
+		boolean claimed = gapLocks.tryClaim(seatIndex, departure, arrival);
+		endChange(claims);
+		return claimed;
+	}
+
+	@Override
+	public int allocateCoachSeat(int departure, int arrival) {
+		long before;
+		do {
+			before = releases.get();
+			for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+				if (tryClaim(seatIndex, departure, arrival)) {
+					return seatIndex;
+				}
+			}
+		} while (releasedDuring(before));
+		return -1;
+	}
+
+	/**
+	 * Picks count seats of a coach that look free, locks them in index order
+	 * and claims them only if all are still free, so no seat is ever claimed
+	 * and then released; otherwise unlocks them untouched and picks again.
+	 */
+	@Override
+	public boolean allocateGroup(int departure, int arrival, int[] seatIndices, int count, boolean sameCoach) {
+		final int span = sameCoach ? seatnum : seatCount;
+		if (count > span) {
+			return false;
+		}
+		long before;
+		do {
+			before = releases.get();
+			for (int first = 0; first < seatCount; first += span) {
+				while (pickFree(first, first + span, departure, arrival, seatIndices, count)) {
+					if (claimGroup(departure, arrival, seatIndices, count)) {
+						return true;
+					}
+				}
+			}
+		} while (releasedDuring(before));
+		return false;
+	}
+
+	private boolean pickFree(int from, int to, int departure, int arrival, int[] seatIndices, int count) {
+		int picked = 0;
+		for (int seatIndex = from; seatIndex < to && picked < count; ++seatIndex) {
+			if (gapLocks.isFree(seatIndex, departure, arrival)) {
+				seatIndices[picked++] = seatIndex;
+			}
+		}
+		return picked == count;
+	}
+
+	private boolean claimGroup(int departure, int arrival, int[] seatIndices, int count) {
+		beginChange(claims);
+		for (int k = 0; k < count; ++k) {
+			gapLocks.lockSeat(seatIndices[k]);
+		}
+		boolean free = true;
+		for (int k = 0; k < count && free; ++k) {
+			free = gapLocks.isFree(seatIndices[k], departure, arrival);
+		}
+		for (int k = 0; k < count; ++k) {
+			if (free) {
+				gapLocks.claim(seatIndices[k], departure, arrival);
+			}
+			gapLocks.unlockSeat(seatIndices[k]);
+		}
+		endChange(claims);
+		if (!free && ContentionCounters.ENABLED && contention != null) {
+			contention.increment(ContentionCounters.BUY_RETRY);
+		}
+		return free;
+	}
+
+	@Override
+	public void freeCoachSeat(int seatIndex, int departure, int arrival) {
+		beginChange(releases);
+		gapLocks.release(seatIndex, departure, arrival);
+		endChange(releases);
+	}
+
+	@Override
+	public boolean restoreCoachSeat(int seatIndex, int departure, int arrival) {
+		beginChange(claims);
+		boolean claimed = gapLocks.tryClaim(seatIndex, departure, arrival);
+		endChange(claims);
+		return claimed;
+	}
+
+	@Override
+	public void loadOccupancy(long[] occupancy) {
+		beginChange(claims);
+		gapLocks.load(occupancy);
+		endChange(claims);
+	}
+
+	@Override
+	public int queryCoachSeatNum(int departure, int arrival) {
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; ++attempt) {
+			long released = releases.get();
+			long claimed = claims.get();
+			int sum = countFree(departure, arrival);
+			if (!changedDuring(released, claimed)) {
+				return sum;
+			}
+		}
+		long wt = lockChanges();
+		int sum = countFree(departure, arrival);
+		inquiryLock.unlockWrite(wt);
+		return sum;
+	}
+
+	private int countFree(int departure, int arrival) {
+		int sum = 0;
+		for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+			if (gapLocks.isFree(seatIndex, departure, arrival)) {
+				++sum;
+			}
+		}
+		return sum;
+	}
+
+	// one read of every occupancy word instead of one per seat and range
+	@Override
+	public void queryAllCoachSeatNum(int[][] counts) {
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; ++attempt) {
+			long released = releases.get();
+			long claimed = claims.get();
+			gapLocks.addFreeRuns(seatCount, counts.length - 1, counts);
+			if (!changedDuring(released, claimed)) {
+				SeatOccupancy.sumFreeRuns(counts);
+				return;
+			}
+			for (int[] row : counts) {
+				Arrays.fill(row, 0);
+			}
+		}
+		long wt = lockChanges();
+		gapLocks.addFreeRuns(seatCount, counts.length - 1, counts);
+		inquiryLock.unlockWrite(wt);
+		SeatOccupancy.sumFreeRuns(counts);
+	}
+}
@@ -0,0 +1,202 @@
+package ticketingsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Baseline engine: plain occupancy words, laid out like {@link SeatOccupancy},
+ * behind one StampedLock per route. Buy and refund take the write lock,
+ * inquiry scans under an optimistic read.
+ */
+class CoarseSeatAllocator implements SeatAllocator {
+	private final StampedLock rwlock = new StampedLock();
+	private final int seatnum;
+	private final int seatCount;
+	private final int wordsPerSeat;
+	// [seatIndex * wordsPerSeat + word]
+	private final long[] gapLocks;
+
+	CoarseSeatAllocator(int coachnum, int seatnum, int stationnum) {
+		this.seatnum = seatnum;
+		this.seatCount = coachnum * seatnum;
+		this.wordsPerSeat = SeatOccupancy.wordsPerSeat(stationnum);
+		this.gapLocks = new long[seatCount * wordsPerSeat];
+	}
+
+	private boolean isFree(int seatIndex, int departure, int arrival) {
+		final int base = seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			if ((gapLocks[base + w] & SeatOccupancy.gapMask(w, departure, arrival)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// caller holds the write lock, the scan resumes at from
+	private int claimFreeSeat(int from, int departure, int arrival) {
+		for (int seatIndex = from; seatIndex < seatCount; ++seatIndex) {
+			if (isFree(seatIndex, departure, arrival)) {
+				claim(seatIndex, departure, arrival);
+				return seatIndex;
+			}
+		}
+		return -1;
+	}
+
+	private void claim(int seatIndex, int departure, int arrival) {
+		final int base = seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			gapLocks[base + w] |= SeatOccupancy.gapMask(w, departure, arrival);
+		}
+	}
+
+	@Override
+	public int allocateCoachSeat(int departure, int arrival) {
+		long wt = rwlock.writeLock();
+		try {
+			return claimFreeSeat(0, departure, arrival);
+		} finally {
+			rwlock.unlockWrite(wt);
+		}
+	}
+
+	@Override
+	public int allocateCoachSeats(int departure, int arrival, int[] seatIndices, int count) {
+		long wt = rwlock.writeLock();
+		try {
+			int allocated = 0;
+			int seatIndex = -1;
+			while (allocated < count && (seatIndex = claimFreeSeat(seatIndex + 1, departure, arrival)) >= 0) {
+				seatIndices[allocated++] = seatIndex;
+			}
+			return allocated;
+		} finally {
+			rwlock.unlockWrite(wt);
+		}
+	}
+
+	// nothing is claimed before a coach with enough free seats is found
+	@Override
+	public boolean allocateGroup(int departure, int arrival, int[] seatIndices, int count, boolean sameCoach) {
+		final int span = sameCoach ? seatnum : seatCount;
+		if (count > span) {
+			return false;
+		}
+		long wt = rwlock.writeLock();
+		try {
+			for (int first = 0; first < seatCount; first += span) {
+				int found = 0;
+				for (int seatIndex = first; seatIndex < first + span && found < count; ++seatIndex) {
+					if (isFree(seatIndex, departure, arrival)) {
+						seatIndices[found++] = seatIndex;
+					}
+				}
+				if (found == count) {
+					for (int k = 0; k < count; ++k) {
+						claim(seatIndices[k], departure, arrival);
+					}
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			rwlock.unlockWrite(wt);
+		}
+	}
+
+	@Override
+	public void freeCoachSeat(int seatIndex, int departure, int arrival) {
+		long wt = rwlock.writeLock();
+		final int base = seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			long bitvec = SeatOccupancy.gapMask(w, departure, arrival);
+			assert (gapLocks[base + w] & bitvec) == bitvec;
+			gapLocks[base + w] &= ~bitvec;
+		}
+		rwlock.unlockWrite(wt);
+	}
+
+	@Override
+	public boolean restoreCoachSeat(int seatIndex, int departure, int arrival) {
+		long wt = rwlock.writeLock();
+		try {
+			if (!isFree(seatIndex, departure, arrival)) {
+				return false;
+			}
+			claim(seatIndex, departure, arrival);
+			return true;
+		} finally {
+			rwlock.unlockWrite(wt);
+		}
+	}
+
+	@Override
+	public void loadOccupancy(long[] occupancy) {
+		long wt = rwlock.writeLock();
+		System.arraycopy(occupancy, 0, gapLocks, 0, gapLocks.length);
+		rwlock.unlockWrite(wt);
+	}
+
+	@Override
+	public int queryCoachSeatNum(int departure, int arrival) {
+		long rt = rwlock.tryOptimisticRead();
+		if (rt != 0) {
+			int sum = countFreeSeats(departure, arrival);
+			if (rwlock.validate(rt)) {
+				return sum;
+			}
+		}
+		rt = rwlock.readLock();
+		try {
+			return countFreeSeats(departure, arrival);
+		} finally {
+			rwlock.unlockRead(rt);
+		}
+	}
+
+	@Override
+	public void queryAllCoachSeatNum(int[][] counts) {
+		long rt = rwlock.tryOptimisticRead();
+		if (rt != 0) {
+			countAllFreeSeats(counts);
+			if (rwlock.validate(rt)) {
+				return;
+			}
+			for (int[] row : counts) {
+				Arrays.fill(row, 0);
+			}
+		}
+		rt = rwlock.readLock();
+		try {
+			countAllFreeSeats(counts);
+		} finally {
+			rwlock.unlockRead(rt);
+		}
+	}
+
+	private void countAllFreeSeats(int[][] counts) {
+		final int stationnum = counts.length - 1;
+		for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+			final int base = seatIndex * wordsPerSeat;
+			int start = 1;
+			for (int w = 0; w < wordsPerSeat; ++w) {
+				start = SeatOccupancy.addFreeRuns(gapLocks[base + w], w, start, counts);
+			}
+			if (stationnum > start) {
+				++counts[start][stationnum];
+			}
+		}
+		SeatOccupancy.sumFreeRuns(counts);
+	}
+
+	private int countFreeSeats(int departure, int arrival) {
+		int sum = 0;
+		for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+			if (isFree(seatIndex, departure, arrival)) {
+				++sum;
+			}
+		}
+		return sum;
+	}
+}
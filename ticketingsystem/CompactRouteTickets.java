@@ -0,0 +1,541 @@
+package ticketingsystem;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * The interval cell engine of {@link RouteTickets} packed into one
+ * {@link FlatWords} block per route, on or off the heap. Only the cells
+ * left < right exist and are stored row by row in triangular order, each
+ * one as a lock word, a seat count and the seat bitset. The availability
+ * counters, also triangular, sit in front of the cells behind one seqlock
+ * version word, the occupancy words of the seats after them. Cell locks are
+ * test-and-set spin locks on their words, taken in the order of RouteTickets.
+ * Unlike RouteTickets, every cell's bitset is there from the start, so the
+ * block holds stationnum^2 / 2 full bitsets whatever was sold: with 20x100
+ * seats a route keeps about 135 KB at 30 stations and 580 KB at 64, where
+ * the lazily allocated cells of RouteTickets keep 45 KB and 155 KB after
+ * 4000 random sales. This layout saves objects and pointers, not bytes.
+ */
+final class CompactRouteTickets implements SeatAllocator {
+	private static final int SPINS = 64;
+	// seqlock version of the counters, odd while they are written, alone on its cache line
+	private static final int COUNTER_VERSION = 0;
+	private static final int COUNTERS = 8;
+	// word offsets inside a cell
+	private static final int CELL_LOCK = 0;
+	private static final int CELL_COUNT = 1;
+	private static final int CELL_SEATS = 2;
+
+	private final int coachnum;
+	private final int seatnum;
+	private final int stationnum;
+	private final int seatWords;
+	private final int cellWords;
+	private final int cells;
+	private final int wordsPerSeat;
+	private final int occupancy;
+	private final FlatWords words;
+
+	CompactRouteTickets(int coachnum, int seatnum, int stationnum, boolean offHeap) {
+		this.coachnum = coachnum;
+		this.seatnum = seatnum;
+		this.stationnum = stationnum;
+		final int seatCount = coachnum * seatnum;
+		final int cellCount = stationnum * (stationnum - 1) / 2;
+		this.seatWords = (seatCount + 63) >>> 6;
+		this.cellWords = CELL_SEATS + seatWords;
+		this.cells = (COUNTERS + cellCount + 7) & ~7;
+		this.wordsPerSeat = SeatOccupancy.wordsPerSeat(stationnum);
+		this.occupancy = cells + cellCount * cellWords;
+		this.words = FlatWords.allocate(occupancy + seatCount * wordsPerSeat, offHeap);
+
+		for (int i = 0; i < cellCount; ++i) {
+			words.setOpaque(COUNTERS + i, seatCount);
+		}
+		final int whole = cell(1, stationnum);
+		for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+			addSeat(whole, seatIndex);
+		}
+	}
+
+	// position of [left, right] among the ranges of the route, row by row
+	private int triangle(int left, int right) {
+		return ((left - 1) * (2 * stationnum - left) >>> 1) + right - left - 1;
+	}
+
+	private int cell(int left, int right) {
+		return cells + triangle(left, right) * cellWords;
+	}
+
+	private void lock(int index) {
+		for (int spins = 0; words.getOpaque(index) != 0 || !words.compareAndSet(index, 0, 1); ++spins) {
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	private void unlock(int index) {
+		words.setRelease(index, 0);
+	}
+
+	// returns the odd version to pass to unlockCounters
+	private long lockCounters() {
+		for (int spins = 0;; ++spins) {
+			long version = words.getOpaque(COUNTER_VERSION);
+			if ((version & 1) == 0 && words.compareAndSet(COUNTER_VERSION, version, version + 1)) {
+				return version + 1;
+			}
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	private void unlockCounters(long version) {
+		words.setRelease(COUNTER_VERSION, version + 1);
+	}
+
+	// an even version to read the counters at, waiting out a writer
+	private long counterVersion() {
+		for (int spins = 0;; ++spins) {
+			long version = words.getAcquire(COUNTER_VERSION);
+			if ((version & 1) == 0) {
+				return version;
+			}
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	// true if no writer changed the counters since version was read
+	private boolean validateCounters(long version) {
+		VarHandle.acquireFence();
+		return words.getOpaque(COUNTER_VERSION) == version;
+	}
+
+	private boolean isEmpty(int cell) {
+		return words.getOpaque(cell + CELL_COUNT) == 0;
+	}
+
+	// caller holds the cell
+	private void addSeat(int cell, int seatIndex) {
+		final int index = cell + CELL_SEATS + (seatIndex >>> 6);
+		words.setOpaque(index, words.getPlain(index) | 1L << seatIndex);
+		words.setOpaque(cell + CELL_COUNT, words.getPlain(cell + CELL_COUNT) + 1);
+	}
+
+	// caller holds the cell
+	private void removeSeat(int cell, int seatIndex) {
+		final int index = cell + CELL_SEATS + (seatIndex >>> 6);
+		words.setOpaque(index, words.getPlain(index) & ~(1L << seatIndex));
+		words.setOpaque(cell + CELL_COUNT, words.getPlain(cell + CELL_COUNT) - 1);
+	}
+
+	// caller holds the cell, which must not be empty
+	private int pollSeat(int cell) {
+		for (int w = 0; w < seatWords; ++w) {
+			long word = words.getPlain(cell + CELL_SEATS + w);
+			if (word != 0) {
+				int seatIndex = (w << 6) + Long.numberOfTrailingZeros(word);
+				removeSeat(cell, seatIndex);
+				return seatIndex;
+			}
+		}
+		throw new IllegalStateException("poll from an empty seat set");
+	}
+
+	private void updateAvailableSeats(int departure, int arrival, int left, int right, int delta) {
+		final long version = lockCounters();
+		for (int d = left; d < arrival; ++d) {
+			final int row = COUNTERS + triangle(d, d + 1) - d - 1;
+			for (int a = Math.max(d, departure) + 1; a <= right; ++a) {
+				words.setOpaque(row + a, words.getPlain(row + a) + delta);
+			}
+		}
+		unlockCounters(version);
+	}
+
+	private boolean isSold(int seatIndex, int station) {
+		return (words.get(occupancy + seatIndex * wordsPerSeat + (station >>> 6)) & (1L << station)) != 0;
+	}
+
+	private void claim(int seatIndex, int departure, int arrival) {
+		final int base = occupancy + seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			long origin = words.getAndBitwiseOr(base + w, SeatOccupancy.gapMask(w, departure, arrival));
+			assert (origin & SeatOccupancy.gapMask(w, departure, arrival)) == 0;
+		}
+	}
+
+	private void release(int seatIndex, int departure, int arrival) {
+		final int base = occupancy + seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			long origin = words.getAndBitwiseAnd(base + w, ~SeatOccupancy.gapMask(w, departure, arrival));
+			assert (origin & SeatOccupancy.gapMask(w, departure, arrival)) == SeatOccupancy.gapMask(w, departure,
+					arrival);
+		}
+	}
+
+	// bit 0 of the first occupancy word, see SeatOccupancy.SEAT_LOCK
+	private void lockSeat(int seatIndex) {
+		final int index = occupancy + seatIndex * wordsPerSeat;
+		for (int spins = 0; (words.get(index) & SeatOccupancy.SEAT_LOCK) != 0
+				|| (words.getAndBitwiseOr(index, SeatOccupancy.SEAT_LOCK) & SeatOccupancy.SEAT_LOCK) != 0; ++spins) {
+			if (spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	private void unlockSeat(int seatIndex) {
+		words.getAndBitwiseAnd(occupancy + seatIndex * wordsPerSeat, ~SeatOccupancy.SEAT_LOCK);
+	}
+
+	private int freeLeft(int seatIndex, int departure) {
+		int left = departure;
+		while (left > 1 && !isSold(seatIndex, left)) {
+			--left;
+		}
+		return left;
+	}
+
+	private int freeRight(int seatIndex, int arrival) {
+		int right = arrival;
+		while (right < stationnum && !isSold(seatIndex, right + 1)) {
+			++right;
+		}
+		return right;
+	}
+
+	@Override
+	public int allocateCoachSeat(int departure, int arrival) {
+		while (queryCoachSeatNum(departure, arrival) > 0) {
+			int result = allocCoachSeatWithRange(departure, arrival, 1, stationnum);
+			if (result >= 0) {
+				return result;
+			}
+			for (int left = departure; left >= 1; --left) {
+				for (int right = arrival; right <= stationnum; ++right) {
+					result = allocCoachSeatWithRange(departure, arrival, left, right);
+					if (result >= 0) {
+						return result;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	private int allocCoachSeatWithRange(int departure, int arrival, int left, int right) {
+		final int oldCell = cell(left, right);
+		if (isEmpty(oldCell)) {
+			return -1;
+		}
+		lock(oldCell + CELL_LOCK);
+		if (isEmpty(oldCell)) {
+			unlock(oldCell + CELL_LOCK);
+			return -1;
+		}
+		int seatIndex = pollSeat(oldCell);
+		final int leftCell = left < departure ? cell(left, departure) : -1;
+		final int rightCell = arrival < right ? cell(arrival, right) : -1;
+		if (leftCell >= 0) {
+			lock(leftCell + CELL_LOCK);
+			addSeat(leftCell, seatIndex);
+		}
+		if (rightCell >= 0) {
+			lock(rightCell + CELL_LOCK);
+			addSeat(rightCell, seatIndex);
+		}
+
+		claim(seatIndex, departure, arrival);
+		updateAvailableSeats(departure, arrival, left, right, -1);
+
+		unlock(oldCell + CELL_LOCK);
+		if (leftCell >= 0) {
+			unlock(leftCell + CELL_LOCK);
+		}
+		if (rightCell >= 0) {
+			unlock(rightCell + CELL_LOCK);
+		}
+		return seatIndex;
+	}
+
+	@Override
+	public int allocateCoachSeats(int departure, int arrival, int[] seatIndices, int count) {
+		int allocated = 0;
+		while (allocated < count && queryCoachSeatNum(departure, arrival) > 0) {
+			allocated += allocCoachSeatsWithRange(departure, arrival, 1, stationnum, seatIndices, allocated,
+					count - allocated);
+			for (int left = departure; left >= 1 && allocated < count; --left) {
+				for (int right = arrival; right <= stationnum && allocated < count; ++right) {
+					allocated += allocCoachSeatsWithRange(departure, arrival, left, right, seatIndices, allocated,
+							count - allocated);
+				}
+			}
+		}
+		return allocated;
+	}
+
+	private int allocCoachSeatsWithRange(int departure, int arrival, int left, int right, int[] seatIndices,
+			int offset, int count) {
+		final int oldCell = cell(left, right);
+		if (isEmpty(oldCell)) {
+			return 0;
+		}
+		lock(oldCell + CELL_LOCK);
+		if (isEmpty(oldCell)) {
+			unlock(oldCell + CELL_LOCK);
+			return 0;
+		}
+		final int leftCell = left < departure ? cell(left, departure) : -1;
+		final int rightCell = arrival < right ? cell(arrival, right) : -1;
+		if (leftCell >= 0) {
+			lock(leftCell + CELL_LOCK);
+		}
+		if (rightCell >= 0) {
+			lock(rightCell + CELL_LOCK);
+		}
+
+		int polled = 0;
+		while (polled < count && !isEmpty(oldCell)) {
+			int seatIndex = pollSeat(oldCell);
+			if (leftCell >= 0) {
+				addSeat(leftCell, seatIndex);
+			}
+			if (rightCell >= 0) {
+				addSeat(rightCell, seatIndex);
+			}
+			claim(seatIndex, departure, arrival);
+			seatIndices[offset + polled++] = seatIndex;
+		}
+		updateAvailableSeats(departure, arrival, left, right, -polled);
+
+		unlock(oldCell + CELL_LOCK);
+		if (leftCell >= 0) {
+			unlock(leftCell + CELL_LOCK);
+		}
+		if (rightCell >= 0) {
+			unlock(rightCell + CELL_LOCK);
+		}
+		return polled;
+	}
+
+	/**
+	 * Same locking as {@link RouteTickets#allocateGroup}.
+	 */
+	@Override
+	public boolean allocateGroup(int departure, int arrival, int[] seatIndices, int count, boolean sameCoach) {
+		final int seatCount = coachnum * seatnum;
+		final int span = sameCoach ? seatnum : seatCount;
+		if (count > span || queryCoachSeatNum(departure, arrival) < count) {
+			return false;
+		}
+		final int[] locked = new int[departure * (stationnum - arrival + 2) + stationnum - arrival];
+		int lockCount = 0;
+		try {
+			final long[] free = new long[seatWords];
+			final int[] freeInSpan = new int[seatCount / span];
+			int groupSpan = -1;
+			for (int left = 1; left <= departure && groupSpan < 0; ++left) {
+				for (int right = stationnum; right >= arrival && groupSpan < 0; --right) {
+					final int cell = cell(left, right);
+					lock(cell + CELL_LOCK);
+					locked[lockCount++] = cell;
+					for (int w = 0; w < seatWords && groupSpan < 0 && !isEmpty(cell); ++w) {
+						long word = words.getPlain(cell + CELL_SEATS + w);
+						free[w] |= word;
+						for (; word != 0 && groupSpan < 0; word &= word - 1) {
+							int seatIndex = (w << 6) + Long.numberOfTrailingZeros(word);
+							if (++freeInSpan[seatIndex / span] == count) {
+								groupSpan = seatIndex / span;
+							}
+						}
+					}
+				}
+				if (left < departure) {
+					locked[lockCount] = cell(left, departure);
+					lock(locked[lockCount++] + CELL_LOCK);
+				}
+			}
+			if (groupSpan < 0) {
+				return false;
+			}
+			final boolean[] rightPieces = new boolean[stationnum + 1];
+			int seatIndex = groupSpan * span - 1;
+			for (int k = 0; k < count; ++k) {
+				seatIndex = RouteTickets.nextFreeSeat(free, seatIndex + 1);
+				seatIndices[k] = seatIndex;
+				rightPieces[freeRight(seatIndex, arrival)] = true;
+			}
+			for (int right = stationnum; right > arrival; --right) {
+				if (rightPieces[right]) {
+					locked[lockCount] = cell(arrival, right);
+					lock(locked[lockCount++] + CELL_LOCK);
+				}
+			}
+			for (int k = 0; k < count; ++k) {
+				claimSeat(seatIndices[k], departure, arrival);
+			}
+			return true;
+		} finally {
+			for (int i = 0; i < lockCount; ++i) {
+				unlock(locked[i] + CELL_LOCK);
+			}
+		}
+	}
+
+	@Override
+	public boolean restoreCoachSeat(int seatIndex, int departure, int arrival) {
+		if (freeRight(seatIndex, departure) < arrival) {
+			return false;
+		}
+		claimSeat(seatIndex, departure, arrival);
+		return true;
+	}
+
+	// like RouteTickets.loadOccupancy
+	@Override
+	public void loadOccupancy(long[] occupancy) {
+		final int whole = cell(1, stationnum);
+		final int[][] runs = new int[stationnum + 1][stationnum + 1];
+		for (int seatIndex = 0; seatIndex < coachnum * seatnum; ++seatIndex) {
+			removeSeat(whole, seatIndex);
+		}
+		for (int i = 0; i < occupancy.length; ++i) {
+			words.setOpaque(this.occupancy + i, occupancy[i]);
+		}
+		for (int seatIndex = 0; seatIndex < coachnum * seatnum; ++seatIndex) {
+			for (int left = 1; left < stationnum;) {
+				int right = freeRight(seatIndex, left);
+				if (right > left) {
+					addSeat(cell(left, right), seatIndex);
+					++runs[left][right];
+				}
+				left = right + 1;
+			}
+		}
+		SeatOccupancy.sumFreeRuns(runs);
+		final long version = lockCounters();
+		for (int d = 1, index = COUNTERS; d < stationnum; ++d) {
+			for (int a = d + 1; a <= stationnum; ++a) {
+				words.setOpaque(index++, runs[d][a]);
+			}
+		}
+		unlockCounters(version);
+	}
+
+	// caller holds the cell of the seat and the cells it is split into
+	private void claimSeat(int seatIndex, int departure, int arrival) {
+		int left = freeLeft(seatIndex, departure);
+		int right = freeRight(seatIndex, arrival);
+		removeSeat(cell(left, right), seatIndex);
+		if (left < departure) {
+			addSeat(cell(left, departure), seatIndex);
+		}
+		if (arrival < right) {
+			addSeat(cell(arrival, right), seatIndex);
+		}
+		claim(seatIndex, departure, arrival);
+		updateAvailableSeats(departure, arrival, left, right, -1);
+	}
+
+	/**
+	 * Refunds take the seat lock whatever the route length, then lock the
+	 * free range the seat is merged into and its pieces like the multi-word
+	 * refund of RouteTickets.
+	 */
+	@Override
+	public void freeCoachSeat(int seatIndex, int departure, int arrival) {
+		lockSeat(seatIndex);
+		try {
+			int left = freeLeft(seatIndex, departure);
+			int right = freeRight(seatIndex, arrival);
+			for (;;) {
+				final int mergedCell = cell(left, right);
+				final int leftCell = left < departure ? cell(left, departure) : -1;
+				final int rightCell = arrival < right ? cell(arrival, right) : -1;
+				lock(mergedCell + CELL_LOCK);
+				if (leftCell >= 0) {
+					lock(leftCell + CELL_LOCK);
+				}
+				if (rightCell >= 0) {
+					lock(rightCell + CELL_LOCK);
+				}
+
+				int newLeft = freeLeft(seatIndex, departure);
+				int newRight = freeRight(seatIndex, arrival);
+				boolean end = newLeft == left && newRight == right;
+				if (end) {
+					release(seatIndex, departure, arrival);
+					if (leftCell >= 0) {
+						removeSeat(leftCell, seatIndex);
+					}
+					if (rightCell >= 0) {
+						removeSeat(rightCell, seatIndex);
+					}
+					addSeat(mergedCell, seatIndex);
+					updateAvailableSeats(departure, arrival, left, right, 1);
+				}
+				unlock(mergedCell + CELL_LOCK);
+				if (leftCell >= 0) {
+					unlock(leftCell + CELL_LOCK);
+				}
+				if (rightCell >= 0) {
+					unlock(rightCell + CELL_LOCK);
+				}
+				if (end) {
+					return;
+				}
+				left = newLeft;
+				right = newRight;
+			}
+		} finally {
+			unlockSeat(seatIndex);
+		}
+	}
+
+	/**
+	 * Read between two counter updates, like the optimistic read of
+	 * RouteTickets: an update of a buy or refund rewrites every range it
+	 * overlaps under one version, so two inquiries never see it half done. A
+	 * failed buy linearizes at the validated read of zero.
+	 */
+	@Override
+	public int queryCoachSeatNum(int departure, int arrival) {
+		final int index = COUNTERS + triangle(departure, arrival);
+		for (;;) {
+			final long version = counterVersion();
+			final int sum = (int) words.getOpaque(index);
+			if (validateCounters(version)) {
+				return sum;
+			}
+		}
+	}
+
+	// every counter at one version, so the matrix is a snapshot between two updates
+	@Override
+	public void queryAllCoachSeatNum(int[][] counts) {
+		for (;;) {
+			final long version = counterVersion();
+			for (int d = 1, index = COUNTERS; d < stationnum; ++d) {
+				for (int a = d + 1; a <= stationnum; ++a) {
+					counts[d][a] = (int) words.getOpaque(index++);
+				}
+			}
+			if (validateCounters(version)) {
+				return;
+			}
+		}
+	}
+}
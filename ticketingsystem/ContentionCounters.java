@@ -0,0 +1,47 @@
+package ticketingsystem;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retry and CAS failure counts of one route, one striped adder per event.
+ * Counting is switched on with -Dticketingsystem.contention=true; the flag is
+ * a static final, so with it off the JIT drops every call site and engines
+ * are handed null counters.
+ */
+final class ContentionCounters {
+	static final String PROPERTY = "ticketingsystem.contention";
+	static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	// buy that had to look again: a failed optimistic cell read, or a bitmap scan a refund overlapped
+	static final int BUY_RETRY = 0;
+	// failed CAS on the occupancy words while claiming a seat
+	static final int BUY_GAP_CAS = 1;
+	// inquiry that could not read the counters optimistically
+	static final int INQUIRY_RETRY = 2;
+	// refund that found the free range of its seat changed and started over
+	static final int REFUND_RETRY = 3;
+	// failed CAS on the occupancy words while releasing a seat
+	static final int REFUND_GAP_CAS = 4;
+	static final String[] EVENTS = { "buyRetry", "buyGapCas", "inquiryRetry", "refundRetry", "refundGapCas" };
+
+	private final LongAdder[] counters = new LongAdder[EVENTS.length];
+
+	ContentionCounters() {
+		for (int i = 0; i < counters.length; ++i) {
+			counters[i] = new LongAdder();
+		}
+	}
+
+	void increment(int event) {
+		counters[event].increment();
+	}
+
+	// not atomic across events, each count is exact once the route is quiet
+	long[] snapshot() {
+		long[] counts = new long[counters.length];
+		for (int i = 0; i < counters.length; ++i) {
+			counts[i] = counters[i].sum();
+		}
+		return counts;
+	}
+}
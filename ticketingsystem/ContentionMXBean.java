@@ -0,0 +1,15 @@
+package ticketingsystem;
+
+/**
+ * JMX view of the contention counters of a {@link TicketingDS}, registered as
+ * ticketingsystem:type=Contention,id=&lt;n&gt; when -Dticketingsystem.contention=true.
+ * Counts are indexed like {@link #getEvents()}.
+ */
+public interface ContentionMXBean {
+	String[] getEvents();
+
+	// summed over all routes
+	long[] getTotals();
+
+	long[] getRouteCounts(int route);
+}
@@ -0,0 +1,149 @@
+package ticketingsystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed number of 64-bit words addressed by index, either in one long[]
+ * or in one direct ByteBuffer outside the Java heap. Both give the same
+ * memory order guarantees as the access modes of a VarHandle.
+ */
+abstract class FlatWords {
+
+	static FlatWords allocate(int size, boolean offHeap) {
+		if (size < 0 || (offHeap && size > Integer.MAX_VALUE >>> 3)) {
+			throw new IllegalArgumentException("too many words: " + size);
+		}
+		return offHeap ? new Direct(size) : new Heap(size);
+	}
+
+	abstract long getPlain(int index);
+
+	abstract long getOpaque(int index);
+
+	abstract long getAcquire(int index);
+
+	abstract long get(int index);
+
+	abstract void setOpaque(int index, long value);
+
+	abstract void setRelease(int index, long value);
+
+	abstract boolean compareAndSet(int index, long expect, long update);
+
+	abstract long getAndBitwiseOr(int index, long bits);
+
+	abstract long getAndBitwiseAnd(int index, long bits);
+
+	static final class Heap extends FlatWords {
+		private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+		private final long[] words;
+
+		Heap(int size) {
+			this.words = new long[size];
+		}
+
+		@Override
+		long getPlain(int index) {
+			return words[index];
+		}
+
+		@Override
+		long getOpaque(int index) {
+			return (long) WORDS.getOpaque(words, index);
+		}
+
+		@Override
+		long getAcquire(int index) {
+			return (long) WORDS.getAcquire(words, index);
+		}
+
+		@Override
+		long get(int index) {
+			return (long) WORDS.getVolatile(words, index);
+		}
+
+		@Override
+		void setOpaque(int index, long value) {
+			WORDS.setOpaque(words, index, value);
+		}
+
+		@Override
+		void setRelease(int index, long value) {
+			WORDS.setRelease(words, index, value);
+		}
+
+		@Override
+		boolean compareAndSet(int index, long expect, long update) {
+			return WORDS.compareAndSet(words, index, expect, update);
+		}
+
+		@Override
+		long getAndBitwiseOr(int index, long bits) {
+			return (long) WORDS.getAndBitwiseOr(words, index, bits);
+		}
+
+		@Override
+		long getAndBitwiseAnd(int index, long bits) {
+			return (long) WORDS.getAndBitwiseAnd(words, index, bits);
+		}
+	}
+
+	// direct buffers are at least 8-byte aligned, so every access mode is atomic
+	static final class Direct extends FlatWords {
+		private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class,
+				ByteOrder.nativeOrder());
+		private final ByteBuffer words;
+
+		Direct(int size) {
+			this.words = ByteBuffer.allocateDirect(size << 3).order(ByteOrder.nativeOrder());
+		}
+
+		@Override
+		long getPlain(int index) {
+			return (long) WORDS.get(words, index << 3);
+		}
+
+		@Override
+		long getOpaque(int index) {
+			return (long) WORDS.getOpaque(words, index << 3);
+		}
+
+		@Override
+		long getAcquire(int index) {
+			return (long) WORDS.getAcquire(words, index << 3);
+		}
+
+		@Override
+		long get(int index) {
+			return (long) WORDS.getVolatile(words, index << 3);
+		}
+
+		@Override
+		void setOpaque(int index, long value) {
+			WORDS.setOpaque(words, index << 3, value);
+		}
+
+		@Override
+		void setRelease(int index, long value) {
+			WORDS.setRelease(words, index << 3, value);
+		}
+
+		@Override
+		boolean compareAndSet(int index, long expect, long update) {
+			return WORDS.compareAndSet(words, index << 3, expect, update);
+		}
+
+		@Override
+		long getAndBitwiseOr(int index, long bits) {
+			return (long) WORDS.getAndBitwiseOr(words, index << 3, bits);
+		}
+
+		@Override
+		long getAndBitwiseAnd(int index, long bits) {
+			return (long) WORDS.getAndBitwiseAnd(words, index << 3, bits);
+		}
+	}
+}
@@ -2,13 +2,16 @@ package ticketingsystem;
 
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 
 class ThreadId {
     // Atomic integer containing the next thread ID to be assigned
@@ -37,7 +40,6 @@ public class GenerateHistory {
 	static boolean isSequential;//input
 	static int msec = 0;
 	static int nsec = 0;
-	static int totalPc;
     
 	static  AtomicInteger sLock = new AtomicInteger(0); //Synchronization Lock
 	static boolean[] fin;
@@ -73,36 +75,40 @@ public class GenerateHistory {
 	static int refRatio = 10; 
 	static int buyRatio = 20; 
 	static int inqRatio = 30; 
+	static String allocator = SeatAllocator.CELL;
+	static WorkloadProfile profile;
 
 
 	static TicketingDS tds;
 	final static List<String> methodList = new ArrayList<String>();
-	final static List<Integer> freqList = new ArrayList<Integer>();
 	final static List<Ticket> currentTicket = new ArrayList<Ticket>();
 	final static List<String> currentRes = new ArrayList<String>();
     final static ArrayList<List<Ticket>> soldTicket = new ArrayList<List<Ticket>>();
 	volatile static boolean initLock = false;
 //	final static AtomicInteger tidGen = new AtomicInteger(0);
-	final static Random rand = new Random();
+	// binary history output, null when the history goes to stdout as text
+	static HistoryFormat.Recorder recorder;
+	static HistoryFormat.Recorder.Writer[] writers;
+
+	// one generator per thread, a shared Random makes the workers contend on its seed
+	static Random rand() {
+	  return ThreadLocalRandom.current();
+	}
 	public static void initialization(){
-	  tds = new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum);
+	  tds = new TicketingDS(routenum, coachnum, seatnum, stationnum, threadnum, allocator);
 	  for(int i = 0; i < threadnum; i++){
 		List<Ticket> threadTickets = new ArrayList<Ticket>();
 		soldTicket.add(threadTickets);
 		currentTicket.add(null);
 		currentRes.add("");
 	  }
-		//method freq is up to	
+		//indexed by WorkloadProfile.REFUND, BUY and INQUIRY
 	  methodList.add("refundTicket");
-	  freqList.add(refRatio);
 	  methodList.add("buyTicket");
-	  freqList.add(refRatio+buyRatio);
 	  methodList.add("inquiry");
-	  freqList.add(refRatio+buyRatio+inqRatio);
-	  totalPc = refRatio+buyRatio+inqRatio;
 	}
 	public static String getPassengerName() {
-		long uid = rand.nextInt(testnum);
+		long uid = rand().nextInt(testnum);
 		return "passenger" + uid; 
 	}
 
@@ -130,6 +136,7 @@ public class GenerateHistory {
 			refRatio = linescanner.nextInt();
 			buyRatio = linescanner.nextInt();
 			inqRatio = linescanner.nextInt();
+			allocator = linescanner.hasNext() ? linescanner.next() : SeatAllocator.CELL;
 			//System.out.println("route: " + routenum + ", coach: " + coachnum + ", seatnum: " + seatnum + ", station: " + stationnum + ", refundRatio: " + refRatio + ", buyRatio: " + buyRatio + ", inquiryRatio: " + inqRatio);
 			linescanner.close();
 	  }
@@ -137,22 +144,35 @@ public class GenerateHistory {
 	}catch (FileNotFoundException e) {
 	  System.out.println(e);
 	}
+	allocator = System.getProperty(TicketingDS.ALLOCATOR_PROPERTY, allocator);
+	profile = WorkloadProfile.fromProperty(routenum, stationnum, refRatio, buyRatio, inqRatio);
 		return true;
   }
 
-	public static void print(long preTime, long postTime, String actionName){
+	public static void print(long preTime, long postTime, int method){
 	  Ticket ticket = currentTicket.get(ThreadId.get());
+	  if(recorder != null){
+		try{
+		  writers[ThreadId.get()].record(preTime, postTime, ThreadId.get(), method, ticket.tid,
+			  recorder.passenger(ticket.passenger), ticket.route, ticket.coach, ticket.departure, ticket.arrival,
+			  ticket.seat, currentRes.get(ThreadId.get()).equals("true"));
+		}catch(IOException e){
+		  throw new UncheckedIOException(e);
+		}
+		return;
+	  }
+	  String actionName = methodList.get(method);
 	  System.out.println(preTime + " " + postTime + " " +  ThreadId.get() + " " + actionName + " " + ticket.tid + " " + ticket.passenger + " " + ticket.route + " " + ticket.coach + " " + ticket.departure + " " + ticket.arrival + " " + ticket.seat + " " + currentRes.get(ThreadId.get()));
 	}
 
-	public static boolean execute(int num){
-	  int route, departure, arrival;
+	public static boolean execute(int num, WorkloadProfile.Phase phase){
+	  int route, departure, arrival, segment;
 	  Ticket ticket = new Ticket();;
 	  switch(num){
 		case 0://refund
 		  if(soldTicket.get(ThreadId.get()).size() == 0)
 			return false;
-		  int n = rand.nextInt(soldTicket.get(ThreadId.get()).size());
+		  int n = rand().nextInt(soldTicket.get(ThreadId.get()).size());
 		  ticket = soldTicket.get(ThreadId.get()).remove(n);
 		  if(ticket == null){
 			return false;
@@ -163,9 +183,10 @@ public class GenerateHistory {
 		  return flag;
 		case 1://buy
           String passenger = getPassengerName();
-          route = rand.nextInt(routenum) + 1;
-          departure = rand.nextInt(stationnum - 1) + 1;
-          arrival = departure + rand.nextInt(stationnum - departure) + 1;
+          route = phase.route(rand());
+          segment = phase.segment(rand());
+          departure = WorkloadProfile.departure(segment);
+          arrival = WorkloadProfile.arrival(segment);
 		  ticket = tds.buyTicket(passenger, route, departure, arrival);
 		  if(ticket == null){
 			ticket = new Ticket();
@@ -184,9 +205,10 @@ public class GenerateHistory {
 		  return true;
 		case 2:
           ticket.passenger = getPassengerName();
-          ticket.route = rand.nextInt(routenum) + 1;
-          ticket.departure = rand.nextInt(stationnum - 1) + 1;
-          ticket.arrival = ticket.departure + rand.nextInt(stationnum - ticket.departure) + 1; // arrival is always greater than departure
+          ticket.route = phase.route(rand());
+          segment = phase.segment(rand());
+          ticket.departure = WorkloadProfile.departure(segment);
+          ticket.arrival = WorkloadProfile.arrival(segment); // arrival is always greater than departure
 		  ticket.seat = tds.inquiry(ticket.route, ticket.departure, ticket.arrival);
 		  currentTicket.set(ThreadId.get(), ticket);
 		  currentRes.set(ThreadId.get(), "true"); 
@@ -197,9 +219,9 @@ public class GenerateHistory {
 	  }
 	}
 /***********VeriLin***********/
-  public static void main(String[] args) throws InterruptedException {
-    if(args.length != 5){
-	  System.out.println("The arguments of GenerateHistory is threadNum,  testNum, isSequential(0/1), delay(millionsec), delay(nanosec)");
+  public static void main(String[] args) throws InterruptedException, IOException {
+    if(args.length != 5 && args.length != 6){
+	  System.out.println("The arguments of GenerateHistory is threadNum,  testNum, isSequential(0/1), delay(millionsec), delay(nanosec) [binaryHistoryFile]");
 	  return;
 	}
 	threadnum = Integer.parseInt(args[0]);
@@ -217,6 +239,13 @@ public class GenerateHistory {
 	msec = Integer.parseInt(args[3]);
 	nsec = Integer.parseInt(args[4]);
 	readConfig("TrainConfig");
+	if(args.length == 6){
+	  recorder = new HistoryFormat.Recorder(args[5]);
+	  writers = new HistoryFormat.Recorder.Writer[threadnum];
+	  for (int i = 0; i < threadnum; i++) {
+		writers[i] = recorder.writer();
+	  }
+	}
 	Thread[] threads = new Thread[threadnum];
 	myInt barrier = new myInt();
 	fin = new boolean[threadnum];
@@ -235,15 +264,15 @@ public class GenerateHistory {
 					  }
 					}
 					for(int k = 0; k < testnum; k++){
-					  int sel = rand.nextInt(totalPc);
-					  int cnt = 0;
+					  WorkloadProfile.Phase phase = profile.phase(k, testnum);
+					  int sel = phase.operation(rand());
 					  if(isSequential){
 						while (ThreadId.get() != barrier.value && exOthNotFin(threadnum, ThreadId.get()) == true) {}
 	                    SLOCK_TAKE();
 					  }
 
 					  for(int j = 0; j < methodList.size(); j++){
-						if(sel >= cnt && sel < cnt + freqList.get(j)){
+						if(sel == j){
 						  if(msec != 0 || nsec != 0){
 							try{
 							  Thread.sleep(msec, nsec);
@@ -252,12 +281,11 @@ public class GenerateHistory {
 							}
 						  }
 						  long preTime = System.nanoTime() - startTime;
-						  boolean flag = execute(j);
+						  boolean flag = execute(j, phase);
 						  long postTime = System.nanoTime() - startTime;
 						  if(flag){
-							print(preTime, postTime, methodList.get(j));
+							print(preTime, postTime, j);
 						  }
-						  cnt += freqList.get(j);
 						}
 					  }
 
@@ -265,9 +293,9 @@ public class GenerateHistory {
 						if (k == testnum - 1)
 						  fin[ThreadId.get()] = true;
 						if (exOthNotFin(threadnum, ThreadId.get()) == true) {
-						  barrier.value = rand.nextInt(threadnum);
+						  barrier.value = rand().nextInt(threadnum);
 						  while (fin[barrier.value] == true) {
-							barrier.value = rand.nextInt(threadnum);
+							barrier.value = rand().nextInt(threadnum);
 						  }
 						}
 						SLOCK_GIVE();
@@ -282,5 +310,11 @@ public class GenerateHistory {
 	  for (int i = 0; i< threadnum; i++) {
 		threads[i].join();
 	  }	
+	  if(recorder != null){
+		for (HistoryFormat.Recorder.Writer writer : writers) {
+		  writer.flush();
+		}
+		recorder.close();
+	  }
 	}
 }
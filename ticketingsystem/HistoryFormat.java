@@ -0,0 +1,203 @@
+package ticketingsystem;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary history format, big-endian:
+ *
+ * <pre>
+ * header      long MAGIC, long offset of the dictionary
+ * records     RECORD bytes each, in no particular order
+ * dictionary  int count, then count passenger names as short length + UTF-8 bytes
+ * </pre>
+ *
+ * A record is long pretime, long posttime, long tid, int threadid, int
+ * passenger (index into the dictionary), int seat (the remaining ticket
+ * count for an inquiry), short route, short coach, short departure, short
+ * arrival, byte operation (Replay.REFUND, BUY or INQUIRY), byte res and two
+ * bytes of padding. Replay reads both formats, main converts between them.
+ */
+public final class HistoryFormat {
+	static final long MAGIC = 0x5449434b48495354L; // "TICKHIST"
+	static final int HEADER = 16;
+	static final int RECORD = 48;
+
+	private HistoryFormat() {
+	}
+
+	/**
+	 * Writes a binary history. Every thread records through its own Writer,
+	 * which fills a direct buffer and writes it to a range of the file
+	 * reserved with one atomic add, so threads never wait for each other.
+	 */
+	static final class Recorder implements Closeable {
+		private static final int BLOCK = RECORD * 1365;
+
+		private final FileChannel channel;
+		private final AtomicLong end = new AtomicLong(HEADER);
+		private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+		private final ArrayList<String> names = new ArrayList<>();
+
+		Recorder(String filename) throws IOException {
+			channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		// dictionary index of the passenger, assigned on first sight
+		int passenger(String name) {
+			Integer id = ids.get(name);
+			if (id != null) {
+				return id;
+			}
+			synchronized (names) {
+				id = ids.get(name);
+				if (id == null) {
+					id = names.size();
+					names.add(name);
+					ids.put(name, id);
+				}
+				return id;
+			}
+		}
+
+		Writer writer() {
+			return new Writer();
+		}
+
+		final class Writer {
+			private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK);
+
+			private Writer() {
+			}
+
+			void record(long pretime, long posttime, int threadid, int operation, long tid, int passenger,
+					int route, int coach, int departure, int arrival, int seat, boolean res) throws IOException {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				buffer.putLong(pretime).putLong(posttime).putLong(tid).putInt(threadid).putInt(passenger)
+						.putInt(seat).putShort((short) route).putShort((short) coach).putShort((short) departure)
+						.putShort((short) arrival).put((byte) operation).put((byte) (res ? 1 : 0)).putShort((short) 0);
+			}
+
+			void flush() throws IOException {
+				buffer.flip();
+				long position = end.getAndAdd(buffer.remaining());
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				buffer.clear();
+			}
+		}
+
+		/**
+		 * Appends the dictionary and completes the header; every Writer must
+		 * have been flushed.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				long position = end.get();
+				ByteBuffer out = ByteBuffer.allocate(BLOCK);
+				out.putInt(names.size());
+				for (String name : names) {
+					byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+					if (out.remaining() < 2 + bytes.length) {
+						position = write(out, position);
+					}
+					out.putShort((short) bytes.length).put(bytes);
+				}
+				write(out, position);
+				write(ByteBuffer.allocate(HEADER).putLong(MAGIC).putLong(end.get()), 0);
+			} finally {
+				channel.close();
+			}
+		}
+
+		private long write(ByteBuffer out, long position) throws IOException {
+			out.flip();
+			while (out.hasRemaining()) {
+				position += channel.write(out, position);
+			}
+			out.clear();
+			return position;
+		}
+	}
+
+	static String[] readDictionary(FileChannel channel, long offset) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate((int) (channel.size() - offset));
+		readFully(channel, in, offset);
+		in.flip();
+		String[] names = new String[in.getInt()];
+		for (int i = 0; i < names.length; ++i) {
+			byte[] bytes = new byte[in.getShort()];
+			in.get(bytes);
+			names[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return names;
+	}
+
+	static boolean isBinary(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER) {
+			return false;
+		}
+		ByteBuffer magic = ByteBuffer.allocate(8);
+		readFully(channel, magic, 0);
+		return magic.getLong(0) == MAGIC;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer in, long offset) throws IOException {
+		while (in.hasRemaining()) {
+			if (channel.read(in, offset + in.position()) < 0) {
+				throw new EOFException("history ends at " + (offset + in.position()));
+			}
+		}
+	}
+
+	static void toText(String binary, String text) throws IOException {
+		try (Replay.HistoryReader reader = new Replay.HistoryReader(binary);
+				PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(text), 1 << 16))) {
+			while (reader.next()) {
+				out.println(reader.text());
+			}
+		}
+	}
+
+	static void toBinary(String text, String binary) throws IOException {
+		try (Replay.HistoryReader reader = new Replay.HistoryReader(text);
+				Recorder recorder = new Recorder(binary)) {
+			Recorder.Writer writer = recorder.writer();
+			while (reader.next()) {
+				writer.record(reader.pretime, reader.posttime, reader.threadid, reader.operation, reader.tid,
+						recorder.passenger(reader.passenger()), reader.route, reader.coach, reader.departure,
+						reader.arrival, reader.seat, reader.res);
+			}
+			writer.flush();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3 || !args[0].equals("totext") && !args[0].equals("tobinary")) {
+			System.out.println("args: totext <binaryHistory> <textHistory> | tobinary <textHistory> <binaryHistory>");
+			return;
+		}
+		if (args[0].equals("totext")) {
+			toText(args[1], args[2]);
+		} else {
+			toBinary(args[1], args[2]);
+		}
+	}
+}
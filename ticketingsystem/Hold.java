@@ -0,0 +1,58 @@
+package ticketingsystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A seat taken for a range while a purchase is being paid, see
+ * {@link TicketingDS#hold}. Exactly one of confirm, release and expiry
+ * settles it, whichever moves it out of HELD first.
+ */
+final class Hold {
+	static final int HELD = 0;
+	static final int CONFIRMED = 1;
+	static final int RELEASED = 2;
+	static final int EXPIRED = 3;
+
+	private static final VarHandle STATE;
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(Hold.class, "state", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	final int route;
+	final int departure;
+	final int arrival;
+	final int seatIndex;
+	// System.nanoTime() after which the hold can no longer be confirmed
+	final long deadline;
+	@SuppressWarnings("unused")
+	private volatile int state;
+	// next hold of the same HoldWheel list, only touched by the list's owner
+	Hold next;
+	// previous hold and bucket while in a HoldWheel bucket, -1 outside; ticker only
+	Hold prev;
+	int bucket = -1;
+	// next hold of HoldWheel's stack of settled holds
+	Hold settledNext;
+
+	Hold(int route, int departure, int arrival, int seatIndex, long deadline) {
+		this.route = route;
+		this.departure = departure;
+		this.arrival = arrival;
+		this.seatIndex = seatIndex;
+		this.deadline = deadline;
+	}
+
+	// true if this call settled the hold
+	boolean settle(int outcome) {
+		return STATE.compareAndSet(this, HELD, outcome);
+	}
+
+	int state() {
+		return (int) STATE.getVolatile(this);
+	}
+}
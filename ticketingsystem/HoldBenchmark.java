@@ -0,0 +1,97 @@
+package ticketingsystem;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class HoldBenchmark {
+
+	// random one-station ranges, so TrainConfig holds millions of them
+	private static int departure(Random rand) {
+		return rand.nextInt(ConfigReader.stationnum - 1) + 1;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 2) {
+			System.out.println("args: <holds> <ttlMillis>");
+			return;
+		}
+		final int holdnum = Integer.parseInt(args[0]);
+		final long ttl = Long.parseLong(args[1]);
+		ConfigReader.readConfig("TrainConfig");
+		final int routenum = ConfigReader.routenum;
+
+		// checkout emulated by buying, then refunding the abandoned carts
+		TicketingDS ds = new TicketingDS(routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+				ConfigReader.stationnum, 1, ConfigReader.allocator);
+		Random rand = new Random(20221027L);
+		final Ticket[] tickets = new Ticket[holdnum];
+		long startTime = System.nanoTime();
+		for (int i = 0; i < holdnum; ++i) {
+			int departure = departure(rand);
+			tickets[i] = ds.buyTicket("p" + i, rand.nextInt(routenum) + 1, departure, departure + 1);
+		}
+		long buyTime = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		for (int i = 0; i < holdnum; i += 3) {
+			ds.refundTicket(tickets[i]);
+		}
+		long refundTime = System.nanoTime() - startTime;
+		System.out.println("buy: " + (double) buyTime / holdnum + " ns/op, refund of a third: "
+				+ (double) refundTime / ((holdnum + 2) / 3) + " ns/op");
+		ds.close();
+		ds = null;
+		for (int i = 0; i < holdnum; ++i) {
+			tickets[i] = null;
+		}
+
+		final long before = MemoryBenchmark.usedHeap();
+		ds = new TicketingDS(routenum, ConfigReader.coachnum, ConfigReader.seatnum, ConfigReader.stationnum, 1,
+				ConfigReader.allocator);
+		rand = new Random(20221027L);
+		final Hold[] holds = new Hold[holdnum];
+		int failed = 0;
+		startTime = System.nanoTime();
+		for (int i = 0; i < holdnum; ++i) {
+			int departure = departure(rand);
+			holds[i] = ds.hold(rand.nextInt(routenum) + 1, departure, departure + 1, ttl + rand.nextInt((int) ttl));
+			failed += holds[i] == null ? 1 : 0;
+		}
+		long holdTime = System.nanoTime() - startTime;
+		final HoldWheel wheel = ds.holds();
+		System.out.println("hold: " + (double) holdTime / holdnum + " ns/op, outstanding: "
+				+ (holdnum - failed - wheel.expired()) + ", retained heap: "
+				+ (MemoryBenchmark.usedHeap() - before) / (1024.0 * 1024.0) + " MB");
+
+		// a third paid, a third cancelled, a third abandoned
+		int confirmed = 0;
+		startTime = System.nanoTime();
+		for (int i = 1; i < holdnum; i += 3) {
+			confirmed += holds[i] != null && ds.confirm(holds[i], "p" + i) != null ? 1 : 0;
+		}
+		long confirmTime = System.nanoTime() - startTime;
+		int released = 0;
+		startTime = System.nanoTime();
+		for (int i = 2; i < holdnum; i += 3) {
+			released += holds[i] != null && ds.release(holds[i]) ? 1 : 0;
+		}
+		long releaseTime = System.nanoTime() - startTime;
+		System.out.println("confirm: " + (double) confirmTime / ((holdnum + 1) / 3) + " ns/op, release: "
+				+ (double) releaseTime / (holdnum / 3) + " ns/op, confirmed: " + confirmed + ", released: "
+				+ released);
+
+		int abandoned = 0;
+		for (int i = 0; i < holdnum; i += 3) {
+			abandoned += holds[i] != null ? 1 : 0;
+		}
+		// settled holds leave the wheel with the next tick, not at their deadline
+		Thread.sleep(TimeUnit.NANOSECONDS.toMillis(2 * HoldWheel.TICK));
+		System.out.println("in the wheel after settling: " + wheel.outstanding() + ", abandoned: " + abandoned);
+		startTime = System.nanoTime();
+		while (wheel.expired() < abandoned) {
+			Thread.sleep(100);
+		}
+		System.out.println("expired: " + wheel.expired() + " in " + (System.nanoTime() - startTime) / 1000_000
+				+ " ms, longest tick: " + wheel.longestAdvance() / 1000_000.0 + " ms");
+		ds.close();
+	}
+}
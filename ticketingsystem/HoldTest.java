@@ -0,0 +1,190 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class HoldTest {
+	final int STATIONNUM = 5;
+
+	private static Hold hold(long deadline) {
+		return new Hold(1, 1, 2, 0, deadline);
+	}
+
+	@Test
+	void wheelExpiresOnlyDueHolds() {
+		final List<Hold> expired = new ArrayList<>();
+		// ticks of 10, a rotation of 80
+		HoldWheel wheel = new HoldWheel(0, 10, 8, expired::add);
+		Hold soon = hold(5);
+		Hold later = hold(25);
+		Hold nextRotation = hold(95);
+		Hold confirmed = hold(15);
+		for (Hold h : new Hold[] { soon, later, nextRotation, confirmed }) {
+			wheel.add(h);
+		}
+		assertTrue(confirmed.settle(Hold.CONFIRMED));
+
+		wheel.advance(20);
+		assertEquals(List.of(soon), expired);
+		wheel.advance(30);
+		assertEquals(List.of(soon, later), expired);
+		// tick 9 shares its bucket with tick 1
+		wheel.advance(90);
+		assertEquals(2, expired.size());
+		wheel.advance(100);
+		assertEquals(List.of(soon, later, nextRotation), expired);
+		assertEquals(Hold.CONFIRMED, confirmed.state());
+		assertEquals(Hold.EXPIRED, nextRotation.state());
+
+		// added after its deadline passed, it goes with the next tick
+		Hold late = hold(50);
+		wheel.add(late);
+		wheel.advance(100);
+		assertEquals(3, expired.size());
+		wheel.advance(110);
+		assertEquals(late, expired.get(3));
+		assertEquals(4, wheel.expired());
+	}
+
+	@Test
+	void wheelKeepsTickingWhenExpiryThrows() {
+		final List<Hold> expired = new ArrayList<>();
+		Hold failing = hold(5);
+		HoldWheel wheel = new HoldWheel(0, 10, 8, hold -> {
+			if (hold == failing) {
+				throw new IllegalStateException("expected by the test");
+			}
+			expired.add(hold);
+		});
+		Hold same = hold(6);
+		Hold later = hold(15);
+		for (Hold h : new Hold[] { failing, same, later }) {
+			wheel.add(h);
+		}
+		wheel.advance(20);
+		assertEquals(List.of(same, later), expired);
+		assertEquals(Hold.EXPIRED, failing.state());
+		assertEquals(3, wheel.expired());
+	}
+
+	@Test
+	void wheelDropsSettledHoldsAtOnce() {
+		final List<Hold> expired = new ArrayList<>();
+		HoldWheel wheel = new HoldWheel(0, 10, 8, expired::add);
+		Hold[] holds = new Hold[6];
+		for (int i = 0; i < holds.length; ++i) {
+			// two in each bucket, due rotations from now
+			holds[i] = hold(1000 + (i % 3) * 10);
+			wheel.add(holds[i]);
+		}
+		wheel.advance(0);
+		assertEquals(6, wheel.outstanding());
+		// head, middle and tail of their buckets
+		for (int i : new int[] { 0, 3, 4 }) {
+			assertTrue(holds[i].settle(i == 4 ? Hold.RELEASED : Hold.CONFIRMED));
+			wheel.settled(holds[i]);
+		}
+		wheel.advance(0);
+		assertEquals(3, wheel.outstanding());
+
+		// settled before the ticker spread it into a bucket
+		Hold early = hold(1000);
+		wheel.add(early);
+		assertTrue(early.settle(Hold.RELEASED));
+		wheel.settled(early);
+		wheel.advance(0);
+		assertEquals(3, wheel.outstanding());
+
+		wheel.advance(1030);
+		assertEquals(3, expired.size());
+		assertTrue(expired.containsAll(List.of(holds[1], holds[2], holds[5])));
+		assertEquals(0, wheel.outstanding());
+	}
+
+	@Test
+	void confirmAndRelease() {
+		TicketingDS ds = new TicketingDS(1, 1, 2, STATIONNUM, 1, SeatAllocator.CELL, (Journal) null);
+		Hold first = ds.hold(1, 1, 3, 60_000);
+		Hold second = ds.hold(1, 2, 4, 60_000);
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNull(ds.hold(1, 2, 3, 60_000));
+		assertEquals(0, ds.inquiry(1, 2, 3));
+		assertEquals(1, ds.inquiry(1, 3, 4));
+
+		Ticket ticket = ds.confirm(first, "a");
+		assertEquals(first.seatIndex + 1, ticket.seat);
+		assertEquals(1, ticket.coach);
+		assertNull(ds.confirm(first, "b"));
+		assertFalse(ds.release(first));
+
+		assertTrue(ds.release(second));
+		assertFalse(ds.release(second));
+		assertNull(ds.confirm(second, "c"));
+		assertEquals(1, ds.inquiry(1, 2, 3));
+
+		assertTrue(ds.refundTicket(ticket));
+		assertEquals(2, ds.inquiry(1, 1, STATIONNUM));
+		assertNull(ds.hold(1, 1, 3, 0));
+		assertNull(ds.hold(2, 1, 3, 1000));
+		ds.close();
+	}
+
+	@Test
+	void expiresAbandonedHolds() throws InterruptedException {
+		TicketingDS ds = new TicketingDS(1, 1, 2, STATIONNUM, 1, SeatAllocator.CELL, (Journal) null);
+		Hold abandoned = ds.hold(1, 1, STATIONNUM, 30);
+		Hold kept = ds.hold(1, 1, STATIONNUM, 60_000);
+		assertEquals(0, ds.inquiry(1, 1, 2));
+		for (int i = 0; i < 500 && ds.inquiry(1, 1, 2) == 0; ++i) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, ds.inquiry(1, 1, 2));
+		assertEquals(Hold.EXPIRED, abandoned.state());
+		assertNull(ds.confirm(abandoned, "a"));
+		assertNotNull(ds.confirm(kept, "b"));
+
+		// past its ttl, confirm fails even before the ticker gets to it
+		Hold late = ds.hold(1, 1, STATIONNUM, 1);
+		Thread.sleep(5);
+		assertNull(ds.confirm(late, "c"));
+		assertEquals(Hold.EXPIRED, late.state());
+		assertEquals(1, ds.inquiry(1, 1, 2));
+		ds.close();
+	}
+
+	@Test
+	void oneSettlementWins() throws InterruptedException {
+		final int holdnum = 2000;
+		TicketingDS ds = new TicketingDS(1, 20, 100, STATIONNUM, 4, SeatAllocator.CELL, (Journal) null);
+		final Hold[] holds = new Hold[holdnum];
+		for (int i = 0; i < holdnum; ++i) {
+			holds[i] = ds.hold(1, 1, STATIONNUM, 60_000);
+		}
+		final AtomicInteger confirmed = new AtomicInteger();
+		final AtomicInteger released = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final boolean confirming = t % 2 == 0;
+			threads[t] = new Thread(() -> {
+				for (Hold hold : holds) {
+					if (confirming ? ds.confirm(hold, "p") != null : ds.release(hold)) {
+						(confirming ? confirmed : released).incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(holdnum, confirmed.get() + released.get());
+		assertEquals(released.get(), ds.inquiry(1, 1, STATIONNUM));
+		ds.close();
+	}
+}
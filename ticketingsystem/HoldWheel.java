@@ -0,0 +1,188 @@
+package ticketingsystem;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hashed timing wheel expiring {@link Hold}s (Varghese and Lauck): bucket
+ * i holds the holds whose deadline falls in a tick congruent to i modulo
+ * the number of buckets, so a tick only walks its own bucket and never the
+ * other outstanding holds. With the default 10 ms ticks a rotation lasts
+ * about 11 minutes; a longer hold stays in its bucket for more rotations.
+ *
+ * Any thread adds holds onto a lock-free stack, only the ticker touches the
+ * buckets: each advance first spreads the stack into them. Confirmed and
+ * released holds go onto a second stack, and the next advance unlinks them
+ * from their doubly linked buckets, so a settled hold does not stay in the
+ * wheel until its deadline.
+ */
+final class HoldWheel {
+	static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+	static final int BUCKETS = 1 << 16;
+
+	interface Expiry {
+		// hold has just been settled as EXPIRED, its seat is to be freed; runs
+		// on the ticker, which logs what it throws and goes on
+		void expire(Hold hold);
+	}
+
+	private final long origin;
+	private final long tick;
+	private final int mask;
+	private final Expiry expiry;
+	private final AtomicReference<Hold> added = new AtomicReference<>();
+	private final AtomicReference<Hold> settled = new AtomicReference<>();
+	// the rest is only touched by the ticker
+	private final Hold[] buckets;
+	// the next tick to run, deadlines before origin + ticks * tick are past
+	private long ticks;
+	private long bucketed;
+	private volatile long outstanding;
+	private volatile long expired;
+	private volatile long longestAdvance;
+	private Thread ticker;
+
+	HoldWheel(long origin, long tick, int buckets, Expiry expiry) {
+		assert Integer.bitCount(buckets) == 1;
+		this.origin = origin;
+		this.tick = tick;
+		this.mask = buckets - 1;
+		this.expiry = expiry;
+		this.buckets = new Hold[buckets];
+	}
+
+	void add(Hold hold) {
+		Hold head;
+		do {
+			head = added.get();
+			hold.next = head;
+		} while (!added.compareAndSet(head, hold));
+	}
+
+	// hold was just confirmed or released, or expired off the ticker
+	void settled(Hold hold) {
+		Hold head;
+		do {
+			head = settled.get();
+			hold.settledNext = head;
+		} while (!settled.compareAndSet(head, hold));
+	}
+
+	/**
+	 * Runs every tick that ended by now, expiring the holds still HELD in
+	 * them. Only one thread at a time may advance.
+	 */
+	void advance(long now) {
+		final long start = System.nanoTime();
+		for (Hold hold = added.getAndSet(null), next; hold != null; hold = next) {
+			next = hold.next;
+			if (hold.state() == Hold.HELD) {
+				// a deadline already past goes to the next tick to run
+				push(Math.max((hold.deadline - origin) / tick, ticks), hold);
+			}
+		}
+		// one settled before the stack above was taken is in no bucket, and never will be
+		for (Hold hold = settled.getAndSet(null), next; hold != null; hold = next) {
+			next = hold.settledNext;
+			hold.settledNext = null;
+			if (hold.bucket >= 0) {
+				unlink(hold);
+			}
+		}
+		long count = 0;
+		for (final long end = (now - origin) / tick; ticks < end; ++ticks) {
+			final int bucket = (int) ticks & mask;
+			Hold hold = buckets[bucket];
+			buckets[bucket] = null;
+			for (Hold next; hold != null; hold = next) {
+				next = hold.next;
+				hold.bucket = -1;
+				--bucketed;
+				if (hold.state() != Hold.HELD) {
+					continue;
+				}
+				if ((hold.deadline - origin) / tick > ticks) {
+					// due in a later rotation
+					push(bucket, hold);
+				} else if (hold.settle(Hold.EXPIRED)) {
+					++count;
+					try {
+						expiry.expire(hold);
+					} catch (Throwable e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		if (count > 0) {
+			expired += count;
+		}
+		outstanding = bucketed;
+		longestAdvance = Math.max(longestAdvance, System.nanoTime() - start);
+	}
+
+	private void push(long tickOfHold, Hold hold) {
+		final int bucket = (int) tickOfHold & mask;
+		final Hold head = buckets[bucket];
+		hold.prev = null;
+		hold.next = head;
+		if (head != null) {
+			head.prev = hold;
+		}
+		buckets[bucket] = hold;
+		hold.bucket = bucket;
+		++bucketed;
+	}
+
+	private void unlink(Hold hold) {
+		if (hold.prev != null) {
+			hold.prev.next = hold.next;
+		} else {
+			buckets[hold.bucket] = hold.next;
+		}
+		if (hold.next != null) {
+			hold.next.prev = hold.prev;
+		}
+		hold.prev = hold.next = null;
+		hold.bucket = -1;
+		--bucketed;
+	}
+
+	// holds in the buckets after the last advance
+	long outstanding() {
+		return outstanding;
+	}
+
+	// holds expired so far
+	long expired() {
+		return expired;
+	}
+
+	// the longest advance so far in ns
+	long longestAdvance() {
+		return longestAdvance;
+	}
+
+	// advances every tick on a daemon thread until close
+	HoldWheel start() {
+		ticker = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(tick);
+				} catch (InterruptedException e) {
+					return;
+				}
+				advance(System.nanoTime());
+			}
+		}, "hold-wheel");
+		ticker.setDaemon(true);
+		ticker.start();
+		return this;
+	}
+
+	void close() {
+		if (ticker != null) {
+			ticker.interrupt();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package ticketingsystem;
+
+import java.util.Random;
+
+public class InquiryBenchmark {
+
+	// sells about half of the seat-stations so that every interval cell is populated
+	static TicketingDS prefilled(int routenum, int coachnum, int seatnum, int stationnum, Random rand) {
+		final TicketingDS ds = new TicketingDS(routenum, coachnum, seatnum, stationnum, 1,
+				ConfigReader.allocator);
+		for (int i = 0; i < routenum * coachnum * seatnum; ++i) {
+			int route = rand.nextInt(routenum) + 1;
+			int departure = rand.nextInt(stationnum - 1) + 1;
+			int arrival = departure + rand.nextInt(stationnum - departure) + 1;
+			ds.buyTicket("p" + i, route, departure, arrival);
+		}
+		return ds;
+	}
+
+	static double measure(int routenum, int coachnum, int seatnum, int stationnum, int testnum) {
+		final Random rand = new Random(20221027L);
+		final TicketingDS ds = prefilled(routenum, coachnum, seatnum, stationnum, rand);
+
+		final int[] routes = new int[4096];
+		final int[] departures = new int[4096];
+		final int[] arrivals = new int[4096];
+		for (int i = 0; i < routes.length; ++i) {
+			routes[i] = rand.nextInt(routenum) + 1;
+			departures[i] = rand.nextInt(stationnum - 1) + 1;
+			arrivals[i] = departures[i] + rand.nextInt(stationnum - departures[i]) + 1;
+		}
+		long blackhole = 0;
+		for (int i = 0; i < testnum; ++i) {
+			blackhole += ds.inquiry(routes[i & 4095], departures[i & 4095], arrivals[i & 4095]);
+		}
+		long startTime = System.nanoTime();
+		for (int i = 0; i < testnum; ++i) {
+			blackhole += ds.inquiry(routes[i & 4095], departures[i & 4095], arrivals[i & 4095]);
+		}
+		long elapsed = System.nanoTime() - startTime;
+		if (blackhole == 42) {
+			System.out.println();
+		}
+		return (double) elapsed / testnum;
+	}
+
+	// latency of the whole matrix of a route: [0] through one inquiry per range, [1] through inquiryAll
+	static double[] measureMatrix(int routenum, int coachnum, int seatnum, int stationnum, int testnum) {
+		final Random rand = new Random(20221027L);
+		final TicketingDS ds = prefilled(routenum, coachnum, seatnum, stationnum, rand);
+		final double[] latency = new double[2];
+		long blackhole = 0;
+		for (int round = 0; round < 2; ++round) {
+			for (int mode = 0; mode < 2; ++mode) {
+				long startTime = System.nanoTime();
+				for (int i = 0; i < testnum; ++i) {
+					final int route = i % routenum + 1;
+					int[][] counts;
+					if (mode == 0) {
+						counts = new int[stationnum + 1][stationnum + 1];
+						for (int departure = 1; departure < stationnum; ++departure) {
+							for (int arrival = departure + 1; arrival <= stationnum; ++arrival) {
+								counts[departure][arrival] = ds.inquiry(route, departure, arrival);
+							}
+						}
+					} else {
+						counts = ds.inquiryAll(route);
+					}
+					blackhole += counts[1][stationnum];
+				}
+				// the first round only warms up
+				latency[mode] = (double) (System.nanoTime() - startTime) / testnum;
+			}
+		}
+		if (blackhole == 42) {
+			System.out.println();
+		}
+		return latency;
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("args: <testnum>");
+			return;
+		}
+		final int testnum = Integer.parseInt(args[0]);
+		ConfigReader.readConfig("TrainConfig");
+		for (int stationnum = 5; stationnum <= 30; stationnum += 5) {
+			double latency = measure(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum, stationnum,
+					testnum);
+			System.out.println("station: " + stationnum + ", inquiry latency: " + latency + " ns");
+		}
+		for (int stationnum = 5; stationnum <= 30; stationnum += 5) {
+			double[] latency = measureMatrix(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+					stationnum, Math.max(1, testnum / (stationnum * stationnum)));
+			System.out.println("station: " + stationnum + ", route matrix latency: " + latency[0]
+					+ " ns by inquiry, " + latency[1] + " ns by inquiryAll");
+		}
+	}
+}
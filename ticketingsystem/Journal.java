@@ -0,0 +1,374 @@
+package ticketingsystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of the buys and refunds of a {@link TicketingDS},
+ * appended to memory-mapped segments journal-&lt;n&gt;.log of a directory.
+ * A record is, big-endian:
+ *
+ * <pre>
+ * int crc32c of the rest of the record, unsigned short size of the whole
+ * record, byte BUY or REFUND, byte 0, long tid, short route, short coach,
+ * short seat, short departure, short arrival, and for a buy the passenger
+ * as UTF-8 up to the size
+ * </pre>
+ *
+ * Segments are zero-filled when mapped, so a zero size ends a segment, and
+ * a record that does not fit opens the next one. Appends are serialized, a
+ * record is copied into the segment under a lock held for nothing else.
+ * How long a caller then waits depends on the durability:
+ * <ul>
+ * <li>sync: until its record is forced to disk; one caller forces for
+ * every record appended so far while the others wait for it (group
+ * commit), so concurrent callers share the fsync</li>
+ * <li>batch: not at all, a daemon thread forces every INTERVAL ms, a crash
+ * of the machine loses at most that much</li>
+ * <li>async: not at all, the mapped pages reach the disk whenever the OS
+ * writes them back; this survives a crash of the JVM but not of the
+ * machine</li>
+ * </ul>
+ * A refund is appended before its seat is freed and a buy after its seat
+ * is taken, so replaying the records in order never sells a seat twice.
+ * A record with a wrong checksum ends its segment. {@link Snapshot}s let
+ * recovery start at a later segment and the ones before be deleted.
+ */
+final class Journal implements Closeable {
+	static final String PROPERTY = "ticketingsystem.journal";
+	static final String DURABILITY_PROPERTY = "ticketingsystem.durability";
+	static final String SEGMENT_PROPERTY = "ticketingsystem.journal.segment";
+
+	static final String SYNC = "sync";
+	static final String BATCH = "batch";
+	static final String ASYNC = "async";
+
+	static final int BUY = 1;
+	static final int REFUND = 2;
+
+	static final int HEADER = 26;
+	static final int MAX_RECORD = 0xffff;
+	static final long INTERVAL = 10;
+	static final long DEFAULT_SEGMENT = 64 << 20;
+
+	private static final String PREFIX = "journal-";
+	private static final String SUFFIX = ".log";
+
+	// per thread, a record is encoded and checksummed outside the append lock
+	private static final class Encoder {
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD);
+		final CRC32C crc = new CRC32C();
+	}
+
+	private final Path directory;
+	private final String durability;
+	private final long segmentSize;
+	private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+	private final Object appendLock = new Object();
+	// under appendLock
+	private long segmentIndex;
+	private MappedByteBuffer segment;
+	private int position;
+	private boolean closed;
+	// end of the last record appended as segmentIndex * segmentSize + position
+	private volatile long appended;
+
+	// whoever holds it forces for everybody
+	private final Object forceLock = new Object();
+	private volatile long durable;
+	private final Thread flusher;
+
+	/**
+	 * Appends to a new segment after the ones already in directory, which
+	 * the owner is expected to {@link #read} first.
+	 */
+	Journal(Path directory, String durability, long segmentSize) throws IOException {
+		if (!durability.equals(SYNC) && !durability.equals(BATCH) && !durability.equals(ASYNC)) {
+			throw new IllegalArgumentException("unknown durability: " + durability);
+		}
+		if (segmentSize < MAX_RECORD || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segment size out of range: " + segmentSize);
+		}
+		Files.createDirectories(directory);
+		this.directory = directory;
+		this.durability = durability;
+		this.segmentSize = segmentSize;
+		List<Path> segments = segments(directory);
+		this.segmentIndex = segments.isEmpty() ? 0 : index(segments.get(segments.size() - 1)) + 1;
+		this.segment = map(segmentIndex);
+		this.appended = segmentIndex * segmentSize;
+		this.durable = appended;
+		if (durability.equals(BATCH)) {
+			flusher = new Thread(this::flushPeriodically, "journal-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		} else {
+			flusher = null;
+		}
+	}
+
+	static Journal fromProperties() throws IOException {
+		String directory = System.getProperty(PROPERTY);
+		if (directory == null) {
+			return null;
+		}
+		return new Journal(Path.of(directory), System.getProperty(DURABILITY_PROPERTY, SYNC),
+				Long.getLong(SEGMENT_PROPERTY, DEFAULT_SEGMENT));
+	}
+
+	Path directory() {
+		return directory;
+	}
+
+	String durability() {
+		return durability;
+	}
+
+	private static long index(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	// segments of the directory in the order they were written
+	static List<Path> segments(Path directory) throws IOException {
+		ArrayList<Path> segments = new ArrayList<>();
+		if (Files.isDirectory(directory)) {
+			try (Stream<Path> files = Files.list(directory)) {
+				files.filter(f -> f.getFileName().toString().matches(PREFIX + "\\d+" + SUFFIX))
+						.forEach(segments::add);
+			}
+		}
+		Collections.sort(segments, (a, b) -> Long.compare(index(a), index(b)));
+		return segments;
+	}
+
+	private MappedByteBuffer map(long index) throws IOException {
+		Path file = directory.resolve(String.format("%s%016d%s", PREFIX, index, SUFFIX));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	/**
+	 * Throws IllegalArgumentException if the passenger of a BUY could not be
+	 * recorded: too long for a record, or with an unpaired surrogate that
+	 * UTF-8 would replace.
+	 */
+	static void checkPassenger(String passenger) {
+		int length = 0;
+		for (int i = 0; i < passenger.length(); ++i) {
+			final char c = passenger.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (!Character.isSurrogate(c)) {
+				length += 3;
+			} else if (Character.isHighSurrogate(c) && i + 1 < passenger.length()
+					&& Character.isLowSurrogate(passenger.charAt(i + 1))) {
+				length += 4;
+				++i;
+			} else {
+				throw new IllegalArgumentException("passenger name is not valid UTF-16");
+			}
+		}
+		if (length > MAX_RECORD - HEADER) {
+			throw new IllegalArgumentException("passenger name too long for the journal");
+		}
+	}
+
+	/**
+	 * @return the position the journal has to reach on disk for the record to
+	 *         be durable, see {@link #commit}
+	 */
+	long append(int type, Ticket ticket) {
+		final Encoder encoder = encoders.get();
+		final ByteBuffer record = encoder.buffer;
+		record.clear().position(4);
+		record.putShort((short) 0).put((byte) type).put((byte) 0).putLong(ticket.tid).putShort((short) ticket.route)
+				.putShort((short) ticket.coach).putShort((short) ticket.seat).putShort((short) ticket.departure)
+				.putShort((short) ticket.arrival);
+		if (type == BUY) {
+			byte[] passenger = ticket.passenger.getBytes(StandardCharsets.UTF_8);
+			if (passenger.length > MAX_RECORD - HEADER) {
+				throw new IllegalArgumentException("passenger name too long for the journal");
+			}
+			record.put(passenger);
+		}
+		final int size = record.position();
+		record.putShort(4, (short) size);
+		encoder.crc.reset();
+		encoder.crc.update(record.array(), 4, size - 4);
+		record.putInt(0, (int) encoder.crc.getValue());
+
+		synchronized (appendLock) {
+			if (closed) {
+				throw new IllegalStateException("journal closed");
+			}
+			if (position + size > segmentSize) {
+				rotate();
+			}
+			segment.put(position, record.array(), 0, size);
+			position += size;
+			appended = segmentIndex * segmentSize + position;
+			return appended;
+		}
+	}
+
+	// caller holds appendLock; the old segment is forced first, so that a force
+	// of the current segment covers everything appended before it
+	private void rotate() {
+		if (!durability.equals(ASYNC)) {
+			segment.force();
+		}
+		try {
+			// the index only moves on once the new segment exists
+			segment = map(segmentIndex + 1);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		++segmentIndex;
+		position = 0;
+	}
+
+	/**
+	 * Starts a new segment; everything appended from now on goes to it or a
+	 * later one.
+	 *
+	 * @return the index of the new segment
+	 */
+	long checkpoint() {
+		synchronized (appendLock) {
+			if (closed) {
+				throw new IllegalStateException("journal closed");
+			}
+			rotate();
+			return segmentIndex;
+		}
+	}
+
+	// deletes the segments before index first, a snapshot covers them
+	void truncate(long first) throws IOException {
+		for (Path file : segments(directory)) {
+			if (index(file) < first) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 * Returns once the journal is durable up to lsn as far as the durability
+	 * promises, i.e. after a force in sync mode and at once otherwise.
+	 */
+	void commit(long lsn) {
+		if (durability.equals(SYNC)) {
+			force(lsn);
+		}
+	}
+
+	private void force(long lsn) {
+		while (durable < lsn) {
+			synchronized (forceLock) {
+				if (durable >= lsn) {
+					return;
+				}
+				final long target;
+				final MappedByteBuffer current;
+				synchronized (appendLock) {
+					target = appended;
+					current = segment;
+				}
+				current.force();
+				durable = target;
+			}
+		}
+	}
+
+	private void flushPeriodically() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+			force(appended);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (flusher != null) {
+			flusher.interrupt();
+		}
+		synchronized (appendLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		force(appended);
+	}
+
+	interface Visitor {
+		void record(int type, Ticket ticket);
+	}
+
+	/**
+	 * Reads the segments of directory from index first on, record by record
+	 * in the order they were appended. Refund tickets have no passenger.
+	 */
+	static void read(Path directory, long first, Visitor visitor) throws IOException {
+		final CRC32C crc = new CRC32C();
+		final byte[] record = new byte[MAX_RECORD];
+		for (Path file : segments(directory)) {
+			if (index(file) < first) {
+				continue;
+			}
+			final ByteBuffer in;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			int offset = 0;
+			while (offset + HEADER <= in.limit()) {
+				final int size = in.getShort(offset + 4) & 0xffff;
+				if (size < HEADER || offset + size > in.limit()) {
+					break;
+				}
+				in.get(offset, record, 0, size);
+				crc.reset();
+				crc.update(record, 4, size - 4);
+				if ((int) crc.getValue() != in.getInt(offset)) {
+					break;
+				}
+				Ticket ticket = new Ticket();
+				ticket.tid = in.getLong(offset + 8);
+				ticket.route = in.getShort(offset + 16);
+				ticket.coach = in.getShort(offset + 18);
+				ticket.seat = in.getShort(offset + 20);
+				ticket.departure = in.getShort(offset + 22);
+				ticket.arrival = in.getShort(offset + 24);
+				final int type = in.get(offset + 6);
+				if (type == BUY) {
+					ticket.passenger = new String(record, HEADER, size - HEADER, StandardCharsets.UTF_8);
+				}
+				visitor.record(type, ticket);
+				offset += size;
+			}
+		}
+	}
+}
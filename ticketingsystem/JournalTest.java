@@ -0,0 +1,228 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class JournalTest {
+	final int ROUTENUM = 3;
+	final int COACHNUM = 3;
+	final int SEATNUM = 5;
+	final int STATIONNUM = 8;
+
+	private Path directory;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+
+	private TicketingDS open(String allocator, String durability, long segmentSize) throws IOException {
+		return new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 4, allocator,
+				new Journal(directory, durability, segmentSize));
+	}
+
+	// random buys and refunds on 4 threads, returns the tickets still held
+	private List<Ticket> run(TicketingDS ds, int operations) throws InterruptedException {
+		final List<Ticket> held = new ArrayList<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final int threadid = t;
+			threads[t] = new Thread(() -> {
+				Random rand = new Random(threadid);
+				ArrayList<Ticket> mine = new ArrayList<>();
+				for (int i = 0; i < operations; ++i) {
+					if (rand.nextInt(3) == 0 && !mine.isEmpty()) {
+						assertTrue(ds.refundTicket(mine.remove(rand.nextInt(mine.size()))));
+					} else {
+						int departure = rand.nextInt(STATIONNUM - 1) + 1;
+						int arrival = departure + rand.nextInt(STATIONNUM - departure) + 1;
+						Ticket ticket = ds.buyTicket("p" + threadid + "-" + i, rand.nextInt(ROUTENUM) + 1, departure,
+								arrival);
+						if (ticket != null) {
+							mine.add(ticket);
+						}
+					}
+				}
+				synchronized (held) {
+					held.addAll(mine);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return held;
+	}
+
+	private void assertSameState(TicketingDS expected, TicketingDS actual) {
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			assertArrayEquals(expected.inquiryAll(route), actual.inquiryAll(route));
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+			SeatAllocator.OFFHEAP })
+	void recoversConcurrentRun(String allocator) throws Exception {
+		TicketingDS ds = open(allocator, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		List<Ticket> held = run(ds, 2000);
+		ds.close();
+
+		TicketingDS recovered = open(allocator, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		assertSameState(ds, recovered);
+		long maxTid = 0;
+		for (Ticket ticket : held) {
+			maxTid = Math.max(maxTid, ticket.tid);
+		}
+		Ticket next = recovered.buyTicket("next", 1, 1, 2);
+		assertTrue(next == null || next.tid > maxTid);
+		if (next != null) {
+			assertTrue(recovered.refundTicket(next));
+		}
+		// every ticket sold before the restart can be refunded exactly once after it
+		for (Ticket ticket : held) {
+			assertTrue(recovered.refundTicket(ticket));
+			assertFalse(recovered.refundTicket(ticket));
+		}
+		recovered.close();
+
+		TicketingDS empty = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 1, allocator, (Journal) null);
+		TicketingDS again = open(allocator, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		assertSameState(empty, again);
+		again.close();
+	}
+
+	@Test
+	void rotatesSegments() throws Exception {
+		TicketingDS ds = open(SeatAllocator.CELL, Journal.BATCH, Journal.MAX_RECORD);
+		run(ds, 5000);
+		ds.close();
+		assertTrue(Journal.segments(directory).size() > 2);
+		TicketingDS recovered = open(SeatAllocator.CELL, Journal.ASYNC, Journal.MAX_RECORD);
+		assertSameState(ds, recovered);
+		recovered.close();
+	}
+
+	@Test
+	void tornRecordEndsSegment() throws Exception {
+		TicketingDS ds = open(SeatAllocator.CELL, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		Ticket kept = ds.buyTicket("a", 1, 1, 3);
+		Ticket torn = ds.buyTicket("b", 1, 1, 3);
+		ds.close();
+		// flip a byte of the second record, as if the machine died while writing it
+		Path segment = Journal.segments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long offset = Journal.HEADER + 1 + Journal.HEADER;
+			ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, offset);
+			b.put(0, (byte) (b.get(0) ^ 1)).rewind();
+			channel.write(b, offset);
+		}
+		TicketingDS recovered = open(SeatAllocator.CELL, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		assertEquals(COACHNUM * SEATNUM - 1, recovered.inquiry(1, 1, 3));
+		assertFalse(recovered.refundTicket(torn));
+		assertTrue(recovered.refundTicket(kept));
+		recovered.close();
+	}
+
+	@Test
+	void failedAppendUndoesTheOperation() throws Exception {
+		final Journal journal = new Journal(directory, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		TicketingDS ds = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 4, SeatAllocator.CELL, journal);
+		// passengers the journal could not record are turned away before any seat is taken
+		String tooLong = "p".repeat(Journal.MAX_RECORD);
+		assertThrows(IllegalArgumentException.class, () -> ds.buyTicket(tooLong, 1, 1, 3));
+		assertThrows(IllegalArgumentException.class, () -> ds.buyTicket("\uD800", 1, 1, 3));
+		assertThrows(IllegalArgumentException.class,
+				() -> ds.buyGroup(new String[] { "a", tooLong }, 1, 1, 3, true));
+		assertThrows(IllegalArgumentException.class, () -> ds.buyTickets(
+				List.of(new PurchaseRequest("a", 1, 1, 3), new PurchaseRequest(tooLong, 1, 1, 3))));
+		assertEquals(COACHNUM * SEATNUM, ds.inquiry(1, 1, 3));
+
+		Ticket ticket = ds.buyTicket("a", 1, 1, 3);
+		journal.close();
+		assertThrows(IllegalStateException.class, () -> ds.refundTicket(ticket));
+		// still sold: refunding it again reaches the journal instead of returning false
+		assertEquals(COACHNUM * SEATNUM - 1, ds.inquiry(1, 1, 3));
+		assertThrows(IllegalStateException.class, () -> ds.refundTicket(ticket));
+		ds.close();
+
+		// the journal agrees: the refund never happened, and every other seat sells again
+		TicketingDS reopened = open(SeatAllocator.CELL, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		assertEquals(COACHNUM * SEATNUM - 1, reopened.inquiry(1, 1, 3));
+		for (int i = 1; i < COACHNUM * SEATNUM; ++i) {
+			assertNotNull(reopened.buyTicket("b", 1, 1, 3));
+		}
+		reopened.close();
+		reopened = open(SeatAllocator.CELL, Journal.SYNC, Journal.DEFAULT_SEGMENT);
+		assertEquals(0, reopened.inquiry(1, 1, 3));
+		assertTrue(reopened.refundTicket(ticket));
+		reopened.close();
+	}
+
+	@Test
+	void failedBatchRefundsWhatItJournaled() throws Exception {
+		TicketingDS ds = open(SeatAllocator.CELL, Journal.SYNC, Journal.MAX_RECORD);
+		// the next segment cannot be created, so the batch fails once the first one is full
+		Path blocker = directory.resolve(String.format("journal-%016d.log", 1));
+		Files.createFile(blocker);
+		final List<PurchaseRequest> requests = new ArrayList<>();
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			for (int departure = 1; departure < STATIONNUM; ++departure) {
+				for (int i = 0; i < COACHNUM * SEATNUM; ++i) {
+					requests.add(new PurchaseRequest("p".repeat(1000), route, departure, departure + 1));
+				}
+			}
+		}
+		assertThrows(RuntimeException.class, () -> ds.buyTickets(requests));
+		Files.delete(blocker);
+		// resell whatever the failed batch gave back
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			for (int departure = 1; departure < STATIONNUM; ++departure) {
+				while (ds.buyTicket("q", route, departure, departure + 1) != null) {
+				}
+			}
+		}
+		final int[][][] before = new int[ROUTENUM][][];
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			before[route - 1] = ds.inquiryAll(route);
+		}
+		ds.close();
+
+		TicketingDS reopened = open(SeatAllocator.CELL, Journal.SYNC, Journal.MAX_RECORD);
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			assertArrayEquals(before[route - 1], reopened.inquiryAll(route));
+		}
+		reopened.close();
+	}
+
+	@Test
+	void rejectsUnknownDurability() {
+		assertThrows(IllegalArgumentException.class, () -> new Journal(directory, "never", Journal.DEFAULT_SEGMENT));
+	}
+}
@@ -0,0 +1,144 @@
+package ticketingsystem;
+
+import java.io.PrintStream;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram: values below
+ * 2^SUB_BITS ns get a bucket each, every further power of two is split into
+ * 2^(SUB_BITS - 1) buckets, so a bucket is never wider than 1/128 of its
+ * values. Values of 2^MAX_BITS ns (about 68 s) and more share the last
+ * bucket, the exact maximum is kept aside. Recording does not allocate; not
+ * thread-safe, give every thread its own and merge them.
+ */
+final class LatencyHistogram {
+	private static final int SUB_BITS = 8;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT >>> 1;
+	private static final int MAX_BITS = 36;
+	static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+	private final long[] counts = new long[SUB_COUNT + (MAX_BITS - SUB_BITS) * HALF_COUNT];
+	private long totalCount;
+	private long sum;
+	private double sumOfSquares;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	private static int bucket(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		// value is in [2^k, 2^(k + 1)), its top SUB_BITS bits pick the bucket
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		if (shift > MAX_BITS - SUB_BITS) {
+			return SUB_COUNT + (MAX_BITS - SUB_BITS) * HALF_COUNT - 1;
+		}
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (int) (value >>> shift) - HALF_COUNT;
+	}
+
+	// largest value that falls into the bucket
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_COUNT) / HALF_COUNT + 1;
+		long top = (bucket - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+		return ((top + 1) << shift) - 1;
+	}
+
+	void record(long value) {
+		value = Math.max(value, 0);
+		++counts[bucket(value)];
+		++totalCount;
+		sum += value;
+		sumOfSquares += (double) value * value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	LatencyHistogram merge(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		sum += other.sum;
+		sumOfSquares += other.sumOfSquares;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+
+	long count() {
+		return totalCount;
+	}
+
+	long max() {
+		return max;
+	}
+
+	long min() {
+		return totalCount == 0 ? 0 : min;
+	}
+
+	double mean() {
+		return totalCount == 0 ? 0 : (double) sum / totalCount;
+	}
+
+	double stdDeviation() {
+		if (totalCount == 0) {
+			return 0;
+		}
+		double mean = mean();
+		return Math.sqrt(Math.max(0, sumOfSquares / totalCount - mean * mean));
+	}
+
+	/**
+	 * @return a value at least as large as percentile % of the recorded ones,
+	 *         within the width of its bucket
+	 */
+	long valueAtPercentile(double percentile) {
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+		long seen = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	String percentiles() {
+		StringBuilder sb = new StringBuilder();
+		for (double p : PERCENTILES) {
+			sb.append("p").append(p).append(": ").append(valueAtPercentile(p)).append(" ns, ");
+		}
+		return sb.append("max: ").append(max).append(" ns").toString();
+	}
+
+	/**
+	 * Writes the percentile distribution in the .hgrm text format of
+	 * HdrHistogram, values in microseconds, one line per non-empty bucket,
+	 * so that runs can be compared with its plotting tools.
+	 */
+	void writeHgrm(PrintStream out) {
+		out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+		long seen = 0;
+		for (int i = 0; i < counts.length; ++i) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			seen += counts[i];
+			double percentile = (double) seen / totalCount;
+			long value = Math.min(highestValue(i), max);
+			if (seen < totalCount) {
+				out.printf("%12.3f %1.12f %10d %14.2f%n", value / 1000.0, percentile, seen, 1 / (1 - percentile));
+			} else {
+				out.printf("%12.3f %1.12f %10d%n", value / 1000.0, percentile, seen);
+			}
+		}
+		out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean() / 1000.0, stdDeviation() / 1000.0);
+		out.printf("#[Max     = %12.3f, Total count    = %12d]%n", max / 1000.0, totalCount);
+		out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", MAX_BITS - SUB_BITS + 1, SUB_COUNT);
+	}
+}
@@ -0,0 +1,56 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	@Test
+	void percentilesWithinBucketWidth() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100_000; ++value) {
+			histogram.record(value);
+		}
+		assertEquals(100_000, histogram.count());
+		assertEquals(1, histogram.min());
+		assertEquals(100_000, histogram.max());
+		for (double p : LatencyHistogram.PERCENTILES) {
+			long exact = (long) Math.ceil(p / 100 * 100_000);
+			long reported = histogram.valueAtPercentile(p);
+			assertTrue(reported >= exact && reported <= exact + exact / 128, p + ": " + reported);
+		}
+		assertEquals(100_000, histogram.valueAtPercentile(100));
+	}
+
+	@Test
+	void mergeEqualsRecordingTogether() {
+		LatencyHistogram together = new LatencyHistogram();
+		LatencyHistogram left = new LatencyHistogram();
+		LatencyHistogram right = new LatencyHistogram();
+		Random rand = new Random(1);
+		for (int i = 0; i < 10_000; ++i) {
+			long value = (long) Math.exp(rand.nextDouble() * 20);
+			together.record(value);
+			(i % 3 == 0 ? left : right).record(value);
+		}
+		// beyond the tracked range, only the maximum stays exact
+		together.record(1L << 40);
+		right.record(1L << 40);
+		left.merge(right);
+		assertEquals(together.count(), left.count());
+		assertEquals(1L << 40, left.max());
+		for (double p : new double[] { 1, 25, 50, 90, 99, 99.9, 99.99, 100 }) {
+			assertEquals(together.valueAtPercentile(p), left.valueAtPercentile(p));
+		}
+		ByteArrayOutputStream a = new ByteArrayOutputStream();
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		together.writeHgrm(new PrintStream(a));
+		left.writeHgrm(new PrintStream(b));
+		assertEquals(a.toString(), b.toString());
+	}
+}
@@ -0,0 +1,478 @@
+package ticketingsystem;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Linearizability checker for histories of GenerateHistory, text or binary,
+ * in place of VeriLin. Operations on different routes commute, so a history
+ * is linearizable if and only if each route's part is; routes are split off
+ * with Replay.partition and checked in a fork-join pool. Within a route the
+ * history is cut at quiescent points, where everything called so far has
+ * returned: every operation before the cut is linearized there, and since
+ * the seat occupancy depends only on which buys and refunds took effect,
+ * not on their order, the stretches between cuts are searched one at a time.
+ * The search is the one of Wing and Gong with Lowe's memoization of the
+ * sets of linearized operations, which determine the occupancy as well.
+ * Memory holds the routes being checked and the configurations of one
+ * stretch, at most MAX_CONFIGURATIONS of them before the route is given up.
+ */
+public class LinearizabilityChecker {
+	static final int MAX_CONFIGURATIONS = 1 << 22;
+	// longest failing stretch whose shortest failing prefix is searched, longer ones are reported whole
+	static final int MAX_MINIMIZED = 4096;
+
+	static final int LINEARIZABLE = 0;
+	static final int NOT_LINEARIZABLE = 1;
+	static final int GAVE_UP = 2;
+
+	/**
+	 * Sequential specification of one route: which seat is sold on which
+	 * segment, free seats per range and the tickets on sale.
+	 */
+	static final class RouteModel {
+		private final int seatnum;
+		private final int seats;
+		private final int stationnum;
+		// per seat index, bit s for the segment from station s to s + 1
+		private final long[] occupied;
+		// free seats of [departure, arrival] at departure * (stationnum + 1) + arrival
+		private final int[] free;
+		// tid -> seatIndex << 16 | departure << 8 | arrival
+		private final HashMap<Long, Long> sold = new HashMap<>();
+
+		RouteModel(int coachnum, int seatnum, int stationnum) {
+			if (stationnum > 63 || stationnum < 2) {
+				throw new IllegalArgumentException("stations must be in [2, 63]: " + stationnum);
+			}
+			this.seatnum = seatnum;
+			this.seats = coachnum * seatnum;
+			this.stationnum = stationnum;
+			this.occupied = new long[seats];
+			this.free = new int[(stationnum + 1) * (stationnum + 1)];
+			Arrays.fill(free, seats);
+		}
+
+		private static long mask(int departure, int arrival) {
+			return ((1L << (arrival - departure)) - 1) << departure;
+		}
+
+		private void set(int seatIndex, long after) {
+			final long before = occupied[seatIndex];
+			occupied[seatIndex] = after;
+			for (int departure = 1; departure < stationnum; ++departure) {
+				for (int arrival = departure + 1; arrival <= stationnum; ++arrival) {
+					long m = mask(departure, arrival);
+					boolean wasFree = (before & m) == 0;
+					if (wasFree != ((after & m) == 0)) {
+						free[departure * (stationnum + 1) + arrival] += wasFree ? -1 : 1;
+					}
+				}
+			}
+		}
+
+		int freeSeats(int departure, int arrival) {
+			return free[departure * (stationnum + 1) + arrival];
+		}
+
+		/**
+		 * Applies operation i of the stretch if its result is possible in the
+		 * current state.
+		 *
+		 * @return whether it was
+		 */
+		boolean apply(Stretch ops, int i) {
+			final int departure = ops.departures[i];
+			final int arrival = ops.arrivals[i];
+			if (departure < 1 || departure >= arrival || arrival > stationnum) {
+				return false;
+			}
+			switch (ops.operations[i]) {
+				case Replay.BUY:
+					if (!ops.results[i]) {
+						return freeSeats(departure, arrival) == 0;
+					}
+					int seatIndex = ops.seatIndex(i, seatnum);
+					if (seatIndex < 0 || seatIndex >= seats || (occupied[seatIndex] & mask(departure, arrival)) != 0
+							|| sold.containsKey(ops.tids[i])) {
+						return false;
+					}
+					set(seatIndex, occupied[seatIndex] | mask(departure, arrival));
+					sold.put(ops.tids[i], ticket(seatIndex, departure, arrival));
+					return true;
+				case Replay.REFUND:
+					Long ticket = sold.get(ops.tids[i]);
+					boolean onSale = ticket != null
+							&& ticket == ticket(ops.seatIndex(i, seatnum), departure, arrival);
+					if (ops.results[i] && onSale) {
+						sold.remove(ops.tids[i]);
+						int refunded = (int) (ticket >>> 16);
+						set(refunded, occupied[refunded] & ~mask(departure, arrival));
+						return true;
+					}
+					return !ops.results[i] && !onSale;
+				default:
+					return freeSeats(departure, arrival) == ops.counts[i];
+			}
+		}
+
+		// takes back a successful apply of the same operation
+		void undo(Stretch ops, int i) {
+			if (!ops.results[i] || ops.operations[i] == Replay.INQUIRY) {
+				return;
+			}
+			final int departure = ops.departures[i];
+			final int arrival = ops.arrivals[i];
+			final int seatIndex = ops.seatIndex(i, seatnum);
+			if (ops.operations[i] == Replay.BUY) {
+				sold.remove(ops.tids[i]);
+				set(seatIndex, occupied[seatIndex] & ~mask(departure, arrival));
+			} else {
+				sold.put(ops.tids[i], ticket(seatIndex, departure, arrival));
+				set(seatIndex, occupied[seatIndex] | mask(departure, arrival));
+			}
+		}
+
+		private static long ticket(int seatIndex, int departure, int arrival) {
+			return (long) seatIndex << 16 | departure << 8 | arrival;
+		}
+	}
+
+	// operations of one stretch of a route, in call order
+	static final class Stretch {
+		final int size;
+		final long[] pretimes;
+		final long[] posttimes;
+		final int[] operations;
+		final boolean[] results;
+		final long[] tids;
+		final int[] coaches;
+		final int[] counts;
+		final int[] departures;
+		final int[] arrivals;
+
+		Stretch(long[] records, int[] order, int from, int to) {
+			size = to - from;
+			pretimes = new long[size];
+			posttimes = new long[size];
+			operations = new int[size];
+			results = new boolean[size];
+			tids = new long[size];
+			coaches = new int[size];
+			counts = new int[size];
+			departures = new int[size];
+			arrivals = new int[size];
+			for (int i = 0; i < size; ++i) {
+				int r = order[from + i] * Replay.RECORD;
+				pretimes[i] = records[r + Replay.PRETIME];
+				posttimes[i] = records[r + Replay.POSTTIME];
+				operations[i] = (int) (records[r + Replay.OPERATION] & 3);
+				results[i] = (records[r + Replay.OPERATION] & 1 << 2) != 0;
+				tids[i] = records[r + Replay.TID];
+				coaches[i] = (int) (records[r + Replay.SEAT] >>> 32);
+				counts[i] = (int) records[r + Replay.SEAT];
+				departures[i] = (int) (records[r + Replay.SEGMENT] >>> 32);
+				arrivals[i] = (int) records[r + Replay.SEGMENT];
+			}
+		}
+
+		int seatIndex(int i, int seatnum) {
+			int seat = counts[i];
+			return seat < 1 || seat > seatnum || coaches[i] < 1 ? -1 : (coaches[i] - 1) * seatnum + seat - 1;
+		}
+	}
+
+	/**
+	 * A set of linearized operations as the length low of the prefix (in call
+	 * order) that is linearized entirely and the words of the bit set from
+	 * there to the last linearized operation; real-time order keeps the rest
+	 * short, so memory does not grow with the length of a stretch.
+	 */
+	private static final class Configuration {
+		private final int low;
+		private final long[] words;
+		private final int hash;
+
+		Configuration(long[] linearized, int low, int high) {
+			this.low = low;
+			this.words = high < low ? new long[0] : Arrays.copyOfRange(linearized, low >>> 6, (high >>> 6) + 1);
+			this.hash = 31 * low + Arrays.hashCode(words);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Configuration)) {
+				return false;
+			}
+			Configuration other = (Configuration) o;
+			return low == other.low && Arrays.equals(words, other.words);
+		}
+	}
+
+	private static boolean isSet(long[] bits, int i) {
+		return (bits[i >>> 6] & 1L << i) != 0;
+	}
+
+	/**
+	 * Searches a linearization of the first count operations of the stretch,
+	 * taking each as complete. On success model holds the state after them
+	 * and linearization, if not null, their order; otherwise model is left
+	 * as it was.
+	 *
+	 * @return LINEARIZABLE, NOT_LINEARIZABLE or GAVE_UP
+	 */
+	static int search(RouteModel model, Stretch ops, int count, int[] linearization) {
+		// event lists: call of i at i, return of i at count + i, head at 2 * count
+		final int head = 2 * count;
+		final int[] next = new int[head + 1];
+		final int[] prev = new int[head + 1];
+		Integer[] events = new Integer[head];
+		for (int e = 0; e < head; ++e) {
+			events[e] = e;
+		}
+		// by time, calls before returns of the same time
+		Arrays.sort(events, (a, b) -> {
+			long ta = a < count ? ops.pretimes[a] : ops.posttimes[a - count];
+			long tb = b < count ? ops.pretimes[b] : ops.posttimes[b - count];
+			return ta != tb ? Long.compare(ta, tb) : Boolean.compare(a >= count, b >= count);
+		});
+		int last = head;
+		for (Integer e : events) {
+			next[last] = e;
+			prev[e] = last;
+			last = e;
+		}
+		next[last] = head;
+		prev[head] = last;
+
+		final long[] linearized = new long[(count + 63) >>> 6];
+		// first operation not linearized, last one linearized
+		int low = 0;
+		int high = -1;
+		final HashSet<Configuration> seen = new HashSet<>();
+		final int[] stack = new int[count];
+		int depth = 0;
+		int entry = next[head];
+		while (entry != head) {
+			if (entry < count) {
+				final int op = entry;
+				if (model.apply(ops, op)) {
+					linearized[op >>> 6] |= 1L << op;
+					int newLow = low;
+					while (newLow < count && isSet(linearized, newLow)) {
+						++newLow;
+					}
+					if (seen.add(new Configuration(linearized, newLow, Math.max(high, op)))) {
+						if (seen.size() > MAX_CONFIGURATIONS) {
+							linearized[op >>> 6] &= ~(1L << op);
+							model.undo(ops, op);
+							unwind(model, ops, stack, depth);
+							return GAVE_UP;
+						}
+						low = newLow;
+						high = Math.max(high, op);
+						stack[depth++] = op;
+						// lift the call and the return out of the list
+						next[prev[op]] = next[op];
+						prev[next[op]] = prev[op];
+						next[prev[count + op]] = next[count + op];
+						prev[next[count + op]] = prev[count + op];
+						entry = next[head];
+						continue;
+					}
+					linearized[op >>> 6] &= ~(1L << op);
+					model.undo(ops, op);
+				}
+				entry = next[entry];
+			} else {
+				// an operation returned before anything linearized it, backtrack
+				if (depth == 0) {
+					return NOT_LINEARIZABLE;
+				}
+				final int op = stack[--depth];
+				linearized[op >>> 6] &= ~(1L << op);
+				low = Math.min(low, op);
+				while (high >= 0 && !isSet(linearized, high)) {
+					--high;
+				}
+				model.undo(ops, op);
+				next[prev[count + op]] = count + op;
+				prev[next[count + op]] = count + op;
+				next[prev[op]] = op;
+				prev[next[op]] = op;
+				entry = next[op];
+			}
+		}
+		if (linearization != null) {
+			System.arraycopy(stack, 0, linearization, 0, depth);
+		}
+		return LINEARIZABLE;
+	}
+
+	private static void unwind(RouteModel model, Stretch ops, int[] stack, int depth) {
+		while (depth > 0) {
+			model.undo(ops, stack[--depth]);
+		}
+	}
+
+	/**
+	 * Checks one route, records of Replay.partition in file order.
+	 *
+	 * @return LINEARIZABLE, or NOT_LINEARIZABLE with failedPrefix[0] set to
+	 *         the length of the shortest failing prefix in call order (up to
+	 *         the end of the failing stretch if it is longer than
+	 *         MAX_MINIMIZED), or GAVE_UP with failedPrefix[0] at the start of
+	 *         the stretch
+	 */
+	static int checkRoute(long[] records, int[] order, int coachnum, int seatnum, int stationnum,
+			int[] failedPrefix) {
+		final RouteModel model = new RouteModel(coachnum, seatnum, stationnum);
+		final int count = order.length;
+		int from = 0;
+		while (from < count) {
+			long lastReturn = records[order[from] * Replay.RECORD + Replay.POSTTIME];
+			int to = from + 1;
+			while (to < count && records[order[to] * Replay.RECORD + Replay.PRETIME] <= lastReturn) {
+				lastReturn = Math.max(lastReturn, records[order[to] * Replay.RECORD + Replay.POSTTIME]);
+				++to;
+			}
+			final Stretch ops = new Stretch(records, order, from, to);
+			final int result = search(model, ops, ops.size, null);
+			if (result == GAVE_UP) {
+				failedPrefix[0] = from;
+				return GAVE_UP;
+			}
+			if (result == NOT_LINEARIZABLE) {
+				if (ops.size > MAX_MINIMIZED) {
+					failedPrefix[0] = to;
+					return NOT_LINEARIZABLE;
+				}
+				// adding operations can make a prefix linearizable again, so try every length
+				final int[] linearization = new int[ops.size];
+				for (int k = 1; k <= ops.size; ++k) {
+					int r = search(model, ops, k, linearization);
+					if (r == LINEARIZABLE) {
+						unwind(model, ops, linearization, k);
+					} else {
+						failedPrefix[0] = from + k;
+						return r;
+					}
+				}
+				failedPrefix[0] = to;
+				return NOT_LINEARIZABLE;
+			}
+			from = to;
+		}
+		return LINEARIZABLE;
+	}
+
+	/**
+	 * Checks every route of the history, writing the shortest failing
+	 * prefix of each failing route, in call order, to failed.
+	 *
+	 * @return the number of routes that are not linearizable or were given up
+	 */
+	static int check(String fileName, int routenum, int coachnum, int seatnum, int stationnum, PrintStream failed)
+			throws IOException, InterruptedException, ExecutionException {
+		final Path dir = Files.createTempDirectory("linearizability");
+		final ForkJoinPool pool = new ForkJoinPool();
+		try {
+			final long lines = Replay.partition(fileName, dir, routenum);
+			final ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+			for (int route = 1; route <= routenum; ++route) {
+				final int r = route;
+				final Path spill = dir.resolve(Integer.toString(route));
+				if (!Files.exists(spill)) {
+					continue;
+				}
+				tasks.add(pool.submit(() -> {
+					long[] records;
+					try {
+						records = Replay.readSpill(spill);
+						Files.delete(spill);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					int[] order = Replay.sortedOrder(records, records.length / Replay.RECORD, Replay.PRETIME);
+					int[] prefix = new int[1];
+					int result = checkRoute(records, order, coachnum, seatnum, stationnum, prefix);
+					if (result == LINEARIZABLE) {
+						return true;
+					}
+					synchronized (failed) {
+						if (result == GAVE_UP) {
+							System.out.println("route " + r + ": gave up after " + MAX_CONFIGURATIONS
+									+ " configurations at line " + prefix[0]);
+							return false;
+						}
+						System.out.println("route " + r + ": not linearizable, shortest failing prefix has "
+								+ prefix[0] + " lines");
+						try (Replay.HistoryReader reader = new Replay.HistoryReader(fileName)) {
+							for (int i = 0; i < prefix[0]; ++i) {
+								reader.seek(records[order[i] * Replay.RECORD + Replay.OFFSET]);
+								reader.next();
+								failed.println(reader.text());
+							}
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+					return false;
+				}));
+			}
+			int failures = 0;
+			for (ForkJoinTask<Boolean> task : tasks) {
+				if (!task.get()) {
+					++failures;
+				}
+			}
+			System.out.println("checked " + lines + " lines on " + tasks.size() + " routes, " + failures + " failed");
+			return failures;
+		} finally {
+			pool.shutdown();
+			for (File file : dir.toFile().listFiles()) {
+				file.delete();
+			}
+			Files.delete(dir);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 2) {
+			System.out.println("args: <historyFile> <failedPrefixFile>");
+			return;
+		}
+		Replay.readConfig("TrainConfig");
+		final long startMs = System.currentTimeMillis();
+		int failures = 1;
+		try (PrintStream failed = new PrintStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(args[1]))))) {
+			failures = check(args[0], Replay.routenum, Replay.coachnum, Replay.seatnum, Replay.stationnum, failed);
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(e);
+		} catch (ExecutionException e) {
+			System.out.println(e.getCause());
+		}
+		System.out.println("checking time = " + (System.currentTimeMillis() - startMs));
+		if (failures != 0) {
+			System.exit(1);
+		}
+	}
+}
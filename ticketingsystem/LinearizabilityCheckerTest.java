@@ -0,0 +1,139 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LinearizabilityCheckerTest {
+	private File history;
+	private ByteArrayOutputStream failed;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		history = File.createTempFile("history", "");
+		failed = new ByteArrayOutputStream();
+	}
+
+	@AfterEach
+	void tearDown() {
+		history.delete();
+	}
+
+	private int check(List<String> lines, int routenum, int coachnum, int seatnum, int stationnum) throws Exception {
+		Files.write(history.toPath(), lines);
+		failed.reset();
+		try (PrintStream out = new PrintStream(failed)) {
+			return LinearizabilityChecker.check(history.getPath(), routenum, coachnum, seatnum, stationnum, out);
+		}
+	}
+
+	private List<String> failedLines() {
+		String text = failed.toString().trim();
+		return text.isEmpty() ? List.of() : Arrays.asList(text.split("\n"));
+	}
+
+	@Test
+	void concurrentRunIsLinearizable() throws Exception {
+		final TicketingDS ds = new TicketingDS(2, 2, 3, 5, 4);
+		final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final int threadid = t;
+			threads[t] = new Thread(() -> {
+				Random rand = new Random(threadid);
+				ArrayList<Ticket> held = new ArrayList<>();
+				for (int i = 0; i < 20_000; ++i) {
+					int route = rand.nextInt(2) + 1;
+					int departure = rand.nextInt(4) + 1;
+					int arrival = departure + rand.nextInt(5 - departure) + 1;
+					int op = rand.nextInt(10);
+					long pretime = System.nanoTime();
+					String line;
+					if (op < 2 && !held.isEmpty()) {
+						Ticket t1 = held.remove(rand.nextInt(held.size()));
+						boolean res = ds.refundTicket(t1);
+						line = "refundTicket " + t1.tid + " " + t1.passenger + " " + t1.route + " " + t1.coach + " "
+								+ t1.departure + " " + t1.arrival + " " + t1.seat + " " + res;
+					} else if (op < 6) {
+						Ticket t1 = ds.buyTicket("p" + i, route, departure, arrival);
+						if (t1 == null) {
+							line = "buyTicket 0 p" + i + " " + route + " 0 " + departure + " " + arrival + " 0 false";
+						} else {
+							held.add(t1);
+							line = "buyTicket " + t1.tid + " " + t1.passenger + " " + t1.route + " " + t1.coach + " "
+									+ t1.departure + " " + t1.arrival + " " + t1.seat + " true";
+						}
+					} else {
+						int count = ds.inquiry(route, departure, arrival);
+						line = "inquiry 0 p" + i + " " + route + " 0 " + departure + " " + arrival + " " + count
+								+ " true";
+					}
+					lines.add(pretime + " " + System.nanoTime() + " " + threadid + " " + line);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, check(new ArrayList<>(lines), 2, 2, 3, 5));
+		assertTrue(failedLines().isEmpty());
+	}
+
+	@Test
+	void overlappingOperationsMayReorder() throws Exception {
+		// the inquiry overlaps the buy, so it may take effect first
+		assertEquals(0, check(List.of(
+				"0 10 0 buyTicket 1 a 1 1 1 3 1 true",
+				"2 3 1 inquiry 0 b 1 0 1 3 1 true"), 1, 1, 1, 3));
+		// a refund overlapping a failed buy of the same seat frees it in time
+		assertEquals(0, check(List.of(
+				"0 1 0 buyTicket 1 a 1 1 1 3 1 true",
+				"2 10 0 buyTicket 2 b 1 1 1 3 1 true",
+				"3 4 1 refundTicket 1 a 1 1 1 3 1 true"), 1, 1, 1, 3));
+	}
+
+	@Test
+	void reportsShortestFailingPrefix() throws Exception {
+		List<String> lines = List.of(
+				"0 1 0 buyTicket 1 a 1 1 1 3 1 true",
+				"2 3 0 inquiry 0 a 1 0 1 3 0 true",
+				// the inquiry returned before this call, it cannot see a free seat
+				"4 5 1 inquiry 0 b 1 0 1 2 1 true",
+				"6 7 0 refundTicket 1 a 1 1 1 3 1 true",
+				"8 9 1 inquiry 0 b 1 0 1 3 1 true");
+		assertEquals(1, check(lines, 1, 1, 1, 3));
+		assertEquals(lines.subList(0, 3), failedLines());
+		// a route that is fine alongside does not fail
+		ArrayList<String> twoRoutes = new ArrayList<>(lines);
+		twoRoutes.add("0 1 2 buyTicket 2 c 2 1 1 3 1 true");
+		assertEquals(1, check(twoRoutes, 2, 1, 1, 3));
+	}
+
+	@Test
+	void rejectsDoubleSaleAndUnknownRefund() throws Exception {
+		assertEquals(1, check(List.of(
+				"0 1 0 buyTicket 1 a 1 1 1 3 1 true",
+				"2 3 1 buyTicket 2 b 1 1 2 3 1 true"), 1, 1, 1, 3));
+		assertEquals(1, check(List.of(
+				"0 1 0 refundTicket 7 a 1 1 1 3 1 true"), 1, 1, 1, 3));
+		assertEquals(0, check(List.of(
+				"0 1 0 buyTicket 1 a 1 1 1 2 1 true",
+				"2 3 1 buyTicket 2 b 1 1 2 3 1 true",
+				"4 5 0 refundTicket 1 a 1 1 1 2 1 true",
+				"6 7 0 refundTicket 1 a 1 1 1 2 1 false"), 1, 1, 1, 3));
+	}
+}
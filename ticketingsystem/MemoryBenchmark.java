@@ -0,0 +1,116 @@
+package ticketingsystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class MemoryBenchmark {
+
+	private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	static long allocatedBytes() {
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("args: <testnum>");
+			return;
+		}
+		final int testnum = Integer.parseInt(args[0]);
+		ConfigReader.readConfig("TrainConfig");
+
+		long before = usedHeap();
+		TicketingDS ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+				ConfigReader.stationnum, 1, ConfigReader.allocator);
+		long after = usedHeap();
+		System.out.println("retained heap: " + (after - before) / (1024.0 * 1024.0) + " MB");
+
+		final Random rand = new Random(20221027L);
+		final String[] passengers = new String[1024];
+		for (int i = 0; i < passengers.length; ++i) {
+			passengers[i] = "p" + i;
+		}
+		final ArrayList<Ticket> tickets = new ArrayList<>(testnum);
+		final int[] routes = new int[testnum];
+		final int[] departures = new int[testnum];
+		final int[] arrivals = new int[testnum];
+		for (int i = 0; i < testnum; ++i) {
+			routes[i] = rand.nextInt(ConfigReader.routenum) + 1;
+			departures[i] = rand.nextInt(ConfigReader.stationnum - 1) + 1;
+			arrivals[i] = departures[i] + rand.nextInt(ConfigReader.stationnum - departures[i]) + 1;
+		}
+
+		// warm up the JIT before measuring
+		for (int round = 0; round < 2; ++round) {
+			for (int i = 0; i < testnum; ++i) {
+				Ticket t = ds.buyTicket(passengers[i & 1023], routes[i], departures[i], arrivals[i]);
+				if (t != null) {
+					tickets.add(t);
+				}
+			}
+			for (Ticket t : tickets) {
+				ds.refundTicket(t);
+			}
+			tickets.clear();
+		}
+
+		// a Ticket is the only allocation the API requires, report it separately
+		long ticketBytes = allocatedBytes();
+		for (int i = 0; i < testnum; ++i) {
+			tickets.add(new Ticket());
+		}
+		ticketBytes = allocatedBytes() - ticketBytes;
+		tickets.clear();
+
+		int sold = 0;
+		long buyBytes = allocatedBytes();
+		long buyTime = System.nanoTime();
+		for (int i = 0; i < testnum; ++i) {
+			Ticket t = ds.buyTicket(passengers[i & 1023], routes[i], departures[i], arrivals[i]);
+			if (t != null) {
+				tickets.add(t);
+				++sold;
+			}
+		}
+		buyTime = System.nanoTime() - buyTime;
+		buyBytes = allocatedBytes() - buyBytes;
+		System.out.println("retained heap after sales: " + (usedHeap() - before) / (1024.0 * 1024.0) + " MB");
+
+		long inquiryBytes = allocatedBytes();
+		for (int i = 0; i < testnum; ++i) {
+			ds.inquiry(routes[i], departures[i], arrivals[i]);
+		}
+		inquiryBytes = allocatedBytes() - inquiryBytes;
+
+		long refundBytes = allocatedBytes();
+		long refundTime = System.nanoTime();
+		for (Ticket t : tickets) {
+			ds.refundTicket(t);
+		}
+		refundTime = System.nanoTime() - refundTime;
+		refundBytes = allocatedBytes() - refundBytes;
+
+		System.out.println("sold: " + sold + " / " + testnum);
+		System.out.println("buy: " + (double) buyBytes / testnum + " B/op"
+				+ ", excluding Ticket: " + (double) (buyBytes - ticketBytes * sold / testnum) / testnum + " B/op"
+				+ ", " + (double) buyTime / testnum + " ns/op");
+		System.out.println("refund: " + (double) refundBytes / Math.max(sold, 1) + " B/op"
+				+ ", " + (double) refundTime / Math.max(sold, 1) + " ns/op");
+		System.out.println("inquiry: " + (double) inquiryBytes / testnum + " B/op");
+	}
+}
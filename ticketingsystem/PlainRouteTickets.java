@@ -0,0 +1,211 @@
+package ticketingsystem;
+
+/**
+ * Interval cell engine for a route owned by a single thread: the cells and
+ * availability counters of {@link RouteTickets} over plain occupancy words,
+ * without any lock or atomic. Not thread-safe.
+ */
+final class PlainRouteTickets implements SeatAllocator {
+	private final int coachnum;
+	private final int seatnum;
+	private final int stationnum;
+	private final int wordsPerSeat;
+	// [departure][arrival]
+	private final SeatSet[][] stations;
+	// [seatIndex * wordsPerSeat + word], laid out like SeatOccupancy
+	private final long[] gapLocks;
+	// [departure * (stationnum + 1) + arrival], number of seats free on the whole range
+	private final int[] availableSeats;
+
+	PlainRouteTickets(int coachnum, int seatnum, int stationnum) {
+		this.coachnum = coachnum;
+		this.seatnum = seatnum;
+		this.stationnum = stationnum;
+		this.wordsPerSeat = SeatOccupancy.wordsPerSeat(stationnum);
+		this.stations = new SeatSet[stationnum + 1][stationnum + 1];
+		this.gapLocks = new long[coachnum * seatnum * wordsPerSeat];
+		this.availableSeats = new int[(stationnum + 1) * (stationnum + 1)];
+
+		for (int i = 1; i <= stationnum; ++i) {
+			for (int j = i + 1; j <= stationnum; ++j) {
+				this.stations[i][j] = new SeatSet(coachnum * seatnum);
+				this.availableSeats[rangeIndex(i, j)] = coachnum * seatnum;
+			}
+		}
+		for (int seatIndex = 0; seatIndex < coachnum * seatnum; ++seatIndex) {
+			this.stations[1][stationnum].addSeat(seatIndex);
+		}
+	}
+
+	private int rangeIndex(int departure, int arrival) {
+		return departure * (stationnum + 1) + arrival;
+	}
+
+	private void updateAvailableSeats(int departure, int arrival, int left, int right, int delta) {
+		for (int d = left; d < arrival; ++d) {
+			for (int a = Math.max(d, departure) + 1; a <= right; ++a) {
+				availableSeats[rangeIndex(d, a)] += delta;
+			}
+		}
+	}
+
+	private boolean isSold(int seatIndex, int station) {
+		return (gapLocks[seatIndex * wordsPerSeat + (station >>> 6)] & (1L << station)) != 0;
+	}
+
+	private int freeLeft(int seatIndex, int departure) {
+		int left = departure;
+		while (left > 1 && !isSold(seatIndex, left)) {
+			--left;
+		}
+		return left;
+	}
+
+	private int freeRight(int seatIndex, int arrival) {
+		int right = arrival;
+		while (right < stationnum && !isSold(seatIndex, right + 1)) {
+			++right;
+		}
+		return right;
+	}
+
+	// a seat taken out of the cell [left, right] goes to the cells of its free pieces
+	private void claimSeat(int seatIndex, int departure, int arrival, int left, int right) {
+		if (left < departure) {
+			stations[left][departure].addSeat(seatIndex);
+		}
+		if (arrival < right) {
+			stations[arrival][right].addSeat(seatIndex);
+		}
+		final int base = seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			gapLocks[base + w] |= SeatOccupancy.gapMask(w, departure, arrival);
+		}
+		updateAvailableSeats(departure, arrival, left, right, -1);
+	}
+
+	@Override
+	public int allocateCoachSeat(int departure, int arrival) {
+		if (availableSeats[rangeIndex(departure, arrival)] == 0) {
+			return -1;
+		}
+		if (!stations[1][stationnum].isEmpty()) {
+			int seatIndex = stations[1][stationnum].pollSeat();
+			claimSeat(seatIndex, departure, arrival, 1, stationnum);
+			return seatIndex;
+		}
+		for (int left = departure; left >= 1; --left) {
+			for (int right = arrival; right <= stationnum; ++right) {
+				SeatSet cell = stations[left][right];
+				if (!cell.isEmpty()) {
+					int seatIndex = cell.pollSeat();
+					claimSeat(seatIndex, departure, arrival, left, right);
+					return seatIndex;
+				}
+			}
+		}
+		throw new IllegalStateException("availability counter out of sync with the cells");
+	}
+
+	@Override
+	public boolean allocateGroup(int departure, int arrival, int[] seatIndices, int count, boolean sameCoach) {
+		final int seatCount = coachnum * seatnum;
+		final int span = sameCoach ? seatnum : seatCount;
+		if (count > span || availableSeats[rangeIndex(departure, arrival)] < count) {
+			return false;
+		}
+		for (int first = 0; first < seatCount; first += span) {
+			int found = 0;
+			for (int seatIndex = first; seatIndex < first + span && found < count; ++seatIndex) {
+				if (isFree(seatIndex, departure, arrival)) {
+					seatIndices[found++] = seatIndex;
+				}
+			}
+			if (found == count) {
+				for (int k = 0; k < count; ++k) {
+					int left = freeLeft(seatIndices[k], departure);
+					int right = freeRight(seatIndices[k], arrival);
+					stations[left][right].removeSeat(seatIndices[k]);
+					claimSeat(seatIndices[k], departure, arrival, left, right);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean restoreCoachSeat(int seatIndex, int departure, int arrival) {
+		if (!isFree(seatIndex, departure, arrival)) {
+			return false;
+		}
+		int left = freeLeft(seatIndex, departure);
+		int right = freeRight(seatIndex, arrival);
+		stations[left][right].removeSeat(seatIndex);
+		claimSeat(seatIndex, departure, arrival, left, right);
+		return true;
+	}
+
+	@Override
+	public void loadOccupancy(long[] occupancy) {
+		System.arraycopy(occupancy, 0, gapLocks, 0, gapLocks.length);
+		final int[][] runs = new int[stationnum + 1][stationnum + 1];
+		for (int seatIndex = 0; seatIndex < coachnum * seatnum; ++seatIndex) {
+			stations[1][stationnum].removeSeat(seatIndex);
+			for (int left = 1; left < stationnum;) {
+				int right = freeRight(seatIndex, left);
+				if (right > left) {
+					stations[left][right].addSeat(seatIndex);
+					++runs[left][right];
+				}
+				left = right + 1;
+			}
+		}
+		SeatOccupancy.sumFreeRuns(runs);
+		for (int d = 1; d < stationnum; ++d) {
+			System.arraycopy(runs[d], d + 1, availableSeats, rangeIndex(d, d + 1), stationnum - d);
+		}
+	}
+
+	private boolean isFree(int seatIndex, int departure, int arrival) {
+		final int base = seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			if ((gapLocks[base + w] & SeatOccupancy.gapMask(w, departure, arrival)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void freeCoachSeat(int seatIndex, int departure, int arrival) {
+		final int base = seatIndex * wordsPerSeat;
+		for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+			long bitvec = SeatOccupancy.gapMask(w, departure, arrival);
+			assert (gapLocks[base + w] & bitvec) == bitvec;
+			gapLocks[base + w] &= ~bitvec;
+		}
+		int left = freeLeft(seatIndex, departure);
+		int right = freeRight(seatIndex, arrival);
+		if (left < departure) {
+			stations[left][departure].removeSeat(seatIndex);
+		}
+		if (arrival < right) {
+			stations[arrival][right].removeSeat(seatIndex);
+		}
+		stations[left][right].addSeat(seatIndex);
+		updateAvailableSeats(departure, arrival, left, right, 1);
+	}
+
+	@Override
+	public int queryCoachSeatNum(int departure, int arrival) {
+		return availableSeats[rangeIndex(departure, arrival)];
+	}
+
+	@Override
+	public void queryAllCoachSeatNum(int[][] counts) {
+		for (int d = 1; d < stationnum; ++d) {
+			System.arraycopy(availableSeats, rangeIndex(d, d + 1), counts[d], d + 1, stationnum - d);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package ticketingsystem;
+
+class PurchaseRequest {
+	final String passenger;
+	final int route;
+	final int departure;
+	final int arrival;
+
+	PurchaseRequest(String passenger, int route, int departure, int arrival) {
+		this.passenger = passenger;
+		this.route = route;
+		this.departure = departure;
+		this.arrival = arrival;
+	}
+}
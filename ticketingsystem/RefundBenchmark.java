@@ -0,0 +1,67 @@
+package ticketingsystem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+public class RefundBenchmark {
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("args: <salenum>");
+			return;
+		}
+		final int salenum = Integer.parseInt(args[0]);
+		ConfigReader.readConfig("TrainConfig");
+		final int routenum = ConfigReader.routenum;
+		final int stationnum = ConfigReader.stationnum;
+		// keep about half of the seats sold so that buys keep succeeding
+		final int held = routenum * ConfigReader.coachnum * ConfigReader.seatnum / 2;
+
+		long before = MemoryBenchmark.usedHeap();
+		TicketingDS ds = new TicketingDS(routenum, ConfigReader.coachnum, ConfigReader.seatnum, stationnum, 1,
+				ConfigReader.allocator);
+		final Random rand = new Random(20221027L);
+		final String[] passengers = new String[1024];
+		for (int i = 0; i < passengers.length; ++i) {
+			passengers[i] = "passenger" + i;
+		}
+		final ArrayDeque<Ticket> tickets = new ArrayDeque<>(held + 1);
+		for (int sales = 0; sales < salenum;) {
+			int route = rand.nextInt(routenum) + 1;
+			int departure = rand.nextInt(stationnum - 1) + 1;
+			int arrival = departure + rand.nextInt(Math.min(stationnum - departure, 3)) + 1;
+			Ticket t = ds.buyTicket(passengers[sales & 1023], route, departure, arrival);
+			if (t == null) {
+				continue;
+			}
+			++sales;
+			tickets.addLast(t);
+			if (tickets.size() > held) {
+				ds.refundTicket(tickets.pollFirst());
+			}
+		}
+		// the held tickets are counted as well, they are the same objects whatever the registry
+		long after = MemoryBenchmark.usedHeap();
+		System.out.println("sales: " + salenum + ", on sale: " + tickets.size()
+				+ ", retained heap: " + (after - before) / (1024.0 * 1024.0) + " MB");
+
+		// in purchase order the nodes of a hash map would be walked in allocation order
+		final ArrayList<Ticket> refunded = new ArrayList<>(tickets);
+		Collections.shuffle(refunded, rand);
+		final int refunds = refunded.size();
+		long refundBytes = MemoryBenchmark.allocatedBytes();
+		long refundTime = System.nanoTime();
+		for (Ticket t : refunded) {
+			ds.refundTicket(t);
+		}
+		refundTime = System.nanoTime() - refundTime;
+		refundBytes = MemoryBenchmark.allocatedBytes() - refundBytes;
+		System.out.println("refund: " + (double) refundTime / refunds + " ns/op, "
+				+ (double) refundBytes / refunds + " B/op");
+		if (ds.inquiry(1, 1, 2) < 0) {
+			System.out.println();
+		}
+	}
+}
@@ -1,299 +1,638 @@
 package ticketingsystem;
-import java.util.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Collection;
-
-
-
-public class Replay{
-  static int threadNum;
-  static List<String> methodList = new ArrayList<String>();
-  
-/**********Manually Modified ***********/
-  static boolean isPosttime = true;
-  static boolean detail = false;
-  static int routenum = 3;
-  static int coachnum = 3;
-  static int seatnum = 3;
-  static int stationnum = 3;
-  static int refRatio;
-  static int buyRatio;
-  static int inqRatio;
-  
-  static int debugMode = 1;
-
-  static ArrayList<HistoryLine> history = new ArrayList<HistoryLine>();
-  static TicketingDS object;
-  public static class hl_Comparator_1 implements Comparator<HistoryLine>{
-	@Override
-	public int compare(HistoryLine hl1, HistoryLine hl2){
-	  if(hl1.pretime - hl2.pretime > 0)
-		return 1;
-	  else if(hl1.pretime - hl2.pretime == 0)
-		return 0;
-	  else
-		return -1;
-	};
-  }
-  public static class hl_Comparator_2 implements Comparator<HistoryLine>{
-	@Override
-	public int compare(HistoryLine hl1, HistoryLine hl2){
-	  if(hl1.posttime - hl2.posttime > 0)
-		return 1;
-	  else if(hl1.posttime - hl2.posttime == 0)
-		return 0;
-	  else
-		return -1;
-	};
-  }
-  public static class HistoryLine{
-	long pretime;
-	long posttime;
-	int threadid;
-	String operationName;
-	long tid;
-	String passenger;
-	int route;
-	int coach;
-	int seat;
-	int departure;
-	int arrival;
-	String res;
-
-  }
-  
-  private static boolean parseline(ArrayList<HistoryLine> historyList, String line) {
-	Scanner linescanner = new Scanner(line);
-	if (line.equals("")) {
-	  linescanner.close();
-	  return true;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Checks a history written by GenerateHistory by replaying it in pre- or
+ * post-time order on a fresh TicketingDS. Routes share no state, so the
+ * history is split by route in one pass over the memory-mapped file into
+ * fixed-size records spilled to temporary files, and every route is sorted
+ * and replayed on its own in a fork-join pool. Memory holds only the routes
+ * being replayed, results are printed as routes finish. The failed trace
+ * gets the sorted lines of every failing route up to its first error.
+ */
+public class Replay {
+	static int threadNum;
+
+	static boolean isPosttime = true;
+	static int routenum = 3;
+	static int coachnum = 3;
+	static int seatnum = 3;
+	static int stationnum = 3;
+	static int refRatio;
+	static int buyRatio;
+	static int inqRatio;
+	static String allocator = SeatAllocator.CELL;
+
+	static final int REFUND = 0;
+	static final int BUY = 1;
+	static final int INQUIRY = 2;
+	private static final String[] OPERATIONS = { "refundTicket", "buyTicket", "inquiry" };
+
+	// longs of a spilled record, also read by LinearizabilityChecker
+	static final int PRETIME = 0;
+	static final int POSTTIME = 1;
+	static final int TID = 2;
+	// byte offset of the line in the history file, to quote it in errors
+	static final int OFFSET = 3;
+	// threadid << 8 | res << 2 | operation
+	static final int OPERATION = 4;
+	// coach << 32 | seat, the remaining ticket count for an inquiry
+	static final int SEAT = 5;
+	// departure << 32 | arrival
+	static final int SEGMENT = 6;
+	static final int RECORD = 7;
+
+	// buys are replayed under one passenger, refunds do not check it
+	private static final String PASSENGER = "replay";
+
+	public static class HistoryLine {
+		long pretime;
+		long posttime;
+		int threadid;
+		String operationName;
+		long tid;
+		String passenger;
+		int route;
+		int coach;
+		int seat;
+		int departure;
+		int arrival;
+		String res;
 	}
-	HistoryLine tl = new HistoryLine();
-	tl.pretime = linescanner.nextLong();
-	tl.posttime = linescanner.nextLong();
-	tl.threadid = linescanner.nextInt();
-	tl.operationName = linescanner.next();
-	tl.tid = linescanner.nextLong();
-	tl.passenger = linescanner.next();
-	tl.route = linescanner.nextInt();
-	tl.coach = linescanner.nextInt();
-	tl.departure = linescanner.nextInt();
-	tl.arrival = linescanner.nextInt();	
-	tl.seat = linescanner.nextInt();
-	tl.res = linescanner.next();
-	historyList.add(tl);
-	linescanner.close();
-	return true;
-  }
-
-  private static boolean readConfig(String filename) {
-	try {
-	  Scanner scanner = new Scanner(new File(filename));
-
-	  while (scanner.hasNextLine()) {
-			String line = scanner.nextLine();
-			//System.out.println(line);
-			Scanner linescanner = new Scanner(line);
-			if (line.equals("")) {
-				linescanner.close();
-				continue;
+
+	/**
+	 * Lines of a text or binary (see HistoryFormat) history file, read from a
+	 * memory mapping of at most CHUNK bytes at a time into the fields of the
+	 * reader, so that reading a line allocates nothing unless the passenger
+	 * is asked for.
+	 */
+	static final class HistoryReader implements Closeable {
+		private static final long CHUNK = 1L << 30;
+
+		private final long chunk;
+		private final FileChannel channel;
+		// end of the lines or records
+		private final long size;
+		// passenger names of a binary history, null for text
+		private final String[] dictionary;
+		private int passenger;
+		private MappedByteBuffer buffer;
+		// file offset of buffer index 0
+		private long base;
+
+		long offset;
+		long pretime;
+		long posttime;
+		int threadid;
+		int operation;
+		long tid;
+		private int passengerStart;
+		private int passengerEnd;
+		int route;
+		int coach;
+		int departure;
+		int arrival;
+		int seat;
+		boolean res;
+
+		private int cursor;
+		private int end;
+
+		HistoryReader(String filename) throws IOException {
+			this(filename, CHUNK);
+		}
+
+		HistoryReader(String filename, long chunk) throws IOException {
+			channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+			try {
+				if (HistoryFormat.isBinary(channel)) {
+					ByteBuffer header = ByteBuffer.allocate(HistoryFormat.HEADER);
+					channel.read(header, 0);
+					size = header.getLong(8);
+					if (size < HistoryFormat.HEADER || (size - HistoryFormat.HEADER) % HistoryFormat.RECORD != 0) {
+						throw new IllegalArgumentException("incomplete binary history: " + filename);
+					}
+					dictionary = HistoryFormat.readDictionary(channel, size);
+					this.chunk = Math.max(chunk / HistoryFormat.RECORD, 1) * HistoryFormat.RECORD;
+					map(HistoryFormat.HEADER);
+				} else {
+					size = channel.size();
+					dictionary = null;
+					this.chunk = chunk;
+					map(0);
+				}
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
 			}
-			if (line.substring(0,1).equals("#")) {
-				linescanner.close();
-				continue;
+		}
+
+		private void map(long position) throws IOException {
+			base = position;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunk, size - position));
+		}
+
+		// the next call to next reads the line or record at offset
+		void seek(long offset) throws IOException {
+			if (offset >= base && offset < base + buffer.limit()) {
+				buffer.position((int) (offset - base));
+			} else {
+				map(offset);
 			}
-			routenum = linescanner.nextInt();
-			coachnum = linescanner.nextInt();
-			seatnum = linescanner.nextInt();
-			stationnum = linescanner.nextInt();
-			refRatio = linescanner.nextInt();
-			buyRatio = linescanner.nextInt();
-			inqRatio = linescanner.nextInt();
-			System.out.println("route: " + routenum + ", coach: " + coachnum + ", seatnum: " + seatnum + ", station: " + stationnum + ", refundRatio: " + refRatio + ", buyRatio: " + buyRatio + ", inquiryRatio: " + inqRatio);
-			linescanner.close();
-	  }
-	  scanner.close();
-	}catch (FileNotFoundException e) {
-	  System.out.println(e);
-	}
-		return true;
-  }
-
-  private static void initialization(){
-	object = new TicketingDS(routenum, coachnum, seatnum, stationnum, threadNum);
-	methodList.add("refundTicket");
-	methodList.add("buyTicket");
-	methodList.add("inquiry");
-  }
-  private static boolean execute(String methodName, HistoryLine line, int line_num){
-	Ticket ticket = new Ticket();
-	boolean flag = false;
-	ticket.tid = line.tid;
-	ticket.passenger = line.passenger;
-	ticket.route = line.route;
-	ticket.coach = line.coach;
-	ticket.departure = line.departure;
-	ticket.arrival = line.arrival;
-	ticket.seat = line.seat;
-	if(methodName.equals("buyTicket")){
-	  if(line.res.equals("false")){
-		int num = object.inquiry(ticket.route, ticket.departure, ticket.arrival);
-		if(num == 0)
-		  return true;
-		else {
-			System.out.println("Error: TicketSoldOut" + " " + line.pretime + " " + line.posttime + " " + line.threadid + " " + line.route + " " + line.departure + " " + line.arrival);
-			System.out.println("RemainTicket" + " " + num + " " + line.route + " " + line.departure + " " + line.arrival);
-			return false;
-	  	}
-	  }
-	  Ticket ticket1 = new Ticket();
-	  ticket1 = object.buyTicket(ticket.passenger, ticket.route, ticket.departure, ticket.arrival);
-	  if(ticket1 != null && line.res.equals("true") &&
-	  	ticket.passenger == ticket1.passenger && ticket.route == ticket1.route &&
-	  	ticket.coach == ticket1.coach && ticket.departure == ticket1.departure &&
-	  	ticket.arrival == ticket1.arrival && ticket.seat == ticket1.seat) {
-		return true;
-	  } else {
-		System.out.println("Error: Ticket is bought" + " " + line.pretime + " " + line.posttime + " " + line.threadid + " " + ticket.tid + " " + ticket.passenger + " " + ticket.route + " " + ticket.coach  + " " + ticket.departure + " " + ticket.arrival + " " + ticket.seat);
-		return false;
-	  }
+		}
+
+		/**
+		 * @return false at the end of the file
+		 * @throws IllegalArgumentException if a line is malformed
+		 */
+		boolean next() throws IOException {
+			if (dictionary != null) {
+				return nextRecord();
+			}
+			for (;;) {
+				int start = buffer.position();
+				int newline = start;
+				while (newline < buffer.limit() && buffer.get(newline) != '\n') {
+					++newline;
+				}
+				if (newline == buffer.limit() && base + buffer.limit() < size) {
+					if (start == 0) {
+						throw new IllegalArgumentException("line longer than " + chunk + " bytes at " + base);
+					}
+					map(base + start);
+					continue;
+				}
+				if (start == buffer.limit()) {
+					return false;
+				}
+				buffer.position(Math.min(newline + 1, buffer.limit()));
+				offset = base + start;
+				cursor = start;
+				end = newline;
+				skipSpaces();
+				if (cursor == end) {
+					continue;
+				}
+				parse();
+				return true;
+			}
+		}
+
+		private boolean nextRecord() throws IOException {
+			if (buffer.remaining() < HistoryFormat.RECORD) {
+				if (base + buffer.position() >= size) {
+					return false;
+				}
+				map(base + buffer.position());
+			}
+			final int r = buffer.position();
+			offset = base + r;
+			pretime = buffer.getLong(r);
+			posttime = buffer.getLong(r + 8);
+			tid = buffer.getLong(r + 16);
+			threadid = buffer.getInt(r + 24);
+			passenger = buffer.getInt(r + 28);
+			seat = buffer.getInt(r + 32);
+			route = buffer.getShort(r + 36);
+			coach = buffer.getShort(r + 38);
+			departure = buffer.getShort(r + 40);
+			arrival = buffer.getShort(r + 42);
+			operation = buffer.get(r + 44);
+			res = buffer.get(r + 45) != 0;
+			if (operation < REFUND || operation > INQUIRY || passenger < 0 || passenger >= dictionary.length) {
+				throw malformed();
+			}
+			buffer.position(r + HistoryFormat.RECORD);
+			return true;
+		}
+
+		private void parse() {
+			pretime = nextLong();
+			posttime = nextLong();
+			threadid = (int) nextLong();
+			skipSpaces();
+			switch (cursor < end ? buffer.get(cursor) : 0) {
+				case 'r':
+					operation = REFUND;
+					break;
+				case 'b':
+					operation = BUY;
+					break;
+				case 'i':
+					operation = INQUIRY;
+					break;
+				default:
+					throw malformed();
+			}
+			skipWord();
+			tid = nextLong();
+			skipSpaces();
+			passengerStart = cursor;
+			skipWord();
+			passengerEnd = cursor;
+			route = (int) nextLong();
+			coach = (int) nextLong();
+			departure = (int) nextLong();
+			arrival = (int) nextLong();
+			seat = (int) nextLong();
+			skipSpaces();
+			// the old failed traces have no result column, their lines all succeeded
+			res = cursor == end || buffer.get(cursor) != 'f';
+		}
+
+		String passenger() {
+			if (dictionary != null) {
+				return dictionary[passenger];
+			}
+			byte[] bytes = new byte[passengerEnd - passengerStart];
+			buffer.get(passengerStart, bytes);
+			return new String(bytes, StandardCharsets.US_ASCII);
+		}
+
+		// the current line in the text format, with its result
+		String text() {
+			return pretime + " " + posttime + " " + threadid + " " + OPERATIONS[operation] + " " + tid + " "
+					+ passenger() + " " + route + " " + coach + " " + departure + " " + arrival + " " + seat + " "
+					+ res;
+		}
+
+		private void skipSpaces() {
+			while (cursor < end && (buffer.get(cursor) == ' ' || buffer.get(cursor) == '\t'
+					|| buffer.get(cursor) == '\r')) {
+				++cursor;
+			}
+		}
+
+		private void skipWord() {
+			while (cursor < end && buffer.get(cursor) != ' ' && buffer.get(cursor) != '\t'
+					&& buffer.get(cursor) != '\r') {
+				++cursor;
+			}
+		}
+
+		private long nextLong() {
+			skipSpaces();
+			boolean negative = cursor < end && buffer.get(cursor) == '-';
+			if (negative) {
+				++cursor;
+			}
+			int digits = cursor;
+			long value = 0;
+			for (byte b; cursor < end && (b = buffer.get(cursor)) >= '0' && b <= '9'; ++cursor) {
+				value = value * 10 + (b - '0');
+			}
+			if (cursor == digits) {
+				throw malformed();
+			}
+			return negative ? -value : value;
+		}
+
+		private IllegalArgumentException malformed() {
+			return new IllegalArgumentException("malformed history " + (dictionary != null ? "record" : "line")
+					+ " at byte " + offset);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
 	}
-	else if(methodName.equals("refundTicket")){
-	  flag = object.refundTicket(ticket);
-	  if((flag && line.res.equals("true")) || (!flag && line.res.equals("false")))
+
+	static boolean readConfig(String filename) {
+		try {
+			Scanner scanner = new Scanner(new File(filename));
+
+			while (scanner.hasNextLine()) {
+				String line = scanner.nextLine();
+				Scanner linescanner = new Scanner(line);
+				if (line.equals("")) {
+					linescanner.close();
+					continue;
+				}
+				if (line.substring(0, 1).equals("#")) {
+					linescanner.close();
+					continue;
+				}
+				routenum = linescanner.nextInt();
+				coachnum = linescanner.nextInt();
+				seatnum = linescanner.nextInt();
+				stationnum = linescanner.nextInt();
+				refRatio = linescanner.nextInt();
+				buyRatio = linescanner.nextInt();
+				inqRatio = linescanner.nextInt();
+				allocator = linescanner.hasNext() ? linescanner.next() : SeatAllocator.CELL;
+				System.out.println("route: " + routenum + ", coach: " + coachnum + ", seatnum: " + seatnum
+						+ ", station: " + stationnum + ", refundRatio: " + refRatio + ", buyRatio: " + buyRatio
+						+ ", inquiryRatio: " + inqRatio);
+				linescanner.close();
+			}
+			scanner.close();
+		} catch (FileNotFoundException e) {
+			System.out.println(e);
+		}
+		allocator = System.getProperty(TicketingDS.ALLOCATOR_PROPERTY, allocator);
 		return true;
-	  else {
-		System.out.println(flag);
-		System.out.println("line.res: " + line.res);
-		System.out.println("Error: Ticket is refunded" + " " + line.pretime + " " + line.posttime + " " + line.threadid + " " + ticket.tid + " " + ticket.passenger + " " + ticket.route + " " + ticket.coach  + " " + ticket.departure + " " + ticket.arrival + " " + ticket.seat);
-		System.out.println("Actual Ticket: " + ticket.tid + " " + ticket.passenger);
-		return false;
-	  }
 	}
-	else if(methodName.equals("inquiry")){
-	  int num = object.inquiry(line.route, line.departure, line.arrival);
-	  if(num == line.seat)
+
+	// the whole history in file order, for histories that fit in memory
+	public static boolean readHistory(ArrayList<HistoryLine> historyList, String filename) {
+		try (HistoryReader reader = new HistoryReader(filename)) {
+			while (reader.next()) {
+				HistoryLine tl = new HistoryLine();
+				tl.pretime = reader.pretime;
+				tl.posttime = reader.posttime;
+				tl.threadid = reader.threadid;
+				tl.operationName = OPERATIONS[reader.operation];
+				tl.tid = reader.tid;
+				tl.passenger = reader.passenger();
+				tl.route = reader.route;
+				tl.coach = reader.coach;
+				tl.departure = reader.departure;
+				tl.arrival = reader.arrival;
+				tl.seat = reader.seat;
+				tl.res = reader.res ? "true" : "false";
+				historyList.add(tl);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(e);
+			return false;
+		}
 		return true;
-	  else {
-		System.out.println("Error: RemainTicket" + " " + line.pretime + " " + line.posttime + " " + line.threadid + " " + line.route + " " + line.departure + " " + line.arrival + " " + line.seat);
-		System.out.println("Real RemainTicket is" + " " + line.seat + " " + ", Expect RemainTicket is" + " " + num + ", " + line.route + " " + line.departure + " " + line.arrival);
-		return false;
-	  }
 	}
-	System.out.println("No match method name");
-	return false;
-  }
-/***********************VeriLin*************** */
-
-  private static void writeHistoryToFile(ArrayList<HistoryLine> historyList, String filename) {
-	try {
-	  System.setOut(new PrintStream(new FileOutputStream(filename)));
-	  writeHistory(historyList);
-	  System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.out)));
-	}catch (FileNotFoundException e) {
-	  System.out.println(e);
-	}
-  }
-  private static void writeHistory(ArrayList<HistoryLine> historyList) {
-	for (int i = 0; i < historyList.size(); i++) {
-	  writeline(historyList, i);
-	}
-  }
-  private static void writeline(ArrayList<HistoryLine> historyList, int line) {
-	HistoryLine tl = historyList.get(line);
-	System.out.println(tl.pretime + " " + tl.posttime + " " + tl.threadid + " " + tl.operationName + " " + tl.tid + " " + tl.passenger + " " + tl.route + " " + tl.coach  + " " + tl.departure + " " + tl.arrival + " " + tl.seat);
-  }
-  public static boolean readHistory(ArrayList<HistoryLine> historyList, String filename) {
-	try {
-	  Scanner scanner = new Scanner(new File(filename));
-	  int i = 0;
-	  while (scanner.hasNextLine()) {
-		if(parseline(historyList, scanner.nextLine()) == false) {
-		  scanner.close();
-		  System.out.println("Error in parsing line " + i);
-		  return false;
+
+	/**
+	 * Spills the lines of every route into spillDir/<route>, RECORD longs per
+	 * line in file order.
+	 *
+	 * @return the number of lines
+	 */
+	static long partition(String filename, Path spillDir, int routenum) throws IOException {
+		DataOutputStream[] spills = new DataOutputStream[routenum + 1];
+		long lines = 0;
+		try (HistoryReader reader = new HistoryReader(filename)) {
+			while (reader.next()) {
+				if (reader.route < 1 || reader.route > routenum) {
+					throw new IllegalArgumentException("route " + reader.route + " out of range at byte "
+							+ reader.offset);
+				}
+				DataOutputStream out = spills[reader.route];
+				if (out == null) {
+					out = spills[reader.route] = new DataOutputStream(new BufferedOutputStream(
+							Files.newOutputStream(spillDir.resolve(Integer.toString(reader.route))), 1 << 16));
+				}
+				out.writeLong(reader.pretime);
+				out.writeLong(reader.posttime);
+				out.writeLong(reader.tid);
+				out.writeLong(reader.offset);
+				out.writeLong((long) reader.threadid << 8 | (reader.res ? 1 << 2 : 0) | reader.operation);
+				out.writeLong((long) reader.coach << 32 | reader.seat & 0xffffffffL);
+				out.writeLong((long) reader.departure << 32 | reader.arrival & 0xffffffffL);
+				++lines;
+			}
+		} finally {
+			for (DataOutputStream out : spills) {
+				if (out != null) {
+					out.close();
+				}
+			}
 		}
-		i++;
-	  }
-	  scanner.close();
-	}catch (FileNotFoundException e) {
-	  System.out.println(e);
+		return lines;
 	}
-	return true;
-  }
-
-  private static boolean checkline(ArrayList<HistoryLine> historyList, int index){
-	HistoryLine line = historyList.get(index);
-	
-	if (debugMode == 1) {
-		if (index == 158) {
-			System.out.println("Debugging line " + index + " ");
+
+	/**
+	 * Indices of the records sorted by the given field; a stable merge sort,
+	 * so lines with equal times keep their order in the file.
+	 */
+	static int[] sortedOrder(long[] records, int count, int field) {
+		int[] order = new int[count];
+		int[] merged = new int[count];
+		for (int i = 0; i < count; ++i) {
+			order[i] = i;
 		}
+		for (int width = 1; width < count; width *= 2) {
+			for (int lo = 0; lo < count; lo += 2 * width) {
+				int mid = Math.min(lo + width, count);
+				int hi = Math.min(lo + 2 * width, count);
+				int i = lo;
+				int j = mid;
+				for (int k = lo; k < hi; ++k) {
+					if (j >= hi || i < mid && records[order[i] * RECORD + field] <= records[order[j] * RECORD + field]) {
+						merged[k] = order[i++];
+					} else {
+						merged[k] = order[j++];
+					}
+				}
+			}
+			int[] swap = order;
+			order = merged;
+			merged = swap;
+		}
+		return order;
 	}
-	
-
-	for(int i = 0; i < methodList.size();i++){
-	  if(line.operationName.equals(methodList.get(i))){
-		boolean flag = execute(methodList.get(i), line, index);
-//		System.out.println("Line " + index + " executing " + methodList.get(i) + " res: " + flag + " tid = " + line.tid);
-		return flag;
-	  }
-	}
-	return false;
-	
-  }
- 
 
-
-
-  @SuppressWarnings("unchecked")
-  public static void main(String[] args) throws InterruptedException{
-	if(args.length != 4){
-	  System.out.println("The parameter list of VeriLin is threadNum, historyFile, isPosttime(0/1), failedTrace.");
-	  return;
-	}
-	threadNum = Integer.parseInt(args[0]);
-	String fileName = args[1];
-	if(Integer.parseInt(args[2]) == 0){
-	  isPosttime = false;
-	}
-	else if(Integer.parseInt(args[2]) == 1){
-	  isPosttime = true;
+	private static String line(String filename, long offset) {
+		try (HistoryReader reader = new HistoryReader(filename)) {
+			reader.seek(offset);
+			return reader.next() ? reader.text() : "<no line at byte " + offset + ">";
+		} catch (IOException | IllegalArgumentException e) {
+			return "<" + e + ">";
+		}
 	}
-	else{
-	  System.out.println("The parameter list of VeriLin is threadNum, historyFile, isPosttime(0/1), failedTrace.");
-	  return;
+
+	/**
+	 * Replays one route in order, stopping at the first line whose result
+	 * the replay does not reproduce.
+	 *
+	 * @return -1 if the route replayed cleanly, otherwise the position in
+	 *         order of the failed line, described in error
+	 */
+	private static int replayRoute(TicketingDS object, int route, long[] records, int[] order,
+			String filename, StringBuilder error) {
+		// tickets replayed for the tids of the history, which the replay does not reproduce
+		HashMap<Long, Ticket> sold = new HashMap<>();
+		for (int i = 0; i < order.length; ++i) {
+			final int r = order[i] * RECORD;
+			final int operation = (int) (records[r + OPERATION] & 3);
+			final boolean res = (records[r + OPERATION] & 1 << 2) != 0;
+			final int coach = (int) (records[r + SEAT] >>> 32);
+			final int seat = (int) records[r + SEAT];
+			final int departure = (int) (records[r + SEGMENT] >>> 32);
+			final int arrival = (int) records[r + SEGMENT];
+			switch (operation) {
+				case BUY:
+					if (!res) {
+						int num = object.inquiry(route, departure, arrival);
+						if (num != 0) {
+							error.append("Error: TicketSoldOut, RemainTicket ").append(num);
+						}
+					} else {
+						Ticket ticket = object.buyTicket(PASSENGER, route, departure, arrival);
+						if (ticket == null || ticket.coach != coach || ticket.seat != seat) {
+							error.append("Error: Ticket is bought, replay sold ")
+									.append(ticket == null ? "none" : ticket.coach + " " + ticket.seat);
+						} else {
+							sold.put(records[r + TID], ticket);
+						}
+					}
+					break;
+				case REFUND:
+					Ticket ticket = sold.remove(records[r + TID]);
+					if (ticket == null) {
+						// never sold in the replay, refunding it must fail
+						ticket = new Ticket();
+						ticket.tid = -1;
+						ticket.passenger = PASSENGER;
+						ticket.route = route;
+						ticket.coach = coach;
+						ticket.seat = seat;
+						ticket.departure = departure;
+						ticket.arrival = arrival;
+					}
+					boolean flag = object.refundTicket(ticket);
+					if (flag != res) {
+						error.append("Error: Ticket is refunded, replay returned ").append(flag);
+					}
+					break;
+				default:
+					int num = object.inquiry(route, departure, arrival);
+					if (num != seat) {
+						error.append("Error: RemainTicket, replay has ").append(num);
+					}
+			}
+			if (error.length() > 0) {
+				error.append("\n  ").append(line(filename, records[r + OFFSET]));
+				return i;
+			}
+		}
+		return -1;
 	}
-	String ft = args[3];
-	readConfig("TrainConfig");
-	long startMs, endMs;
-	readHistory(history, fileName);
-	initialization();
-	startMs = System.currentTimeMillis();
-	if(!isPosttime){
-	  hl_Comparator_1 com1 = new hl_Comparator_1();
-	  Collections.sort(history, com1);
+
+	private static void writeTrace(PrintStream trace, String filename, long[] records, int[] order, int count) {
+		for (int i = 0; i < count; ++i) {
+			trace.println(line(filename, records[order[i] * RECORD + OFFSET]));
+		}
 	}
-	else{
-	  hl_Comparator_2 com2 = new hl_Comparator_2();
-	  Collections.sort(history, com2);
+
+	static long[] readSpill(Path spill) throws IOException {
+		long size = Files.size(spill);
+		if (size / 8 > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("route partition too large: " + spill);
+		}
+		long[] records = new long[(int) (size / 8)];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill),
+				1 << 16))) {
+			for (int i = 0; i < records.length; ++i) {
+				records[i] = in.readLong();
+			}
+		}
+		return records;
 	}
-	
-	writeHistoryToFile(history, ft);
-
-	for(int i = 0; i < history.size(); i++){
-	  if(!checkline(history, i)){
-		System.out.println("checkLine returns FALSE in line " + i);
-		break;
-	  }
+
+	/**
+	 * Replays the history on object, one fork-join task per route.
+	 *
+	 * @return the number of routes that failed
+	 */
+	static int check(TicketingDS object, String fileName, boolean posttime, PrintStream trace)
+			throws IOException, InterruptedException, ExecutionException {
+		final Path dir = Files.createTempDirectory("replay");
+		final ForkJoinPool pool = new ForkJoinPool();
+		try {
+			final long lines = partition(fileName, dir, routenum);
+			final ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+			for (int route = 1; route <= routenum; ++route) {
+				final int r = route;
+				final Path spill = dir.resolve(Integer.toString(route));
+				if (!Files.exists(spill)) {
+					continue;
+				}
+				tasks.add(pool.submit(() -> {
+					long[] records;
+					try {
+						records = readSpill(spill);
+						Files.delete(spill);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					int[] order = sortedOrder(records, records.length / RECORD, posttime ? POSTTIME : PRETIME);
+					StringBuilder error = new StringBuilder();
+					int failedAt = replayRoute(object, r, records, order, fileName, error);
+					if (failedAt < 0) {
+						return true;
+					}
+					synchronized (trace) {
+						System.out.println(error);
+						System.out.println("checkLine returns FALSE in line " + failedAt + " of route " + r);
+						writeTrace(trace, fileName, records, order, failedAt + 1);
+					}
+					return false;
+				}));
+			}
+			int failed = 0;
+			for (ForkJoinTask<Boolean> task : tasks) {
+				if (!task.get()) {
+					++failed;
+				}
+			}
+			System.out.println("replayed " + lines + " lines on " + tasks.size() + " routes, " + failed + " failed");
+			return failed;
+		} finally {
+			pool.shutdown();
+			for (File file : dir.toFile().listFiles()) {
+				file.delete();
+			}
+			Files.delete(dir);
+		}
 	}
-	endMs = System.currentTimeMillis();
-	System.out.println("checking time = " + (endMs - startMs));
 
-  }
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 4) {
+			System.out.println("The parameter list of Replay is threadNum, historyFile, isPosttime(0/1), failedTrace.");
+			return;
+		}
+		threadNum = Integer.parseInt(args[0]);
+		if (Integer.parseInt(args[2]) == 0) {
+			isPosttime = false;
+		} else if (Integer.parseInt(args[2]) == 1) {
+			isPosttime = true;
+		} else {
+			System.out.println("The parameter list of Replay is threadNum, historyFile, isPosttime(0/1), failedTrace.");
+			return;
+		}
+		readConfig("TrainConfig");
+		final long startMs = System.currentTimeMillis();
+		final TicketingDS object = new TicketingDS(routenum, coachnum, seatnum, stationnum, threadNum, allocator);
+		try (PrintStream trace = new PrintStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(args[3]))))) {
+			check(object, args[1], isPosttime, trace);
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(e);
+		} catch (ExecutionException e) {
+			System.out.println(e.getCause());
+		}
+		System.out.println("checking time = " + (System.currentTimeMillis() - startMs));
+	}
 }
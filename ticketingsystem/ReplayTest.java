@@ -0,0 +1,198 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReplayTest {
+	private File history;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		history = File.createTempFile("history", "");
+		Replay.routenum = 3;
+	}
+
+	@AfterEach
+	void tearDown() {
+		history.delete();
+	}
+
+	// a sequential run in GenerateHistory's format, lines shuffled so that only sorting restores the order
+	private ArrayList<String> sequentialHistory(int operations) {
+		TicketingDS ds = new TicketingDS(3, 2, 3, 5, 1);
+		Random rand = new Random(1);
+		ArrayList<Ticket> held = new ArrayList<>();
+		ArrayList<String> lines = new ArrayList<>();
+		for (int i = 0; i < operations; ++i) {
+			long pretime = 10L * i;
+			int route = rand.nextInt(3) + 1;
+			int departure = rand.nextInt(4) + 1;
+			int arrival = departure + rand.nextInt(5 - departure) + 1;
+			int op = rand.nextInt(10);
+			String line;
+			if (op < 2 && !held.isEmpty()) {
+				Ticket t = held.remove(rand.nextInt(held.size()));
+				line = "refundTicket " + t.tid + " " + t.passenger + " " + t.route + " " + t.coach + " "
+						+ t.departure + " " + t.arrival + " " + t.seat + " " + ds.refundTicket(t);
+			} else if (op < 6) {
+				Ticket t = ds.buyTicket("passenger" + i, route, departure, arrival);
+				if (t == null) {
+					line = "buyTicket 0 passenger" + i + " " + route + " 0 " + departure + " " + arrival + " 0 false";
+				} else {
+					held.add(t);
+					line = "buyTicket " + t.tid + " " + t.passenger + " " + t.route + " " + t.coach + " "
+							+ t.departure + " " + t.arrival + " " + t.seat + " true";
+				}
+			} else {
+				line = "inquiry 0 passenger" + i + " " + route + " 0 " + departure + " " + arrival + " "
+						+ ds.inquiry(route, departure, arrival) + " true";
+			}
+			lines.add(pretime + " " + (pretime + 5) + " 0 " + line);
+		}
+		Collections.shuffle(lines, rand);
+		return lines;
+	}
+
+	private int check(boolean posttime) throws Exception {
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		try (PrintStream out = new PrintStream(trace)) {
+			return Replay.check(new TicketingDS(3, 2, 3, 5, 1), history.getPath(), posttime, out);
+		}
+	}
+
+	@Test
+	void replaysSequentialHistory() throws Exception {
+		Files.write(history.toPath(), sequentialHistory(5000));
+		assertEquals(0, check(false));
+		assertEquals(0, check(true));
+	}
+
+	@Test
+	void reportsWrongInquiry() throws Exception {
+		ArrayList<String> lines = sequentialHistory(2000);
+		for (int i = 0; i < lines.size(); ++i) {
+			String line = lines.get(i);
+			if (line.contains("inquiry") && line.contains(" 2 0 ")) {
+				// one seat more than the route has left
+				String[] fields = line.split(" ");
+				fields[10] = Integer.toString(Integer.parseInt(fields[10]) + 1);
+				lines.set(i, String.join(" ", fields));
+				break;
+			}
+		}
+		Files.write(history.toPath(), lines);
+		assertEquals(1, check(false));
+	}
+
+	@Test
+	void readerCrossesMappedChunks() throws Exception {
+		ArrayList<String> lines = sequentialHistory(500);
+		lines.add(3, "");
+		Files.write(history.toPath(), lines);
+		ArrayList<Replay.HistoryLine> expected = new ArrayList<>();
+		assertTrue(Replay.readHistory(expected, history.getPath()));
+		assertEquals(500, expected.size());
+		try (Replay.HistoryReader reader = new Replay.HistoryReader(history.getPath(), 100)) {
+			for (Replay.HistoryLine line : expected) {
+				assertTrue(reader.next());
+				assertEquals(line.pretime, reader.pretime);
+				assertEquals(line.tid, reader.tid);
+				assertEquals(line.passenger, reader.passenger());
+				assertEquals(line.route, reader.route);
+				assertEquals(line.seat, reader.seat);
+				assertEquals(line.res.equals("true"), reader.res);
+			}
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	void binaryRoundTrip() throws Exception {
+		ArrayList<String> lines = sequentialHistory(3000);
+		Files.write(history.toPath(), lines);
+		File binary = File.createTempFile("history", ".bin");
+		File text = File.createTempFile("history", ".txt");
+		try {
+			HistoryFormat.toBinary(history.getPath(), binary.getPath());
+			HistoryFormat.toText(binary.getPath(), text.getPath());
+			assertEquals(lines, Files.readAllLines(text.toPath()));
+			assertEquals(0, Replay.check(new TicketingDS(3, 2, 3, 5, 1), binary.getPath(), false,
+					new PrintStream(new ByteArrayOutputStream())));
+			try (Replay.HistoryReader reader = new Replay.HistoryReader(binary.getPath(), 1000)) {
+				for (String line : lines) {
+					assertTrue(reader.next());
+					assertEquals(line, reader.text());
+				}
+				assertFalse(reader.next());
+			}
+		} finally {
+			binary.delete();
+			text.delete();
+		}
+	}
+
+	@Test
+	void concurrentWriters() throws Exception {
+		final int threads = 4;
+		final int records = 10_000;
+		try (HistoryFormat.Recorder recorder = new HistoryFormat.Recorder(history.getPath())) {
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; ++t) {
+				final int threadid = t;
+				final HistoryFormat.Recorder.Writer writer = recorder.writer();
+				workers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < records; ++i) {
+							writer.record(i, i + 1, threadid, Replay.INQUIRY, 0, recorder.passenger("p" + i % 100),
+									1, 0, 1, 2, i, true);
+						}
+						writer.flush();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				workers[t].start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		}
+		int[] next = new int[threads];
+		try (Replay.HistoryReader reader = new Replay.HistoryReader(history.getPath())) {
+			while (reader.next()) {
+				// a thread's records stay in order, whole blocks interleave
+				assertEquals(next[reader.threadid]++, reader.seat);
+				assertEquals("p" + reader.seat % 100, reader.passenger());
+			}
+		}
+		for (int count : next) {
+			assertEquals(records, count);
+		}
+	}
+
+	@Test
+	void sortIsStable() {
+		long[] records = new long[7 * 100];
+		for (int i = 0; i < 100; ++i) {
+			records[7 * i] = i % 7;
+		}
+		int[] order = Replay.sortedOrder(records, 100, 0);
+		for (int i = 1; i < 100; ++i) {
+			long previous = records[7 * order[i - 1]];
+			long current = records[7 * order[i]];
+			assertTrue(previous < current || previous == current && order[i - 1] < order[i]);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class RestartBenchmark {
+
+	static TicketingDS open(Path directory) throws IOException {
+		return new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+				ConfigReader.stationnum, 1, ConfigReader.allocator,
+				new Journal(directory, Journal.ASYNC, Journal.DEFAULT_SEGMENT));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("args: <operations>");
+			return;
+		}
+		final int operations = Integer.parseInt(args[0]);
+		ConfigReader.readConfig("TrainConfig");
+		final Path directory = Files.createTempDirectory("journal");
+		try {
+			// a day of sales and refunds, journaled
+			TicketingDS ds = open(directory);
+			final Random rand = new Random(20221027L);
+			final ArrayList<Ticket> held = new ArrayList<>();
+			for (int i = 0; i < operations; ++i) {
+				if (rand.nextInt(4) == 0 && !held.isEmpty()) {
+					ds.refundTicket(held.set(rand.nextInt(held.size()), held.get(held.size() - 1)));
+					held.remove(held.size() - 1);
+				} else {
+					int departure = rand.nextInt(ConfigReader.stationnum - 1) + 1;
+					int arrival = departure + rand.nextInt(ConfigReader.stationnum - departure) + 1;
+					Ticket ticket = ds.buyTicket("p" + i, rand.nextInt(ConfigReader.routenum) + 1, departure,
+							arrival);
+					if (ticket != null) {
+						held.add(ticket);
+					}
+				}
+			}
+			ds.close();
+			long journalBytes = 0;
+			for (Path segment : Journal.segments(directory)) {
+				journalBytes += Files.size(segment);
+			}
+			System.out.println("operations: " + operations + ", tickets held: " + held.size() + ", journal: "
+					+ journalBytes / (1024 * 1024) + " MB mapped");
+
+			long startTime = System.nanoTime();
+			ds = open(directory);
+			System.out.println("restart from the journal: " + (System.nanoTime() - startTime) / 1000_000.0 + " ms");
+
+			startTime = System.nanoTime();
+			ds.checkpoint();
+			System.out.println("snapshot: " + (System.nanoTime() - startTime) / 1000_000.0 + " ms, "
+					+ Files.size(directory.resolve(Snapshot.FILE)) / (1024 * 1024) + " MB");
+			ds.close();
+
+			startTime = System.nanoTime();
+			ds = open(directory);
+			System.out.println("restart from the snapshot: " + (System.nanoTime() - startTime) / 1000_000.0 + " ms");
+			ds.close();
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+			}
+		}
+	}
+}
@@ -0,0 +1,617 @@
+package ticketingsystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Interval cell engine: stations[left][right] holds the seats that are free
+ * on exactly [left, right], cells are changed under 2PL on their
+ * StampedLocks. Cell locks are always taken by increasing left station and,
+ * for the same left station, decreasing right station: a sold or refunded
+ * seat's enclosing cell before its pieces, the left piece before the right.
+ * A cell is only allocated when a seat is first put into it.
+ */
+class RouteTickets implements SeatAllocator {
+
+	// 2PL
+	// @sun.misc.Contended
+	static final class LockedCell extends SeatSet {
+		final StampedLock rwlock = new StampedLock();
+
+		LockedCell(int seatCount) {
+			super(seatCount);
+		}
+	}
+
+	private final int coachnum;
+	private final int seatnum;
+	private final int stationnum;
+	private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(LockedCell[].class);
+
+	// [departure][arrival], null until the cell first gets a seat
+	private final LockedCell[][] stations;
+	private final SeatOccupancy gapLocks;
+	// counter updates started in the high half, updates still changing counters in the low half
+	private static final long UPDATE_STARTED = 1L << 32;
+	private static final long UPDATE_RUNNING = 1L;
+	// optimistic looks an inquiry takes before it holds updates off
+	private static final int OPTIMISTIC_READS = 4;
+	// departures whose counters share one spin lock
+	private static final int ROWS_PER_LOCK = 4;
+
+	// [departure * (stationnum + 1) + arrival], number of seats free on the whole
+	// range, added to under the lock of its departure's band while the cells of
+	// the change are held
+	private final int[] availableSeats;
+	private final AtomicIntegerArray rowLocks;
+	private final AtomicLong updates = new AtomicLong();
+	// write-locked by an inquiry that kept seeing updates, new updates wait for it
+	private final StampedLock availableLock = new StampedLock();
+	// null unless ContentionCounters.ENABLED
+	private final ContentionCounters contention;
+
+	private int rangeIndex(int departure, int arrival) {
+		return departure * (stationnum + 1) + arrival;
+	}
+
+	// a seat free on [left, right] got sold or refunded on [departure, arrival],
+	// every range inside [left, right] overlapping it changes by delta; updates
+	// of different seats only meet on the band they are adding to, an inquiry
+	// only trusts counters it read while no update was running and none started
+	private void updateAvailableSeats(int departure, int arrival, int left, int right, int delta) {
+		beginUpdate();
+		for (int d = left; d < arrival;) {
+			final int band = d / ROWS_PER_LOCK;
+			final int end = Math.min(arrival, (band + 1) * ROWS_PER_LOCK);
+			while (!rowLocks.compareAndSet(band, 0, 1)) {
+				Thread.yield();
+			}
+			for (; d < end; ++d) {
+				for (int a = Math.max(d, departure) + 1; a <= right; ++a) {
+					availableSeats[rangeIndex(d, a)] += delta;
+				}
+			}
+			rowLocks.lazySet(band, 0);
+		}
+		updates.getAndAdd(-UPDATE_RUNNING);
+	}
+
+	// announce before looking at the lock, the inquiry locks before looking at
+	// the announcements, so one of us sees the other
+	private void beginUpdate() {
+		for (;;) {
+			updates.getAndAdd(UPDATE_STARTED + UPDATE_RUNNING);
+			if (!availableLock.isWriteLocked()) {
+				return;
+			}
+			updates.getAndAdd(-UPDATE_RUNNING);
+			availableLock.unlockRead(availableLock.readLock());
+		}
+	}
+
+	// no update ran while the counters were read
+	private boolean updatedDuring(long before) {
+		VarHandle.acquireFence();
+		if ((before & (UPDATE_STARTED - 1)) == 0 && updates.get() == before) {
+			return false;
+		}
+		contended(ContentionCounters.INQUIRY_RETRY);
+		return true;
+	}
+
+	// holds new updates off and waits out the running ones
+	private long lockAvailableSeats() {
+		long wt = availableLock.writeLock();
+		while ((updates.get() & (UPDATE_STARTED - 1)) != 0) {
+			Thread.yield();
+		}
+		return wt;
+	}
+
+	private void contended(int event) {
+		if (ContentionCounters.ENABLED && contention != null) {
+			contention.increment(event);
+		}
+	}
+
+	// a buy backs off before it looks at its cell again
+	private void sleep0() {
+		contended(ContentionCounters.BUY_RETRY);
+		try {
+			Thread.sleep(0);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	RouteTickets(int coachnum, int seatnum, int stationnum) {
+		this(coachnum, seatnum, stationnum, null);
+	}
+
+	RouteTickets(int coachnum, int seatnum, int stationnum, ContentionCounters contention) {
+		this.coachnum = coachnum;
+		this.seatnum = seatnum;
+		this.stationnum = stationnum;
+		this.contention = contention;
+		this.stations = new LockedCell[stationnum + 1][stationnum + 1];
+		this.gapLocks = new SeatOccupancy(coachnum * seatnum, stationnum, contention);
+		this.availableSeats = new int[(stationnum + 1) * (stationnum + 1)];
+		this.rowLocks = new AtomicIntegerArray(stationnum / ROWS_PER_LOCK + 1);
+
+		for (int i = 1; i <= stationnum; ++i) {
+			for (int j = i + 1; j <= stationnum; ++j) {
+				this.availableSeats[rangeIndex(i, j)] = coachnum * seatnum;
+			}
+		}
+		this.stations[1][stationnum] = new LockedCell(coachnum * seatnum);
+		for (int seatIndex = 0; seatIndex < coachnum * seatnum; ++seatIndex) {
+			this.stations[1][stationnum].addSeat(seatIndex);
+		}
+	}
+
+	// null if no seat was ever free on exactly [left, right]
+	private LockedCell peekCell(int left, int right) {
+		return (LockedCell) CELLS.getAcquire(stations[left], right);
+	}
+
+	private LockedCell cell(int left, int right) {
+		LockedCell cell = peekCell(left, right);
+		if (cell == null) {
+			LockedCell created = new LockedCell(coachnum * seatnum);
+			cell = (LockedCell) CELLS.compareAndExchange(stations[left], right, null, created);
+			if (cell == null) {
+				cell = created;
+			}
+		}
+		return cell;
+	}
+
+	@Override
+	public int allocateCoachSeat(int departure, int arrival) {
+		// a failed buy linearizes at the counter read that saw no seat left,
+		// seats moving between cells behind the scan make us look again
+		while (queryCoachSeatNum(departure, arrival) > 0) {
+			int result = allocCoachSeatWithRange(departure, arrival, 1, stationnum);
+			if (result >= 0) {
+				return result;
+			}
+			for (int left = departure; left >= 1; --left) {
+				for (int right = arrival; right <= stationnum; ++right) {
+					result = allocCoachSeatWithRange(departure, arrival, left, right);
+					if (result >= 0) {
+						return result;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	private int allocCoachSeatWithRange(int departure, int arrival, int left, int right) {
+		LockedCell oldCell = peekCell(left, right);
+		if (oldCell == null) {
+			return -1;
+		}
+		for (;;) {
+			long rs = oldCell.rwlock.tryOptimisticRead();
+			if (rs == 0) {
+				sleep0();
+				continue;
+			}
+			if (!oldCell.isEmpty()) {
+				long oldwt = oldCell.rwlock.tryConvertToWriteLock(rs);
+				if (oldwt == 0) {
+					sleep0();
+					continue;
+				}
+				int seatIndex = oldCell.pollSeat();
+				LockedCell leftCell = left < departure ? cell(left, departure) : null;
+				LockedCell rightCell = arrival < right ? cell(arrival, right) : null;
+				long leftwt = 0, rightwt = 0;
+
+				if (left < departure) {
+					leftwt = leftCell.rwlock.writeLock();
+					leftCell.addSeat(seatIndex);
+				}
+				if (arrival < right) {
+					rightwt = rightCell.rwlock.writeLock();
+					rightCell.addSeat(seatIndex);
+				}
+
+				gapLocks.claim(seatIndex, departure, arrival);
+				updateAvailableSeats(departure, arrival, left, right, -1);
+
+				oldCell.rwlock.unlockWrite(oldwt);
+				if (leftwt != 0) {
+					leftCell.rwlock.unlockWrite(leftwt);
+				}
+				if (rightwt != 0) {
+					rightCell.rwlock.unlockWrite(rightwt);
+				}
+				return seatIndex;
+			} else {
+				return -1;
+			}
+		}
+	}
+
+	@Override
+	public int allocateCoachSeats(int departure, int arrival, int[] seatIndices, int count) {
+		int allocated = 0;
+		while (allocated < count && queryCoachSeatNum(departure, arrival) > 0) {
+			allocated += allocCoachSeatsWithRange(departure, arrival, 1, stationnum, seatIndices, allocated,
+					count - allocated);
+			for (int left = departure; left >= 1 && allocated < count; --left) {
+				for (int right = arrival; right <= stationnum && allocated < count; ++right) {
+					allocated += allocCoachSeatsWithRange(departure, arrival, left, right, seatIndices, allocated,
+							count - allocated);
+				}
+			}
+		}
+		return allocated;
+	}
+
+	// same as allocCoachSeatWithRange, but drains up to count seats under one
+	// write lock of each cell
+	private int allocCoachSeatsWithRange(int departure, int arrival, int left, int right, int[] seatIndices,
+			int offset, int count) {
+		LockedCell oldCell = peekCell(left, right);
+		if (oldCell == null) {
+			return 0;
+		}
+		for (;;) {
+			long rs = oldCell.rwlock.tryOptimisticRead();
+			if (rs == 0) {
+				sleep0();
+				continue;
+			}
+			if (oldCell.isEmpty()) {
+				return 0;
+			}
+			long oldwt = oldCell.rwlock.tryConvertToWriteLock(rs);
+			if (oldwt == 0) {
+				sleep0();
+				continue;
+			}
+			LockedCell leftCell = left < departure ? cell(left, departure) : null;
+			LockedCell rightCell = arrival < right ? cell(arrival, right) : null;
+			long leftwt = left < departure ? leftCell.rwlock.writeLock() : 0;
+			long rightwt = arrival < right ? rightCell.rwlock.writeLock() : 0;
+
+			int polled = 0;
+			while (polled < count && !oldCell.isEmpty()) {
+				int seatIndex = oldCell.pollSeat();
+				if (leftwt != 0) {
+					leftCell.addSeat(seatIndex);
+				}
+				if (rightwt != 0) {
+					rightCell.addSeat(seatIndex);
+				}
+				gapLocks.claim(seatIndex, departure, arrival);
+				seatIndices[offset + polled++] = seatIndex;
+			}
+			updateAvailableSeats(departure, arrival, left, right, -polled);
+
+			oldCell.rwlock.unlockWrite(oldwt);
+			if (leftwt != 0) {
+				leftCell.rwlock.unlockWrite(leftwt);
+			}
+			if (rightwt != 0) {
+				rightCell.rwlock.unlockWrite(rightwt);
+			}
+			return polled;
+		}
+	}
+
+	/**
+	 * Locks the cells a seat free on [departure, arrival] can be in, left station
+	 * by left station, until they hold enough seats for the group; the left
+	 * pieces of those seats are locked on the way, the right pieces once the
+	 * group is picked. Nothing is claimed before the whole group is found, and
+	 * a group that does not fit has every such cell locked at once.
+	 */
+	@Override
+	public boolean allocateGroup(int departure, int arrival, int[] seatIndices, int count, boolean sameCoach) {
+		final int seatCount = coachnum * seatnum;
+		final int span = sameCoach ? seatnum : seatCount;
+		// fails at the counter read like allocateCoachSeat
+		if (count > span || queryCoachSeatNum(departure, arrival) < count) {
+			return false;
+		}
+		final LockedCell[] locked = new LockedCell[departure * (stationnum - arrival + 2) + stationnum - arrival];
+		final long[] stamps = new long[locked.length];
+		int lockCount = 0;
+		try {
+			// free seats of the locked cells, the cells are disjoint
+			final long[] free = new long[(seatCount + 63) >>> 6];
+			final int[] freeInSpan = new int[seatCount / span];
+			int groupSpan = -1;
+			for (int left = 1; left <= departure && groupSpan < 0; ++left) {
+				for (int right = stationnum; right >= arrival && groupSpan < 0; --right) {
+					// absent cells are locked too, a refund could fill them behind our back
+					LockedCell cell = cell(left, right);
+					stamps[lockCount] = cell.rwlock.writeLock();
+					locked[lockCount++] = cell;
+					for (int w = 0; w < free.length && groupSpan < 0 && !cell.isEmpty(); ++w) {
+						long word = cell.ticketsOnSale[w];
+						free[w] |= word;
+						for (; word != 0 && groupSpan < 0; word &= word - 1) {
+							int seatIndex = (w << 6) + Long.numberOfTrailingZeros(word);
+							if (++freeInSpan[seatIndex / span] == count) {
+								groupSpan = seatIndex / span;
+							}
+						}
+					}
+				}
+				if (left < departure) {
+					locked[lockCount] = cell(left, departure);
+					stamps[lockCount] = locked[lockCount++].rwlock.writeLock();
+				}
+			}
+			if (groupSpan < 0) {
+				return false;
+			}
+			final boolean[] rightPieces = new boolean[stationnum + 1];
+			int seatIndex = groupSpan * span - 1;
+			for (int k = 0; k < count; ++k) {
+				seatIndex = nextFreeSeat(free, seatIndex + 1);
+				seatIndices[k] = seatIndex;
+				rightPieces[freeRight(seatIndex, arrival)] = true;
+			}
+			for (int right = stationnum; right > arrival; --right) {
+				if (rightPieces[right]) {
+					locked[lockCount] = cell(arrival, right);
+					stamps[lockCount] = locked[lockCount++].rwlock.writeLock();
+				}
+			}
+			for (int k = 0; k < count; ++k) {
+				claimSeat(seatIndices[k], departure, arrival);
+			}
+			return true;
+		} finally {
+			for (int i = 0; i < lockCount; ++i) {
+				locked[i].rwlock.unlockWrite(stamps[i]);
+			}
+		}
+	}
+
+	static int nextFreeSeat(long[] free, int from) {
+		int w = from >>> 6;
+		long word = free[w] & (-1L << from);
+		while (word == 0) {
+			word = free[++w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	@Override
+	public boolean restoreCoachSeat(int seatIndex, int departure, int arrival) {
+		if (freeRight(seatIndex, departure) < arrival) {
+			return false;
+		}
+		// the pieces may not have a cell yet, claimSeat only peeks
+		int left = freeLeft(seatIndex, departure);
+		int right = freeRight(seatIndex, arrival);
+		if (left < departure) {
+			cell(left, departure);
+		}
+		if (arrival < right) {
+			cell(arrival, right);
+		}
+		claimSeat(seatIndex, departure, arrival);
+		return true;
+	}
+
+	// every seat goes to the cell of each of its maximal free runs, the counters
+	// follow from the runs like in queryAllCoachSeatNum of the bitmap engine
+	@Override
+	public void loadOccupancy(long[] occupancy) {
+		gapLocks.load(occupancy);
+		final int[][] runs = new int[stationnum + 1][stationnum + 1];
+		stations[1][stationnum] = null;
+		for (int seatIndex = 0; seatIndex < coachnum * seatnum; ++seatIndex) {
+			for (int left = 1; left < stationnum;) {
+				int right = freeRight(seatIndex, left);
+				if (right > left) {
+					cell(left, right).addSeat(seatIndex);
+					++runs[left][right];
+				}
+				left = right + 1;
+			}
+		}
+		SeatOccupancy.sumFreeRuns(runs);
+		beginUpdate();
+		for (int d = 1; d < stationnum; ++d) {
+			System.arraycopy(runs[d], d + 1, availableSeats, rangeIndex(d, d + 1), stationnum - d);
+		}
+		updates.getAndAdd(-UPDATE_RUNNING);
+	}
+
+	// caller holds the cell of the seat and the cells it is split into
+	private void claimSeat(int seatIndex, int departure, int arrival) {
+		int left = freeLeft(seatIndex, departure);
+		int right = freeRight(seatIndex, arrival);
+		peekCell(left, right).removeSeat(seatIndex);
+		if (left < departure) {
+			peekCell(left, departure).addSeat(seatIndex);
+		}
+		if (arrival < right) {
+			peekCell(arrival, right).addSeat(seatIndex);
+		}
+		gapLocks.claim(seatIndex, departure, arrival);
+		updateAvailableSeats(departure, arrival, left, right, -1);
+	}
+
+	@Override
+	public void freeCoachSeat(int seatIndex, int departure, int arrival) {
+		// refunds of the same seat must not merge its free ranges concurrently,
+		// both paths commit with a CAS of all the words they derived the merge from
+		if (gapLocks.wordsPerSeat == 1) {
+			freeSingleWordSeat(seatIndex, departure, arrival);
+		} else {
+			freeMultiWordSeat(seatIndex, departure, arrival);
+		}
+	}
+
+	private void freeSingleWordSeat(int seatIndex, int departure, int arrival) {
+		final long ticketBits = SeatOccupancy.gapMask(departure, arrival);
+		boolean end;
+		do {
+			long origin = gapLocks.get(seatIndex, 0);
+			long update = origin & ~ticketBits;
+
+			int left = departure;
+			while (left > 1 && (update & (1L << left)) == 0) {
+				--left;
+			}
+			int right = arrival;
+			while (right < stationnum && (update & (1L << (right + 1))) == 0) {
+				++right;
+			}
+
+			LockedCell mergedCell = cell(left, right);
+			LockedCell leftCell = left < departure ? cell(left, departure) : null;
+			LockedCell rightCell = arrival < right ? cell(arrival, right) : null;
+			long mergedwt = mergedCell.rwlock.writeLock();
+			long leftwt = 0, rightwt = 0;
+			if (left < departure) {
+				leftwt = leftCell.rwlock.writeLock();
+			}
+			if (arrival < right) {
+				rightwt = rightCell.rwlock.writeLock();
+			}
+
+			// any change of the word since it was read, a buy out of one of the
+			// free pieces or another refund of this seat, means left/right are stale
+			end = gapLocks.compareAndSet(seatIndex, origin, update);
+			if (end) {
+				if (left < departure) {
+					leftCell.removeSeat(seatIndex);
+				}
+				if (arrival < right) {
+					rightCell.removeSeat(seatIndex);
+				}
+				mergedCell.addSeat(seatIndex);
+				updateAvailableSeats(departure, arrival, left, right, 1);
+			}
+			mergedCell.rwlock.unlockWrite(mergedwt);
+			if (leftwt != 0) {
+				leftCell.rwlock.unlockWrite(leftwt);
+			}
+			if (rightwt != 0) {
+				rightCell.rwlock.unlockWrite(rightwt);
+			}
+			if (!end) {
+				contended(ContentionCounters.REFUND_RETRY);
+			}
+		} while (!end);
+	}
+
+	private int freeLeft(int seatIndex, int departure) {
+		int left = departure;
+		while (left > 1 && !gapLocks.isSold(seatIndex, left)) {
+			--left;
+		}
+		return left;
+	}
+
+	private int freeRight(int seatIndex, int arrival) {
+		int right = arrival;
+		while (right < stationnum && !gapLocks.isSold(seatIndex, right + 1)) {
+			++right;
+		}
+		return right;
+	}
+
+	private void freeMultiWordSeat(int seatIndex, int departure, int arrival) {
+		boolean end;
+		do {
+			long[] origin = gapLocks.words(seatIndex);
+			long[] update = SeatOccupancy.withRange(origin, departure, arrival, false);
+
+			int left = departure;
+			while (left > 1 && !SeatOccupancy.isSold(update, left)) {
+				--left;
+			}
+			int right = arrival;
+			while (right < stationnum && !SeatOccupancy.isSold(update, right + 1)) {
+				++right;
+			}
+
+			LockedCell mergedCell = cell(left, right);
+			LockedCell leftCell = left < departure ? cell(left, departure) : null;
+			LockedCell rightCell = arrival < right ? cell(arrival, right) : null;
+			long mergedwt = mergedCell.rwlock.writeLock();
+			long leftwt = 0, rightwt = 0;
+			if (left < departure) {
+				leftwt = leftCell.rwlock.writeLock();
+			}
+			if (arrival < right) {
+				rightwt = rightCell.rwlock.writeLock();
+			}
+
+			end = gapLocks.compareAndSet(seatIndex, origin, update);
+			if (end) {
+				if (left < departure) {
+					leftCell.removeSeat(seatIndex);
+				}
+				if (arrival < right) {
+					rightCell.removeSeat(seatIndex);
+				}
+				mergedCell.addSeat(seatIndex);
+				updateAvailableSeats(departure, arrival, left, right, 1);
+			}
+			mergedCell.rwlock.unlockWrite(mergedwt);
+			if (leftwt != 0) {
+				leftCell.rwlock.unlockWrite(leftwt);
+			}
+			if (rightwt != 0) {
+				rightCell.rwlock.unlockWrite(rightwt);
+			}
+			if (!end) {
+				contended(ContentionCounters.REFUND_RETRY);
+			}
+		} while (!end);
+	}
+
+	@Override
+	public int queryCoachSeatNum(int departure, int arrival) {
+		final int index = rangeIndex(departure, arrival);
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; ++attempt) {
+			long before = updates.get();
+			int sum = availableSeats[index];
+			if (!updatedDuring(before)) {
+				return sum;
+			}
+		}
+		long wt = lockAvailableSeats();
+		int sum = availableSeats[index];
+		availableLock.unlockWrite(wt);
+		assert sum <= coachnum * seatnum;
+		return sum;
+	}
+
+	// every counter in one quiet window, so the matrix is a snapshot between two updates
+	@Override
+	public void queryAllCoachSeatNum(int[][] counts) {
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; ++attempt) {
+			long before = updates.get();
+			copyAvailableSeats(counts);
+			if (!updatedDuring(before)) {
+				return;
+			}
+		}
+		long wt = lockAvailableSeats();
+		copyAvailableSeats(counts);
+		availableLock.unlockWrite(wt);
+	}
+
+	private void copyAvailableSeats(int[][] counts) {
+		for (int d = 1; d < stationnum; ++d) {
+			System.arraycopy(availableSeats, rangeIndex(d, d + 1), counts[d], d + 1, stationnum - d);
+		}
+	}
+}
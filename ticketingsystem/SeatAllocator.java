@@ -0,0 +1,110 @@
+package ticketingsystem;
+
+/**
+ * Seat allocation engine of a single route. Seats are addressed by their
+ * index (coach - 1) * seatnum + (seat - 1), stations by 1..stationnum.
+ * Refund validation and ticket ids are handled by {@link TicketingDS}, an
+ * engine only keeps track of which seat is free on which range.
+ */
+interface SeatAllocator {
+	String CELL = "cell";
+	String BITMAP = "bitmap";
+	String COARSE = "coarse";
+	String COMPACT = "compact";
+	String OFFHEAP = "offheap";
+
+	/**
+	 * @return the index of a seat now sold on [departure, arrival], or -1 when
+	 *         no seat is free on the whole range
+	 */
+	int allocateCoachSeat(int departure, int arrival);
+
+	/**
+	 * Sells up to count seats on [departure, arrival] in one go, engines
+	 * override it to enter each lock once for the whole group.
+	 *
+	 * @return the number of seats written to seatIndices[0..]
+	 */
+	default int allocateCoachSeats(int departure, int arrival, int[] seatIndices, int count) {
+		int allocated = 0;
+		while (allocated < count) {
+			int seatIndex = allocateCoachSeat(departure, arrival);
+			if (seatIndex < 0) {
+				break;
+			}
+			seatIndices[allocated++] = seatIndex;
+		}
+		return allocated;
+	}
+
+	/**
+	 * Sells count seats on [departure, arrival], all of them in one coach if
+	 * sameCoach, or none at all.
+	 *
+	 * @return whether seatIndices[0..count) now holds the sold seats
+	 */
+	boolean allocateGroup(int departure, int arrival, int[] seatIndices, int count, boolean sameCoach);
+
+	/**
+	 * Returns a seat previously handed out by {@link #allocateCoachSeat} for
+	 * the same range.
+	 */
+	void freeCoachSeat(int seatIndex, int departure, int arrival);
+
+	/**
+	 * Sells exactly seatIndex on [departure, arrival]. Only for rebuilding a
+	 * route from a journal, nothing else may run on the route meanwhile.
+	 *
+	 * @return false if the seat is not free on the whole range
+	 */
+	boolean restoreCoachSeat(int seatIndex, int departure, int arrival);
+
+	/**
+	 * Takes over the occupancy words of a snapshot, laid out like
+	 * {@link SeatOccupancy}, and rebuilds everything derived from them. Only
+	 * for an engine nothing was sold on yet and nothing else runs on.
+	 */
+	void loadOccupancy(long[] occupancy);
+
+	int queryCoachSeatNum(int departure, int arrival);
+
+	/**
+	 * Fills counts[departure][arrival] with the free seats of every range
+	 * 1 <= departure < arrival <= stationnum, taken from one pass over the
+	 * route. counts is (stationnum + 1) square and zero on entry, the entries
+	 * outside the ranges stay zero.
+	 */
+	default void queryAllCoachSeatNum(int[][] counts) {
+		for (int departure = 1; departure < counts.length; ++departure) {
+			for (int arrival = departure + 1; arrival < counts.length; ++arrival) {
+				counts[departure][arrival] = queryCoachSeatNum(departure, arrival);
+			}
+		}
+	}
+
+	static SeatAllocator create(String engine, int coachnum, int seatnum, int stationnum) {
+		return create(engine, coachnum, seatnum, stationnum, null);
+	}
+
+	/**
+	 * @param contention where the cell and bitmap engines count their retries,
+	 *                   or null
+	 */
+	static SeatAllocator create(String engine, int coachnum, int seatnum, int stationnum,
+			ContentionCounters contention) {
+		switch (engine) {
+			case CELL:
+				return new RouteTickets(coachnum, seatnum, stationnum, contention);
+			case BITMAP:
+				return new BitmapSeatAllocator(coachnum, seatnum, stationnum, contention);
+			case COARSE:
+				return new CoarseSeatAllocator(coachnum, seatnum, stationnum);
+			case COMPACT:
+				return new CompactRouteTickets(coachnum, seatnum, stationnum, false);
+			case OFFHEAP:
+				return new CompactRouteTickets(coachnum, seatnum, stationnum, true);
+			default:
+				throw new IllegalArgumentException("unknown seat allocator: " + engine);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SeatAllocatorTest {
+
+	final int COACHNUM = 3;
+	final int SEATNUM = 5;
+	final int STATIONNUM = 8;
+	// single-threaded engine of the sharded mode, not selectable through create
+	static final String PLAIN = "plain";
+
+	SeatAllocator newAllocator(String engine, int stationnum) {
+		if (engine.equals(PLAIN)) {
+			return new PlainRouteTickets(COACHNUM, SEATNUM, stationnum);
+		}
+		return SeatAllocator.create(engine, COACHNUM, SEATNUM, stationnum);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+			SeatAllocator.OFFHEAP, PLAIN })
+	void sellOut(String engine) {
+		SeatAllocator allocator = newAllocator(engine, STATIONNUM);
+		boolean[] sold = new boolean[COACHNUM * SEATNUM];
+		for (int i = 0; i < COACHNUM * SEATNUM; ++i) {
+			int seatIndex = allocator.allocateCoachSeat(1, STATIONNUM);
+			assertTrue(0 <= seatIndex && seatIndex < COACHNUM * SEATNUM);
+			assertFalse(sold[seatIndex]);
+			sold[seatIndex] = true;
+		}
+		assertEquals(-1, allocator.allocateCoachSeat(3, 4));
+		assertEquals(0, allocator.queryCoachSeatNum(1, 2));
+		allocator.freeCoachSeat(7, 1, STATIONNUM);
+		assertEquals(1, allocator.queryCoachSeatNum(2, 5));
+		assertEquals(7, allocator.allocateCoachSeat(2, 5));
+		assertEquals(7, allocator.allocateCoachSeat(5, 6));
+		assertEquals(-1, allocator.allocateCoachSeat(4, 6));
+		assertEquals(1, allocator.queryCoachSeatNum(6, STATIONNUM));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "cell, 8", "bitmap, 8", "coarse, 8", "compact, 8", "offheap, 8", "plain, 8",
+			"cell, 63", "bitmap, 63", "coarse, 63", "compact, 63", "offheap, 63", "plain, 63",
+			"cell, 64", "bitmap, 64", "coarse, 64", "compact, 64", "offheap, 64", "plain, 64",
+			"cell, 128", "bitmap, 128", "coarse, 128", "compact, 128", "offheap, 128", "plain, 128" })
+	void randomOperations(String engine, int stationnum) {
+		SeatAllocator allocator = newAllocator(engine, stationnum);
+		// [seatIndex][station], station s is occupied between s - 1 and s
+		boolean[][] occupied = new boolean[COACHNUM * SEATNUM][stationnum + 1];
+		ArrayList<int[]> sold = new ArrayList<>();
+		Random rand = new Random(7);
+		for (int op = 0; op < 5000; ++op) {
+			// favour short trips on long routes so that seats get fragmented
+			int departure = rand.nextInt(stationnum - 1) + 1;
+			int arrival = departure + rand.nextInt(Math.min(stationnum - departure, 20)) + 1;
+			if (rand.nextInt(3) == 0 && !sold.isEmpty()) {
+				int[] t = sold.remove(rand.nextInt(sold.size()));
+				allocator.freeCoachSeat(t[0], t[1], t[2]);
+				for (int s = t[1] + 1; s <= t[2]; ++s) {
+					occupied[t[0]][s] = false;
+				}
+			} else {
+				int expected = 0;
+				for (boolean[] seat : occupied) {
+					boolean free = true;
+					for (int s = departure + 1; s <= arrival; ++s) {
+						free &= !seat[s];
+					}
+					expected += free ? 1 : 0;
+				}
+				assertEquals(expected, allocator.queryCoachSeatNum(departure, arrival));
+				int seatIndex = allocator.allocateCoachSeat(departure, arrival);
+				assertEquals(expected == 0, seatIndex < 0);
+				if (seatIndex >= 0) {
+					for (int s = departure + 1; s <= arrival; ++s) {
+						assertFalse(occupied[seatIndex][s]);
+						occupied[seatIndex][s] = true;
+					}
+					sold.add(new int[] { seatIndex, departure, arrival });
+				}
+			}
+			if (op % 100 == 0) {
+				int[][] counts = new int[stationnum + 1][stationnum + 1];
+				allocator.queryAllCoachSeatNum(counts);
+				for (int d = 0; d <= stationnum; ++d) {
+					for (int a = 0; a <= stationnum; ++a) {
+						assertEquals(d >= 1 && d < a ? allocator.queryCoachSeatNum(d, a) : 0, counts[d][a]);
+					}
+				}
+			}
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+			SeatAllocator.OFFHEAP, PLAIN })
+	void allocateBatch(String engine) {
+		SeatAllocator allocator = newAllocator(engine, STATIONNUM);
+		int[] seatIndices = new int[COACHNUM * SEATNUM + 4];
+		assertEquals(4, allocator.allocateCoachSeats(2, 5, seatIndices, 4));
+		assertEquals(COACHNUM * SEATNUM - 4, allocator.queryCoachSeatNum(1, STATIONNUM));
+		assertEquals(COACHNUM * SEATNUM, allocator.queryCoachSeatNum(5, STATIONNUM));
+		assertEquals(COACHNUM * SEATNUM - 4, allocator.allocateCoachSeats(3, 4, seatIndices, seatIndices.length));
+		assertEquals(4, allocator.allocateCoachSeats(5, 6, seatIndices, 4));
+		assertEquals(0, allocator.allocateCoachSeats(1, 4, seatIndices, 1));
+		boolean[] seen = new boolean[COACHNUM * SEATNUM];
+		assertEquals(COACHNUM * SEATNUM, allocator.allocateCoachSeats(1, 2, seatIndices, seatIndices.length));
+		for (int i = 0; i < COACHNUM * SEATNUM; ++i) {
+			assertFalse(seen[seatIndices[i]]);
+			seen[seatIndices[i]] = true;
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+			SeatAllocator.OFFHEAP, PLAIN })
+	void allocateGroup(String engine) {
+		SeatAllocator allocator = newAllocator(engine, STATIONNUM);
+		int[] seatIndices = new int[COACHNUM * SEATNUM + 1];
+		assertFalse(allocator.allocateGroup(2, 5, seatIndices, SEATNUM + 1, true));
+		assertFalse(allocator.allocateGroup(2, 5, seatIndices, COACHNUM * SEATNUM + 1, false));
+		int total = COACHNUM * SEATNUM;
+		assertTrue(allocator.allocateGroup(2, 5, seatIndices, 3, true));
+		int[] first = Arrays.copyOf(seatIndices, 3);
+		assertEquals(first[0] / SEATNUM, first[1] / SEATNUM);
+		assertEquals(first[0] / SEATNUM, first[2] / SEATNUM);
+		assertEquals(total - 3, allocator.queryCoachSeatNum(3, 4));
+		// the coach of the first group is left with SEATNUM - 3 free seats on [3, 4]
+		assertTrue(allocator.allocateGroup(3, 4, seatIndices, SEATNUM, true));
+		for (int k = 0; k < SEATNUM; ++k) {
+			assertNotEquals(first[0] / SEATNUM, seatIndices[k] / SEATNUM);
+			assertEquals(seatIndices[0] / SEATNUM, seatIndices[k] / SEATNUM);
+		}
+		assertTrue(allocator.allocateGroup(1, STATIONNUM, seatIndices, SEATNUM, true));
+		// all or nothing: a failed group leaves every seat free
+		assertFalse(allocator.allocateGroup(3, 4, seatIndices, SEATNUM - 2, true));
+		assertEquals(SEATNUM - 3, allocator.queryCoachSeatNum(3, 4));
+		assertFalse(allocator.allocateGroup(3, 4, seatIndices, SEATNUM - 2, false));
+		assertEquals(SEATNUM - 3, allocator.queryCoachSeatNum(3, 4));
+		assertTrue(allocator.allocateGroup(3, 4, seatIndices, SEATNUM - 3, false));
+		assertEquals(0, allocator.queryCoachSeatNum(3, 4));
+		assertEquals(total - SEATNUM, allocator.queryCoachSeatNum(5, 6));
+		for (int seatIndex : first) {
+			allocator.freeCoachSeat(seatIndex, 2, 5);
+		}
+		assertEquals(total - SEATNUM, allocator.queryCoachSeatNum(2, 3));
+		assertFalse(allocator.allocateGroup(2, 5, seatIndices, 4, true));
+		assertTrue(allocator.allocateGroup(2, 5, seatIndices, 3, true));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "cell, 30", "bitmap, 30", "coarse, 30", "compact, 30", "offheap, 30",
+			"cell, 64", "bitmap, 64", "coarse, 64", "compact, 64", "offheap, 64",
+			"cell, 128", "bitmap, 128", "coarse, 128", "compact, 128", "offheap, 128" })
+	void concurrentOperations(String engine, int stationnum) throws InterruptedException {
+		final TicketingDS ds = new TicketingDS(1, COACHNUM, SEATNUM, stationnum, 8, engine);
+		final ArrayList<ArrayList<Ticket>> held = new ArrayList<>();
+		final AtomicInteger failedRefunds = new AtomicInteger();
+		final AtomicInteger splitGroups = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; ++i) {
+			final ArrayList<Ticket> tickets = new ArrayList<>();
+			held.add(tickets);
+			final Random rand = new Random(i);
+			threads[i] = new Thread(() -> {
+				for (int op = 0; op < 20000; ++op) {
+					int kind = rand.nextInt(8);
+					if (kind < 4 && !tickets.isEmpty()) {
+						if (!ds.refundTicket(tickets.remove(rand.nextInt(tickets.size())))) {
+							failedRefunds.incrementAndGet();
+						}
+					} else if (kind == 4) {
+						int departure = rand.nextInt(stationnum - 1) + 1;
+						int arrival = departure + rand.nextInt(Math.min(stationnum - departure, 20)) + 1;
+						boolean sameCoach = rand.nextBoolean();
+						Ticket[] group = ds.buyGroup(new String[] { "g", "h", "i" }, 1, departure, arrival, sameCoach);
+						if (group != null) {
+							for (Ticket t : group) {
+								if (sameCoach && t.coach != group[0].coach) {
+									splitGroups.incrementAndGet();
+								}
+								tickets.add(t);
+							}
+						}
+					} else {
+						int departure = rand.nextInt(stationnum - 1) + 1;
+						int arrival = departure + rand.nextInt(Math.min(stationnum - departure, 20)) + 1;
+						Ticket t = ds.buyTicket("p" + op, 1, departure, arrival);
+						if (t != null) {
+							tickets.add(t);
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, failedRefunds.get());
+		assertEquals(0, splitGroups.get());
+		boolean[][] occupied = new boolean[COACHNUM * SEATNUM][stationnum + 1];
+		for (ArrayList<Ticket> tickets : held) {
+			for (Ticket t : tickets) {
+				for (int s = t.departure + 1; s <= t.arrival; ++s) {
+					assertFalse(occupied[(t.coach - 1) * SEATNUM + t.seat - 1][s]);
+					occupied[(t.coach - 1) * SEATNUM + t.seat - 1][s] = true;
+				}
+				assertTrue(ds.refundTicket(t));
+			}
+		}
+		for (int departure = 1; departure < stationnum; ++departure) {
+			for (int arrival = departure + 1; arrival <= stationnum; ++arrival) {
+				assertEquals(COACHNUM * SEATNUM, ds.inquiry(1, departure, arrival));
+			}
+		}
+		for (int i = 0; i < COACHNUM * SEATNUM; ++i) {
+			assertNotNull(ds.buyTicket("q", 1, 1, stationnum));
+		}
+	}
+
+	// whole-route sales move every counter together, a torn matrix shows two values
+	@ParameterizedTest
+	@ValueSource(strings = { SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+			SeatAllocator.OFFHEAP })
+	void inquiryAllIsASnapshot(String engine) throws InterruptedException {
+		final int stationnum = 20;
+		final SeatAllocator allocator = newAllocator(engine, stationnum);
+		final AtomicInteger torn = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; ++i) {
+			final boolean reader = i == 0;
+			threads[i] = new Thread(() -> {
+				final int[][] counts = new int[stationnum + 1][stationnum + 1];
+				for (int op = 0; op < 20000; ++op) {
+					if (reader) {
+						for (int[] row : counts) {
+							Arrays.fill(row, 0);
+						}
+						allocator.queryAllCoachSeatNum(counts);
+						for (int d = 1; d < stationnum; ++d) {
+							for (int a = d + 1; a <= stationnum; ++a) {
+								if (counts[d][a] != counts[1][stationnum]) {
+									torn.incrementAndGet();
+								}
+							}
+						}
+					} else {
+						int seatIndex = allocator.allocateCoachSeat(1, stationnum);
+						if (seatIndex >= 0) {
+							allocator.freeCoachSeat(seatIndex, 1, stationnum);
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, torn.get());
+		assertEquals(COACHNUM * SEATNUM, allocator.queryCoachSeatNum(1, stationnum));
+	}
+
+	// the writer always holds the first or the last seat, so an inquiry that
+	// finds both free read them at two different times
+	@ParameterizedTest
+	@ValueSource(strings = { SeatAllocator.CELL, SeatAllocator.BITMAP, SeatAllocator.COARSE, SeatAllocator.COMPACT,
+			SeatAllocator.OFFHEAP })
+	void inquiryIsLinearizable(String engine) throws InterruptedException {
+		final int stationnum = 20;
+		final int seatCount = 10 * 100;
+		final SeatAllocator allocator = SeatAllocator.create(engine, 10, 100, stationnum);
+		final AtomicInteger torn = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		assertTrue(allocator.restoreCoachSeat(0, 1, stationnum));
+		Thread writer = new Thread(() -> {
+			for (int held = 0; done.get() == 0; held = seatCount - 1 - held) {
+				if (!allocator.restoreCoachSeat(seatCount - 1 - held, 1, stationnum)) {
+					torn.incrementAndGet();
+					return;
+				}
+				allocator.freeCoachSeat(held, 1, stationnum);
+			}
+		});
+		Thread reader = new Thread(() -> {
+			for (int op = 0; op < 20000; ++op) {
+				if (allocator.queryCoachSeatNum(1, stationnum) == seatCount) {
+					torn.incrementAndGet();
+				}
+			}
+			done.set(1);
+		});
+		writer.start();
+		reader.start();
+		reader.join();
+		writer.join();
+		assertEquals(0, torn.get());
+	}
+
+	@Test
+	void unknownEngine() {
+		assertThrows(IllegalArgumentException.class, () -> SeatAllocator.create("foo", COACHNUM, SEATNUM, STATIONNUM));
+	}
+}
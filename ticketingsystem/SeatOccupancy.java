@@ -0,0 +1,342 @@
+package ticketingsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Occupancy words of every seat of a route: bit s of a seat is set iff the
+ * seat is sold between station s - 1 and s. Routes of up to 63 stations give
+ * each seat one word, longer routes spread a seat over (stationnum >>> 6) + 1
+ * words. Bits 0 and 1 of the first word never carry a gap, bit 0 is left to
+ * callers that need a per-seat lock.
+ *
+ * Single words are updated in place with a CAS. The words of a longer seat
+ * form an immutable array that every update replaces with a CAS of the
+ * seat's reference, so a multi-word claim or release is one atomic step
+ * that never holds a lock and never rolls back, at the price of a copy of
+ * a few words per update.
+ */
+final class SeatOccupancy {
+	static final long SEAT_LOCK = 1L;
+
+	final int wordsPerSeat;
+	// one word per seat, null when seats have several
+	private final AtomicLongArray gapLocks;
+	// [seatIndex] the words of a seat, never modified once published; null when seats have one
+	private final AtomicReferenceArray<long[]> seats;
+	// the words of a seat nothing was sold on, shared by all of them
+	private final long[] free;
+	// null unless ContentionCounters.ENABLED
+	private final ContentionCounters contention;
+
+	SeatOccupancy(int seatCount, int stationnum) {
+		this(seatCount, stationnum, null);
+	}
+
+	SeatOccupancy(int seatCount, int stationnum, ContentionCounters contention) {
+		this.wordsPerSeat = wordsPerSeat(stationnum);
+		this.contention = contention;
+		if (wordsPerSeat == 1) {
+			this.gapLocks = new AtomicLongArray(seatCount);
+			this.seats = null;
+			this.free = null;
+		} else {
+			this.gapLocks = null;
+			this.seats = new AtomicReferenceArray<>(seatCount);
+			this.free = new long[wordsPerSeat];
+			for (int i = 0; i < seatCount; ++i) {
+				seats.setPlain(i, free);
+			}
+		}
+	}
+
+	// always true, so that it can extend the condition of a CAS retry loop
+	private boolean casFailed(int event) {
+		if (ContentionCounters.ENABLED && contention != null) {
+			contention.increment(event);
+		}
+		return true;
+	}
+
+	static int wordsPerSeat(int stationnum) {
+		return (stationnum >>> 6) + 1;
+	}
+
+	// bits departure + 1 .. arrival of a single-word seat
+	static long gapMask(int departure, int arrival) {
+		return (2L << arrival) - (1L << (departure + 1));
+	}
+
+	// bits departure + 1 .. arrival that fall into the word-th word of a seat
+	static long gapMask(int word, int departure, int arrival) {
+		int lo = Math.max(departure + 1, word << 6);
+		int hi = Math.min(arrival, (word << 6) + 63);
+		if (lo > hi) {
+			return 0;
+		}
+		return (-1L >>> (63 - (hi - lo))) << lo;
+	}
+
+	static int firstWord(int departure) {
+		return (departure + 1) >>> 6;
+	}
+
+	static int lastWord(int arrival) {
+		return arrival >>> 6;
+	}
+
+	/**
+	 * Walks the sold gaps in the word-th occupancy word of a seat whose
+	 * current free run began at station start. Every sold gap s closes the
+	 * run at s - 1 and counts it into runs[start][s - 1], runs of a single
+	 * station cover no range and are dropped.
+	 *
+	 * @return the station the still open run began at
+	 */
+	static int addFreeRuns(long word, int w, int start, int[][] runs) {
+		if (w == 0) {
+			word &= ~3L;
+		}
+		for (; word != 0; word &= word - 1) {
+			int station = (w << 6) + Long.numberOfTrailingZeros(word);
+			if (station - 1 > start) {
+				++runs[start][station - 1];
+			}
+			start = station;
+		}
+		return start;
+	}
+
+	/**
+	 * Turns runs[left][right], the number of seats whose maximal free run is
+	 * [left, right], into the free seats of every range: a seat is free on
+	 * [departure, arrival] iff its run has left <= departure and arrival <=
+	 * right, so two passes of running sums give all counts in O(stationnum^2).
+	 */
+	static void sumFreeRuns(int[][] runs) {
+		final int stationnum = runs.length - 1;
+		for (int right = 3; right <= stationnum; ++right) {
+			for (int left = 2; left < right; ++left) {
+				runs[left][right] += runs[left - 1][right];
+			}
+		}
+		for (int left = 1; left < stationnum; ++left) {
+			for (int right = stationnum - 1; right > left; --right) {
+				runs[left][right] += runs[left][right + 1];
+			}
+		}
+	}
+
+	// maximal free runs of every seat, see addFreeRuns
+	void addFreeRuns(int seatCount, int stationnum, int[][] runs) {
+		for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+			int start = 1;
+			if (wordsPerSeat == 1) {
+				start = addFreeRuns(gapLocks.get(seatIndex), 0, start, runs);
+			} else {
+				final long[] words = seats.get(seatIndex);
+				for (int w = 0; w < wordsPerSeat; ++w) {
+					start = addFreeRuns(words[w], w, start, runs);
+				}
+			}
+			if (stationnum > start) {
+				++runs[start][stationnum];
+			}
+		}
+	}
+
+	// nothing else may run on the seats; words holds wordsPerSeat consecutive words per seat
+	void load(long[] words) {
+		if (wordsPerSeat == 1) {
+			for (int i = 0; i < words.length; ++i) {
+				gapLocks.set(i, words[i]);
+			}
+			return;
+		}
+		for (int seatIndex = 0; seatIndex < seats.length(); ++seatIndex) {
+			final long[] seat = Arrays.copyOfRange(words, seatIndex * wordsPerSeat, (seatIndex + 1) * wordsPerSeat);
+			seats.set(seatIndex, Arrays.equals(seat, free) ? free : seat);
+		}
+	}
+
+	long get(int seatIndex, int word) {
+		return wordsPerSeat == 1 ? gapLocks.get(seatIndex) : seats.get(seatIndex)[word];
+	}
+
+	// every word of a seat of several at one instant, not to be modified
+	long[] words(int seatIndex) {
+		return seats.get(seatIndex);
+	}
+
+	static boolean isSold(long[] words, int station) {
+		return (words[station >>> 6] & (1L << station)) != 0;
+	}
+
+	boolean isSold(int seatIndex, int station) {
+		return (get(seatIndex, station >>> 6) & (1L << station)) != 0;
+	}
+
+	private static boolean isFree(long[] words, int departure, int arrival) {
+		for (int w = firstWord(departure); w <= lastWord(arrival); ++w) {
+			if ((words[w] & gapMask(w, departure, arrival)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean isFree(int seatIndex, int departure, int arrival) {
+		if (wordsPerSeat == 1) {
+			return (gapLocks.get(seatIndex) & gapMask(departure, arrival)) == 0;
+		}
+		return isFree(seats.get(seatIndex), departure, arrival);
+	}
+
+	// a copy of words with the gaps of [departure, arrival] set, or cleared
+	static long[] withRange(long[] words, int departure, int arrival, boolean sold) {
+		final long[] update = words.clone();
+		for (int w = firstWord(departure); w <= lastWord(arrival); ++w) {
+			final long bitvec = gapMask(w, departure, arrival);
+			assert (words[w] & bitvec) == (sold ? 0 : bitvec);
+			update[w] = sold ? update[w] | bitvec : update[w] & ~bitvec;
+		}
+		return update;
+	}
+
+	private boolean compareAndSetWords(int seatIndex, long[] expect, long[] update, int event) {
+		if (seats.compareAndSet(seatIndex, expect, Arrays.equals(update, free) ? free : update)) {
+			return true;
+		}
+		casFailed(event);
+		return false;
+	}
+
+	/**
+	 * Claims [departure, arrival] if the seat is free on all of it, with one
+	 * CAS of its word or of its array of words. A locked seat is waited for,
+	 * its holder may be about to claim it.
+	 */
+	boolean tryClaim(int seatIndex, int departure, int arrival) {
+		if (wordsPerSeat == 1) {
+			long bitvec = gapMask(departure, arrival);
+			long origin = gapLocks.get(seatIndex);
+			while ((origin & bitvec) == 0) {
+				if ((origin & SEAT_LOCK) != 0) {
+					Thread.onSpinWait();
+				} else if (gapLocks.compareAndSet(seatIndex, origin, origin | bitvec)) {
+					return true;
+				} else {
+					casFailed(ContentionCounters.BUY_GAP_CAS);
+				}
+				origin = gapLocks.get(seatIndex);
+			}
+			return false;
+		}
+		long[] origin = seats.get(seatIndex);
+		while (isFree(origin, departure, arrival)) {
+			if ((origin[0] & SEAT_LOCK) != 0) {
+				Thread.onSpinWait();
+			} else if (compareAndSetWords(seatIndex, origin, withRange(origin, departure, arrival, true),
+					ContentionCounters.BUY_GAP_CAS)) {
+				return true;
+			}
+			origin = seats.get(seatIndex);
+		}
+		return false;
+	}
+
+	// caller already owns the seat on [departure, arrival], e.g. through a cell or the seat lock
+	void claim(int seatIndex, int departure, int arrival) {
+		if (wordsPerSeat == 1) {
+			long bitvec = gapMask(departure, arrival);
+			long origin;
+			do {
+				origin = gapLocks.get(seatIndex);
+				assert (origin & bitvec) == 0;
+			} while (!gapLocks.compareAndSet(seatIndex, origin, origin | bitvec)
+					&& casFailed(ContentionCounters.BUY_GAP_CAS));
+			return;
+		}
+		long[] origin;
+		do {
+			origin = seats.get(seatIndex);
+		} while (!compareAndSetWords(seatIndex, origin, withRange(origin, departure, arrival, true),
+				ContentionCounters.BUY_GAP_CAS));
+	}
+
+	void release(int seatIndex, int departure, int arrival) {
+		if (wordsPerSeat == 1) {
+			clearBits(seatIndex, gapMask(departure, arrival), ContentionCounters.REFUND_GAP_CAS);
+			return;
+		}
+		long[] origin;
+		do {
+			origin = seats.get(seatIndex);
+		} while (!compareAndSetWords(seatIndex, origin, withRange(origin, departure, arrival, false),
+				ContentionCounters.REFUND_GAP_CAS));
+	}
+
+	private void clearBits(int index, long bitvec, int event) {
+		long origin;
+		do {
+			origin = gapLocks.get(index);
+			assert (origin & bitvec) == bitvec;
+		} while (!gapLocks.compareAndSet(index, origin, origin & ~bitvec) && casFailed(event));
+	}
+
+	boolean compareAndSet(int seatIndex, long expect, long update) {
+		if (gapLocks.compareAndSet(seatIndex, expect, update)) {
+			return true;
+		}
+		casFailed(ContentionCounters.REFUND_GAP_CAS);
+		return false;
+	}
+
+	// of a seat of several words, expect as returned by words
+	boolean compareAndSet(int seatIndex, long[] expect, long[] update) {
+		return compareAndSetWords(seatIndex, expect, update, ContentionCounters.REFUND_GAP_CAS);
+	}
+
+	/**
+	 * Spins until it sets the lock bit of the seat, for callers that must
+	 * check and claim several seats as one; claims of the seat wait for it.
+	 */
+	void lockSeat(int seatIndex) {
+		for (;;) {
+			if (wordsPerSeat == 1) {
+				long origin = gapLocks.get(seatIndex);
+				if ((origin & SEAT_LOCK) == 0) {
+					if (gapLocks.compareAndSet(seatIndex, origin, origin | SEAT_LOCK)) {
+						return;
+					}
+					casFailed(ContentionCounters.BUY_GAP_CAS);
+				}
+			} else {
+				long[] origin = seats.get(seatIndex);
+				if ((origin[0] & SEAT_LOCK) == 0) {
+					long[] update = origin.clone();
+					update[0] |= SEAT_LOCK;
+					if (compareAndSetWords(seatIndex, origin, update, ContentionCounters.BUY_GAP_CAS)) {
+						return;
+					}
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	void unlockSeat(int seatIndex) {
+		if (wordsPerSeat == 1) {
+			clearBits(seatIndex, SEAT_LOCK, ContentionCounters.BUY_GAP_CAS);
+			return;
+		}
+		long[] origin;
+		long[] update;
+		do {
+			origin = seats.get(seatIndex);
+			update = origin.clone();
+			update[0] &= ~SEAT_LOCK;
+		} while (!compareAndSetWords(seatIndex, origin, update, ContentionCounters.BUY_GAP_CAS));
+	}
+}
@@ -0,0 +1,105 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SeatOccupancyTest {
+
+	@Test
+	void gapMask() {
+		assertEquals(0b11100L, SeatOccupancy.gapMask(1, 4));
+		assertEquals(-4L, SeatOccupancy.gapMask(1, 63));
+		assertEquals(SeatOccupancy.gapMask(1, 63), SeatOccupancy.gapMask(0, 1, 63));
+		assertEquals(0b11100L, SeatOccupancy.gapMask(0, 1, 4));
+		assertEquals(0L, SeatOccupancy.gapMask(1, 1, 4));
+		assertEquals(-4L, SeatOccupancy.gapMask(0, 1, 100));
+		assertEquals((1L << (100 - 64 + 1)) - 1, SeatOccupancy.gapMask(1, 1, 100));
+		assertEquals(1L, SeatOccupancy.gapMask(1, 63, 64));
+		assertEquals(1L << 63, SeatOccupancy.gapMask(0, 62, 64));
+		assertEquals(-1L, SeatOccupancy.gapMask(1, 63, 128));
+		assertEquals(1L, SeatOccupancy.gapMask(2, 63, 128));
+	}
+
+	@Test
+	void multiWordClaim() {
+		assertEquals(1, SeatOccupancy.wordsPerSeat(63));
+		assertEquals(2, SeatOccupancy.wordsPerSeat(64));
+		assertEquals(3, SeatOccupancy.wordsPerSeat(128));
+
+		SeatOccupancy occupancy = new SeatOccupancy(2, 128);
+		assertTrue(occupancy.tryClaim(1, 100, 110));
+		// word 1 conflicts, so word 0 must be left untouched
+		assertFalse(occupancy.tryClaim(1, 10, 105));
+		assertEquals(0L, occupancy.get(1, 0));
+		assertTrue(occupancy.isFree(1, 1, 100));
+		assertFalse(occupancy.isFree(1, 1, 101));
+		assertTrue(occupancy.isFree(0, 1, 128));
+		assertTrue(occupancy.tryClaim(1, 60, 100));
+		assertTrue(occupancy.isSold(1, 64));
+		assertFalse(occupancy.isSold(1, 60));
+		occupancy.release(1, 100, 110);
+		occupancy.release(1, 60, 100);
+		for (int w = 0; w < occupancy.wordsPerSeat; ++w) {
+			assertEquals(0L, occupancy.get(1, w));
+		}
+	}
+
+	@Test
+	void seatLock() throws InterruptedException {
+		SeatOccupancy occupancy = new SeatOccupancy(1, 64);
+		occupancy.lockSeat(0);
+		// a multi-word claim waits for the seat lock a group takes
+		Thread claimer = new Thread(() -> assertTrue(occupancy.tryClaim(0, 1, 64)));
+		claimer.start();
+		claimer.join(50);
+		assertTrue(claimer.isAlive());
+		assertTrue(occupancy.isFree(0, 1, 64));
+		occupancy.unlockSeat(0);
+		claimer.join();
+		assertEquals(SeatOccupancy.gapMask(0, 1, 64), occupancy.get(0, 0));
+		assertEquals(1L, occupancy.get(0, 1));
+		occupancy.release(0, 1, 64);
+		assertEquals(0L, occupancy.get(0, 0));
+	}
+
+	@Test
+	void multiWordClaimIsOneStep() throws InterruptedException {
+		final SeatOccupancy occupancy = new SeatOccupancy(1, 128);
+		final long low = SeatOccupancy.gapMask(0, 60, 70);
+		final long high = SeatOccupancy.gapMask(1, 60, 70);
+		Thread[] threads = new Thread[2];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 20000; ++i) {
+					if (occupancy.tryClaim(0, 60, 70)) {
+						occupancy.release(0, 60, 70);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		while (threads[0].isAlive() || threads[1].isAlive()) {
+			long[] words = occupancy.words(0);
+			// both words of the range change together or not at all
+			assertEquals((words[0] & low) == low, (words[1] & high) == high);
+			assertTrue((words[0] & low) == 0 || (words[0] & low) == low);
+		}
+		assertTrue(occupancy.isFree(0, 1, 128));
+	}
+
+	@Test
+	void singleWordClaimWaitsForSeatLock() throws InterruptedException {
+		SeatOccupancy occupancy = new SeatOccupancy(1, 8);
+		occupancy.lockSeat(0);
+		Thread claimer = new Thread(() -> assertFalse(occupancy.tryClaim(0, 2, 4)));
+		claimer.start();
+		claimer.join(50);
+		assertTrue(claimer.isAlive());
+		// a group holding the lock takes the seat before letting the buyer see it
+		occupancy.claim(0, 1, 3);
+		occupancy.unlockSeat(0);
+		claimer.join();
+		assertEquals(SeatOccupancy.gapMask(1, 3), occupancy.get(0, 0));
+	}
+}
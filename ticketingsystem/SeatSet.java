@@ -0,0 +1,43 @@
+package ticketingsystem;
+
+/**
+ * Seats on sale for exactly the [left, right] range of an interval cell.
+ * Not synchronized, the owner of the cell guards it.
+ */
+class SeatSet {
+	// bit (coach - 1) * seatnum + (seat - 1) is set iff the seat is on sale
+	final long[] ticketsOnSale;
+	int ticketsOnSaleCount;
+
+	SeatSet(int seatCount) {
+		this.ticketsOnSale = new long[(seatCount + 63) >>> 6];
+	}
+
+	boolean isEmpty() {
+		return ticketsOnSaleCount == 0;
+	}
+
+	void addSeat(int seatIndex) {
+		ticketsOnSale[seatIndex >>> 6] |= 1L << seatIndex;
+		++ticketsOnSaleCount;
+	}
+
+	void removeSeat(int seatIndex) {
+		ticketsOnSale[seatIndex >>> 6] &= ~(1L << seatIndex);
+		--ticketsOnSaleCount;
+	}
+
+	// the set must not be empty
+	int pollSeat() {
+		for (int i = 0; i < ticketsOnSale.length; ++i) {
+			long word = ticketsOnSale[i];
+			if (word != 0) {
+				int seatIndex = (i << 6) + Long.numberOfTrailingZeros(word);
+				ticketsOnSale[i] = word & (word - 1);
+				--ticketsOnSaleCount;
+				return seatIndex;
+			}
+		}
+		throw new IllegalStateException("poll from an empty seat set");
+	}
+}
@@ -0,0 +1,365 @@
+package ticketingsystem;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer execution mode: route r is owned by shard (r - 1) % shardnum,
+ * a worker thread that drains the requests of its routes from a lock-free
+ * MPSC mailbox and runs them on {@link PlainRouteTickets} and
+ * {@link SoldTickets}, so no lock is taken once a request is in its shard.
+ * Futures are completed on the shard thread; heavy continuations belong on
+ * the *Async variants of CompletableFuture. Requests must not be submitted concurrently with
+ * {@link #close()}.
+ */
+public class ShardedTicketingDS implements TicketingSystem, AutoCloseable {
+	// a request is its own mailbox node and its own future
+	abstract static class ShardRequest<T> extends CompletableFuture<T> {
+		final int route;
+		volatile ShardRequest<?> next;
+
+		ShardRequest(int route) {
+			this.route = route;
+		}
+
+		abstract void run(Shard shard);
+	}
+
+	static final class BuyRequest extends ShardRequest<Ticket> {
+		final String passenger;
+		final int departure;
+		final int arrival;
+
+		BuyRequest(String passenger, int route, int departure, int arrival) {
+			super(route);
+			this.passenger = passenger;
+			this.departure = departure;
+			this.arrival = arrival;
+		}
+
+		@Override
+		void run(Shard shard) {
+			complete(shard.buyTicket(passenger, route, departure, arrival));
+		}
+	}
+
+	static final class RefundRequest extends ShardRequest<Boolean> {
+		final Ticket ticket;
+
+		RefundRequest(Ticket ticket) {
+			super(ticket.route);
+			this.ticket = ticket;
+		}
+
+		@Override
+		void run(Shard shard) {
+			complete(shard.refundTicket(ticket));
+		}
+	}
+
+	static final class InquiryRequest extends ShardRequest<Integer> {
+		final int departure;
+		final int arrival;
+
+		InquiryRequest(int route, int departure, int arrival) {
+			super(route);
+			this.departure = departure;
+			this.arrival = arrival;
+		}
+
+		@Override
+		void run(Shard shard) {
+			complete(shard.inquiry(route, departure, arrival));
+		}
+	}
+
+	static final class InquiryAllRequest extends ShardRequest<int[][]> {
+		InquiryAllRequest(int route) {
+			super(route);
+		}
+
+		@Override
+		void run(Shard shard) {
+			complete(shard.inquiryAll(route));
+		}
+	}
+
+	// Vyukov's intrusive MPSC queue, head is the last consumed node
+	static final class Mailbox {
+		private final AtomicReference<ShardRequest<?>> tail;
+		private ShardRequest<?> head;
+
+		Mailbox() {
+			head = new InquiryRequest(0, 0, 0);
+			tail = new AtomicReference<>(head);
+		}
+
+		void offer(ShardRequest<?> request) {
+			tail.getAndSet(request).next = request;
+		}
+
+		// consumer only; a producer between its getAndSet and its link is not seen yet
+		ShardRequest<?> poll() {
+			final ShardRequest<?> consumed = head;
+			final ShardRequest<?> next = consumed.next;
+			if (next != null) {
+				head = next;
+				// a caller holding a finished future must not hold the requests after it
+				consumed.next = null;
+			}
+			return next;
+		}
+
+		// consumer only; moves up to batch.length linked requests into batch
+		int drain(ShardRequest<?>[] batch) {
+			int n = 0;
+			while (n < batch.length) {
+				final ShardRequest<?> request = poll();
+				if (request == null) {
+					break;
+				}
+				batch[n++] = request;
+			}
+			return n;
+		}
+
+		boolean isEmpty() {
+			return head.next == null;
+		}
+	}
+
+	// requests a shard takes from its mailbox before it looks at it again
+	static final int BATCH = 64;
+
+	final class Shard extends Thread {
+		final int shardIndex;
+		final Mailbox mailbox = new Mailbox();
+		// only routes of this shard that were bought on are set
+		final PlainRouteTickets[] routeTickets = new PlainRouteTickets[routenum];
+		final SoldTickets[] soldTickets;
+		volatile boolean waiting;
+		private long nextTid;
+
+		Shard(int shardIndex) {
+			super("ticketing-shard-" + shardIndex);
+			setDaemon(true);
+			this.shardIndex = shardIndex;
+			this.soldTickets = new SoldTickets[routenum];
+		}
+
+		void submit(ShardRequest<?> request) {
+			mailbox.offer(request);
+			if (waiting) {
+				LockSupport.unpark(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			final ShardRequest<?>[] batch = new ShardRequest<?>[BATCH];
+			for (;;) {
+				final int n = mailbox.drain(batch);
+				if (n > 0) {
+					for (int i = 0; i < n; ++i) {
+						try {
+							batch[i].run(this);
+						} catch (Throwable e) {
+							// fail the request alone, the shard serves the rest of its batch
+							batch[i].completeExceptionally(e);
+						}
+						batch[i] = null;
+					}
+					continue;
+				}
+				// a producer links before it reads waiting, we set waiting before
+				// the last look, so one of us sees the other
+				waiting = true;
+				if (mailbox.isEmpty()) {
+					if (closed) {
+						return;
+					}
+					LockSupport.park(this);
+				}
+				waiting = false;
+			}
+		}
+
+		// tids of shard i are i, i + shardnum, i + 2 * shardnum, ...
+		Ticket buyTicket(String passenger, int route, int departure, int arrival) {
+			if (routeTickets[route - 1] == null) {
+				routeTickets[route - 1] = new PlainRouteTickets(coachnum, seatnum, stationnum);
+				soldTickets[route - 1] = new SoldTickets(coachnum, seatnum, stationnum);
+			}
+			int seatIndex = routeTickets[route - 1].allocateCoachSeat(departure, arrival);
+			if (seatIndex < 0) {
+				return null;
+			}
+			Ticket ticket = new Ticket();
+			ticket.tid = nextTid++ * shards.length + shardIndex;
+			ticket.passenger = passenger;
+			ticket.route = route;
+			ticket.coach = seatIndex / seatnum + 1;
+			ticket.seat = seatIndex % seatnum + 1;
+			ticket.departure = departure;
+			ticket.arrival = arrival;
+			soldTickets[route - 1].add(ticket, seatIndex);
+			return ticket;
+		}
+
+		int inquiry(int route, int departure, int arrival) {
+			if (routeTickets[route - 1] == null) {
+				return coachnum * seatnum;
+			}
+			return routeTickets[route - 1].queryCoachSeatNum(departure, arrival);
+		}
+
+		int[][] inquiryAll(int route) {
+			final int[][] counts = new int[stationnum + 1][stationnum + 1];
+			if (routeTickets[route - 1] == null) {
+				for (int departure = 1; departure < stationnum; ++departure) {
+					Arrays.fill(counts[departure], departure + 1, stationnum + 1, coachnum * seatnum);
+				}
+			} else {
+				routeTickets[route - 1].queryAllCoachSeatNum(counts);
+			}
+			return counts;
+		}
+
+		boolean refundTicket(Ticket ticket) {
+			int seatIndex = soldTickets[ticket.route - 1] == null ? -1 : soldTickets[ticket.route - 1].remove(ticket);
+			if (seatIndex < 0) {
+				return false;
+			}
+			routeTickets[ticket.route - 1].freeCoachSeat(seatIndex, ticket.departure, ticket.arrival);
+			return true;
+		}
+	}
+
+	private final int routenum;
+	private final int coachnum;
+	private final int seatnum;
+	private final int stationnum;
+	private final Shard[] shards;
+	private volatile boolean closed;
+
+	public ShardedTicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+		this(routenum, coachnum, seatnum, stationnum, threadnum,
+				Math.min(routenum, Runtime.getRuntime().availableProcessors()));
+	}
+
+	public ShardedTicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, int shardnum) {
+		assert routenum > 0;
+		assert coachnum > 0;
+		assert seatnum > 0;
+		assert stationnum > 0;
+		assert 0 < shardnum && shardnum <= routenum;
+		this.routenum = routenum;
+		this.coachnum = coachnum;
+		this.seatnum = seatnum;
+		this.stationnum = stationnum;
+		this.shards = new Shard[shardnum];
+		for (int i = 0; i < shardnum; ++i) {
+			shards[i] = new Shard(i);
+		}
+		for (Shard shard : shards) {
+			shard.start();
+		}
+	}
+
+	Shard shardOf(int route) {
+		return shards[(route - 1) % shards.length];
+	}
+
+	private boolean isValid(int route, int departure, int arrival) {
+		return 1 <= departure && departure < arrival && arrival <= stationnum && 1 <= route && route <= routenum;
+	}
+
+	public CompletableFuture<Ticket> buyTicketAsync(String passenger, int route, int departure, int arrival) {
+		if (!isValid(route, departure, arrival)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		BuyRequest request = new BuyRequest(passenger, route, departure, arrival);
+		shardOf(route).submit(request);
+		return request;
+	}
+
+	public CompletableFuture<Boolean> refundTicketAsync(Ticket ticket) {
+		if (ticket == null || !isValid(ticket.route, ticket.departure, ticket.arrival)) {
+			return CompletableFuture.completedFuture(false);
+		}
+		RefundRequest request = new RefundRequest(ticket);
+		shardOf(ticket.route).submit(request);
+		return request;
+	}
+
+	public CompletableFuture<Integer> inquiryAsync(int route, int departure, int arrival) {
+		if (!isValid(route, departure, arrival)) {
+			return CompletableFuture.completedFuture(0);
+		}
+		InquiryRequest request = new InquiryRequest(route, departure, arrival);
+		shardOf(route).submit(request);
+		return request;
+	}
+
+	public CompletableFuture<int[][]> inquiryAllAsync(int route) {
+		if (route < 1 || route > routenum) {
+			return CompletableFuture.completedFuture(null);
+		}
+		InquiryAllRequest request = new InquiryAllRequest(route);
+		shardOf(route).submit(request);
+		return request;
+	}
+
+	@Override
+	public Ticket buyTicket(String passenger, int route, int departure, int arrival) {
+		return buyTicketAsync(passenger, route, departure, arrival).join();
+	}
+
+	@Override
+	public int inquiry(int route, int departure, int arrival) {
+		return inquiryAsync(route, departure, arrival).join();
+	}
+
+	@Override
+	public int[][] inquiryAll(int route) {
+		return inquiryAllAsync(route).join();
+	}
+
+	@Override
+	public boolean refundTicket(Ticket ticket) {
+		return refundTicketAsync(ticket).join();
+	}
+
+	@Override
+	public boolean buyTicketReplay(Ticket ticket) {
+		assert ticket != null;
+		Ticket t = buyTicket(ticket.passenger, ticket.route, ticket.departure, ticket.arrival);
+		return ticket.equals(t);
+	}
+
+	@Override
+	public boolean refundTicketReplay(Ticket ticket) {
+		return refundTicket(ticket);
+	}
+
+	/**
+	 * Stops the shards once their mailboxes are drained. If interrupted, it
+	 * returns without waiting for the rest and keeps the interrupt status.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Shard shard : shards) {
+			LockSupport.unpark(shard);
+		}
+		try {
+			for (Shard shard : shards) {
+				shard.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class ShardedTicketingDSTest {
+
+	final int ROUTENUM = 5;
+	final int COACHNUM = 3;
+	final int SEATNUM = 5;
+	final int STATIONNUM = 10;
+
+	@Test
+	void sequentialOperations() throws InterruptedException {
+		ShardedTicketingDS ds = new ShardedTicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 1, 2);
+		assertNull(ds.buyTicket("a", 0, 1, 2));
+		assertNull(ds.buyTicket("a", 1, 3, 3));
+		assertEquals(0, ds.inquiry(ROUTENUM + 1, 1, 2));
+		assertFalse(ds.refundTicket(null));
+		assertFalse(ds.refundTicket(new Ticket()));
+
+		Ticket t = ds.buyTicket("a", 3, 2, 6);
+		assertNotNull(t);
+		assertEquals(3, t.route);
+		assertEquals(COACHNUM * SEATNUM - 1, ds.inquiry(3, 1, 3));
+		assertEquals(COACHNUM * SEATNUM, ds.inquiry(3, 6, 7));
+		assertEquals(COACHNUM * SEATNUM, ds.inquiry(2, 1, 3));
+		assertNull(ds.inquiryAll(ROUTENUM + 1));
+		assertEquals(COACHNUM * SEATNUM - 1, ds.inquiryAll(3)[1][3]);
+		assertEquals(COACHNUM * SEATNUM, ds.inquiryAll(3)[6][7]);
+		assertEquals(COACHNUM * SEATNUM, ds.inquiryAll(2)[1][STATIONNUM]);
+		assertTrue(ds.refundTicket(t));
+		assertFalse(ds.refundTicket(t));
+		assertEquals(COACHNUM * SEATNUM, ds.inquiry(3, 1, STATIONNUM));
+
+		for (int i = 0; i < COACHNUM * SEATNUM; ++i) {
+			assertNotNull(ds.buyTicket("b", 4, 1, STATIONNUM));
+		}
+		assertNull(ds.buyTicket("b", 4, 5, 6));
+		assertNotNull(ds.buyTicket("b", 5, 5, 6));
+		ds.close();
+	}
+
+	@Test
+	void asyncOperations() throws InterruptedException {
+		ShardedTicketingDS ds = new ShardedTicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 1, 3);
+		ArrayList<CompletableFuture<Ticket>> bought = new ArrayList<>();
+		for (int i = 0; i < COACHNUM * SEATNUM + 2; ++i) {
+			bought.add(ds.buyTicketAsync("p" + i, 2, 1, 4));
+		}
+		// a shard runs the requests of a route in submission order
+		for (int i = 0; i < COACHNUM * SEATNUM; ++i) {
+			assertEquals("p" + i, bought.get(i).join().passenger);
+		}
+		assertNull(bought.get(COACHNUM * SEATNUM).join());
+		assertNull(bought.get(COACHNUM * SEATNUM + 1).join());
+		CompletableFuture<Boolean> refund = ds.refundTicketAsync(bought.get(0).join());
+		CompletableFuture<Integer> remain = ds.inquiryAsync(2, 2, 3);
+		assertTrue(refund.join());
+		assertEquals(1, remain.join());
+		assertNull(ds.buyTicketAsync("q", 2, 0, 4).join());
+		ds.close();
+	}
+
+	@Test
+	void concurrentOperations() throws InterruptedException {
+		final ShardedTicketingDS ds = new ShardedTicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 16, 2);
+		final ArrayList<ArrayList<Ticket>> held = new ArrayList<>();
+		final AtomicInteger failedRefunds = new AtomicInteger();
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; ++i) {
+			final ArrayList<Ticket> tickets = new ArrayList<>();
+			held.add(tickets);
+			final Random rand = new Random(i);
+			threads[i] = new Thread(() -> {
+				for (int op = 0; op < 5000; ++op) {
+					int route = rand.nextInt(ROUTENUM) + 1;
+					if (rand.nextInt(2) == 0 && !tickets.isEmpty()) {
+						if (!ds.refundTicket(tickets.remove(rand.nextInt(tickets.size())))) {
+							failedRefunds.incrementAndGet();
+						}
+					} else {
+						int departure = rand.nextInt(STATIONNUM - 1) + 1;
+						int arrival = departure + rand.nextInt(STATIONNUM - departure) + 1;
+						Ticket t = ds.buyTicket("p" + op, route, departure, arrival);
+						if (t != null) {
+							tickets.add(t);
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, failedRefunds.get());
+		boolean[][][] occupied = new boolean[ROUTENUM + 1][COACHNUM * SEATNUM][STATIONNUM + 1];
+		for (ArrayList<Ticket> tickets : held) {
+			for (Ticket t : tickets) {
+				for (int s = t.departure + 1; s <= t.arrival; ++s) {
+					assertFalse(occupied[t.route][(t.coach - 1) * SEATNUM + t.seat - 1][s]);
+					occupied[t.route][(t.coach - 1) * SEATNUM + t.seat - 1][s] = true;
+				}
+				assertTrue(ds.refundTicket(t));
+			}
+		}
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			assertEquals(COACHNUM * SEATNUM, ds.inquiry(route, 1, STATIONNUM));
+		}
+		ds.close();
+	}
+
+	@Test
+	void failedRequestKeepsShardRunning() {
+		ShardedTicketingDS ds = new ShardedTicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 1, 2);
+		ShardedTicketingDS.ShardRequest<Void> failing = new ShardedTicketingDS.ShardRequest<Void>(1) {
+			@Override
+			void run(ShardedTicketingDS.Shard shard) {
+				throw new IllegalStateException("engine failure");
+			}
+		};
+		ds.shardOf(1).submit(failing);
+		CompletionException e = assertThrows(CompletionException.class, failing::join);
+		assertTrue(e.getCause() instanceof IllegalStateException);
+		assertNotNull(ds.buyTicket("a", 1, 1, 2));
+		assertEquals(COACHNUM * SEATNUM - 1, ds.inquiry(1, 1, 2));
+		ds.close();
+	}
+
+	@Test
+	void mailboxDrainsInOrderAndUnlinks() {
+		ShardedTicketingDS.Mailbox mailbox = new ShardedTicketingDS.Mailbox();
+		ShardedTicketingDS.ShardRequest<?>[] requests = new ShardedTicketingDS.ShardRequest<?>[5];
+		for (int i = 0; i < requests.length; ++i) {
+			requests[i] = new ShardedTicketingDS.InquiryRequest(1, 1, 2);
+			mailbox.offer(requests[i]);
+		}
+		ShardedTicketingDS.ShardRequest<?>[] batch = new ShardedTicketingDS.ShardRequest<?>[3];
+		assertEquals(3, mailbox.drain(batch));
+		assertArrayEquals(Arrays.copyOf(requests, 3), batch);
+		// only the last request taken is still the queue's head
+		assertNull(requests[0].next);
+		assertNull(requests[1].next);
+		assertSame(requests[3], requests[2].next);
+		assertEquals(2, mailbox.drain(batch));
+		assertSame(requests[3], batch[0]);
+		assertSame(requests[4], batch[1]);
+		assertNull(requests[2].next);
+		assertTrue(mailbox.isEmpty());
+		assertEquals(0, mailbox.drain(batch));
+	}
+}
@@ -0,0 +1,208 @@
+package ticketingsystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Point-in-time image of a {@link TicketingDS}, written column by column,
+ * big-endian:
+ *
+ * <pre>
+ * header  long MAGIC, int routenum, coachnum, seatnum, stationnum,
+ *         long next tid, long first journal segment to replay (-1 without),
+ *         int number of routes that follow
+ * route   int route, then its occupancy words as SeatOccupancy lays them
+ *         out, then its SoldTickets slots seat by seat,
+ *         then the passenger hashes of those slots as ints
+ * </pre>
+ *
+ * Routes never bought on are left out. A route is captured while sales go
+ * on, one seat at a time: the slots of a seat are read until they hold no
+ * two overlapping tickets, and its occupancy words are derived from them
+ * rather than read, so the two columns always agree. Tickets sold or
+ * refunded during the capture may or may not be in it, replaying the
+ * journal from the segment started just before makes it exact.
+ */
+final class Snapshot {
+	static final long MAGIC = 0x5449434b534e5032L; // "TICKSNP2"
+	static final int HEADER = 44;
+	// the name of the snapshot in a journal directory
+	static final String FILE = "snapshot";
+
+	final int routenum;
+	final int coachnum;
+	final int seatnum;
+	final int stationnum;
+	long nextTid;
+	long segment = -1;
+	// [route - 1], null for a route left out
+	final long[][] occupancy;
+	final long[][] sales;
+	final int[][] passengers;
+
+	Snapshot(int routenum, int coachnum, int seatnum, int stationnum) {
+		this.routenum = routenum;
+		this.coachnum = coachnum;
+		this.seatnum = seatnum;
+		this.stationnum = stationnum;
+		this.occupancy = new long[routenum][];
+		this.sales = new long[routenum][];
+		this.passengers = new int[routenum][];
+	}
+
+	private int wordsPerSeat() {
+		return SeatOccupancy.wordsPerSeat(stationnum);
+	}
+
+	void capture(int route, SoldTickets sold) {
+		final int seatCount = coachnum * seatnum;
+		final int wordsPerSeat = wordsPerSeat();
+		final long[] words = new long[seatCount * wordsPerSeat];
+		final long[] slots = new long[seatCount * (stationnum - 1)];
+		final int[] hashes = new int[slots.length];
+		for (int seatIndex = 0; seatIndex < seatCount; ++seatIndex) {
+			do {
+				sold.copySeat(seatIndex, slots, hashes, seatIndex * (stationnum - 1));
+			} while (!occupy(sold, slots, seatIndex, words, seatIndex * wordsPerSeat));
+		}
+		occupancy[route - 1] = words;
+		sales[route - 1] = slots;
+		passengers[route - 1] = hashes;
+	}
+
+	// false if two of the seat's tickets overlap, i.e. a refund and a buy of
+	// the seat were read half way
+	private boolean occupy(SoldTickets sold, long[] slots, int seatIndex, long[] words, int base) {
+		final int wordsPerSeat = wordsPerSeat();
+		for (int w = 0; w < wordsPerSeat; ++w) {
+			words[base + w] = 0;
+		}
+		for (int departure = 1; departure < stationnum; ++departure) {
+			final long sale = slots[seatIndex * (stationnum - 1) + departure - 1];
+			if (sale == 0) {
+				continue;
+			}
+			final int arrival = sold.arrival(sale);
+			for (int w = SeatOccupancy.firstWord(departure); w <= SeatOccupancy.lastWord(arrival); ++w) {
+				final long bitvec = SeatOccupancy.gapMask(w, departure, arrival);
+				if ((words[base + w] & bitvec) != 0) {
+					return false;
+				}
+				words[base + w] |= bitvec;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes to a temporary file forced to disk, which then replaces file, so
+	 * file is always either the old or the new snapshot. The directory is
+	 * forced after the rename, so once this returns a crash cannot bring the
+	 * old snapshot back and the journal it covers may be deleted.
+	 */
+	void write(Path file) throws IOException {
+		int count = 0;
+		for (long[] route : occupancy) {
+			count += route == null ? 0 : 1;
+		}
+		final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+			out.putLong(MAGIC).putInt(routenum).putInt(coachnum).putInt(seatnum).putInt(stationnum).putLong(nextTid)
+					.putLong(segment).putInt(count);
+			for (int route = 1; route <= routenum; ++route) {
+				if (occupancy[route - 1] == null) {
+					continue;
+				}
+				if (out.remaining() < 4) {
+					drain(channel, out);
+				}
+				out.putInt(route);
+				writeColumn(channel, out, occupancy[route - 1]);
+				writeColumn(channel, out, sales[route - 1]);
+				writeColumn(channel, out, passengers[route - 1]);
+			}
+			drain(channel, out);
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+	}
+
+	private static void writeColumn(FileChannel channel, ByteBuffer out, long[] column) throws IOException {
+		for (int offset = 0; offset < column.length;) {
+			if (out.remaining() < 8) {
+				drain(channel, out);
+			}
+			final int length = Math.min(column.length - offset, out.remaining() >>> 3);
+			out.asLongBuffer().put(column, offset, length);
+			out.position(out.position() + (length << 3));
+			offset += length;
+		}
+	}
+
+	private static void writeColumn(FileChannel channel, ByteBuffer out, int[] column) throws IOException {
+		for (int offset = 0; offset < column.length;) {
+			if (out.remaining() < 4) {
+				drain(channel, out);
+			}
+			final int length = Math.min(column.length - offset, out.remaining() >>> 2);
+			out.asIntBuffer().put(column, offset, length);
+			out.position(out.position() + (length << 2));
+			offset += length;
+		}
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	static Snapshot read(Path file) throws IOException {
+		final ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.limit() < HEADER || in.getLong() != MAGIC) {
+			throw new IOException(file + " is not a snapshot");
+		}
+		final Snapshot snapshot = new Snapshot(in.getInt(), in.getInt(), in.getInt(), in.getInt());
+		snapshot.nextTid = in.getLong();
+		snapshot.segment = in.getLong();
+		final int seatCount = snapshot.coachnum * snapshot.seatnum;
+		for (int count = in.getInt(); count > 0; --count) {
+			final int route = in.getInt();
+			snapshot.occupancy[route - 1] = readColumn(in, seatCount * snapshot.wordsPerSeat());
+			snapshot.sales[route - 1] = readColumn(in, seatCount * (snapshot.stationnum - 1));
+			snapshot.passengers[route - 1] = readIntColumn(in, seatCount * (snapshot.stationnum - 1));
+		}
+		return snapshot;
+	}
+
+	private static long[] readColumn(ByteBuffer in, int length) {
+		final long[] column = new long[length];
+		LongBuffer longs = in.asLongBuffer();
+		longs.get(column);
+		in.position(in.position() + (length << 3));
+		return column;
+	}
+
+	private static int[] readIntColumn(ByteBuffer in, int length) {
+		final int[] column = new int[length];
+		in.asIntBuffer().get(column);
+		in.position(in.position() + (length << 2));
+		return column;
+	}
+}
@@ -0,0 +1,144 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class SnapshotTest {
+	final int ROUTENUM = 4;
+	final int COACHNUM = 3;
+	final int SEATNUM = 5;
+
+	private Path directory;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		directory = Files.createTempDirectory("snapshot");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+		}
+	}
+
+	// random buys and refunds, returns the tickets still held
+	private List<Ticket> run(TicketingDS ds, int stationnum, int operations, long seed) {
+		Random rand = new Random(seed);
+		ArrayList<Ticket> held = new ArrayList<>();
+		for (int i = 0; i < operations; ++i) {
+			if (rand.nextInt(3) == 0 && !held.isEmpty()) {
+				assertTrue(ds.refundTicket(held.remove(rand.nextInt(held.size()))));
+			} else {
+				int departure = rand.nextInt(stationnum - 1) + 1;
+				int arrival = departure + rand.nextInt(Math.min(stationnum - departure, 10)) + 1;
+				// route ROUTENUM is never bought on
+				Ticket ticket = ds.buyTicket("p" + i, rand.nextInt(ROUTENUM - 1) + 1, departure, arrival);
+				if (ticket != null) {
+					held.add(ticket);
+				}
+			}
+		}
+		return held;
+	}
+
+	private void assertRestored(TicketingDS expected, TicketingDS actual, List<Ticket> held) {
+		for (int route = 1; route <= ROUTENUM; ++route) {
+			assertArrayEquals(expected.inquiryAll(route), actual.inquiryAll(route));
+		}
+		long maxTid = 0;
+		for (Ticket ticket : held) {
+			maxTid = Math.max(maxTid, ticket.tid);
+		}
+		Ticket next = actual.buyTicket("next", ROUTENUM, 1, 2);
+		assertTrue(next.tid > maxTid);
+		assertTrue(actual.refundTicket(next));
+		for (Ticket ticket : held) {
+			// the passengers came back with the seats
+			assertFalse(actual.refundTicket(renamed(ticket, ticket.passenger + "'")));
+			assertTrue(actual.refundTicket(ticket));
+			assertFalse(actual.refundTicket(ticket));
+		}
+	}
+
+	private static Ticket renamed(Ticket ticket, String passenger) {
+		Ticket t = new Ticket();
+		t.tid = ticket.tid;
+		t.passenger = passenger;
+		t.route = ticket.route;
+		t.coach = ticket.coach;
+		t.seat = ticket.seat;
+		t.departure = ticket.departure;
+		t.arrival = ticket.arrival;
+		return t;
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "cell, 8", "bitmap, 8", "coarse, 8", "compact, 8", "offheap, 8",
+			"cell, 70", "bitmap, 70", "coarse, 70", "compact, 70", "offheap, 70" })
+	void restoresSnapshot(String allocator, int stationnum) throws Exception {
+		TicketingDS ds = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, stationnum, 1, allocator, (Journal) null);
+		List<Ticket> held = run(ds, stationnum, 3000, 1);
+		Path file = directory.resolve("snapshot");
+		assertEquals(-1, ds.snapshot(file.toString()));
+		assertRestored(ds, TicketingDS.restore(file.toString(), 1, allocator), held);
+	}
+
+	@Test
+	void checkpointsDuringSales() throws Exception {
+		final int stationnum = 8;
+		TicketingDS ds = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, stationnum, 4, SeatAllocator.CELL,
+				new Journal(directory, Journal.ASYNC, Journal.DEFAULT_SEGMENT));
+		final List<Ticket> held = new ArrayList<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final int threadid = t;
+			threads[t] = new Thread(() -> {
+				List<Ticket> mine = run(ds, stationnum, 20_000, threadid);
+				synchronized (held) {
+					held.addAll(mine);
+				}
+			});
+			threads[t].start();
+		}
+		for (int i = 0; i < 20; ++i) {
+			ds.checkpoint();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		ds.close();
+		// only the segment of the last checkpoint and the one of the next start
+		assertTrue(Journal.segments(directory).size() <= 2);
+
+		TicketingDS restarted = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, stationnum, 4, SeatAllocator.CELL,
+				new Journal(directory, Journal.ASYNC, Journal.DEFAULT_SEGMENT));
+		assertRestored(ds, restarted, held);
+		restarted.close();
+	}
+
+	@Test
+	void rejectsOtherConfiguration() throws Exception {
+		TicketingDS ds = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, 8, 1, SeatAllocator.CELL,
+				new Journal(directory, Journal.SYNC, Journal.DEFAULT_SEGMENT));
+		ds.buyTicket("a", 1, 1, 2);
+		ds.checkpoint();
+		ds.close();
+		assertThrows(IllegalStateException.class, () -> new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, 9, 1,
+				SeatAllocator.CELL, new Journal(directory, Journal.SYNC, Journal.DEFAULT_SEGMENT)));
+	}
+}
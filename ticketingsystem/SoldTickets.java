@@ -0,0 +1,118 @@
+package ticketingsystem;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tickets on sale of one route, indexed by seat and departure station: a
+ * seat is sold at most once out of each station, so a slot holds the one
+ * ticket that owns it as (tid + 1) << arrivalBits | arrival, 0 when free,
+ * next to the hash of its passenger. A refund must match both, so a ticket
+ * copied under another name is refused unless the two names collide. Tids
+ * are unique, so a slot never comes back to a value a refund has read
+ * before.
+ */
+final class SoldTickets {
+	private final int coachnum;
+	private final int seatnum;
+	private final int stationnum;
+	private final int arrivalBits;
+	// [seatIndex * (stationnum - 1) + departure - 1]
+	private final AtomicLongArray sales;
+	// passenger hash of each slot's sale, written before the sale is set
+	private final int[] passengers;
+
+	SoldTickets(int coachnum, int seatnum, int stationnum) {
+		this.coachnum = coachnum;
+		this.seatnum = seatnum;
+		this.stationnum = stationnum;
+		this.arrivalBits = 32 - Integer.numberOfLeadingZeros(stationnum);
+		this.sales = new AtomicLongArray(coachnum * seatnum * (stationnum - 1));
+		this.passengers = new int[coachnum * seatnum * (stationnum - 1)];
+	}
+
+	static int passengerHash(String passenger) {
+		return passenger == null ? 0 : passenger.hashCode();
+	}
+
+	private int slot(int seatIndex, int departure) {
+		return seatIndex * (stationnum - 1) + departure - 1;
+	}
+
+	// caller just bought the seat on [departure, arrival]
+	void add(Ticket ticket, int seatIndex) {
+		assert ticket.tid >= 0 && ticket.tid + 1 < 1L << (63 - arrivalBits);
+		final int slot = slot(seatIndex, ticket.departure);
+		assert sales.get(slot) == 0;
+		passengers[slot] = passengerHash(ticket.passenger);
+		sales.set(slot, (ticket.tid + 1) << arrivalBits | ticket.arrival);
+	}
+
+	/**
+	 * @return the index of the ticket's seat if the ticket was on sale and is
+	 *         no longer, -1 otherwise
+	 */
+	int remove(Ticket ticket) {
+		return remove(ticket, true);
+	}
+
+	// a journaled refund carries no passenger, it was checked when refunded
+	int removeReplayed(Ticket ticket) {
+		return remove(ticket, false);
+	}
+
+	private int remove(Ticket ticket, boolean checkPassenger) {
+		if (ticket.coach < 1 || ticket.coach > coachnum || ticket.seat < 1 || ticket.seat > seatnum
+				|| ticket.departure < 1 || ticket.departure >= ticket.arrival || ticket.arrival > stationnum
+				|| ticket.tid < 0 || ticket.tid + 1 >= 1L << (63 - arrivalBits)) {
+			return -1;
+		}
+		final int seatIndex = (ticket.coach - 1) * seatnum + (ticket.seat - 1);
+		final int slot = slot(seatIndex, ticket.departure);
+		final long sale = (ticket.tid + 1) << arrivalBits | ticket.arrival;
+		// the passenger read after the sale is the sale's own; once the slot
+		// changes it never holds the sale again, so the CAS fails
+		if (checkPassenger && (sales.get(slot) != sale || passengers[slot] != passengerHash(ticket.passenger))) {
+			return -1;
+		}
+		return sales.compareAndSet(slot, sale, 0) ? seatIndex : -1;
+	}
+
+	// the ticket is valid and on sale
+	boolean contains(Ticket ticket, int seatIndex) {
+		final int slot = slot(seatIndex, ticket.departure);
+		return sales.get(slot) == ((ticket.tid + 1) << arrivalBits | ticket.arrival)
+				&& passengers[slot] == passengerHash(ticket.passenger);
+	}
+
+	int arrival(long sale) {
+		return (int) (sale & ((1 << arrivalBits) - 1));
+	}
+
+	// the stationnum - 1 slots of a seat, by departure, go to out[offset..]
+	// and their passenger hashes to hashes[offset..]
+	void copySeat(int seatIndex, long[] out, int[] hashes, int offset) {
+		for (int departure = 1; departure < stationnum; ++departure) {
+			final int slot = slot(seatIndex, departure);
+			long sale;
+			int hash;
+			do {
+				sale = sales.get(slot);
+				hash = passengers[slot];
+				// the hash is read before the sale is read again
+				VarHandle.acquireFence();
+			} while (sales.get(slot) != sale);
+			out[offset + departure - 1] = sale;
+			hashes[offset + departure - 1] = sale == 0 ? 0 : hash;
+		}
+	}
+
+	// every slot, laid out as copySeat writes them seat by seat; nothing may
+	// have been sold yet
+	void load(long[] slots, int[] hashes) {
+		for (int i = 0; i < slots.length; ++i) {
+			passengers[i] = hashes[i];
+			sales.set(i, slots[i]);
+		}
+	}
+}
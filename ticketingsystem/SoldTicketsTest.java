@@ -0,0 +1,43 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SoldTicketsTest {
+
+	Ticket ticket(long tid, String passenger, int coach, int seat, int departure, int arrival) {
+		Ticket t = new Ticket();
+		t.tid = tid;
+		t.passenger = passenger;
+		t.route = 1;
+		t.coach = coach;
+		t.seat = seat;
+		t.departure = departure;
+		t.arrival = arrival;
+		return t;
+	}
+
+	@Test
+	void removeOnlyMatchingSale() {
+		SoldTickets sold = new SoldTickets(3, 5, 200);
+		Ticket t = ticket(1L << 40, "alice", 2, 3, 1, 150);
+		sold.add(t, 7);
+		assertEquals(-1, sold.remove(ticket(1L << 40, "alice", 2, 3, 1, 149)));
+		assertEquals(-1, sold.remove(ticket((1L << 40) + 1, "alice", 2, 3, 1, 150)));
+		assertEquals(-1, sold.remove(ticket(1L << 40, "alice", 2, 4, 1, 150)));
+		assertEquals(-1, sold.remove(ticket(1L << 40, "alice", 4, 3, 1, 150)));
+		assertEquals(-1, sold.remove(ticket(1L << 40, "alice", 2, 3, 0, 150)));
+		assertEquals(-1, sold.remove(ticket(-1, "alice", 2, 3, 1, 150)));
+		assertEquals(-1, sold.remove(ticket(1L << 40, "bob", 2, 3, 1, 150)));
+		assertEquals(-1, sold.remove(ticket(1L << 40, null, 2, 3, 1, 150)));
+		assertEquals(7, sold.remove(ticket(1L << 40, "alice", 2, 3, 1, 150)));
+		assertEquals(-1, sold.remove(t));
+
+		// the same seat out of the same station again, under another tid
+		Ticket u = ticket(0, "carol", 2, 3, 1, 2);
+		sold.add(u, 7);
+		assertEquals(-1, sold.remove(t));
+		assertEquals(7, sold.remove(u));
+	}
+}
@@ -0,0 +1,30 @@
+package ticketingsystem;
+
+public class StartupBenchmark {
+
+	public static void main(String[] args) {
+		ConfigReader.readConfig("TrainConfig");
+		final int[] routenums = { 50, 500, 5000 };
+		for (int routenum : routenums) {
+			long before = MemoryBenchmark.usedHeap();
+			long startTime = System.nanoTime();
+			TicketingDS ds = new TicketingDS(routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+					ConfigReader.stationnum, 1, ConfigReader.allocator);
+			long constructed = System.nanoTime() - startTime;
+			long idle = MemoryBenchmark.usedHeap();
+
+			// one ticket per route, the footprint of a day where every train sells a seat
+			startTime = System.nanoTime();
+			for (int route = 1; route <= routenum; ++route) {
+				ds.buyTicket("p" + route, route, 1, 2);
+			}
+			long touched = System.nanoTime() - startTime;
+			long busy = MemoryBenchmark.usedHeap();
+			System.out.println("route: " + routenum
+					+ ", startup: " + constructed / 1000_000.0 + " ms"
+					+ ", idle heap: " + (idle - before) / (1024.0 * 1024.0) + " MB"
+					+ ", first buy on every route: " + touched / 1000_000.0 + " ms"
+					+ ", heap after: " + (busy - before) / (1024.0 * 1024.0) + " MB");
+		}
+	}
+}
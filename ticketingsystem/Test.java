@@ -2,12 +2,21 @@ package ticketingsystem;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashSet;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 class ConfigReader {
@@ -20,6 +29,12 @@ class ConfigReader {
 	static int buyRatio = 20;
 	static int inqRatio = 30;
 
+	// optional 8th column, the ticketingsystem.allocator property overrides it
+	static String allocator = SeatAllocator.CELL;
+
+	// uniform over the ratios above unless the ticketingsystem.profile property names a profile file
+	static WorkloadProfile profile;
+
 	private ConfigReader() {
 	}
 
@@ -47,6 +62,7 @@ class ConfigReader {
 				refRatio = linescanner.nextInt();
 				buyRatio = linescanner.nextInt();
 				inqRatio = linescanner.nextInt();
+				allocator = linescanner.hasNext() ? linescanner.next() : SeatAllocator.CELL;
 				System.out.println("route: " + routenum + ", coach: " + coachnum + ", seatnum: " + seatnum + ", station: "
 						+ stationnum + ", refundRatio: " +
 						refRatio + ", buyRatio: " + buyRatio + ", inquiryRatio: " + inqRatio);
@@ -56,6 +72,16 @@ class ConfigReader {
 		} catch (FileNotFoundException e) {
 			System.out.println(e);
 		}
+		allocator = System.getProperty(TicketingDS.ALLOCATOR_PROPERTY, allocator);
+		System.out.println("allocator: " + allocator);
+		if (System.getProperty(Journal.PROPERTY) != null) {
+			System.out.println("journal: " + System.getProperty(Journal.PROPERTY) + ", durability: "
+					+ System.getProperty(Journal.DURABILITY_PROPERTY, Journal.SYNC));
+		}
+		profile = WorkloadProfile.fromProperty(routenum, stationnum, refRatio, buyRatio, inqRatio);
+		if (System.getProperty(WorkloadProfile.PROPERTY) != null) {
+			System.out.println(profile);
+		}
 		return true;
 	}
 
@@ -63,41 +89,29 @@ class ConfigReader {
 
 class Latency {
 	static int threadnum = 1;
-	long latenciesSum = 0;
-	long maxLatency = 0;
-	long minLatency = Long.MAX_VALUE;
-	int count = 0;
+	final LatencyHistogram histogram = new LatencyHistogram();
 
 	public void report(long latency) {
-		latenciesSum += latency;
-		maxLatency = Long.max(maxLatency, latency);
-		minLatency = Long.min(minLatency, latency);
-		++count;
+		histogram.record(latency);
 	}
 
 	Latency reduce(Latency other) {
-		latenciesSum += other.latenciesSum;
-		maxLatency = Long.max(maxLatency, other.maxLatency);
-		minLatency = Long.min(minLatency, other.minLatency);
-		count += other.count;
+		histogram.merge(other.histogram);
 		return this;
 	}
 
+	// service time of the calls, the harness is closed-loop and has no schedule to miss
 	@Override
 	public String toString() {
-		return "count: " + count
-				+ ", avg latency: " + laplaceSmooth(latenciesSum / 1000, count) + " us"
-				+ ", max latency: " + maxLatency + " ns"
-				+ ", min latency: " + minLatency + " ns"
-				+ ", QPS: " + laplaceSmooth(count, latenciesSum / 1000000) * threadnum + " ops/ms";
-	}
-
-	private double laplaceSmooth(double a, double b) {
-		return b == 0 ? a + 1 : a / b;
+		return "count: " + histogram.count()
+				+ ", avg latency: " + histogram.mean() / 1000 + " us"
+				+ ", min latency: " + histogram.min() + " ns"
+				+ "\n" + histogram.percentiles();
 	}
 }
 
 class Metrics {
+	static final String HISTOGRAM_PROPERTY = "ticketingsystem.histogram";
 	Latency refundLatency = new Latency();
 	Latency buyLatency = new Latency();
 	Latency inquiryLatency = new Latency();
@@ -111,6 +125,19 @@ class Metrics {
 		return this;
 	}
 
+	/**
+	 * Writes prefix.buy.hgrm, prefix.refund.hgrm and prefix.inquiry.hgrm.
+	 */
+	void writeHgrm(String prefix) throws FileNotFoundException {
+		final String[] names = { "buy", "refund", "inquiry" };
+		final Latency[] latencies = { buyLatency, refundLatency, inquiryLatency };
+		for (int i = 0; i < names.length; ++i) {
+			try (PrintStream out = new PrintStream(prefix + "." + names[i] + ".hgrm")) {
+				latencies[i].histogram.writeHgrm(out);
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		Latency total = new Latency();
@@ -124,18 +151,340 @@ class Metrics {
 
 public class Test {
 
+	private static void usage() {
+		System.out.println("args: <threadnum> <testnum> [batch | group | sharded | open [<startRate> [<maxRate>]]]");
+	}
+
+	// the runs of a mode share their worker threads
+	private static void runWorkers(ExecutorService pool, ArrayList<Callable<Object>> workers)
+			throws InterruptedException {
+		for (Future<Object> f : pool.invokeAll(workers)) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	// buyTickets throughput per batch size, refunds happen outside the timed part;
+	// the first sweep only warms up the JIT
+	private static void runBatch(final ExecutorService pool, final int threadnum, final int testnum)
+			throws InterruptedException {
+		final int[] batchSizes = { 1, 8, 64, 512, 1, 8, 64, 512 };
+		for (int b = 0; b < batchSizes.length; ++b) {
+			final int batchSize = batchSizes[b];
+			final TicketingDS ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+					ConfigReader.stationnum, threadnum, ConfigReader.allocator);
+			final long[] buyTime = new long[threadnum];
+			final long[] soldCount = new long[threadnum];
+			final CyclicBarrier barrier = new CyclicBarrier(threadnum);
+			final ArrayList<Callable<Object>> workers = new ArrayList<>(threadnum);
+			for (int i = 0; i < threadnum; ++i) {
+				final int threadIndex = i;
+				workers.add(Executors.callable(() -> {
+					final Random rand = new Random(threadIndex * 1000000007L + batchSize);
+					final PurchaseRequest[] requestPool = new PurchaseRequest[4096];
+					for (int k = 0; k < requestPool.length; ++k) {
+						final WorkloadProfile.Phase phase = ConfigReader.profile.phase(k, requestPool.length);
+						int route = phase.route(rand);
+						int segment = phase.segment(rand);
+						requestPool[k] = new PurchaseRequest("p" + rand.nextInt(1000000), route,
+								WorkloadProfile.departure(segment), WorkloadProfile.arrival(segment));
+					}
+					final ArrayList<PurchaseRequest> batch = new ArrayList<>(batchSize);
+					try {
+						barrier.await();
+					} catch (InterruptedException | BrokenBarrierException e) {
+						e.printStackTrace();
+					}
+					for (int op = 0; op < testnum; op += batchSize) {
+						batch.clear();
+						for (int k = 0; k < batchSize; ++k) {
+							batch.add(requestPool[rand.nextInt(requestPool.length)]);
+						}
+						final long startTime = System.nanoTime();
+						Ticket[] tickets = ds.buyTickets(batch);
+						buyTime[threadIndex] += System.nanoTime() - startTime;
+						for (Ticket ticket : tickets) {
+							if (ticket != null) {
+								++soldCount[threadIndex];
+								ds.refundTicket(ticket);
+							}
+						}
+					}
+				}));
+			}
+			runWorkers(pool, workers);
+			if (b < batchSizes.length / 2) {
+				continue;
+			}
+			long totalTime = LongStream.of(buyTime).sum();
+			long requests = (long) threadnum * ((testnum + batchSize - 1) / batchSize * batchSize);
+			System.out.println("batch size: " + batchSize
+					+ ", sold: " + LongStream.of(soldCount).sum() + " / " + requests
+					+ ", buy QPS: " + requests / (totalTime / 1000_000.0 / threadnum) + " ops/ms");
+		}
+	}
+
+	// a group bought the way clients do without buyGroup, refunding on a partial failure
+	private static Ticket[] buyTicketLoop(TicketingDS ds, String[] passengers, int route, int departure,
+			int arrival) {
+		Ticket[] tickets = new Ticket[passengers.length];
+		for (int i = 0; i < passengers.length; ++i) {
+			tickets[i] = ds.buyTicket(passengers[i], route, departure, arrival);
+			if (tickets[i] == null) {
+				for (int k = 0; k < i; ++k) {
+					ds.refundTicket(tickets[k]);
+				}
+				return null;
+			}
+		}
+		return tickets;
+	}
+
+	// group purchases of 2..8 passengers under the refund/buy ratios of TrainConfig;
+	// the first run only warms up the JIT
+	private static void runGroup(final ExecutorService pool, final int threadnum, final int testnum)
+			throws InterruptedException {
+		final String[] modes = { "same coach", "any coach", "buyTicket loop" };
+		for (int run = -1; run < modes.length * 7; ++run) {
+			final int mode = Math.max(run, 0) / 7;
+			final int groupSize = Math.max(run, 0) % 7 + 2;
+			final TicketingDS ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+					ConfigReader.stationnum, threadnum, ConfigReader.allocator);
+			final long[] buyTime = new long[threadnum];
+			final long[] attempts = new long[threadnum];
+			final long[] soldCount = new long[threadnum];
+			final CyclicBarrier barrier = new CyclicBarrier(threadnum);
+			final ArrayList<Callable<Object>> workers = new ArrayList<>(threadnum);
+			for (int i = 0; i < threadnum; ++i) {
+				final int threadIndex = i;
+				workers.add(Executors.callable(() -> {
+					final Random rand = new Random(threadIndex * 1000000007L + groupSize);
+					final String[] passengers = new String[groupSize];
+					for (int k = 0; k < groupSize; ++k) {
+						passengers[k] = "p" + rand.nextInt(1000000);
+					}
+					final ArrayList<Ticket[]> held = new ArrayList<>();
+					try {
+						barrier.await();
+					} catch (InterruptedException | BrokenBarrierException e) {
+						e.printStackTrace();
+					}
+					for (int op = 0; op < testnum; ++op) {
+						final WorkloadProfile.Phase phase = ConfigReader.profile.phase(op, testnum);
+						if (rand.nextInt(phase.refRatio + phase.buyRatio) < phase.refRatio && !held.isEmpty()) {
+							int k = rand.nextInt(held.size());
+							for (Ticket ticket : held.get(k)) {
+								ds.refundTicket(ticket);
+							}
+							held.set(k, held.get(held.size() - 1));
+							held.remove(held.size() - 1);
+						} else {
+							int route = phase.route(rand);
+							int segment = phase.segment(rand);
+							int departure = WorkloadProfile.departure(segment);
+							int arrival = WorkloadProfile.arrival(segment);
+							final long startTime = System.nanoTime();
+							Ticket[] group = mode == 2 ? buyTicketLoop(ds, passengers, route, departure, arrival)
+									: ds.buyGroup(passengers, route, departure, arrival, mode == 0);
+							buyTime[threadIndex] += System.nanoTime() - startTime;
+							++attempts[threadIndex];
+							if (group != null) {
+								++soldCount[threadIndex];
+								held.add(group);
+							}
+						}
+					}
+				}));
+			}
+			runWorkers(pool, workers);
+			if (run < 0) {
+				continue;
+			}
+			long totalTime = LongStream.of(buyTime).sum();
+			long requests = LongStream.of(attempts).sum();
+			System.out.println(modes[mode] + ", group size: " + groupSize
+					+ ", seated: " + LongStream.of(soldCount).sum() + " / " + requests
+					+ ", buy QPS: " + requests / (totalTime / 1000_000.0 / threadnum) + " groups/ms");
+		}
+	}
+
+	/**
+	 * Open-loop mixed load: rate ops/s are spread evenly over the threads, each
+	 * thread starts its operations on a fixed schedule whether or not the
+	 * previous one has returned, and latency counts from the scheduled start,
+	 * so queueing behind a slow call shows up instead of slowing the load down.
+	 * The rate doubles from startRate until the data structure saturates, i.e.
+	 * falls behind the schedule or its p99 grows tenfold over the first rate,
+	 * or until maxRate. Every rate runs on a fresh TicketingDS, startRate runs
+	 * once more beforehand to warm up the JIT.
+	 */
+	private static void runOpenLoop(final ExecutorService pool, final int threadnum, final int testnum,
+			final long startRate, final long maxRate) throws InterruptedException {
+		long baselineP99 = -1;
+		long lastGood = 0;
+		boolean warmUp = true;
+		for (long rate = startRate; rate <= maxRate;) {
+			final TicketingDS ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum,
+					ConfigReader.seatnum, ConfigReader.stationnum, threadnum, ConfigReader.allocator);
+			// every thread runs at rate / threadnum, the threads are staggered over one period
+			final double period = 1e9 * threadnum / rate;
+			final long begin = System.nanoTime() + 10_000_000L;
+			final Metrics[] metrics = new Metrics[threadnum];
+			final ArrayList<Callable<Object>> workers = new ArrayList<>();
+			for (int i = 0; i < threadnum; ++i) {
+				final Metrics threadMetrics = metrics[i] = new Metrics();
+				final long first = begin + (long) (period * i / threadnum);
+				final Random rand = new Random(i * 1000000007L + rate);
+				workers.add(() -> {
+					final ArrayList<Ticket> tickets = new ArrayList<>();
+					for (int op = 0; op < testnum; ++op) {
+						final long intended = first + (long) (period * op);
+						long now;
+						while ((now = System.nanoTime()) < intended) {
+							if (intended - now > 100_000) {
+								LockSupport.parkNanos(intended - now - 50_000);
+							} else {
+								Thread.yield();
+							}
+						}
+						if (!mixedOp(ds, rand, ConfigReader.profile.phase(op, testnum), tickets, threadMetrics,
+								intended)) {
+							break;
+						}
+					}
+					return null;
+				});
+			}
+			runWorkers(pool, workers);
+			final long elapsed = System.nanoTime() - begin;
+			Metrics reduced = Stream.of(metrics).reduce(new Metrics(), Metrics::reduce);
+			Latency total = new Latency();
+			total.reduce(reduced.refundLatency).reduce(reduced.buyLatency).reduce(reduced.inquiryLatency);
+			final double achieved = (double) threadnum * testnum / (elapsed / 1e9);
+			final long p99 = total.histogram.valueAtPercentile(99);
+			if (warmUp) {
+				warmUp = false;
+				continue;
+			}
+			System.out.println("target: " + rate + " ops/s, achieved: " + (long) achieved + " ops/s"
+					+ ", buy p99: " + reduced.buyLatency.histogram.valueAtPercentile(99) + " ns"
+					+ ", refund p99: " + reduced.refundLatency.histogram.valueAtPercentile(99) + " ns"
+					+ ", inquiry p99: " + reduced.inquiryLatency.histogram.valueAtPercentile(99) + " ns"
+					+ "\n  all: " + total.histogram.percentiles());
+			if (baselineP99 < 0) {
+				baselineP99 = p99;
+			}
+			if (achieved < 0.95 * rate || p99 > 10 * baselineP99) {
+				System.out.println("saturated at " + rate + " ops/s, knee between " + lastGood + " and " + rate
+						+ " ops/s");
+				return;
+			}
+			lastGood = rate;
+			rate *= 2;
+		}
+		System.out.println("not saturated up to " + lastGood + " ops/s");
+	}
+
+	/**
+	 * One operation of the mixed load, drawn from phase of the workload
+	 * profile. Latency counts from intended, the time an open-loop schedule
+	 * meant the operation to start, or from the call itself when intended is 0.
+	 *
+	 * @return false if a refund of a held ticket failed
+	 */
+	private static boolean mixedOp(TicketingSystem ds, Random rand, WorkloadProfile.Phase phase,
+			ArrayList<Ticket> tickets, Metrics metrics, long intended) {
+		int operation = phase.operation(rand);
+		if (operation == WorkloadProfile.REFUND && !tickets.isEmpty()) {
+			// refund
+			// swap-remove a random ticket, iterating a presized HashSet cost more than the refund
+			int k = rand.nextInt(tickets.size());
+			Ticket ticket = tickets.get(k);
+			tickets.set(k, tickets.get(tickets.size() - 1));
+			tickets.remove(tickets.size() - 1);
+			final long startTime = intended != 0 ? intended : System.nanoTime();
+			boolean result = ds.refundTicket(ticket);
+			metrics.refundLatency.report(System.nanoTime() - startTime);
+			if (!result) {
+				System.out.println("[ERROR] refund returns false. ticket: " + ticket);
+				return false;
+			}
+		} else if (operation != WorkloadProfile.INQUIRY) {
+			// buy
+			int passengerID = rand.nextInt(1000000);
+			String passenger = "p" + passengerID;
+
+			int route = phase.route(rand);
+			int segment = phase.segment(rand);
+			int departure = WorkloadProfile.departure(segment);
+			int arrival = WorkloadProfile.arrival(segment);
+			final long startTime = intended != 0 ? intended : System.nanoTime();
+			Ticket ticket = ds.buyTicket(passenger, route, departure, arrival);
+			metrics.buyLatency.report(System.nanoTime() - startTime);
+			if (ticket != null) {
+				tickets.add(ticket);
+			} else {
+				++metrics.noTicketCounter;
+			}
+		} else {
+			// inquiry
+			int route = phase.route(rand);
+			int segment = phase.segment(rand);
+			int departure = WorkloadProfile.departure(segment);
+			int arrival = WorkloadProfile.arrival(segment);
+			final long startTime = intended != 0 ? intended : System.nanoTime();
+			ds.inquiry(route, departure, arrival);
+			metrics.inquiryLatency.report(System.nanoTime() - startTime);
+		}
+		return true;
+	}
+
 	public static void main(String[] args) throws InterruptedException {
-		if (args.length != 2) {
-			System.out.println("args: <threadnum> <testnum>");
+		if (args.length < 2 || args.length > 5 || args.length > 3 && !args[2].equals("open")) {
+			usage();
 			return;
 		}
 		Latency.threadnum = Integer.parseInt(args[0]);
 		final int testnum = Integer.parseInt(args[1]);
 		System.out.println("threadnum: " + Latency.threadnum + ", testnum: " + testnum);
 		ConfigReader.readConfig("TrainConfig");
+		final boolean sharded = args.length == 3 && args[2].equals("sharded");
+		if (args.length >= 3 && !sharded) {
+			final ExecutorService pool = Executors.newFixedThreadPool(Latency.threadnum);
+			try {
+				switch (args[2]) {
+					case "batch":
+						runBatch(pool, Latency.threadnum, testnum);
+						break;
+					case "group":
+						runGroup(pool, Latency.threadnum, testnum);
+						break;
+					case "open":
+						runOpenLoop(pool, Latency.threadnum, testnum,
+								args.length > 3 ? Long.parseLong(args[3]) : 10_000,
+								args.length > 4 ? Long.parseLong(args[4]) : Long.MAX_VALUE / 2);
+						break;
+					default:
+						usage();
+				}
+			} finally {
+				pool.shutdown();
+			}
+			return;
+		}
 
-		final TicketingDS ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
-				ConfigReader.stationnum, Latency.threadnum);
+		final TicketingSystem ds;
+		if (sharded) {
+			ds = new ShardedTicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+					ConfigReader.stationnum, Latency.threadnum);
+			System.out.println("mode: sharded");
+		} else {
+			ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+					ConfigReader.stationnum, Latency.threadnum, ConfigReader.allocator);
+		}
 
 		Thread[] threads = new Thread[Latency.threadnum];
 		Metrics[] metrics = new Metrics[Latency.threadnum];
@@ -147,7 +496,7 @@ public class Test {
 			Metrics metrics2 = metrics[i];
 			threads[i] = new Thread(() -> {
 				final Random rand = new Random(Thread.currentThread().getId() * 1000000007L + System.currentTimeMillis());
-				final HashSet<Ticket> tickets = new HashSet<>(testnum * ConfigReader.buyRatio);
+				final ArrayList<Ticket> tickets = new ArrayList<>();
 				try {
 					barrier.await();
 				} catch (InterruptedException | BrokenBarrierException e) {
@@ -155,45 +504,8 @@ public class Test {
 				}
 				st.compareAndSet(0, System.nanoTime());
 				for (int op = 0; op < testnum; ++op) {
-					int randvalue = rand.nextInt(100);
-					if (randvalue < ConfigReader.refRatio && !tickets.isEmpty()) {
-						// refund
-						Ticket ticket = tickets.iterator().next();
-						assert ticket != null;
-						tickets.remove(ticket);
-						final long startTime = System.nanoTime();
-						boolean result = ds.refundTicket(ticket);
-						metrics2.refundLatency.report(System.nanoTime() - startTime);
-						if (!result) {
-							System.out.println("[ERROR] refund returns false. ticket: " + ticket);
-							return;
-						}
-					} else if (randvalue < ConfigReader.refRatio + ConfigReader.buyRatio) {
-						// buy
-						int passengerID = rand.nextInt(1000000);
-						String passenger = "p" + passengerID;
-
-						int route = rand.nextInt(ConfigReader.routenum) + 1;
-						int departure = rand.nextInt(ConfigReader.stationnum - 1) + 1;
-						// arrival is always greater than departure
-						int arrival = departure + rand.nextInt(ConfigReader.stationnum - departure) + 1;
-						final long startTime = System.nanoTime();
-						Ticket ticket = ds.buyTicket(passenger, route, departure, arrival);
-						metrics2.buyLatency.report(System.nanoTime() - startTime);
-						if (ticket != null) {
-							tickets.add(ticket);
-						} else {
-							++metrics2.noTicketCounter;
-						}
-					} else {
-						// inquiry
-						int route = rand.nextInt(ConfigReader.routenum) + 1;
-						int departure = rand.nextInt(ConfigReader.stationnum - 1) + 1;
-						// arrival is always greater than departure
-						int arrival = departure + rand.nextInt(ConfigReader.stationnum - departure) + 1;
-						final long startTime = System.nanoTime();
-						ds.inquiry(route, departure, arrival);
-						metrics2.inquiryLatency.report(System.nanoTime() - startTime);
+					if (!mixedOp(ds, rand, ConfigReader.profile.phase(op, testnum), tickets, metrics2, 0)) {
+						return;
 					}
 				}
 				// System.out.println("t" + Thread.currentThread().getId() + " done");
@@ -206,7 +518,30 @@ public class Test {
 		long endtime = System.nanoTime();
 		Metrics reduced = Stream.of(metrics).reduce(new Metrics(), Metrics::reduce);
 		System.out.println(reduced);
+		String histogramPrefix = System.getProperty(Metrics.HISTOGRAM_PROPERTY);
+		if (histogramPrefix != null) {
+			try {
+				reduced.writeHgrm(histogramPrefix);
+			} catch (FileNotFoundException e) {
+				System.out.println(e);
+			}
+		}
 		System.out.println("time: " + (endtime - st.get()) / 1000_000_000.0 + "s");
 		System.out.println("client QPS: " + Latency.threadnum * testnum / ((endtime - st.get()) / 1000_000.0) + " ops/ms");
+		if (ContentionCounters.ENABLED && !sharded) {
+			long[] totals = new long[ContentionCounters.EVENTS.length];
+			for (long[] counts : ((TicketingDS) ds).contentionSnapshot()) {
+				for (int i = 0; i < totals.length; ++i) {
+					totals[i] += counts[i];
+				}
+			}
+			System.out.println("contention: " + Arrays.toString(ContentionCounters.EVENTS) + " = "
+					+ Arrays.toString(totals));
+		}
+		if (sharded) {
+			((ShardedTicketingDS) ds).close();
+		} else {
+			((TicketingDS) ds).close();
+		}
 	}
 }
@@ -0,0 +1,202 @@
+package ticketingsystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Load generator for {@link TicketingServer}: Test's mixed load, one thread
+ * and connection per simulated client, each keeping up to window requests
+ * in flight. Latency counts from when a request is queued for sending until
+ * its answer is read.
+ */
+public class TicketingClient {
+
+	/**
+	 * One connection with its requests in flight, answered in the order sent.
+	 */
+	static final class Pipeline implements AutoCloseable {
+		private final SocketChannel channel;
+		private final ByteBuffer out = ByteBuffer.allocateDirect(TicketingServer.BUFFER);
+		private final ByteBuffer in = ByteBuffer.allocateDirect(TicketingServer.BUFFER);
+		private final int window;
+		// requests in flight, a ring starting at head
+		private final int[] operations;
+		private final long[] sent;
+		private final Ticket[] tickets;
+		private int head;
+		private int count;
+
+		Pipeline(InetSocketAddress address, int window) throws IOException {
+			this.channel = SocketChannel.open(address);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			this.window = window;
+			this.operations = new int[window];
+			this.sent = new long[window];
+			this.tickets = new Ticket[window];
+		}
+
+		/**
+		 * Runs testnum operations of profile, refunding tickets bought earlier
+		 * on this connection.
+		 *
+		 * @return false if a refund of a held ticket failed
+		 */
+		boolean run(Random rand, WorkloadProfile profile, int testnum, Metrics metrics) throws IOException {
+			final ArrayList<Ticket> held = new ArrayList<>();
+			int issued = 0;
+			int completed = 0;
+			while (completed < testnum) {
+				while (count < window && issued < testnum && out.remaining() >= 4 + TicketingProtocol.MAX_FRAME) {
+					issue(rand, profile.phase(issued++, testnum), held);
+				}
+				out.flip();
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+				out.clear();
+				if (channel.read(in) < 0) {
+					throw new EOFException("server closed the connection");
+				}
+				in.flip();
+				try {
+					for (int length; (length = TicketingProtocol.frame(in)) > 0; ++completed) {
+						if (!complete(in.position(), length, held, metrics)) {
+							return false;
+						}
+					}
+				} finally {
+					in.compact();
+				}
+			}
+			return true;
+		}
+
+		// mirrors Test.mixedOp
+		private void issue(Random rand, WorkloadProfile.Phase phase, ArrayList<Ticket> held) {
+			final int slot = (head + count++) % window;
+			int operation = phase.operation(rand);
+			if (operation == WorkloadProfile.REFUND && !held.isEmpty()) {
+				int k = rand.nextInt(held.size());
+				Ticket ticket = held.get(k);
+				held.set(k, held.get(held.size() - 1));
+				held.remove(held.size() - 1);
+				tickets[slot] = ticket;
+				sent[slot] = System.nanoTime();
+				TicketingProtocol.refund(out, ticket);
+			} else {
+				if (operation != WorkloadProfile.INQUIRY) {
+					operation = WorkloadProfile.BUY;
+				}
+				int route = phase.route(rand);
+				int segment = phase.segment(rand);
+				int departure = WorkloadProfile.departure(segment);
+				int arrival = WorkloadProfile.arrival(segment);
+				sent[slot] = System.nanoTime();
+				if (operation == WorkloadProfile.BUY) {
+					// the answer only carries tid, coach and seat, the rest is kept here
+					Ticket ticket = new Ticket();
+					ticket.passenger = "p" + rand.nextInt(1000000);
+					ticket.route = route;
+					ticket.departure = departure;
+					ticket.arrival = arrival;
+					tickets[slot] = ticket;
+					TicketingProtocol.buy(out, ticket.passenger, route, departure, arrival);
+				} else {
+					TicketingProtocol.inquiry(out, route, departure, arrival);
+				}
+			}
+			operations[slot] = operation;
+		}
+
+		private boolean complete(int start, int length, ArrayList<Ticket> held, Metrics metrics) throws IOException {
+			final long latency = System.nanoTime() - sent[head];
+			final int operation = in.get(start + 4);
+			if (operation != operations[head]) {
+				throw new IOException("answer " + operation + " to request " + operations[head]);
+			}
+			final Ticket ticket = tickets[head];
+			tickets[head] = null;
+			head = (head + 1) % window;
+			--count;
+			in.position(start + length);
+			switch (operation) {
+				case WorkloadProfile.REFUND:
+					metrics.refundLatency.report(latency);
+					if (in.get(start + 5) == 0) {
+						System.out.println("[ERROR] refund returns false. ticket: " + ticket);
+						return false;
+					}
+					break;
+				case WorkloadProfile.BUY:
+					metrics.buyLatency.report(latency);
+					if (in.get(start + 5) != 0) {
+						ticket.tid = in.getLong(start + 6);
+						ticket.coach = in.getShort(start + 14);
+						ticket.seat = in.getShort(start + 16);
+						held.add(ticket);
+					} else {
+						++metrics.noTicketCounter;
+					}
+					break;
+				default:
+					metrics.inquiryLatency.report(latency);
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 4 || args.length > 5) {
+			System.out.println("args: <host> <port> <connections> <testnum> [<window>]");
+			return;
+		}
+		final InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+		Latency.threadnum = Integer.parseInt(args[2]);
+		final int testnum = Integer.parseInt(args[3]);
+		final int window = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+		System.out.println("connections: " + Latency.threadnum + ", testnum: " + testnum + ", window: " + window);
+		ConfigReader.readConfig("TrainConfig");
+
+		Thread[] threads = new Thread[Latency.threadnum];
+		Metrics[] metrics = new Metrics[Latency.threadnum];
+		CyclicBarrier barrier = new CyclicBarrier(Latency.threadnum);
+		AtomicLong st = new AtomicLong(0);
+		for (int i = 0; i < Latency.threadnum; ++i) {
+			metrics[i] = new Metrics();
+			Metrics metrics2 = metrics[i];
+			threads[i] = new Thread(() -> {
+				final Random rand = new Random(Thread.currentThread().getId() * 1000000007L + System.currentTimeMillis());
+				try (Pipeline pipeline = new Pipeline(address, window)) {
+					barrier.await();
+					st.compareAndSet(0, System.nanoTime());
+					pipeline.run(rand, ConfigReader.profile, testnum, metrics2);
+				} catch (IOException | InterruptedException | BrokenBarrierException e) {
+					System.out.println(e);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		long endtime = System.nanoTime();
+		System.out.println(Stream.of(metrics).reduce(new Metrics(), Metrics::reduce));
+		System.out.println("time: " + (endtime - st.get()) / 1000_000_000.0 + "s");
+		System.out.println("client QPS: " + Latency.threadnum * testnum / ((endtime - st.get()) / 1000_000.0) + " ops/ms");
+	}
+}
@@ -1,295 +1,161 @@
 package ticketingsystem;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
-import java.util.HashSet;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.StampedLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import sun.misc.Unsafe;
 
-public class TicketingDS implements TicketingSystem {
-	private static final Object dummyObject = new Object();
-
-	// @sun.misc.Contended
-	static final class ContendedCell {
-		long value;
-		long pad1, pad2, pad3, pad4, pad5, pad6, pad7;
-
-		ContendedCell(long x) {
-			value = x;
+public class TicketingDS implements TicketingSystem, AutoCloseable {
+	static final class Route {
+		final SeatAllocator routeTickets;
+		// a refund must remove its sale from here first
+		final SoldTickets soldTickets;
+		// null unless ContentionCounters.ENABLED
+		final ContentionCounters contention;
+		// served whenever a seat of the route is freed
+		final Waitlist waitlist;
+
+		Route(SeatAllocator routeTickets, SoldTickets soldTickets, ContentionCounters contention,
+				Waitlist waitlist) {
+			this.routeTickets = routeTickets;
+			this.soldTickets = soldTickets;
+			this.contention = contention;
+			this.waitlist = waitlist;
 		}
 	}
 
-	static final long TID_UNDETERMINED = -2;
-
-	static final class TicketSale {
-		long tid;
-		String passenger;
-		int coach;
-		int seat;
-
-		TicketSale(long tid, String passenger, int coach, int seat) {
-			this.tid = tid;
-			this.passenger = passenger;
-			this.coach = coach;
-			this.seat = seat;
-		}
-
-		TicketSale(int coach, int seat) {
-			this(TID_UNDETERMINED, null, coach, seat);
-		}
-
-		TicketSale(Ticket ticket) {
-			this.tid = ticket.tid;
-			this.passenger = ticket.passenger;
-			this.coach = ticket.coach;
-			this.seat = ticket.seat;
-		}
-
+	private final class ContentionBean implements ContentionMXBean {
 		@Override
-		public boolean equals(Object obj) {
-			if (obj instanceof TicketSale) {
-				TicketSale t = (TicketSale) obj;
-				return t == this || t.tid == tid && t.coach == coach && t.seat == seat
-						&& (passenger == t.passenger || passenger != null && passenger.equals(t.passenger));
-			}
-			return false;
+		public String[] getEvents() {
+			return ContentionCounters.EVENTS.clone();
 		}
 
 		@Override
-		public int hashCode() {
-			return (((int) tid * 17 + coach) * 17 + seat) * 23;
-		}
-	}
-
-	// 2PL
-	// @sun.misc.Contended
-	static final class LockedCell {
-		final StampedLock rwlock = new StampedLock();
-		final HashSet<TicketSale> ticketsOnSale = new HashSet<>(100);
-		final ConcurrentHashMap<TicketSale, Object> soldTickets = new ConcurrentHashMap<>(100);
-	}
-
-	class RouteTickets {
-		// [departure][arrival]
-		private final LockedCell[][] stations;
-		// [coach][seat]
-		private final AtomicLong[][] gapLocks;
-
-		private void sleep0() {
-			try {
-				Thread.sleep(0);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-
-		RouteTickets() {
-			this.stations = new LockedCell[stationnum + 1][stationnum + 1];
-			this.gapLocks = new AtomicLong[coachnum + 1][seatnum + 1];
-
-			for (int i = 1; i <= stationnum; ++i) {
-				for (int j = 1; j <= stationnum; ++j) {
-					this.stations[i][j] = new LockedCell();
+		public long[] getTotals() {
+			long[] totals = new long[ContentionCounters.EVENTS.length];
+			for (long[] counts : contentionSnapshot()) {
+				for (int i = 0; i < totals.length; ++i) {
+					totals[i] += counts[i];
 				}
 			}
-			for (int coach = 1; coach <= coachnum; ++coach) {
-				for (int seat = 1; seat <= seatnum; ++seat) {
-					this.stations[1][stationnum].ticketsOnSale.add(new TicketSale(coach, seat));
-					this.gapLocks[coach][seat] = new AtomicLong(0);
-				}
-			}
-		}
-
-		TicketSale allocateCoachSeat(String passenger, int departure, int arrival) {
-			TicketSale result = allocCoachSeatWithRange(passenger, departure, arrival, 1, stationnum);
-			if (result != null) {
-				return result;
-			}
-			for (int left = departure; left >= 1; --left) {
-				for (int right = arrival; right <= stationnum; ++right) {
-					result = allocCoachSeatWithRange(passenger, departure, arrival, left, right);
-					if (result != null) {
-						return result;
-					}
-				}
-			}
-			return null;
-		}
-
-		private TicketSale allocCoachSeatWithRange(String passenger, int departure, int arrival, int left, int right) {
-			LockedCell oldCell = stations[left][right];
-			for (;;) {
-				long rs = oldCell.rwlock.tryOptimisticRead();
-				if (rs == 0) {
-					sleep0();
-					continue;
-				}
-				if (!oldCell.ticketsOnSale.isEmpty()) {
-					long oldwt = oldCell.rwlock.tryConvertToWriteLock(rs);
-					if (oldwt == 0) {
-						sleep0();
-						continue;
-					}
-					TicketSale oldTicketOnSale = oldCell.ticketsOnSale.iterator().next();
-					oldCell.ticketsOnSale.remove(oldTicketOnSale);
-					LockedCell[] cells = { stations[left][departure],
-							stations[arrival][right] };
-					long[] wts = { 0, 0 };
-
-					TicketSale newTicketSale = new TicketSale(genTid(), passenger, oldTicketOnSale.coach, oldTicketOnSale.seat);
-					if (left < departure) {
-						wts[0] = cells[0].rwlock.writeLock();
-						cells[0].ticketsOnSale.add(new TicketSale(oldTicketOnSale.coach, oldTicketOnSale.seat));
-					}
-					if (arrival < right) {
-						wts[1] = cells[1].rwlock.writeLock();
-						cells[1].ticketsOnSale.add(new TicketSale(oldTicketOnSale.coach, oldTicketOnSale.seat));
-					}
-
-					AtomicLong soldBits = this.gapLocks[newTicketSale.coach][newTicketSale.seat];
-					long bitvec = (2 << arrival) - (1 << (departure + 1));
-					boolean result;
-					do {
-						long origin = soldBits.get();
-						long updated = origin | bitvec;
-						result = soldBits.compareAndSet(origin, updated);
-					} while (!result);
-
-					oldCell.rwlock.unlockWrite(oldwt);
-					for (int i = 0; i < wts.length; ++i) {
-						if (wts[i] > 0) {
-							cells[i].rwlock.unlockWrite(wts[i]);
-						}
-					}
-					stations[departure][arrival].soldTickets.put(newTicketSale, dummyObject);
-
-					return newTicketSale;
-				} else {
-					return null;
-				}
-			}
-		}
-
-		boolean freeCoachSeat(Ticket ticket) {
-			LockedCell cell = stations[ticket.departure][ticket.arrival];
-			TicketSale soldTicketSale = new TicketSale(ticket);
-			if (cell.soldTickets.remove(soldTicketSale) == null) {
-				return false;
-			}
-			AtomicLong soldBits = this.gapLocks[ticket.coach][ticket.seat];
-			boolean end;
-			do {
-				long ticketBits = (2 << ticket.arrival) - (1 << (ticket.departure + 1));
-				long origin = soldBits.get();
-				long update = origin ^ ticketBits;
-
-				int left = ticket.departure;
-				while (left > 1 && (update & (1 << (left))) == 0) {
-					--left;
-				}
-				int right = ticket.arrival;
-				while (right < stationnum && (update & (1 << (right + 1))) == 0) {
-					++right;
-				}
-
-				LockedCell[] cells = { stations[left][right], stations[left][ticket.departure],
-						stations[ticket.arrival][right] };
-				long[] wts = { 0, 0, 0 };
-				wts[0] = cells[0].rwlock.writeLock();
-				if (left < ticket.departure) {
-					wts[1] = cells[1].rwlock.writeLock();
-				}
-				if (ticket.arrival < right) {
-					wts[2] = cells[2].rwlock.writeLock();
-				}
-
-				long validate = soldBits.get();
-				end = ((origin ^ validate) & ((2 << right) - (1 << (left + 1)))) == 0;
-				if (end) {
-					TicketSale availablTicketSale = new TicketSale(ticket.coach, ticket.seat);
-					if (left < ticket.departure) {
-						cells[1].ticketsOnSale.remove(availablTicketSale);
-					}
-					if (ticket.arrival < right) {
-						cells[2].ticketsOnSale.remove(availablTicketSale);
-					}
-					cells[0].ticketsOnSale.add(availablTicketSale);
-
-					while (!soldBits.compareAndSet(validate, validate & ~ticketBits)) {
-						validate = soldBits.get();
-					}
-				}
-				for (int i = 0; i < wts.length; ++i) {
-					if (wts[i] > 0) {
-						cells[i].rwlock.unlockWrite(wts[i]);
-					}
-				}
-			} while (!end);
-			return true;
+			return totals;
 		}
 
-		int queryCoachSeatNum(int departure, int arrival) {
-			int sum = 0;
-			final Lock[] readlocks = new Lock[departure * (stationnum - arrival + 1)];
-
-			int lockCount = 0;
-			for (int left = 1; left <= departure; ++left) {
-				for (int right = stationnum; right >= arrival; --right) {
-					LockedCell cell = stations[left][right];
-					long rt = cell.rwlock.tryOptimisticRead();
-					if (rt > 0) {
-						int sz = cell.ticketsOnSale.size();
-						if (cell.rwlock.validate(rt)) {
-							sum += sz;
-							continue;
-						}
-					}
-					readlocks[lockCount] = cell.rwlock.asReadLock();
-					readlocks[lockCount].lock();
-					sum += cell.ticketsOnSale.size();
-					++lockCount;
-				}
-			}
-
-			for (int i = 0; i < lockCount; ++i) {
-				readlocks[i].unlock();
+		@Override
+		public long[] getRouteCounts(int route) {
+			if (route < 1 || route > routenum) {
+				throw new IllegalArgumentException("no route " + route);
 			}
-			assert sum <= coachnum * seatnum;
-			return sum;
+			return contentionSnapshot()[route - 1];
 		}
 	}
 
-	private static final int MAX_THREAD_NUM = 512;
-	ContendedCell[] threadLocalCounterCell = new ContendedCell[MAX_THREAD_NUM];
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	static final String ALLOCATOR_PROPERTY = "ticketingsystem.allocator";
 
 	private final int routenum;
 	private final int coachnum;
 	private final int seatnum;
 	private final int stationnum;
 	private final int threadnum;
-	private final RouteTickets[] routeTickets;
+	private final String allocator;
+	private final TidAllocator tids = new TidAllocator();
+	// [route - 1], built on the first buy of the route
+	private final AtomicReferenceArray<Route> routes;
+	// null unless journaling, see Journal
+	private final Journal journal;
+	// started on the first hold
+	private volatile HoldWheel holds;
+	// null unless counting contention, unregistered on close
+	private final ObjectName contentionName;
 	private Unsafe unsafe = null;
 
 	public TicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum) {
+		this(routenum, coachnum, seatnum, stationnum, threadnum,
+				System.getProperty(ALLOCATOR_PROPERTY, SeatAllocator.CELL));
+	}
+
+	public TicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, String allocator) {
+		this(routenum, coachnum, seatnum, stationnum, threadnum, allocator, journalFromProperties());
+	}
+
+	/**
+	 * Journals every buy and refund into journal, after restoring the tickets
+	 * of the segments already there.
+	 *
+	 * @param durability Journal.SYNC, BATCH or ASYNC
+	 */
+	public TicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, String allocator,
+			String journal, String durability) throws IOException {
+		this(routenum, coachnum, seatnum, stationnum, threadnum, allocator,
+				new Journal(Path.of(journal), durability, Journal.DEFAULT_SEGMENT));
+	}
+
+	private static Journal journalFromProperties() {
+		try {
+			return Journal.fromProperties();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	TicketingDS(int routenum, int coachnum, int seatnum, int stationnum, int threadnum, String allocator,
+			Journal journal) {
 		assert routenum > 0;
 		assert coachnum > 0;
 		assert seatnum > 0;
 		assert stationnum > 0;
-		assert 0 < threadnum && threadnum <= MAX_THREAD_NUM;
+		assert threadnum > 0;
 		this.routenum = routenum;
 		this.coachnum = coachnum;
 		this.seatnum = seatnum;
 		this.stationnum = stationnum;
 		this.threadnum = threadnum;
-		for (int i = 0; i < MAX_THREAD_NUM; ++i) {
-			threadLocalCounterCell[i] = new ContendedCell(0);
+		this.allocator = allocator;
+		this.routes = new AtomicReferenceArray<>(routenum);
+		// fail on an unknown engine now rather than on the first buy
+		SeatAllocator.create(allocator, 1, 1, 2);
+		if (journal != null) {
+			try {
+				long first = 0;
+				Path snapshot = journal.directory().resolve(Snapshot.FILE);
+				if (Files.exists(snapshot)) {
+					first = load(Snapshot.read(snapshot));
+				}
+				Journal.read(journal.directory(), first, this::replay);
+			} catch (IOException e) {
+				journal.close();
+				throw new UncheckedIOException(e);
+			} catch (RuntimeException e) {
+				journal.close();
+				throw e;
+			}
 		}
-		routeTickets = new RouteTickets[routenum];
-		for (int i = 0; i < routenum; ++i) {
-			routeTickets[i] = new RouteTickets();
+		this.journal = journal;
+		ObjectName name = null;
+		if (ContentionCounters.ENABLED) {
+			try {
+				name = new ObjectName("ticketingsystem:type=Contention,id=" + instances.incrementAndGet());
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new ContentionBean(), name);
+			} catch (JMException e) {
+				name = null;
+				e.printStackTrace();
+			}
 		}
+		this.contentionName = name;
 
 		try {
 			Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
@@ -301,24 +167,172 @@ public class TicketingDS implements TicketingSystem {
 		}
 	}
 
-	private long genTid() {
-		long threadID = Thread.currentThread().getId();
-		assert threadID < MAX_THREAD_NUM;
-		long threadLocalTID = threadLocalCounterCell[(int) threadID].value++;
-		return threadLocalTID * MAX_THREAD_NUM + threadID;
+	private Route route(int route) {
+		Route r = routes.get(route - 1);
+		if (r == null) {
+			ContentionCounters contention = ContentionCounters.ENABLED ? new ContentionCounters() : null;
+			Route created = new Route(SeatAllocator.create(allocator, coachnum, seatnum, stationnum, contention),
+					new SoldTickets(coachnum, seatnum, stationnum), contention, new Waitlist(stationnum));
+			r = routes.compareAndExchange(route - 1, null, created);
+			if (r == null) {
+				r = created;
+			}
+		}
+		return r;
+	}
+
+	// a journal record on top of the state so far, nothing else may run yet
+	private void replay(int type, Ticket ticket) {
+		if (ticket.route < 1 || ticket.route > routenum || ticket.coach < 1 || ticket.coach > coachnum
+				|| ticket.seat < 1 || ticket.seat > seatnum || ticket.departure < 1
+				|| ticket.departure >= ticket.arrival || ticket.arrival > stationnum) {
+			throw new IllegalStateException("ticket " + ticket.tid + " does not fit the configuration");
+		}
+		Route r = route(ticket.route);
+		int seatIndex = (ticket.coach - 1) * seatnum + (ticket.seat - 1);
+		if (type == Journal.REFUND) {
+			// the snapshot may already miss it
+			if (r.soldTickets.removeReplayed(ticket) >= 0) {
+				r.routeTickets.freeCoachSeat(seatIndex, ticket.departure, ticket.arrival);
+			}
+		} else if (!r.soldTickets.contains(ticket, seatIndex)) {
+			if (!r.routeTickets.restoreCoachSeat(seatIndex, ticket.departure, ticket.arrival)) {
+				throw new IllegalStateException("ticket " + ticket.tid + " takes a seat already sold");
+			}
+			r.soldTickets.add(ticket, seatIndex);
+		}
+		tids.skipPast(ticket.tid);
+	}
+
+	// bulk-loads the routes of a snapshot, returns its first journal segment
+	private long load(Snapshot snapshot) {
+		if (snapshot.routenum != routenum || snapshot.coachnum != coachnum || snapshot.seatnum != seatnum
+				|| snapshot.stationnum != stationnum) {
+			throw new IllegalStateException("snapshot of another configuration");
+		}
+		for (int route = 1; route <= routenum; ++route) {
+			if (snapshot.occupancy[route - 1] != null) {
+				Route r = route(route);
+				r.routeTickets.loadOccupancy(snapshot.occupancy[route - 1]);
+				r.soldTickets.load(snapshot.sales[route - 1], snapshot.passengers[route - 1]);
+			}
+		}
+		tids.skipPast(snapshot.nextTid - 1);
+		return snapshot.segment;
+	}
+
+	/**
+	 * Writes a snapshot of every route to file while sales go on, see
+	 * {@link Snapshot}. With a journal it starts a new segment first and
+	 * records it, so the snapshot plus the journal from there is exact.
+	 *
+	 * @return the first journal segment the snapshot needs, -1 without one
+	 */
+	public long snapshot(String file) throws IOException {
+		final Snapshot snapshot = new Snapshot(routenum, coachnum, seatnum, stationnum);
+		if (journal != null) {
+			snapshot.segment = journal.checkpoint();
+		}
+		for (int route = 1; route <= routenum; ++route) {
+			Route r = routes.get(route - 1);
+			if (r != null) {
+				snapshot.capture(route, r.soldTickets);
+			}
+		}
+		// after the capture, so that it covers every tid of it
+		snapshot.nextTid = tids.peek();
+		snapshot.write(Path.of(file));
+		return snapshot.segment;
+	}
+
+	/**
+	 * Snapshots into the journal directory, where the next start picks it
+	 * up, and deletes the segments it covers.
+	 */
+	public void checkpoint() throws IOException {
+		if (journal == null) {
+			throw new IllegalStateException("no journal");
+		}
+		journal.truncate(snapshot(journal.directory().resolve(Snapshot.FILE).toString()));
+	}
+
+	/**
+	 * A TicketingDS with the configuration and tickets of a snapshot written
+	 * by {@link #snapshot}, without journal.
+	 */
+	public static TicketingDS restore(String file, int threadnum, String allocator) throws IOException {
+		final Snapshot snapshot = Snapshot.read(Path.of(file));
+		final TicketingDS ds = new TicketingDS(snapshot.routenum, snapshot.coachnum, snapshot.seatnum,
+				snapshot.stationnum, threadnum, allocator, (Journal) null);
+		ds.load(snapshot);
+		return ds;
+	}
+
+	// rejects a passenger the journal could not record before any seat is taken for it
+	private void checkPassenger(String passenger) {
+		if (journal != null) {
+			Journal.checkPassenger(passenger);
+		}
 	}
 
-	private Ticket newTicket(int route, int departure, int arrival,
-			TicketSale ticketOnSale) {
+	/**
+	 * Journals the sale of the tickets, null ones skipped, and returns once
+	 * it is as durable as the journal promises. If the journal fails, the
+	 * tickets are taken back before the exception is rethrown: those whose
+	 * BUY was appended get a REFUND first, so the journal never keeps a sale
+	 * that memory dropped.
+	 */
+	private void journalSales(Ticket... tickets) {
+		if (journal == null) {
+			return;
+		}
+		int appended = 0;
+		try {
+			long lsn = 0;
+			for (; appended < tickets.length; ++appended) {
+				if (tickets[appended] != null) {
+					lsn = journal.append(Journal.BUY, tickets[appended]);
+				}
+			}
+			journal.commit(lsn);
+		} catch (RuntimeException e) {
+			unsell(tickets, appended);
+			throw e;
+		}
+	}
+
+	// takes back tickets never handed out, the first journaled of them have a BUY record
+	private void unsell(Ticket[] tickets, int journaled) {
+		for (int i = 0; i < tickets.length; ++i) {
+			final Ticket ticket = tickets[i];
+			if (ticket == null) {
+				continue;
+			}
+			if (i < journaled) {
+				try {
+					journal.append(Journal.REFUND, ticket);
+				} catch (RuntimeException e) {
+					// the journal keeps the sale, so the seat stays sold to nobody
+					continue;
+				}
+			}
+			Route r = routes.get(ticket.route - 1);
+			int seatIndex = r.soldTickets.remove(ticket);
+			if (seatIndex >= 0) {
+				r.routeTickets.freeCoachSeat(seatIndex, ticket.departure, ticket.arrival);
+			}
+		}
+	}
+
+	private Ticket newTicket(String passenger, int route, int departure, int arrival, int seatIndex) {
 		Ticket ticket = new Ticket();
-		assert ticketOnSale.tid != TID_UNDETERMINED;
-		assert ticketOnSale.passenger != null;
+		assert passenger != null;
 
-		ticket.tid = ticketOnSale.tid;
-		ticket.passenger = ticketOnSale.passenger;
+		ticket.tid = tids.next();
+		ticket.passenger = passenger;
 		ticket.route = route;
-		ticket.coach = ticketOnSale.coach;
-		ticket.seat = ticketOnSale.seat;
+		ticket.coach = seatIndex / seatnum + 1;
+		ticket.seat = seatIndex % seatnum + 1;
 		ticket.departure = departure;
 		ticket.arrival = arrival;
 		return ticket;
@@ -327,31 +341,356 @@ public class TicketingDS implements TicketingSystem {
 	@Override
 	public Ticket buyTicket(String passenger, int route, int departure, int arrival) {
 		if (1 <= departure && departure < arrival && arrival <= stationnum && 1 <= route && route <= routenum) {
-			TicketSale ticket = routeTickets[route - 1].allocateCoachSeat(passenger, departure, arrival);
-			if (ticket != null) {
-				return newTicket(route, departure, arrival, ticket);
+			checkPassenger(passenger);
+			Route r = route(route);
+			int seatIndex = r.routeTickets.allocateCoachSeat(departure, arrival);
+			if (seatIndex >= 0) {
+				Ticket ticket = newTicket(passenger, route, departure, arrival, seatIndex);
+				r.soldTickets.add(ticket, seatIndex);
+				journalSales(ticket);
+				return ticket;
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Buys a ticket for every request. Requests are grouped by route and range
+	 * so that each group enters its seat allocator once.
+	 *
+	 * @return the ticket of requests.get(i) at index i, or null if it failed
+	 * @throws IllegalArgumentException before buying anything, if the journal
+	 *         could not record a passenger
+	 */
+	public Ticket[] buyTickets(List<PurchaseRequest> requests) {
+		final int n = requests.size();
+		final Ticket[] tickets = new Ticket[n];
+		// group key in the high half, request index in the low half
+		final long[] order = new long[n];
+		int valid = 0;
+		for (int i = 0; i < n; ++i) {
+			PurchaseRequest r = requests.get(i);
+			if (1 <= r.departure && r.departure < r.arrival && r.arrival <= stationnum && 1 <= r.route
+					&& r.route <= routenum) {
+				checkPassenger(r.passenger);
+				long key = ((long) r.route * (stationnum + 1) + r.departure) * (stationnum + 1) + r.arrival;
+				order[valid++] = key << 32 | i;
+			}
+		}
+		Arrays.sort(order, 0, valid);
+
+		final int[] seatIndices = new int[valid];
+		for (int begin = 0, end; begin < valid; begin = end) {
+			end = begin + 1;
+			while (end < valid && order[end] >>> 32 == order[begin] >>> 32) {
+				++end;
+			}
+			PurchaseRequest group = requests.get((int) order[begin]);
+			Route r = route(group.route);
+			int allocated = r.routeTickets.allocateCoachSeats(group.departure, group.arrival, seatIndices,
+					end - begin);
+			for (int k = 0; k < allocated; ++k) {
+				int i = (int) order[begin + k];
+				tickets[i] = newTicket(requests.get(i).passenger, group.route, group.departure, group.arrival,
+						seatIndices[k]);
+				r.soldTickets.add(tickets[i], seatIndices[k]);
+			}
+		}
+		journalSales(tickets);
+		return tickets;
+	}
+
+	/**
+	 * Buys one ticket per passenger on the same route and range, all seats in
+	 * one coach if sameCoach. Either every passenger gets a ticket or none does.
+	 *
+	 * @return the tickets in passenger order, or null if the group could not be
+	 *         seated
+	 */
+	public Ticket[] buyGroup(String[] passengers, int route, int departure, int arrival, boolean sameCoach) {
+		if (passengers.length > 0 && 1 <= departure && departure < arrival && arrival <= stationnum && 1 <= route
+				&& route <= routenum) {
+			for (String passenger : passengers) {
+				checkPassenger(passenger);
+			}
+			final int[] seatIndices = new int[passengers.length];
+			Route r = route(route);
+			if (r.routeTickets.allocateGroup(departure, arrival, seatIndices, passengers.length, sameCoach)) {
+				final Ticket[] tickets = new Ticket[passengers.length];
+				for (int i = 0; i < passengers.length; ++i) {
+					tickets[i] = newTicket(passengers[i], route, departure, arrival, seatIndices[i]);
+					r.soldTickets.add(tickets[i], seatIndices[i]);
+				}
+				journalSales(tickets);
+				return tickets;
+			}
+		}
+		return null;
+	}
+
+	HoldWheel holds() {
+		HoldWheel wheel = holds;
+		if (wheel == null) {
+			synchronized (this) {
+				wheel = holds;
+				if (wheel == null) {
+					holds = wheel = new HoldWheel(System.nanoTime(), HoldWheel.TICK, HoldWheel.BUCKETS,
+							this::expire).start();
+				}
+			}
+		}
+		return wheel;
+	}
+
+	private void free(Hold hold) {
+		Route r = routes.get(hold.route - 1);
+		r.routeTickets.freeCoachSeat(hold.seatIndex, hold.departure, hold.arrival);
+		serveWaitlist(r, hold.route, hold.departure, hold.arrival);
+	}
+
+	// on the ticker: the seat is freed at once, waiters are served off it so a
+	// slow journal commit does not hold up the other expiries
+	private void expire(Hold hold) {
+		Route r = routes.get(hold.route - 1);
+		r.routeTickets.freeCoachSeat(hold.seatIndex, hold.departure, hold.arrival);
+		if (!r.waitlist.isEmpty()) {
+			ForkJoinPool.commonPool().execute(() -> {
+				try {
+					serveWaitlist(r, hold.route, hold.departure, hold.arrival);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Takes a seat for the range until confirm turns it into a ticket or
+	 * release gives it back. A hold settled by neither within ttlMillis is
+	 * released within a tick of HoldWheel. Holds are not journaled, a restart
+	 * drops the outstanding ones.
+	 *
+	 * @return the hold, or null if no seat is free
+	 */
+	public Hold hold(int route, int departure, int arrival, long ttlMillis) {
+		if (ttlMillis > 0 && 1 <= departure && departure < arrival && arrival <= stationnum && 1 <= route
+				&& route <= routenum) {
+			Route r = route(route);
+			int seatIndex = r.routeTickets.allocateCoachSeat(departure, arrival);
+			if (seatIndex >= 0) {
+				Hold hold = new Hold(route, departure, arrival, seatIndex,
+						System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+				holds().add(hold);
+				return hold;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sells the held seat to passenger without going through the seat
+	 * allocator again.
+	 *
+	 * @return the ticket, or null if the hold was already confirmed, released
+	 *         or past its ttl
+	 */
+	public Ticket confirm(Hold hold, String passenger) {
+		if (System.nanoTime() - hold.deadline >= 0) {
+			// late, and the ticker may not have got to it yet
+			if (hold.settle(Hold.EXPIRED)) {
+				holds().settled(hold);
+				free(hold);
+			}
+			return null;
+		}
+		checkPassenger(passenger);
+		if (!hold.settle(Hold.CONFIRMED)) {
+			return null;
+		}
+		holds().settled(hold);
+		Ticket ticket = newTicket(passenger, hold.route, hold.departure, hold.arrival, hold.seatIndex);
+		routes.get(hold.route - 1).soldTickets.add(ticket, hold.seatIndex);
+		journalSales(ticket);
+		return ticket;
+	}
+
+	/**
+	 * Gives the held seat back.
+	 *
+	 * @return false if the hold was already confirmed, released or expired
+	 */
+	public boolean release(Hold hold) {
+		if (!hold.settle(Hold.RELEASED)) {
+			return false;
+		}
+		holds().settled(hold);
+		free(hold);
+		return true;
+	}
+
+	/**
+	 * Buys a ticket, or if none is free queues the purchase on the route's
+	 * waitlist. A queued purchase gets the first seat that fits among those
+	 * freed by refunds, releases and expired holds of the route, before
+	 * buyers who came later to the waitlist. Cancelling the future, or letting
+	 * it time out, withdraws the purchase. Like holds, waiting purchases are
+	 * not journaled.
+	 *
+	 * @return a future of the ticket, completed with null at once for an
+	 *         unknown route or range
+	 */
+	public CompletableFuture<Ticket> buyOrWait(String passenger, int route, int departure, int arrival) {
+		Ticket ticket = buyTicket(passenger, route, departure, arrival);
+		if (ticket != null || !(1 <= departure && departure < arrival && arrival <= stationnum && 1 <= route
+				&& route <= routenum)) {
+			return CompletableFuture.completedFuture(ticket);
+		}
+		Route r = route(route);
+		Waitlist.Waiter waiter = new Waitlist.Waiter(passenger, departure, arrival);
+		r.waitlist.add(waiter);
+		// a seat freed after the failed buy but before add found nobody waiting
+		serveWaitlist(r, route, departure, arrival);
+		return waiter.future;
+	}
+
+	// after a seat of the range was freed
+	private void serveWaitlist(Route r, int route, int departure, int arrival) {
+		if (r.waitlist.isEmpty()) {
+			return;
+		}
+		List<Waitlist.Waiter> served = r.waitlist.fulfill(r.routeTickets, departure, arrival);
+		if (served.isEmpty()) {
+			return;
+		}
+		final Ticket[] tickets = new Ticket[served.size()];
+		for (int i = 0; i < tickets.length; ++i) {
+			Waitlist.Waiter waiter = served.get(i);
+			tickets[i] = newTicket(waiter.passenger, route, waiter.departure, waiter.arrival, waiter.seatIndex);
+			r.soldTickets.add(tickets[i], waiter.seatIndex);
+		}
+		try {
+			journalSales(tickets);
+		} catch (RuntimeException e) {
+			for (Waitlist.Waiter waiter : served) {
+				waiter.future.completeExceptionally(e);
+			}
+			return;
+		}
+		for (int i = 0; i < tickets.length; ++i) {
+			if (!served.get(i).future.complete(tickets[i])) {
+				// withdrawn meanwhile, the seat goes on to the next waiter
+				refundTicket(tickets[i]);
+			}
+		}
+	}
+
 	@Override
 	public int inquiry(int route, int departure, int arrival) {
 		if (1 <= departure && departure < arrival && arrival <= stationnum && 1 <= route && route <= routenum) {
-			return routeTickets[route - 1].queryCoachSeatNum(departure, arrival);
+			Route r = routes.get(route - 1);
+			return r == null ? coachnum * seatnum : r.routeTickets.queryCoachSeatNum(departure, arrival);
 		}
 		return 0;
 	}
 
+	/**
+	 * Free seats of every range of the route from one pass over it,
+	 * [departure][arrival] for 1 <= departure < arrival <= stationnum, the
+	 * other entries are zero; null for an unknown route.
+	 */
+	@Override
+	public int[][] inquiryAll(int route) {
+		if (route < 1 || route > routenum) {
+			return null;
+		}
+		final int[][] counts = new int[stationnum + 1][stationnum + 1];
+		Route r = routes.get(route - 1);
+		if (r == null) {
+			for (int departure = 1; departure < stationnum; ++departure) {
+				Arrays.fill(counts[departure], departure + 1, stationnum + 1, coachnum * seatnum);
+			}
+		} else {
+			r.routeTickets.queryAllCoachSeatNum(counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * With a journal, the refund is as durable as the journal promises
+	 * before its seat is freed. If the journal throws, the ticket stays sold
+	 * and can be refunded again; when the failure was in forcing rather than
+	 * appending, the refund may still reach disk, and a restart then finds
+	 * the ticket refunded.
+	 */
 	@Override
 	public boolean refundTicket(Ticket ticket) {
 		if (ticket != null && 1 <= ticket.route && ticket.route <= routenum) {
-			return routeTickets[ticket.route - 1].freeCoachSeat(ticket);
+			Route r = routes.get(ticket.route - 1);
+			int seatIndex = r == null ? -1 : r.soldTickets.remove(ticket);
+			if (seatIndex < 0) {
+				return false;
+			}
+			// journaled before the seat can be sold again, so a journal that keeps
+			// the next sale of the seat keeps this refund too
+			if (journal != null) {
+				try {
+					journal.commit(journal.append(Journal.REFUND, ticket));
+				} catch (RuntimeException e) {
+					// the seat was not freed yet, the ticket stays sold
+					r.soldTickets.add(ticket, seatIndex);
+					throw e;
+				}
+			}
+			r.routeTickets.freeCoachSeat(seatIndex, ticket.departure, ticket.arrival);
+			serveWaitlist(r, ticket.route, ticket.departure, ticket.arrival);
+			return true;
 		} else {
 			return false;
 		}
 	}
 
+	// buys and refunds return only after an fsync of the journal
+	boolean commitsSynchronously() {
+		return journal != null && journal.durability().equals(Journal.SYNC);
+	}
+
+	/**
+	 * Forces and closes the journal, if any, stops expiring holds and
+	 * unregisters the contention MBean; buys, holds and refunds must not run
+	 * concurrently with it or after it.
+	 */
+	@Override
+	public void close() {
+		if (contentionName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(contentionName);
+			} catch (JMException e) {
+				// closed twice
+			}
+		}
+		if (holds != null) {
+			holds.close();
+		}
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	/**
+	 * Retry and CAS failure counts of every route, indexed
+	 * [route - 1][ContentionCounters event]. All zero unless the JVM runs with
+	 * -Dticketingsystem.contention=true; only the cell and bitmap engines count.
+	 */
+	public long[][] contentionSnapshot() {
+		final long[][] counts = new long[routenum][];
+		for (int route = 1; route <= routenum; ++route) {
+			Route r = routes.get(route - 1);
+			counts[route - 1] = r == null || r.contention == null ? new long[ContentionCounters.EVENTS.length]
+					: r.contention.snapshot();
+		}
+		return counts;
+	}
+
 	@Override
 	public boolean buyTicketReplay(Ticket ticket) {
 		assert ticket != null;
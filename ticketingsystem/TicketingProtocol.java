@@ -0,0 +1,108 @@
+package ticketingsystem;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format of {@link TicketingServer}, big-endian. Every frame is an int
+ * length of the rest of the frame followed by an operation byte:
+ *
+ * <pre>
+ * requests   BUY      short route, short departure, short arrival, passenger as UTF-8 up to the end
+ *            REFUND   long tid, short route, short coach, short seat, short departure, short arrival,
+ *                     passenger as UTF-8 up to the end
+ *            INQUIRY  short route, short departure, short arrival
+ * responses  BUY      byte sold, and if sold long tid, short coach, short seat
+ *            REFUND   byte refunded
+ *            INQUIRY  int seats left
+ * </pre>
+ *
+ * A connection may send any number of requests without waiting, the
+ * responses come back in the same order.
+ */
+final class TicketingProtocol {
+	static final int REFUND = WorkloadProfile.REFUND;
+	static final int BUY = WorkloadProfile.BUY;
+	static final int INQUIRY = WorkloadProfile.INQUIRY;
+
+	// the longest request, passengers included, and the longest response
+	static final int MAX_FRAME = 1024;
+	static final int MAX_RESPONSE = 4 + 14;
+	// frame lengths after the length field: fixed for inquiry, without the passenger for buy and refund
+	static final int BUY_LENGTH = 1 + 6;
+	static final int REFUND_LENGTH = 1 + 18;
+	static final int INQUIRY_LENGTH = 1 + 6;
+
+	private TicketingProtocol() {
+	}
+
+	// the caller made sure out has 4 + MAX_FRAME bytes left
+	static void buy(ByteBuffer out, String passenger, int route, int departure, int arrival) {
+		final byte[] name = passenger.getBytes(StandardCharsets.UTF_8);
+		if (BUY_LENGTH + name.length > MAX_FRAME) {
+			throw new IllegalArgumentException("passenger name too long");
+		}
+		out.putInt(BUY_LENGTH + name.length).put((byte) BUY).putShort((short) route).putShort((short) departure)
+				.putShort((short) arrival).put(name);
+	}
+
+	// the caller made sure out has 4 + MAX_FRAME bytes left
+	static void refund(ByteBuffer out, Ticket ticket) {
+		final byte[] name = ticket.passenger.getBytes(StandardCharsets.UTF_8);
+		if (REFUND_LENGTH + name.length > MAX_FRAME) {
+			throw new IllegalArgumentException("passenger name too long");
+		}
+		out.putInt(REFUND_LENGTH + name.length).put((byte) REFUND).putLong(ticket.tid).putShort((short) ticket.route)
+				.putShort((short) ticket.coach).putShort((short) ticket.seat).putShort((short) ticket.departure)
+				.putShort((short) ticket.arrival).put(name);
+	}
+
+	static void inquiry(ByteBuffer out, int route, int departure, int arrival) {
+		out.putInt(INQUIRY_LENGTH).put((byte) INQUIRY).putShort((short) route).putShort((short) departure)
+				.putShort((short) arrival);
+	}
+
+	// the caller made sure out has MAX_RESPONSE bytes left
+	static void bought(ByteBuffer out, Ticket ticket) {
+		if (ticket == null) {
+			out.putInt(2).put((byte) BUY).put((byte) 0);
+		} else {
+			out.putInt(14).put((byte) BUY).put((byte) 1).putLong(ticket.tid).putShort((short) ticket.coach)
+					.putShort((short) ticket.seat);
+		}
+	}
+
+	static void refunded(ByteBuffer out, boolean refunded) {
+		out.putInt(2).put((byte) REFUND).put((byte) (refunded ? 1 : 0));
+	}
+
+	static void inquired(ByteBuffer out, int count) {
+		out.putInt(5).put((byte) INQUIRY).putInt(count);
+	}
+
+	// length of the complete frame at the position of in, or -1 if it has not fully arrived
+	static int frame(ByteBuffer in) {
+		if (in.remaining() < 4) {
+			return -1;
+		}
+		final int length = in.getInt(in.position());
+		if (length < 1 || length > MAX_FRAME) {
+			throw new IllegalArgumentException("bad frame length " + length);
+		}
+		return in.remaining() < 4 + length ? -1 : 4 + length;
+	}
+
+	// whether a request of the operation may have a frame of that length, the length field excluded
+	static boolean fits(int operation, int length) {
+		switch (operation) {
+			case BUY:
+				return length >= BUY_LENGTH;
+			case REFUND:
+				return length >= REFUND_LENGTH;
+			case INQUIRY:
+				return length == INQUIRY_LENGTH;
+			default:
+				return false;
+		}
+	}
+}
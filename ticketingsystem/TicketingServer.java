@@ -0,0 +1,378 @@
+package ticketingsystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a {@link TicketingSystem} over TCP in the {@link TicketingProtocol}.
+ * An acceptor thread hands connections round-robin to a few selector loops,
+ * each loop owns its connections and calls the ticketing system directly.
+ *
+ * A connection answers every complete request in what one read brought in
+ * and writes the answers with one write, so a client pipelining requests
+ * costs one pair of system calls per batch rather than per request. Requests
+ * are decoded in place from direct buffers pooled per loop; a buy still
+ * allocates the passenger and the ticket the ticketing system keeps. When a
+ * client does not read its answers, the connection stops reading requests
+ * until they drain.
+ *
+ * When every buy and refund waits for an fsync of the journal, a batch with
+ * one of them in it is answered on a committer thread instead, so a loop
+ * never sits in an fsync while its other connections wait. The connection
+ * reads nothing more until the batch is answered, and its answers go out
+ * from the loop once the group commit they joined has completed.
+ */
+public class TicketingServer implements Closeable {
+	static final int BUFFER = 64 * 1024;
+	// batches that can wait for the same group commit
+	static final int COMMITTERS = 16;
+
+	private final TicketingSystem ds;
+	private final ServerSocketChannel acceptor;
+	private final EventLoop[] loops;
+	private final Thread acceptThread;
+	// null unless buys and refunds wait for an fsync
+	private final ExecutorService committers;
+	private volatile boolean closed;
+
+	TicketingServer(TicketingSystem ds, InetSocketAddress address, int loopnum) throws IOException {
+		this.ds = ds;
+		this.committers = ds instanceof TicketingDS && ((TicketingDS) ds).commitsSynchronously()
+				? Executors.newFixedThreadPool(COMMITTERS, task -> {
+					Thread thread = new Thread(task, "ticketing-committer");
+					thread.setDaemon(true);
+					return thread;
+				})
+				: null;
+		this.acceptor = ServerSocketChannel.open();
+		acceptor.bind(address, 1024);
+		this.loops = new EventLoop[loopnum];
+		for (int i = 0; i < loopnum; ++i) {
+			loops[i] = new EventLoop(i);
+			loops[i].start();
+		}
+		this.acceptThread = new Thread(this::accept, "ticketing-acceptor");
+		acceptThread.start();
+	}
+
+	int port() throws IOException {
+		return ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+	}
+
+	private void accept() {
+		for (int next = 0; !closed; next = (next + 1) % loops.length) {
+			try {
+				final SocketChannel channel = acceptor.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				loops[next].add(channel);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (!closed) {
+					System.out.println("accept failed: " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting, closes every connection and waits for the loops to
+	 * exit; the ticketing system is left open.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		acceptor.close();
+		if (committers != null) {
+			// batches in flight still hand their answers to running loops
+			committers.shutdown();
+			try {
+				committers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (EventLoop loop : loops) {
+			loop.shutdown();
+		}
+		try {
+			acceptThread.join();
+			for (EventLoop loop : loops) {
+				loop.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private final class EventLoop extends Thread {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+		// connections whose batch a committer has answered
+		private final ConcurrentLinkedQueue<Connection> committed = new ConcurrentLinkedQueue<>();
+		// buffers of closed connections, only touched by this loop
+		private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+		private volatile boolean running = true;
+
+		EventLoop(int id) throws IOException {
+			super("ticketing-loop-" + id);
+			this.selector = Selector.open();
+		}
+
+		void add(SocketChannel channel) {
+			accepted.add(channel);
+			selector.wakeup();
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select(this::ready);
+					for (SocketChannel channel; (channel = accepted.poll()) != null;) {
+						final Connection connection = new Connection(channel, acquire(), acquire());
+						connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+					}
+					for (Connection connection; (connection = committed.poll()) != null;) {
+						connection.committed();
+					}
+				}
+			} catch (IOException e) {
+				System.out.println(getName() + " failed: " + e);
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					((Connection) key.attachment()).close();
+				}
+				for (SocketChannel channel; (channel = accepted.poll()) != null;) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						// closing anyway
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// closing anyway
+				}
+			}
+		}
+
+		private void ready(SelectionKey key) {
+			final Connection connection = (Connection) key.attachment();
+			try {
+				if (key.isReadable() && connection.channel.read(connection.in) < 0) {
+					connection.close();
+				} else {
+					connection.serve();
+				}
+			} catch (IOException | RuntimeException e) {
+				// a reset peer, a malformed frame: only this connection goes
+				connection.close();
+			}
+		}
+
+		private ByteBuffer acquire() {
+			final ByteBuffer buffer = pool.poll();
+			return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER);
+		}
+
+		private final class Connection {
+			final SocketChannel channel;
+			SelectionKey key;
+			// requests read but not answered yet, in write mode
+			ByteBuffer in;
+			// answers not written yet, in write mode
+			ByteBuffer out;
+			// refunds only need the fields of a ticket, this one is reused
+			private final Ticket refund = new Ticket();
+			private final byte[] passenger = new byte[TicketingProtocol.MAX_FRAME];
+			// what ended the last batch answered on a committer, if anything did
+			private Exception failure;
+
+			Connection(SocketChannel channel, ByteBuffer in, ByteBuffer out) {
+				this.channel = channel;
+				this.in = in;
+				this.out = out;
+			}
+
+			void serve() throws IOException {
+				if (committers != null && writes()) {
+					key.interestOps(0);
+					committers.execute(this::answerOnCommitter);
+					return;
+				}
+				answerAll();
+				resume();
+			}
+
+			// answers the complete requests in in for as long as out has room
+			private void answerAll() throws IOException {
+				in.flip();
+				try {
+					for (int length; (length = TicketingProtocol.frame(in)) > 0;) {
+						if (out.remaining() < TicketingProtocol.MAX_RESPONSE && !flush()) {
+							break;
+						}
+						answer(in.position(), length);
+					}
+				} finally {
+					in.compact();
+				}
+			}
+
+			// read no more requests while the client is not taking answers
+			private void resume() throws IOException {
+				key.interestOps(flush() ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+			}
+
+			// whether a complete request in in buys or refunds; a bad frame is left to answerAll
+			private boolean writes() {
+				for (int start = 0, length; start + 5 <= in.position(); start += 4 + length) {
+					length = in.getInt(start);
+					if (length < 1 || length > TicketingProtocol.MAX_FRAME || start + 4 + length > in.position()) {
+						return false;
+					}
+					final int operation = in.get(start + 4);
+					if (operation == TicketingProtocol.BUY || operation == TicketingProtocol.REFUND) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			// on a committer, every buy and refund of the batch returns after its fsync
+			private void answerOnCommitter() {
+				try {
+					answerAll();
+				} catch (IOException | RuntimeException e) {
+					failure = e;
+				}
+				committed.add(this);
+				selector.wakeup();
+			}
+
+			// back on the loop, requests left behind a full out are served now
+			void committed() {
+				if (failure != null) {
+					close();
+					return;
+				}
+				try {
+					serve();
+				} catch (IOException | RuntimeException e) {
+					close();
+				}
+			}
+
+			// true if out is empty afterwards
+			private boolean flush() throws IOException {
+				out.flip();
+				if (out.hasRemaining()) {
+					channel.write(out);
+				}
+				out.compact();
+				return out.position() == 0;
+			}
+
+			private void answer(int start, int length) {
+				in.position(start + 5);
+				final int operation = in.get(start + 4);
+				if (!TicketingProtocol.fits(operation, length - 4)) {
+					// decoding would read into the next frame, or past the data read
+					throw new IllegalArgumentException("bad frame of operation " + operation + ", length " + length);
+				}
+				switch (operation) {
+					case TicketingProtocol.BUY: {
+						final int route = in.getShort();
+						final int departure = in.getShort();
+						final int arrival = in.getShort();
+						final int size = start + length - in.position();
+						in.get(passenger, 0, size);
+						TicketingProtocol.bought(out, ds.buyTicket(
+								new String(passenger, 0, size, StandardCharsets.UTF_8), route, departure, arrival));
+						break;
+					}
+					case TicketingProtocol.REFUND: {
+						refund.tid = in.getLong();
+						refund.route = in.getShort();
+						refund.coach = in.getShort();
+						refund.seat = in.getShort();
+						refund.departure = in.getShort();
+						refund.arrival = in.getShort();
+						final int size = start + length - in.position();
+						in.get(passenger, 0, size);
+						refund.passenger = new String(passenger, 0, size, StandardCharsets.UTF_8);
+						TicketingProtocol.refunded(out, ds.refundTicket(refund));
+						break;
+					}
+					case TicketingProtocol.INQUIRY:
+						TicketingProtocol.inquired(out, ds.inquiry(in.getShort(), in.getShort(), in.getShort()));
+						break;
+					default:
+						throw new AssertionError(operation);
+				}
+				in.position(start + length);
+			}
+
+			void close() {
+				if (key != null) {
+					key.cancel();
+				}
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// closing anyway
+				}
+				if (in != null) {
+					pool.push(in.clear());
+					pool.push(out.clear());
+					in = out = null;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("args: <port> [<loops>]");
+			return;
+		}
+		final int port = Integer.parseInt(args[0]);
+		final int loopnum = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		ConfigReader.readConfig("TrainConfig");
+		final TicketingDS ds = new TicketingDS(ConfigReader.routenum, ConfigReader.coachnum, ConfigReader.seatnum,
+				ConfigReader.stationnum, loopnum, ConfigReader.allocator);
+		final TicketingServer server = new TicketingServer(ds, new InetSocketAddress(port), loopnum);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				server.close();
+			} catch (IOException e) {
+				System.out.println(e);
+			}
+			ds.close();
+		}));
+		System.out.println("listening on port " + server.port() + ", loops: " + loopnum + ", allocator: "
+				+ ConfigReader.allocator);
+	}
+}
@@ -0,0 +1,260 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TicketingServerTest {
+	final int ROUTENUM = 3;
+	final int COACHNUM = 3;
+	final int SEATNUM = 5;
+	final int STATIONNUM = 8;
+
+	private TicketingDS ds;
+	private TicketingServer server;
+	private InetSocketAddress address;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		ds = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 2, SeatAllocator.CELL, (Journal) null);
+		server = new TicketingServer(ds, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+		address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+	}
+
+	private static ByteBuffer readFrame(SocketChannel channel) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		while (length.hasRemaining()) {
+			if (channel.read(length) < 0) {
+				return null;
+			}
+		}
+		ByteBuffer frame = ByteBuffer.allocate(length.getInt(0));
+		while (frame.hasRemaining()) {
+			assertTrue(channel.read(frame) >= 0);
+		}
+		return frame.flip();
+	}
+
+	@Test
+	void answersPipelinedRequestsInOrder() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			ByteBuffer out = ByteBuffer.allocate(TicketingServer.BUFFER);
+			final int seats = COACHNUM * SEATNUM;
+			for (int i = 0; i <= seats; ++i) {
+				TicketingProtocol.buy(out, "p" + i, 1, 2, 5);
+			}
+			TicketingProtocol.inquiry(out, 1, 1, 3);
+			TicketingProtocol.inquiry(out, 2, 1, 3);
+			channel.write(out.flip());
+
+			Ticket[] sold = new Ticket[seats];
+			for (int i = 0; i < seats; ++i) {
+				ByteBuffer frame = readFrame(channel);
+				assertEquals(TicketingProtocol.BUY, frame.get());
+				assertEquals(1, frame.get());
+				sold[i] = new Ticket();
+				sold[i].tid = frame.getLong();
+				sold[i].passenger = "p" + i;
+				sold[i].coach = frame.getShort();
+				sold[i].seat = frame.getShort();
+				sold[i].route = 1;
+				sold[i].departure = 2;
+				sold[i].arrival = 5;
+			}
+			ByteBuffer frame = readFrame(channel);
+			assertEquals(TicketingProtocol.BUY, frame.get());
+			assertEquals(0, frame.get());
+			frame = readFrame(channel);
+			assertEquals(TicketingProtocol.INQUIRY, frame.get());
+			assertEquals(0, frame.getInt());
+			frame = readFrame(channel);
+			assertEquals(TicketingProtocol.INQUIRY, frame.get());
+			assertEquals(seats, frame.getInt());
+
+			out.clear();
+			// under another passenger's name first
+			sold[0].passenger = "p" + seats;
+			TicketingProtocol.refund(out, sold[0]);
+			sold[0].passenger = "p0";
+			for (Ticket ticket : sold) {
+				TicketingProtocol.refund(out, ticket);
+			}
+			TicketingProtocol.refund(out, sold[0]);
+			channel.write(out.flip());
+			for (int i = -1; i <= seats; ++i) {
+				frame = readFrame(channel);
+				assertEquals(TicketingProtocol.REFUND, frame.get());
+				assertEquals(0 <= i && i < seats ? 1 : 0, frame.get());
+			}
+			assertEquals(seats, ds.inquiry(1, 1, 8));
+		}
+	}
+
+	@Test
+	void reassemblesSplitFrames() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			ByteBuffer out = ByteBuffer.allocate(64);
+			TicketingProtocol.buy(out, "passenger", 2, 1, 8);
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out.slice(out.position(), 1));
+				out.position(out.position() + 1);
+			}
+			ByteBuffer frame = readFrame(channel);
+			assertEquals(TicketingProtocol.BUY, frame.get());
+			assertEquals(1, frame.get());
+		}
+	}
+
+	@Test
+	void closesOnMalformedFrame() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			channel.write(ByteBuffer.allocate(8).putInt(TicketingProtocol.MAX_FRAME + 1).flip());
+			assertNull(readFrame(channel));
+		}
+	}
+
+	@Test
+	void closesOnFrameTooShortForItsOperation() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			// a refund cut after the tid, followed by an inquiry its decoding would run into
+			ByteBuffer out = ByteBuffer.allocate(64);
+			out.putInt(1 + 8).put((byte) TicketingProtocol.REFUND).putLong(1);
+			TicketingProtocol.inquiry(out, 1, 1, 2);
+			channel.write(out.flip());
+			assertNull(readFrame(channel));
+		}
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			ByteBuffer out = ByteBuffer.allocate(64);
+			out.putInt(1 + 2).put((byte) TicketingProtocol.BUY).putShort((short) 1);
+			channel.write(out.flip());
+			assertNull(readFrame(channel));
+		}
+		// an inquiry one byte too long
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			ByteBuffer out = ByteBuffer.allocate(64);
+			out.putInt(TicketingProtocol.INQUIRY_LENGTH + 1).put((byte) TicketingProtocol.INQUIRY)
+					.putShort((short) 1).putShort((short) 1).putShort((short) 2).put((byte) 0);
+			channel.write(out.flip());
+			assertNull(readFrame(channel));
+		}
+	}
+
+	@Test
+	void holdsBackWhileAnswersAreNotRead() throws Exception {
+		// far more answers than socket and server buffers hold, read only once all are sent
+		final int requests = 1_000_000;
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			Thread writer = new Thread(() -> {
+				ByteBuffer out = ByteBuffer.allocate(TicketingServer.BUFFER);
+				try {
+					for (int i = 0; i < requests; ++i) {
+						if (out.remaining() < 4 + TicketingProtocol.MAX_FRAME) {
+							channel.write(out.flip());
+							out.compact();
+						}
+						TicketingProtocol.inquiry(out, 3, 1, 8);
+					}
+					out.flip();
+					while (out.hasRemaining()) {
+						channel.write(out);
+					}
+				} catch (IOException e) {
+					fail(e);
+				}
+			});
+			writer.start();
+			writer.join(1000);
+			for (int i = 0; i < requests; ++i) {
+				ByteBuffer frame = readFrame(channel);
+				assertEquals(TicketingProtocol.INQUIRY, frame.get());
+				assertEquals(COACHNUM * SEATNUM, frame.getInt());
+			}
+			writer.join();
+		}
+	}
+
+	@Test
+	void answersWritesAfterTheirFsync() throws IOException {
+		final Path directory = Files.createTempDirectory("server-journal");
+		final int seats = COACHNUM * SEATNUM;
+		try {
+			TicketingDS journaled = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 2, SeatAllocator.CELL,
+					directory.toString(), Journal.SYNC);
+			try (TicketingServer syncServer = new TicketingServer(journaled,
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+					SocketChannel channel = SocketChannel.open(
+							new InetSocketAddress(InetAddress.getLoopbackAddress(), syncServer.port()))) {
+				ByteBuffer out = ByteBuffer.allocate(TicketingServer.BUFFER);
+				for (int i = 0; i <= seats; ++i) {
+					TicketingProtocol.buy(out, "p" + i, 1, 1, STATIONNUM);
+				}
+				TicketingProtocol.inquiry(out, 1, 1, 2);
+				channel.write(out.flip());
+				for (int i = 0; i <= seats; ++i) {
+					ByteBuffer frame = readFrame(channel);
+					assertEquals(TicketingProtocol.BUY, frame.get());
+					assertEquals(i < seats ? 1 : 0, frame.get());
+				}
+				ByteBuffer frame = readFrame(channel);
+				assertEquals(TicketingProtocol.INQUIRY, frame.get());
+				assertEquals(0, frame.getInt());
+				// the batch was answered off the loop
+				assertTrue(Thread.getAllStackTraces().keySet().stream()
+						.anyMatch(t -> t.getName().equals("ticketing-committer")));
+			} finally {
+				journaled.close();
+			}
+			TicketingDS reopened = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, 2, SeatAllocator.CELL,
+					directory.toString(), Journal.SYNC);
+			assertEquals(0, reopened.inquiry(1, 1, STATIONNUM));
+			reopened.close();
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+			}
+		}
+	}
+
+	@Test
+	void runsMixedLoad() throws Exception {
+		WorkloadProfile profile = WorkloadProfile.uniform(ROUTENUM, STATIONNUM, 10, 20, 30);
+		Thread[] threads = new Thread[4];
+		boolean[] passed = new boolean[threads.length];
+		for (int t = 0; t < threads.length; ++t) {
+			final int threadid = t;
+			threads[t] = new Thread(() -> {
+				try (TicketingClient.Pipeline pipeline = new TicketingClient.Pipeline(address, 16)) {
+					passed[threadid] = pipeline.run(new Random(threadid), profile, 20_000, new Metrics());
+				} catch (IOException e) {
+					fail(e);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (boolean p : passed) {
+			assertTrue(p);
+		}
+	}
+}
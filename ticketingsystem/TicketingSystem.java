@@ -14,6 +14,7 @@ class Ticket{
 public interface TicketingSystem {
 	Ticket buyTicket(String passenger, int route, int departure, int arrival);
 	int inquiry(int route, int departure, int arrival);
+	int[][] inquiryAll(int route);
 	boolean refundTicket(Ticket ticket);
 	boolean buyTicketReplay(Ticket ticket);
 	boolean refundTicketReplay(Ticket ticket);
@@ -4,11 +4,21 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.StampedLock;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.jupiter.api.Test;
 
 import ticketingsystem.Replay.HistoryLine;
@@ -80,6 +90,228 @@ class TicketingSystemTest {
 		assertEquals(COACHNUM * SEATNUM, remain);
 	}
 
+	@Test
+	void refundChecksPassenger() {
+		final TicketingDS ds = new TicketingDS(ROUTENUM, COACHNUM, SEATNUM, STATIONNUM, THREADNUM);
+		Ticket t = ds.buyTicket("bob", 4, 1, 6);
+		Ticket forged = new Ticket();
+		forged.tid = t.tid;
+		forged.passenger = "mallory";
+		forged.route = t.route;
+		forged.coach = t.coach;
+		forged.seat = t.seat;
+		forged.departure = t.departure;
+		forged.arrival = t.arrival;
+		assertFalse(ds.refundTicket(forged));
+		assertEquals(COACHNUM * SEATNUM - 1, ds.inquiry(4, 1, 6));
+		assertTrue(ds.refundTicket(t));
+		assertEquals(COACHNUM * SEATNUM, ds.inquiry(4, 1, 6));
+	}
+
+	@Test
+	void buyTicketsTest() {
+		Config cfg = new Config(3, 3, 5, 5);
+		final TicketingDS ds = new TicketingDS(cfg.routenum, cfg.coachnum, cfg.seatnum, cfg.stationnum, THREADNUM);
+		ArrayList<PurchaseRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 20; ++i) {
+			requests.add(new PurchaseRequest("p" + i, 2, 1, 3));
+		}
+		requests.add(3, new PurchaseRequest("bad", 4, 1, 3));
+		requests.add(new PurchaseRequest("q", 1, 2, 5));
+		requests.add(new PurchaseRequest("r", 2, 3, 5));
+		Ticket[] tickets = ds.buyTickets(requests);
+		assertEquals(requests.size(), tickets.length);
+		assertNull(tickets[3]);
+		int sold = 0;
+		for (int i = 0; i < 21; ++i) {
+			if (i != 3 && tickets[i] != null) {
+				assertEquals(requests.get(i).passenger, tickets[i].passenger);
+				assertEquals(1, tickets[i].departure);
+				assertEquals(3, tickets[i].arrival);
+				++sold;
+			}
+		}
+		// a group is served in request order
+		assertEquals(cfg.coachnum * cfg.seatnum, sold);
+		assertNotNull(tickets[15]);
+		assertNull(tickets[16]);
+		assertNotNull(tickets[21]);
+		assertNotNull(tickets[22]);
+		assertEquals(cfg.coachnum * cfg.seatnum - 1, ds.inquiry(2, 3, 5));
+		assertEquals(cfg.coachnum * cfg.seatnum - 1, ds.inquiry(1, 1, 3));
+		assertEquals(0, ds.inquiry(2, 1, 2));
+		assertTrue(ds.refundTicket(tickets[0]));
+		assertTrue(ds.refundTicket(tickets[21]));
+		assertEquals(1, ds.inquiry(2, 1, 2));
+	}
+
+	@Test
+	void buyGroupTest() {
+		Config cfg = new Config(3, 3, 5, 5);
+		final TicketingDS ds = new TicketingDS(cfg.routenum, cfg.coachnum, cfg.seatnum, cfg.stationnum, THREADNUM);
+		String[] family = { "a", "b", "c", "d" };
+		assertNull(ds.buyGroup(family, 4, 1, 3, true));
+		assertNull(ds.buyGroup(family, 1, 3, 3, true));
+		assertNull(ds.buyGroup(new String[0], 1, 1, 3, true));
+		assertNull(ds.buyGroup(new String[] { "a", "b", "c", "d", "e", "f" }, 1, 1, 3, true));
+		Ticket[] first = ds.buyGroup(family, 1, 1, 3, true);
+		assertNotNull(first);
+		for (int i = 0; i < family.length; ++i) {
+			assertEquals(family[i], first[i].passenger);
+			assertEquals(first[0].coach, first[i].coach);
+		}
+		assertNotNull(ds.buyGroup(family, 1, 1, 3, true));
+		assertNotNull(ds.buyGroup(family, 1, 1, 3, true));
+		// every coach has a single seat left
+		assertNull(ds.buyGroup(new String[] { "e", "f" }, 1, 2, 3, true));
+		assertEquals(cfg.coachnum, ds.inquiry(1, 2, 3));
+		Ticket[] spread = ds.buyGroup(new String[] { "e", "f" }, 1, 2, 3, false);
+		assertNotNull(spread);
+		assertNotEquals(spread[0].coach, spread[1].coach);
+		for (Ticket t : first) {
+			assertTrue(ds.refundTicket(t));
+		}
+		assertNotNull(ds.buyGroup(family, 1, 1, 2, true));
+	}
+
+	@Test
+	void contentionTest() throws Exception {
+		final TicketingDS ds = new TicketingDS(4, 2, 4, 70, THREADNUM);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; ++i) {
+			final Random rand = new Random(i);
+			threads[i] = new Thread(() -> {
+				for (int op = 0; op < 2000; ++op) {
+					int departure = rand.nextInt(69) + 1;
+					Ticket t = ds.buyTicket("p", rand.nextInt(4) + 1, departure, departure + 1);
+					ds.inquiry(1, 1, 70);
+					if (t != null) {
+						assertTrue(ds.refundTicket(t));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long[][] counts = ds.contentionSnapshot();
+		assertEquals(4, counts.length);
+		for (long[] route : counts) {
+			assertEquals(ContentionCounters.EVENTS.length, route.length);
+			for (long count : route) {
+				assertTrue(ContentionCounters.ENABLED ? count >= 0 : count == 0);
+			}
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Set<ObjectName> names = server.queryNames(new ObjectName("ticketingsystem:type=Contention,*"), null);
+		assertEquals(ContentionCounters.ENABLED, !names.isEmpty());
+	}
+
+	// run with counting on: a failing bitmap buy overlapped by a refund has to count a retry
+	static final class ContentionProbe {
+		public static void main(String[] args) throws Exception {
+			final TicketingDS ds = new TicketingDS(1, 10, 100, 2, 2, SeatAllocator.BITMAP);
+			final ArrayList<Ticket> sold = new ArrayList<>();
+			for (Ticket t; (t = ds.buyTicket("s", 1, 1, 2)) != null;) {
+				sold.add(t);
+			}
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName pattern = new ObjectName("ticketingsystem:type=Contention,*");
+			if (server.queryNames(pattern, null).size() != 1) {
+				System.out.println("contention MBean not registered");
+				System.exit(1);
+			}
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			final AtomicBoolean done = new AtomicBoolean();
+			Thread refunder = new Thread(() -> {
+				Ticket ticket = sold.get(0);
+				while (!done.get()) {
+					ds.refundTicket(ticket);
+					Ticket again;
+					while ((again = ds.buyTicket("r", 1, 1, 2)) == null && !done.get()) {
+						Thread.onSpinWait();
+					}
+					ticket = again;
+				}
+			});
+			refunder.start();
+			// fails on the sold-out route unless it gets the refunded seat
+			while (ds.contentionSnapshot()[0][ContentionCounters.BUY_RETRY] == 0 && System.nanoTime() < deadline) {
+				Ticket t = ds.buyTicket("b", 1, 1, 2);
+				if (t != null) {
+					ds.refundTicket(t);
+				}
+			}
+			done.set(true);
+			refunder.join();
+			long retries = ds.contentionSnapshot()[0][ContentionCounters.BUY_RETRY];
+			ds.close();
+			if (retries == 0) {
+				System.out.println("no buy retry counted");
+				System.exit(1);
+			}
+			if (!server.queryNames(pattern, null).isEmpty()) {
+				System.out.println("contention MBean still registered after close");
+				System.exit(1);
+			}
+			System.out.println("buy retries: " + retries);
+		}
+	}
+
+	@Test
+	void contentionCountedInForkedJvm() throws Exception {
+		// the flag is a static final, so counting needs a JVM of its own
+		String classpath = Path.of(ContentionProbe.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+				+ File.pathSeparator
+				+ Path.of(TicketingDS.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		Process probe = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+				"-D" + ContentionCounters.PROPERTY + "=true", "-cp", classpath, ContentionProbe.class.getName())
+				.redirectErrorStream(true).start();
+		String output = new String(probe.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		assertTrue(probe.waitFor(60, TimeUnit.SECONDS));
+		assertEquals(0, probe.exitValue(), output);
+		assertTrue(output.startsWith("buy retries: "), output);
+	}
+
+	@Test
+	void lazyRouteTest() throws InterruptedException {
+		Config cfg = new Config(1000, 3, 5, 5);
+		final TicketingDS ds = new TicketingDS(cfg.routenum, cfg.coachnum, cfg.seatnum, cfg.stationnum, THREADNUM);
+		assertEquals(cfg.coachnum * cfg.seatnum, ds.inquiry(700, 2, 4));
+		Ticket t = ds.buyTicket("a", 700, 2, 4);
+		assertNotNull(t);
+		t.route = 701;
+		assertFalse(ds.refundTicket(t));
+		t.route = 700;
+		assertTrue(ds.refundTicket(t));
+
+		// threads racing on the first buy of a route must end up on one route instance
+		final Ticket[] bought = new Ticket[cfg.coachnum * cfg.seatnum + 1];
+		Thread[] threads = new Thread[bought.length];
+		for (int i = 0; i < threads.length; ++i) {
+			final int index = i;
+			threads[i] = new Thread(() -> bought[index] = ds.buyTicket("p" + index, 900, 1, cfg.stationnum));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		int sold = 0;
+		boolean[] seats = new boolean[cfg.coachnum * cfg.seatnum];
+		for (Ticket ticket : bought) {
+			if (ticket != null) {
+				assertFalse(seats[(ticket.coach - 1) * cfg.seatnum + ticket.seat - 1]);
+				seats[(ticket.coach - 1) * cfg.seatnum + ticket.seat - 1] = true;
+				++sold;
+			}
+		}
+		assertEquals(cfg.coachnum * cfg.seatnum, sold);
+		assertEquals(0, ds.inquiry(900, 3, 4));
+	}
+
 	@Test
 	void inquiryTest1() {
 		Config cfg = new Config(3, 3, 5, 5);
@@ -103,6 +335,63 @@ class TicketingSystemTest {
 		assertEquals(cfg.coachnum * cfg.seatnum, remain);
 	}
 
+	@Test
+	void inquiryAllTest() {
+		Config cfg = new Config(3, 3, 5, 5);
+		final TicketingDS ds = new TicketingDS(cfg.routenum, cfg.coachnum, cfg.seatnum, cfg.stationnum, THREADNUM);
+		assertNull(ds.inquiryAll(0));
+		assertNull(ds.inquiryAll(4));
+		ds.buyTicket("a", 3, 2, 4);
+		ds.buyTicket("b", 3, 1, 2);
+		for (int route = 1; route <= cfg.routenum; ++route) {
+			int[][] counts = ds.inquiryAll(route);
+			assertEquals(cfg.stationnum + 1, counts.length);
+			for (int departure = 0; departure <= cfg.stationnum; ++departure) {
+				for (int arrival = 0; arrival <= cfg.stationnum; ++arrival) {
+					int expected = 1 <= departure && departure < arrival ? ds.inquiry(route, departure, arrival) : 0;
+					assertEquals(expected, counts[departure][arrival]);
+				}
+			}
+		}
+		assertEquals(cfg.coachnum * cfg.seatnum - 2, ds.inquiryAll(3)[1][5]);
+	}
+
+	@Test
+	void inquiryCounterTest() {
+		Config cfg = new Config(2, 3, 5, 8);
+		final TicketingDS ds = new TicketingDS(cfg.routenum, cfg.coachnum, cfg.seatnum, cfg.stationnum, THREADNUM);
+		final Random rand = new Random(42);
+		final ArrayList<Ticket> tickets = new ArrayList<>();
+		for (int op = 0; op < 5000; ++op) {
+			if (rand.nextInt(3) == 0 && !tickets.isEmpty()) {
+				assertTrue(ds.refundTicket(tickets.remove(rand.nextInt(tickets.size()))));
+			} else {
+				int departure = rand.nextInt(cfg.stationnum - 1) + 1;
+				int arrival = departure + rand.nextInt(cfg.stationnum - departure) + 1;
+				Ticket t = ds.buyTicket("p" + op, 1, departure, arrival);
+				if (t != null) {
+					tickets.add(t);
+				}
+			}
+			for (int departure = 1; departure < cfg.stationnum; ++departure) {
+				for (int arrival = departure + 1; arrival <= cfg.stationnum; ++arrival) {
+					int sum = 0;
+					for (int coach = 1; coach <= cfg.coachnum; ++coach) {
+						for (int seat = 1; seat <= cfg.seatnum; ++seat) {
+							boolean free = true;
+							for (Ticket t : tickets) {
+								free &= t.coach != coach || t.seat != seat
+										|| t.arrival <= departure || arrival <= t.departure;
+							}
+							sum += free ? 1 : 0;
+						}
+					}
+					assertEquals(sum, ds.inquiry(1, departure, arrival));
+				}
+			}
+		}
+	}
+
 	@Test
 	void historyTest() {
 		for (int h = 3; h <= 3; ++h) {
@@ -0,0 +1,42 @@
+package ticketingsystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ticket ids leased to threads in blocks from one global counter. A thread
+ * draws ids from its own block without synchronization and only touches the
+ * counter when the block runs out, so ids never collide and grow
+ * monotonically per thread whatever the thread ids are. Blocks start small
+ * and double up to MAX_LEASE, so short-lived threads such as virtual threads
+ * waste few ids while long-lived ones rarely hit the counter. Ids start at 1.
+ */
+final class TidAllocator {
+	static final int MIN_LEASE = 16;
+	static final int MAX_LEASE = 4096;
+
+	// next, end and size of the block of the current thread
+	private final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[] { 0, 0, MIN_LEASE / 2 });
+	private final AtomicLong nextBlock = new AtomicLong(1);
+
+	long next() {
+		final long[] block = lease.get();
+		if (block[0] == block[1]) {
+			long size = Math.min(block[2] * 2, MAX_LEASE);
+			block[0] = nextBlock.getAndAdd(size);
+			block[1] = block[0] + size;
+			block[2] = size;
+		}
+		return block[0]++;
+	}
+
+	// every id handed out so far is below it
+	long peek() {
+		return nextBlock.get();
+	}
+
+	// ids up to tid are taken, e.g. by tickets restored from a journal; blocks
+	// already leased are not affected
+	void skipPast(long tid) {
+		nextBlock.accumulateAndGet(tid + 1, Math::max);
+	}
+}
@@ -0,0 +1,58 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class TidAllocatorTest {
+
+	@Test
+	void uniqueAndMonotonicPerThread() throws InterruptedException {
+		final TidAllocator tids = new TidAllocator();
+		final int threadnum = 600;
+		final int testnum = 1000;
+		final long[][] drawn = new long[threadnum][testnum];
+		Thread[] threads = new Thread[threadnum];
+		for (int i = 0; i < threadnum; ++i) {
+			final long[] mine = drawn[i];
+			threads[i] = new Thread(() -> {
+				for (int op = 0; op < testnum; ++op) {
+					mine[op] = tids.next();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		long[] all = new long[threadnum * testnum];
+		for (int i = 0; i < threadnum; ++i) {
+			for (int op = 1; op < testnum; ++op) {
+				assertTrue(drawn[i][op - 1] < drawn[i][op]);
+			}
+			System.arraycopy(drawn[i], 0, all, i * testnum, testnum);
+		}
+		Arrays.sort(all);
+		assertTrue(all[0] >= 1);
+		for (int i = 1; i < all.length; ++i) {
+			assertNotEquals(all[i - 1], all[i]);
+		}
+	}
+
+	@Test
+	void threadIdsBeyondOldLimit() throws InterruptedException {
+		final TicketingDS ds = new TicketingDS(1, 2, 5, 5, 1);
+		final Ticket[] bought = new Ticket[1];
+		// thread ids used to index a table of 512 counters
+		Thread t;
+		do {
+			t = new Thread(() -> bought[0] = ds.buyTicket("a", 1, 1, 5));
+		} while (t.getId() < 1024);
+		t.start();
+		t.join();
+		assertNotNull(bought[0]);
+		assertNotEquals(bought[0].tid, ds.buyTicket("b", 1, 1, 5).tid);
+	}
+}
@@ -0,0 +1,73 @@
+package ticketingsystem;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+public class TidBenchmark {
+
+	// virtual threads where the JDK has them (21+), otherwise one platform thread per task
+	static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	static double measure(String name, LongSupplier tids, int threadnum, int testnum) throws InterruptedException {
+		final CountDownLatch ready = new CountDownLatch(threadnum);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threadnum);
+		final long[] blackhole = new long[threadnum];
+		final ExecutorService executor = newThreadPerTaskExecutor();
+		for (int i = 0; i < threadnum; ++i) {
+			final int threadIndex = i;
+			executor.execute(() -> {
+				ready.countDown();
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				long last = 0;
+				for (int op = 0; op < testnum; ++op) {
+					long tid = tids.getAsLong();
+					assert tid > last;
+					last = tid;
+				}
+				blackhole[threadIndex] = last;
+				done.countDown();
+			});
+		}
+		ready.await();
+		final long startTime = System.nanoTime();
+		start.countDown();
+		done.await();
+		final long elapsed = System.nanoTime() - startTime;
+		executor.shutdown();
+		double qps = (double) threadnum * testnum / (elapsed / 1000_000.0);
+		System.out.println(name + ", threads: " + threadnum + ", tids: " + (long) threadnum * testnum
+				+ ", QPS: " + qps + " tids/ms");
+		return qps;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 2) {
+			System.out.println("args: <threadnum> <testnum>");
+			return;
+		}
+		final int threadnum = Integer.parseInt(args[0]);
+		final int testnum = Integer.parseInt(args[1]);
+		ExecutorService probe = newThreadPerTaskExecutor();
+		System.out.println("executor: " + probe.getClass().getSimpleName());
+		probe.shutdown();
+		for (int round = 0; round < 2; ++round) {
+			final AtomicLong counter = new AtomicLong(1);
+			measure("global AtomicLong", counter::getAndIncrement, threadnum, testnum);
+			measure("TidAllocator", new TidAllocator()::next, threadnum, testnum);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package ticketingsystem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Purchases of one route waiting for a seat, a FIFO queue per range. When
+ * a seat of a range is freed, {@link #fulfill} takes seats for the oldest
+ * waiters whose ranges overlap it, until the allocator has none left for
+ * them; the waiters of one range all need the same seats, so a range whose
+ * oldest waiter finds none is not tried further.
+ */
+final class Waitlist {
+	static final class Waiter {
+		final String passenger;
+		final int departure;
+		final int arrival;
+		final CompletableFuture<Ticket> future = new CompletableFuture<>();
+		// arrival order on the route
+		long order;
+		// the seat taken for it by fulfill
+		int seatIndex = -1;
+		// in its range's queue, under the waitlist's lock
+		boolean queued;
+
+		Waiter(String passenger, int departure, int arrival) {
+			this.passenger = passenger;
+			this.departure = departure;
+			this.arrival = arrival;
+		}
+	}
+
+	private final int stationnum;
+	// [departure * (stationnum + 1) + arrival], null until someone waits for the range
+	private final ArrayDeque<Waiter>[] ranges;
+	private long next;
+	// waiters queued; a withdrawn one leaves as soon as its future completes
+	private volatile int waiting;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Waitlist(int stationnum) {
+		this.stationnum = stationnum;
+		this.ranges = new ArrayDeque[(stationnum + 1) * (stationnum + 1)];
+	}
+
+	private int rangeIndex(int departure, int arrival) {
+		return departure * (stationnum + 1) + arrival;
+	}
+
+	// lets a thread that just freed a seat skip the lock when nobody waits
+	boolean isEmpty() {
+		return waiting == 0;
+	}
+
+	synchronized void add(Waiter waiter) {
+		final int range = rangeIndex(waiter.departure, waiter.arrival);
+		if (ranges[range] == null) {
+			ranges[range] = new ArrayDeque<>();
+		}
+		waiter.order = next++;
+		ranges[range].addLast(waiter);
+		waiter.queued = true;
+		++waiting;
+		// cancelled or timed out by the caller, so a free does not lock and scan for it
+		waiter.future.whenComplete((ticket, failure) -> withdraw(waiter));
+	}
+
+	private synchronized void withdraw(Waiter waiter) {
+		if (waiter.queued) {
+			ranges[rangeIndex(waiter.departure, waiter.arrival)].remove(waiter);
+			waiter.queued = false;
+			--waiting;
+		}
+	}
+
+	/**
+	 * Takes seats for waiters after a seat was freed on [departure,
+	 * arrival), oldest first.
+	 *
+	 * @return the waiters given a seat, their seatIndex set
+	 */
+	synchronized List<Waiter> fulfill(SeatAllocator seats, int departure, int arrival) {
+		List<Waiter> served = Collections.emptyList();
+		boolean[] exhausted = null;
+		for (;;) {
+			ArrayDeque<Waiter> oldest = null;
+			for (int d = 1; d < arrival; ++d) {
+				for (int a = Math.max(d, departure) + 1; a <= stationnum; ++a) {
+					final int range = rangeIndex(d, a);
+					final ArrayDeque<Waiter> queue = ranges[range];
+					if (queue == null || exhausted != null && exhausted[range]) {
+						continue;
+					}
+					// withdrawn, its withdraw has not got the lock yet
+					while (!queue.isEmpty() && queue.peekFirst().future.isDone()) {
+						queue.pollFirst().queued = false;
+						--waiting;
+					}
+					if (!queue.isEmpty() && (oldest == null || queue.peekFirst().order < oldest.peekFirst().order)) {
+						oldest = queue;
+					}
+				}
+			}
+			if (oldest == null) {
+				return served;
+			}
+			final Waiter waiter = oldest.peekFirst();
+			final int seatIndex = seats.allocateCoachSeat(waiter.departure, waiter.arrival);
+			if (seatIndex < 0) {
+				if (exhausted == null) {
+					exhausted = new boolean[ranges.length];
+				}
+				exhausted[rangeIndex(waiter.departure, waiter.arrival)] = true;
+				continue;
+			}
+			oldest.pollFirst();
+			waiter.queued = false;
+			--waiting;
+			waiter.seatIndex = seatIndex;
+			if (served.isEmpty()) {
+				served = new ArrayList<>();
+			}
+			served.add(waiter);
+		}
+	}
+}
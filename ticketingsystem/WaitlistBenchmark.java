@@ -0,0 +1,90 @@
+package ticketingsystem;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sold-out route: buyers of whole trips wait for refunds that come one
+ * every refundInterval us, either polling inquiry and buying when it shows
+ * a seat, or queued on the waitlist with buyOrWait.
+ */
+public class WaitlistBenchmark {
+
+	private static void run(boolean waitlist, int buyers, int refunds, long refundInterval)
+			throws InterruptedException {
+		final int stationnum = ConfigReader.stationnum;
+		final TicketingDS ds = new TicketingDS(1, ConfigReader.coachnum, ConfigReader.seatnum, stationnum, buyers + 1,
+				ConfigReader.allocator);
+		final ArrayList<Ticket> sold = new ArrayList<>();
+		for (Ticket ticket; (ticket = ds.buyTicket("s", 1, 1, stationnum)) != null;) {
+			sold.add(ticket);
+		}
+		final AtomicInteger wanted = new AtomicInteger(refunds);
+		final AtomicLong inquiries = new AtomicLong();
+		final AtomicLong failedBuys = new AtomicLong();
+		// refund to ticket, summed over the tickets bought
+		final AtomicLong waited = new AtomicLong();
+		// [seat index], when its refund started; a buyer can only get a refunded seat
+		final long[] refundTimes = new long[ConfigReader.coachnum * ConfigReader.seatnum];
+
+		Thread[] threads = new Thread[buyers];
+		for (int t = 0; t < buyers; ++t) {
+			threads[t] = new Thread(() -> {
+				long myInquiries = 0;
+				long myFailedBuys = 0;
+				while (wanted.getAndDecrement() > 0) {
+					Ticket ticket;
+					if (waitlist) {
+						ticket = ds.buyOrWait("p", 1, 1, stationnum).join();
+					} else {
+						while ((ticket = ds.buyTicket("p", 1, 1, stationnum)) == null) {
+							++myFailedBuys;
+							do {
+								++myInquiries;
+							} while (ds.inquiry(1, 1, stationnum) == 0);
+						}
+					}
+					waited.addAndGet(System.nanoTime()
+							- refundTimes[(ticket.coach - 1) * ConfigReader.seatnum + ticket.seat - 1]);
+				}
+				inquiries.addAndGet(myInquiries);
+				failedBuys.addAndGet(myFailedBuys);
+			});
+			threads[t].start();
+		}
+		final long startTime = System.nanoTime();
+		for (int i = 0; i < refunds; ++i) {
+			LockSupport.parkNanos(refundInterval * 1000);
+			Ticket ticket = sold.get(i);
+			refundTimes[(ticket.coach - 1) * ConfigReader.seatnum + ticket.seat - 1] = System.nanoTime();
+			ds.refundTicket(ticket);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		final long time = System.nanoTime() - startTime;
+		System.out.println((waitlist ? "waitlist" : "polling") + ": " + refunds + " refunds in " + time / 1000_000
+				+ " ms, inquiries: " + inquiries.get() + ", failed buys: " + failedBuys.get()
+				+ ", avg refund to ticket: " + waited.get() / refunds / 1000.0 + " us");
+		ds.close();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 2 || args.length > 3) {
+			System.out.println("args: <buyers> <refunds> [<refundInterval us>]");
+			return;
+		}
+		final int buyers = Integer.parseInt(args[0]);
+		final int refunds = Integer.parseInt(args[1]);
+		final long refundInterval = args.length > 2 ? Long.parseLong(args[2]) : 100;
+		ConfigReader.readConfig("TrainConfig");
+		if (refunds > ConfigReader.coachnum * ConfigReader.seatnum) {
+			System.out.println("at most " + ConfigReader.coachnum * ConfigReader.seatnum + " refunds");
+			return;
+		}
+		run(false, buyers, refunds, refundInterval);
+		run(true, buyers, refunds, refundInterval);
+	}
+}
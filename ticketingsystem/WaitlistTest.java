@@ -0,0 +1,153 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+class WaitlistTest {
+	final int STATIONNUM = 5;
+
+	private TicketingDS soldOut(int seatnum, List<Ticket> sold) {
+		TicketingDS ds = new TicketingDS(1, 1, seatnum, STATIONNUM, 1, SeatAllocator.CELL, (Journal) null);
+		for (Ticket ticket; (ticket = ds.buyTicket("s", 1, 1, STATIONNUM)) != null;) {
+			sold.add(ticket);
+		}
+		return ds;
+	}
+
+	@Test
+	void servesOldestWaiterFirst() throws Exception {
+		List<Ticket> sold = new ArrayList<>();
+		TicketingDS ds = soldOut(2, sold);
+		CompletableFuture<Ticket> first = ds.buyOrWait("a", 1, 1, 3);
+		CompletableFuture<Ticket> second = ds.buyOrWait("b", 1, 2, 4);
+		CompletableFuture<Ticket> third = ds.buyOrWait("c", 1, 1, 3);
+		assertFalse(first.isDone() || second.isDone() || third.isDone());
+
+		assertTrue(ds.refundTicket(sold.get(0)));
+		Ticket ticket = first.get();
+		assertEquals("a", ticket.passenger);
+		assertEquals(sold.get(0).seat, ticket.seat);
+		// [3, 5) of the seat is still free, but [2, 4) overlaps a's [1, 3)
+		assertFalse(second.isDone());
+		assertEquals(1, ds.inquiry(1, 3, 5));
+
+		assertTrue(ds.refundTicket(ticket));
+		assertEquals("b", second.get().passenger);
+		assertFalse(third.isDone());
+		assertTrue(ds.refundTicket(sold.get(1)));
+		assertEquals("c", third.get().passenger);
+		assertTrue(ds.refundTicket(third.get()));
+		assertFalse(ds.refundTicket(third.get()));
+		assertEquals(1, ds.inquiry(1, 2, 4));
+		ds.close();
+	}
+
+	@Test
+	void servesOnlyOverlappingRanges() throws Exception {
+		List<Ticket> sold = new ArrayList<>();
+		TicketingDS ds = soldOut(1, sold);
+		assertTrue(ds.refundTicket(sold.get(0)));
+		Ticket front = ds.buyTicket("f", 1, 1, 2);
+		Ticket back = ds.buyTicket("b", 1, 3, 5);
+		CompletableFuture<Ticket> middle = ds.buyOrWait("m", 1, 2, 4);
+		assertTrue(ds.refundTicket(front));
+		assertFalse(middle.isDone());
+		// frees [3, 5), with [2, 3) free already the seat fits [2, 4)
+		assertTrue(ds.refundTicket(back));
+		assertEquals(2, middle.get().departure);
+		assertEquals(0, ds.inquiry(1, 3, 4));
+		ds.close();
+	}
+
+	@Test
+	void skipsWithdrawnWaiters() throws Exception {
+		List<Ticket> sold = new ArrayList<>();
+		TicketingDS ds = soldOut(1, sold);
+		CompletableFuture<Ticket> cancelled = ds.buyOrWait("a", 1, 1, 2);
+		CompletableFuture<Ticket> timedOut = ds.buyOrWait("b", 1, 1, 2).orTimeout(1, TimeUnit.MILLISECONDS);
+		CompletableFuture<Ticket> waiting = ds.buyOrWait("c", 1, 1, 2);
+		assertTrue(cancelled.cancel(false));
+		while (!timedOut.isDone()) {
+			Thread.sleep(1);
+		}
+		assertTrue(ds.refundTicket(sold.get(0)));
+		assertEquals("c", waiting.get().passenger);
+		assertNull(ds.buyOrWait("d", 2, 1, 2).get());
+		ds.close();
+	}
+
+	@Test
+	void withdrawnWaiterLeavesAtOnce() {
+		Waitlist waitlist = new Waitlist(STATIONNUM);
+		Waitlist.Waiter cancelled = new Waitlist.Waiter("a", 1, 2);
+		Waitlist.Waiter timedOut = new Waitlist.Waiter("b", 2, 3);
+		waitlist.add(cancelled);
+		waitlist.add(timedOut);
+		assertTrue(cancelled.future.cancel(false));
+		assertFalse(waitlist.isEmpty());
+		timedOut.future.completeExceptionally(new TimeoutException());
+		assertTrue(waitlist.isEmpty());
+	}
+
+	@Test
+	void servesReleasedHolds() throws Exception {
+		TicketingDS ds = new TicketingDS(1, 1, 1, STATIONNUM, 1, SeatAllocator.CELL, (Journal) null);
+		Hold hold = ds.hold(1, 1, STATIONNUM, 60_000);
+		CompletableFuture<Ticket> waiting = ds.buyOrWait("a", 1, 2, 3);
+		assertFalse(waiting.isDone());
+		assertTrue(ds.release(hold));
+		assertEquals("a", waiting.get().passenger);
+		ds.close();
+	}
+
+	@Test
+	void servesExpiredHolds() throws Exception {
+		TicketingDS ds = new TicketingDS(1, 1, 1, STATIONNUM, 1, SeatAllocator.CELL, (Journal) null);
+		Hold hold = ds.hold(1, 1, STATIONNUM, 30);
+		CompletableFuture<Ticket> waiting = ds.buyOrWait("a", 1, 2, 3);
+		assertEquals("a", waiting.get(5, TimeUnit.SECONDS).passenger);
+		assertEquals(Hold.EXPIRED, hold.state());
+		ds.close();
+	}
+
+	@Test
+	void handsEachRefundToOneWaiter() throws Exception {
+		final int seatnum = 50;
+		final int waiters = 200;
+		List<Ticket> sold = new ArrayList<>();
+		TicketingDS ds = soldOut(seatnum, sold);
+		List<CompletableFuture<Ticket>> futures = new ArrayList<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < waiters / threads.length; ++i) {
+					CompletableFuture<Ticket> future = ds.buyOrWait("w", 1, 1, STATIONNUM);
+					synchronized (futures) {
+						futures.add(future);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Ticket ticket : sold) {
+			assertTrue(ds.refundTicket(ticket));
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		int served = 0;
+		for (CompletableFuture<Ticket> future : futures) {
+			served += future.isDone() ? 1 : 0;
+		}
+		assertEquals(seatnum, served);
+		assertEquals(0, ds.inquiry(1, 1, STATIONNUM));
+		ds.close();
+	}
+}
@@ -0,0 +1,238 @@
+package ticketingsystem;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Request mix of the test harnesses: which operation, route and segment
+ * comes next. Without -Dticketingsystem.profile=<file> routes and segments
+ * are uniform and the ratios of TrainConfig apply, as they always did. A
+ * profile file makes route popularity Zipfian, favours end-to-end trips and
+ * short hops, and splits every thread's operations into phases with their
+ * own mix, e.g. a burst of buys on the hottest routes before a holiday.
+ */
+final class WorkloadProfile {
+	static final String PROPERTY = "ticketingsystem.profile";
+
+	static final int REFUND = 0;
+	static final int BUY = 1;
+	static final int INQUIRY = 2;
+
+	static final class Phase {
+		// share of a thread's operations up to the end of this phase, in percent
+		final int end;
+		final int refRatio;
+		final int buyRatio;
+		final int inqRatio;
+		final double zipf;
+		final int endToEnd;
+		final double meanLength;
+		private final int stationnum;
+		// cumulative route weights, null when routes are uniform
+		private final double[] routeCdf;
+		private final int routenum;
+
+		Phase(int end, int refRatio, int buyRatio, int inqRatio, double zipf, int endToEnd, double meanLength,
+				int routenum, int stationnum) {
+			if (refRatio < 0 || buyRatio < 0 || inqRatio < 0 || refRatio + buyRatio + inqRatio == 0) {
+				throw new IllegalArgumentException("bad operation ratios: " + refRatio + " " + buyRatio + " " + inqRatio);
+			}
+			if (zipf < 0 || endToEnd < 0 || endToEnd > 100 || meanLength < 0) {
+				throw new IllegalArgumentException("bad phase: zipf " + zipf + ", endToEnd " + endToEnd
+						+ ", length " + meanLength);
+			}
+			this.end = end;
+			this.refRatio = refRatio;
+			this.buyRatio = buyRatio;
+			this.inqRatio = inqRatio;
+			this.zipf = zipf;
+			this.endToEnd = endToEnd;
+			this.meanLength = meanLength;
+			this.routenum = routenum;
+			this.stationnum = stationnum;
+			if (zipf == 0) {
+				this.routeCdf = null;
+			} else {
+				this.routeCdf = new double[routenum];
+				double sum = 0;
+				for (int k = 0; k < routenum; ++k) {
+					routeCdf[k] = sum += Math.pow(k + 1, -zipf);
+				}
+				for (int k = 0; k < routenum; ++k) {
+					routeCdf[k] /= sum;
+				}
+			}
+		}
+
+		// REFUND, BUY or INQUIRY
+		int operation(Random rand) {
+			int value = rand.nextInt(refRatio + buyRatio + inqRatio);
+			return value < refRatio ? REFUND : value < refRatio + buyRatio ? BUY : INQUIRY;
+		}
+
+		// route k + 1 is the k-th most popular
+		int route(Random rand) {
+			if (routeCdf == null) {
+				return rand.nextInt(routenum) + 1;
+			}
+			int k = Arrays.binarySearch(routeCdf, rand.nextDouble());
+			return Math.min(k < 0 ? -k - 1 : k, routenum - 1) + 1;
+		}
+
+		/**
+		 * @return departure << 16 | arrival, see {@link #departure} and
+		 *         {@link #arrival}
+		 */
+		int segment(Random rand) {
+			if (endToEnd > 0 && rand.nextInt(100) < endToEnd) {
+				return 1 << 16 | stationnum;
+			}
+			if (meanLength == 0) {
+				int departure = rand.nextInt(stationnum - 1) + 1;
+				// arrival is always greater than departure
+				return departure << 16 | departure + rand.nextInt(stationnum - departure) + 1;
+			}
+			// geometric length with the given mean, redrawn when longer than the route
+			int length = stationnum;
+			while (length > stationnum - 1) {
+				length = meanLength <= 1 ? 1
+						: 1 + (int) (Math.log(1 - rand.nextDouble()) / Math.log(1 - 1 / meanLength));
+			}
+			int departure = rand.nextInt(stationnum - length) + 1;
+			return departure << 16 | departure + length;
+		}
+
+		@Override
+		public String toString() {
+			return "refundRatio: " + refRatio + ", buyRatio: " + buyRatio + ", inquiryRatio: " + inqRatio
+					+ ", zipf: " + zipf + ", endToEnd: " + endToEnd + "%, length: "
+					+ (meanLength == 0 ? "uniform" : meanLength);
+		}
+	}
+
+	static int departure(int segment) {
+		return segment >>> 16;
+	}
+
+	static int arrival(int segment) {
+		return segment & 0xffff;
+	}
+
+	private final Phase[] phases;
+
+	private WorkloadProfile(Phase[] phases) {
+		this.phases = phases;
+	}
+
+	static WorkloadProfile uniform(int routenum, int stationnum, int refRatio, int buyRatio, int inqRatio) {
+		return new WorkloadProfile(new Phase[] {
+				new Phase(100, refRatio, buyRatio, inqRatio, 0, 0, 0, routenum, stationnum) });
+	}
+
+	/**
+	 * The profile named by the ticketingsystem.profile property, uniform
+	 * with the given ratios when it is not set or the file is missing.
+	 */
+	static WorkloadProfile fromProperty(int routenum, int stationnum, int refRatio, int buyRatio, int inqRatio) {
+		String filename = System.getProperty(PROPERTY);
+		if (filename != null) {
+			try {
+				return load(filename, routenum, stationnum, refRatio, buyRatio, inqRatio);
+			} catch (FileNotFoundException e) {
+				System.out.println(e);
+			}
+		}
+		return uniform(routenum, stationnum, refRatio, buyRatio, inqRatio);
+	}
+
+	/**
+	 * Reads a profile file: zipf, endToEnd and length lines set the defaults,
+	 * every phase line adds a phase and may override them; without phase
+	 * lines the given ratios apply to all operations.
+	 */
+	static WorkloadProfile load(String filename, int routenum, int stationnum, int refRatio, int buyRatio,
+			int inqRatio) throws FileNotFoundException {
+		double zipf = 0;
+		int endToEnd = 0;
+		double meanLength = 0;
+		// percent, ratios and overrides of each phase line, resolved once the defaults are known
+		ArrayList<double[]> phaseLines = new ArrayList<>();
+		try (Scanner scanner = new Scanner(new File(filename))) {
+			while (scanner.hasNextLine()) {
+				String line = scanner.nextLine().trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				switch (fields[0]) {
+					case "zipf":
+						zipf = Double.parseDouble(fields[1]);
+						break;
+					case "endToEnd":
+						endToEnd = Integer.parseInt(fields[1]);
+						break;
+					case "length":
+						meanLength = Double.parseDouble(fields[1]);
+						break;
+					case "phase":
+						if (fields.length < 5 || fields.length > 8) {
+							throw new IllegalArgumentException("phase <percent> <refund> <buy> <inquiry> "
+									+ "[<zipf> [<endToEnd> [<length>]]]: " + line);
+						}
+						double[] phase = new double[fields.length - 1];
+						for (int i = 1; i < fields.length; ++i) {
+							phase[i - 1] = Double.parseDouble(fields[i]);
+						}
+						phaseLines.add(phase);
+						break;
+					default:
+						throw new IllegalArgumentException("unknown profile line: " + line);
+				}
+			}
+		}
+		if (phaseLines.isEmpty()) {
+			return new WorkloadProfile(new Phase[] {
+					new Phase(100, refRatio, buyRatio, inqRatio, zipf, endToEnd, meanLength, routenum, stationnum) });
+		}
+		Phase[] phases = new Phase[phaseLines.size()];
+		int end = 0;
+		for (int i = 0; i < phases.length; ++i) {
+			double[] line = phaseLines.get(i);
+			end += (int) line[0];
+			phases[i] = new Phase(end, (int) line[1], (int) line[2], (int) line[3],
+					line.length > 4 ? line[4] : zipf, line.length > 5 ? (int) line[5] : endToEnd,
+					line.length > 6 ? line[6] : meanLength, routenum, stationnum);
+		}
+		if (end != 100) {
+			throw new IllegalArgumentException("phases cover " + end + "% of the operations, not 100%");
+		}
+		return new WorkloadProfile(phases);
+	}
+
+	// the phase operation op of testnum falls into
+	Phase phase(int op, int testnum) {
+		long percent = op * 100L / Math.max(testnum, 1);
+		for (Phase phase : phases) {
+			if (percent < phase.end) {
+				return phase;
+			}
+		}
+		return phases[phases.length - 1];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		int begin = 0;
+		for (Phase phase : phases) {
+			sb.append(sb.length() == 0 ? "" : "\n").append("phase ").append(begin).append("-").append(phase.end)
+					.append("%: ").append(phase);
+			begin = phase.end;
+		}
+		return sb.toString();
+	}
+}
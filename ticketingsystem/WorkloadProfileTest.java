@@ -0,0 +1,77 @@
+package ticketingsystem;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class WorkloadProfileTest {
+
+	@Test
+	void uniformDrawsLikeTheHarnessesDid() {
+		WorkloadProfile.Phase phase = WorkloadProfile.uniform(5, 10, 10, 30, 60).phase(0, 1);
+		Random rand = new Random(1);
+		Random expected = new Random(1);
+		for (int i = 0; i < 10_000; ++i) {
+			assertEquals(expected.nextInt(5) + 1, phase.route(rand));
+			int departure = expected.nextInt(9) + 1;
+			int arrival = departure + expected.nextInt(10 - departure) + 1;
+			int segment = phase.segment(rand);
+			assertEquals(departure, WorkloadProfile.departure(segment));
+			assertEquals(arrival, WorkloadProfile.arrival(segment));
+		}
+	}
+
+	@Test
+	void skewedRoutesAndSegments() throws IOException {
+		File file = File.createTempFile("profile", "");
+		try {
+			Files.writeString(file.toPath(), "# test\nzipf 1.5\nendToEnd 50\nlength 3\n");
+			WorkloadProfile.Phase phase = WorkloadProfile.load(file.getPath(), 50, 30, 10, 30, 60).phase(0, 1);
+			Random rand = new Random(2);
+			int[] routes = new int[51];
+			int endToEnd = 0;
+			for (int i = 0; i < 100_000; ++i) {
+				++routes[phase.route(rand)];
+				int segment = phase.segment(rand);
+				int departure = WorkloadProfile.departure(segment);
+				int arrival = WorkloadProfile.arrival(segment);
+				assertTrue(departure >= 1 && departure < arrival && arrival <= 30, departure + "-" + arrival);
+				if (departure == 1 && arrival == 30) {
+					++endToEnd;
+				}
+			}
+			assertEquals(0, routes[0]);
+			// 1 / 2^1.5 of the hottest route's traffic goes to the second one
+			assertEquals(1 / Math.pow(2, 1.5), (double) routes[2] / routes[1], 0.05);
+			assertTrue(routes[1] > 10 * routes[50]);
+			assertEquals(50_000, endToEnd, 1_000);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	void phasesFollowEachOther() throws IOException {
+		File file = File.createTempFile("profile", "");
+		try {
+			Files.writeString(file.toPath(), "phase 60 0 100 0\nphase 40 0 0 100 2\n");
+			WorkloadProfile profile = WorkloadProfile.load(file.getPath(), 3, 5, 10, 30, 60);
+			Random rand = new Random(3);
+			for (int op = 0; op < 1000; ++op) {
+				WorkloadProfile.Phase phase = profile.phase(op, 1000);
+				assertEquals(op < 600 ? WorkloadProfile.BUY : WorkloadProfile.INQUIRY, phase.operation(rand));
+				assertEquals(op < 600 ? 0 : 2, phase.zipf);
+			}
+
+			Files.writeString(file.toPath(), "phase 60 0 100 0\n");
+			assertThrows(IllegalArgumentException.class, () -> WorkloadProfile.load(file.getPath(), 3, 5, 10, 30, 60));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -1,5 +1,8 @@
 #!/bin/sh
 
 javac -encoding UTF-8 -cp . ticketingsystem/GenerateHistory.java
+javac -encoding UTF-8 -cp . ticketingsystem/LinearizabilityChecker.java
 java -cp . ticketingsystem/GenerateHistory 4 1000 1 0 0 > history
-java -Xss1024m -Xmx400g -jar VeriLin.jar 4 history 1 failedHistory
+java -cp . ticketingsystem/LinearizabilityChecker history failedHistory
+# the external checker, for comparison on small histories:
+# java -Xss1024m -Xmx400g -jar VeriLin.jar 4 history 1 failedHistory